@@ -23,6 +23,8 @@ public class OfflineTests extends ApplicationTest {
         // With the WiFi on, create the new user and add a request. These get put up on elastic search.
         WifiManager wifiManager = (WifiManager) getContext().getSystemService(Context.WIFI_SERVICE);
         wifiManager.setWifiEnabled(true);
+        // The internet check is cached, listen for the wifi changes these tests make
+        ConnectionChecker.startMonitoring(getContext());
         Thread.sleep(1000);
         //TODO: ask why this doesn't work, the tests can pass without them however
 //        if (uc.findUser(offlineTestUser.getUsername()) == null) {
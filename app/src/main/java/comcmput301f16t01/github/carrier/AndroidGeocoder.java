@@ -0,0 +1,61 @@
+package comcmput301f16t01.github.carrier;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import org.osmdroid.bonuspack.location.GeocoderNominatim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geocodes with the phone's geocoder (points to addresses) and Nominatim (addresses to points),
+ * one geocoder of each kind for the whole app.
+ * @see GeocodingService
+ */
+public class AndroidGeocoder implements GeocodingService.Backend {
+    private final Geocoder geocoder;
+    private final GeocoderNominatim nominatim;
+
+    public AndroidGeocoder(Context context) {
+        geocoder = new Geocoder(context);
+        nominatim = new GeocoderNominatim("");
+    }
+
+    /**
+     * @return The address lines of the first address at the point, one per line, or "" if
+     *         there is none.
+     */
+    // see code attribution
+    @Override
+    public String reverse(double latitude, double longitude) throws IOException {
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+        if (addresses == null || addresses.isEmpty()) {
+            return "";
+        }
+        Address address = addresses.get(0);
+        StringBuilder sb = new StringBuilder();
+        int n = address.getMaxAddressLineIndex();
+        for(int i = 0; i <= n; i++) {
+            if(i != 0) {
+                sb.append("\n");
+            }
+            sb.append(address.getAddressLine(i));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public List<GeocodingService.Place> forward(String address, int maxResults) throws IOException {
+        List<GeocodingService.Place> places = new ArrayList<>();
+        List<Address> addresses = nominatim.getFromLocationName(address, maxResults);
+        if (addresses != null) {
+            for (Address found : addresses) {
+                places.add(new GeocodingService.Place(found.getLatitude(), found.getLongitude(), null));
+            }
+        }
+        return places;
+    }
+}
@@ -1,16 +1,31 @@
 package comcmput301f16t01.github.carrier;
 
+import android.os.Handler;
+import android.os.Looper;
+
 import com.searchly.jestdroid.DroidClientConfig;
 import com.searchly.jestdroid.JestClientFactory;
 import com.searchly.jestdroid.JestDroidClient;
 
+import java.util.concurrent.Executor;
+
 /**
  * Superclass for all Elastic Controllers that implements the connection to the elastic search server
  * for getting, posting, deleting, etc. in the child classes.
+ * All of the controllers' tasks run on one shared ElasticExecutor.
+ * @see ElasticExecutor
  */
 public class ElasticController {
     protected static JestDroidClient client;
 
+    /** How many elastic search operations may run at the same time. */
+    private static final int WORKER_THREADS = 4;
+
+    private static ElasticExecutor executor = null;
+
+    /** Changes to elastic search documents are made one at a time, in the order they were asked for. */
+    private static Executor writeExecutor = null;
+
     /** Sets up the client to be used for Elastic Search */
     protected static void verifySettings() {
         if (client == null) {
@@ -23,4 +38,41 @@ public class ElasticController {
             client = (JestDroidClient) factory.getObject();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The shared executor for elastic search operations. Callbacks are delivered on the
+     * UI thread.
+     */
+    public static synchronized ElasticExecutor getElasticExecutor() {
+        if (executor == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            executor = new ElasticExecutor(WORKER_THREADS, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Use with AsyncTask.executeOnExecutor(...) to run a read-only task on the shared pool.
+     * @param priority How urgent the task is.
+     */
+    public static Executor getExecutor(ElasticExecutor.Priority priority) {
+        return getElasticExecutor().asExecutor(priority);
+    }
+
+    /**
+     * Use with AsyncTask.executeOnExecutor(...) to run a task that changes documents in elastic
+     * search. These tasks run one at a time in order so that, for example, a request is never marked
+     * COMPLETE after it was marked PAID.
+     */
+    public static synchronized Executor getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = getElasticExecutor().serialExecutor(ElasticExecutor.Priority.NORMAL);
+        }
+        return writeExecutor;
+    }
+}
@@ -0,0 +1,236 @@
+package comcmput301f16t01.github.carrier;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Runs the operations of all the elastic controllers on one bounded pool of worker threads.
+ * Waiting operations are started by priority, and in the order they were submitted within a
+ * priority, so a search the user is waiting on is not stuck behind background refreshes.</p>
+ * </br>
+ * <p>Operations can be submitted with a callback (delivered on the callback executor, which is the
+ * UI thread in the app) and return a Future that can be waited on or cancelled. AsyncTasks can run
+ * on the pool through asExecutor(priority) or, when they must run one at a time in order (writes to
+ * the same documents), through serialExecutor(priority).</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @see ElasticController#getExecutor(Priority)
+ */
+public class ElasticExecutor {
+    /** The order in which waiting operations are started, most urgent first. */
+    public enum Priority {
+        /** The user is waiting on the result (searches, log in, opening a profile). */
+        INTERACTIVE,
+        /** Changes the user has made (adding requests, offers, notifications). */
+        NORMAL,
+        /** Refreshes that nobody is waiting on (swipe-refresh, notification polling). */
+        BACKGROUND
+    }
+
+    /**
+     * Called once an operation has finished, on the callback executor.
+     * @param <T> The type of result the operation produces.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+        void onFailure(Throwable error);
+    }
+
+    /** How long idle worker threads are kept alive, in seconds. */
+    private static final long KEEP_ALIVE = 30;
+
+    private final ThreadPoolExecutor pool;
+    private final Executor callbackExecutor;
+
+    /** Breaks ties between operations of the same priority so they start first come first serve. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param threads The most operations that may run at the same time.
+     * @param callbackExecutor Where callbacks are delivered (i.e. the UI thread).
+     */
+    public ElasticExecutor(int threads, Executor callbackExecutor) {
+        if (threads < 1) {
+            throw new IllegalArgumentException( "There must be at least one worker thread." );
+        }
+        this.callbackExecutor = callbackExecutor;
+        this.pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new WorkerFactory());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues an operation on the pool.
+     *
+     * @param priority How urgent the operation is.
+     * @param operation The work to do on a worker thread.
+     * @param callback Told about the result or failure of the operation, may be null.
+     * @return A future that can be waited on or cancelled (cancelled operations never call back).
+     */
+    public <T> Future<T> submit(Priority priority, Callable<T> operation, Callback<T> callback) {
+        PrioritizedTask<T> task = new PrioritizedTask<>(priority, operation, callback);
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * @return An executor that queues everything given to it on the pool with the given priority.
+     * Used to run AsyncTasks with AsyncTask.executeOnExecutor(...).
+     */
+    public Executor asExecutor(final Priority priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pool.execute(new PrioritizedTask<Void>(priority, command));
+            }
+        };
+    }
+
+    /**
+     * @return An executor that runs everything given to it one at a time, in the order it was
+     * given, on the pool with the given priority. Each call returns a new independent lane.
+     */
+    public Executor serialExecutor(Priority priority) {
+        return new SerialLane(priority);
+    }
+
+    /** @return The number of operations waiting for a free worker thread. */
+    public int getQueuedCount() {
+        return pool.getQueue().size();
+    }
+
+    /** Stops accepting operations, waiting ones are still run. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * A task that knows its priority so that the pool's queue can order it.
+     */
+    private class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        private final Priority priority;
+        private final long order = sequence.getAndIncrement();
+        private final Callback<T> callback;
+
+        PrioritizedTask(Priority priority, Callable<T> operation, Callback<T> callback) {
+            super(operation);
+            this.priority = priority;
+            this.callback = callback;
+        }
+
+        PrioritizedTask(Priority priority, Runnable command) {
+            super(command, null);
+            this.priority = priority;
+            this.callback = null;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                pool.remove(this); // do not hold a queue slot for work that will never run
+            }
+            return cancelled;
+        }
+
+        /** Delivers the result to the callback once the operation is done. */
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            T result = null;
+            Throwable error = null;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (InterruptedException e) {
+                error = e;
+            }
+            final T finalResult = result;
+            final Throwable finalError = error;
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (finalError == null) {
+                        callback.onSuccess(finalResult);
+                    } else {
+                        callback.onFailure(finalError);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs its commands one after another on the pool. Only the command at the head of the lane is
+     * ever queued on the pool, the next one is queued when it finishes.
+     */
+    private class SerialLane implements Executor {
+        private final Priority priority;
+        private final ArrayDeque<Runnable> commands = new ArrayDeque<>();
+        private boolean active = false;
+
+        SerialLane(Priority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable command) {
+            commands.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (!active) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            Runnable next = commands.poll();
+            active = next != null;
+            if (active) {
+                pool.execute(new PrioritizedTask<Void>(priority, next));
+            }
+        }
+    }
+
+    /** Names the worker threads and keeps them from holding the process open. */
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ElasticExecutor #" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package comcmput301f16t01.github.carrier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the JSON bodies sent to elastic search (queries with paging and sorting, and partial
+ * document updates) instead of pasting values into strings. Every value is escaped as it is
+ * written, so user input such as a username with a quote in it can never change the query.
+ * </br>
+ * Queries that are run often should be built once and compiled into a Template, using param()
+ * wherever a value goes. Rendering a template only copies the precompiled JSON around the escaped
+ * values into a buffer that is reused by the calling thread.
+ * <pre>
+ *     Template findUser = new ElasticQuery()
+ *             .size(1)
+ *             .query(ElasticQuery.match("username", ElasticQuery.param("username")))
+ *             .compile("username");
+ *     String query = findUser.render(username);
+ * </pre>
+ * @see ElasticController
+ */
+public class ElasticQuery {
+    private Object from = null;
+    private Object size = null;
+    private Clause query = null;
+    private List<Clause> sorts = null;
+
+    /** Sets the position of the first hit to return. */
+    public ElasticQuery from(int from) {
+        this.from = from;
+        return this;
+    }
+
+    /** Sets the position of the first hit to a param, for templates that are rendered a page at a time. */
+    public ElasticQuery from(Param from) {
+        this.from = from;
+        return this;
+    }
+
+    /** Sets the most hits to return. */
+    public ElasticQuery size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /** Sets the most hits to return to a param, for templates that are rendered with a page size. */
+    public ElasticQuery size(Param size) {
+        this.size = size;
+        return this;
+    }
+
+    public ElasticQuery query(Clause query) {
+        this.query = query;
+        return this;
+    }
+
+    /** Adds a sort on a field, sorts are applied in the order they are added. */
+    public ElasticQuery sort(String field, boolean ascending) {
+        return sort(object().put(field, object().put("order", ascending ? "asc" : "desc")));
+    }
+
+    /** Adds a sort, such as geoDistanceSort(...). */
+    public ElasticQuery sort(Clause sort) {
+        if (sorts == null) {
+            sorts = new ArrayList<>();
+        }
+        sorts.add(sort);
+        return this;
+    }
+
+    /** @return The query as JSON, it must not contain any param(). */
+    public String toJson() {
+        return JsonBuffer.forThread().write(toClause()).toString();
+    }
+
+    /**
+     * Compiles the query into a template, to be rendered with values for the given parameters.
+     * @param parameterNames The names of every param() in the query, in the order their values
+     *                       will be given to Template.render(...).
+     */
+    public Template compile(String... parameterNames) {
+        return toClause().compile(parameterNames);
+    }
+
+    private Clause toClause() {
+        Clause body = object();
+        if (from != null) {
+            body.put("from", from);
+        }
+        if (size != null) {
+            body.put("size", size);
+        }
+        if (query != null) {
+            body.put("query", query);
+        }
+        if (sorts != null) {
+            body.put("sort", sorts);
+        }
+        return body;
+    }
+
+    /** @return An empty JSON object, to build any body the other helpers do not cover. */
+    public static Clause object() {
+        return new Clause();
+    }
+
+    /** @return A placeholder for a value given when a compiled Template is rendered. */
+    public static Param param(String name) {
+        return new Param(name);
+    }
+
+    public static Bool bool() {
+        return new Bool();
+    }
+
+    /** { "match": { field: value } } */
+    public static Clause match(String field, Object value) {
+        return object().put("match", object().put(field, value));
+    }
+
+    /** { "multi_match": { "query": value, "fields": [ fields ] } } */
+    public static Clause multiMatch(Object value, String... fields) {
+        return object().put("multi_match", object()
+                .put("query", value)
+                .put("fields", Arrays.asList(fields)));
+    }
+
+    /**
+     * { "terms": { field: [ values ] } }
+     * @param values A collection or array of values, or a param() that will be one.
+     */
+    public static Clause terms(String field, Object values) {
+        return object().put("terms", object().put(field, values));
+    }
+
+    /**
+     * { "ids": { "values": [ ids ] } }
+     * @param ids A collection or array of document IDs, or a param() that will be one.
+     */
+    public static Clause ids(Object ids) {
+        return object().put("ids", object().put("values", ids));
+    }
+
+    /** { "exists": { "field": field } }, matches documents that have a value for the field. */
+    public static Clause exists(String field) {
+        return object().put("exists", object().put("field", field));
+    }
+
+    /** { "range": { field: { ... } } }, bounded with gt(), gte(), lt() and lte(). */
+    public static Range range(String field) {
+        return new Range(field);
+    }
+
+    /**
+     * { "geo_distance": { "distance": "(km)km", field: [ longitude, latitude ] } }
+     * @param field A geo_point field.
+     * @param km How far from the point to match, in kilometres.
+     */
+    public static Clause geoDistance(String field, double km, Object latitude, Object longitude) {
+        return object().put("geo_distance", object()
+                .put("distance", km + "km")
+                .put(field, Arrays.asList(longitude, latitude)));
+    }
+
+    /** A sort by distance from a point (closest first), in km. */
+    public static Clause geoDistanceSort(String field, Object latitude, Object longitude) {
+        return object().put("_geo_distance", object()
+                .put(field, Arrays.asList(longitude, latitude))
+                .put("order", "asc")
+                .put("unit", "km")
+                .put("distance_type", "plane"));
+    }
+
+    /** { "doc": fields }, the body of a partial document update. */
+    public static Clause doc(Clause fields) {
+        return object().put("doc", fields);
+    }
+
+    /**
+     * A JSON object. Values may be strings, numbers, booleans, enums (written by name), null,
+     * collections or arrays (written as arrays), other clauses, or params.
+     */
+    public static class Clause {
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+
+        public Clause put(String key, Object value) {
+            fields.put(key, value);
+            return this;
+        }
+
+        /** @return The clause as JSON, it must not contain any param(). */
+        public String toJson() {
+            return JsonBuffer.forThread().write(this).toString();
+        }
+
+        /** @see ElasticQuery#compile(String...) */
+        public Template compile(String... parameterNames) {
+            JsonBuffer buffer = new JsonBuffer(Arrays.asList(parameterNames));
+            buffer.write(this);
+            return buffer.toTemplate();
+        }
+
+        Object get(String key) {
+            return fields.get(key);
+        }
+
+        void write(JsonBuffer out) {
+            out.beginObject();
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                out.name(field.getKey());
+                out.value(field.getValue());
+            }
+            out.endObject();
+        }
+    }
+
+    /** { "bool": { "must": [...], "filter": [...], "should": [...], "must_not": [...] } } */
+    public static class Bool extends Clause {
+        private final Clause body = new Clause();
+
+        private Bool() {
+            put("bool", body);
+        }
+
+        public Bool must(Clause clause) {
+            return add("must", clause);
+        }
+
+        /** Like must, but does not affect scoring (and can be cached by elastic search). */
+        public Bool filter(Clause clause) {
+            return add("filter", clause);
+        }
+
+        public Bool should(Clause clause) {
+            return add("should", clause);
+        }
+
+        public Bool mustNot(Clause clause) {
+            return add("must_not", clause);
+        }
+
+        public Bool minimumShouldMatch(int minimum) {
+            body.put("minimum_should_match", minimum);
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Bool add(String occurrence, Clause clause) {
+            List<Clause> clauses = (List<Clause>) body.get(occurrence);
+            if (clauses == null) {
+                clauses = new ArrayList<>();
+                body.put(occurrence, clauses);
+            }
+            clauses.add(clause);
+            return this;
+        }
+    }
+
+    /** { "range": { field: { "gt": ..., "lte": ... } } } */
+    public static class Range extends Clause {
+        private final Clause bounds = new Clause();
+
+        private Range(String field) {
+            put("range", object().put(field, bounds));
+        }
+
+        public Range gt(Object value) {
+            bounds.put("gt", value);
+            return this;
+        }
+
+        public Range gte(Object value) {
+            bounds.put("gte", value);
+            return this;
+        }
+
+        public Range lt(Object value) {
+            bounds.put("lt", value);
+            return this;
+        }
+
+        public Range lte(Object value) {
+            bounds.put("lte", value);
+            return this;
+        }
+    }
+
+    /** A named placeholder in a query, filled in when its Template is rendered. */
+    public static final class Param {
+        private final String name;
+
+        private Param(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("A param needs a name.");
+            }
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * A query compiled once into the JSON around its params. Templates are immutable and can be
+     * shared between threads.
+     */
+    public static final class Template {
+        /** The JSON before each param, and after the last one. */
+        private final String[] segments;
+
+        /** For each param in the JSON (in order), the index of its value given to render(...). */
+        private final int[] slots;
+
+        private final String[] parameterNames;
+
+        private Template(String[] segments, int[] slots, String[] parameterNames) {
+            this.segments = segments;
+            this.slots = slots;
+            this.parameterNames = parameterNames;
+        }
+
+        /**
+         * @param values The values of the params, in the order their names were given to compile.
+         * @return The JSON of the query with the values in place.
+         */
+        public String render(Object... values) {
+            if (values.length != parameterNames.length) {
+                throw new IllegalArgumentException("Expected values for " + Arrays.toString(parameterNames)
+                        + " but got " + values.length + " value(s).");
+            }
+            JsonBuffer out = JsonBuffer.forThread();
+            for (int i = 0; i < slots.length; i++) {
+                out.raw(segments[i]);
+                out.param(values[slots[i]]);
+            }
+            out.raw(segments[slots.length]);
+            return out.toString();
+        }
+    }
+
+    /**
+     * Writes JSON into a StringBuilder, keeping track of where commas go. Each thread reuses its
+     * own buffer, so building a query does not grow a new one every time.
+     */
+    static final class JsonBuffer {
+        /** A thread's buffer is replaced rather than kept if a query made it grow past this. */
+        private static final int MAX_REUSED_CAPACITY = 16 * 1024;
+
+        private static final ThreadLocal<JsonBuffer> BUFFERS = new ThreadLocal<JsonBuffer>() {
+            @Override
+            protected JsonBuffer initialValue() {
+                return new JsonBuffer(null);
+            }
+        };
+
+        private StringBuilder out = new StringBuilder(256);
+
+        /** Whether the next value in the current object or array needs a comma before it. */
+        private boolean needsComma = false;
+
+        /** Set when compiling a template, the names of its params. */
+        private final List<String> parameterNames;
+        private final List<String> segments = new ArrayList<>();
+        private final List<Integer> slots = new ArrayList<>();
+
+        private JsonBuffer(List<String> parameterNames) {
+            this.parameterNames = parameterNames;
+        }
+
+        /** @return The calling thread's buffer, emptied. */
+        static JsonBuffer forThread() {
+            JsonBuffer buffer = BUFFERS.get();
+            if (buffer.out.capacity() > MAX_REUSED_CAPACITY) {
+                buffer.out = new StringBuilder(256);
+            }
+            buffer.out.setLength(0);
+            buffer.needsComma = false;
+            return buffer;
+        }
+
+        JsonBuffer write(Clause clause) {
+            value(clause);
+            return this;
+        }
+
+        void beginObject() {
+            comma();
+            out.append('{');
+            needsComma = false;
+        }
+
+        void endObject() {
+            out.append('}');
+            needsComma = true;
+        }
+
+        void name(String name) {
+            comma();
+            string(name);
+            out.append(':');
+            needsComma = false;
+        }
+
+        void value(Object value) {
+            if (value instanceof Clause) {
+                ((Clause) value).write(this);
+                return;
+            }
+            comma();
+            if (value instanceof Param) {
+                addSlot((Param) value);
+            } else {
+                literal(value);
+            }
+            needsComma = true;
+        }
+
+        /** Appends JSON that is already known to be valid. */
+        void raw(String json) {
+            out.append(json);
+        }
+
+        /** Writes the value of a param while rendering a template. */
+        void param(Object value) {
+            if (value instanceof Param) {
+                throw new IllegalArgumentException("The value of a param cannot be another param.");
+            }
+            needsComma = false;
+            value(value);
+        }
+
+        private void comma() {
+            if (needsComma) {
+                out.append(',');
+            }
+        }
+
+        private void addSlot(Param param) {
+            if (parameterNames == null) {
+                throw new IllegalStateException("The query has a param (" + param.getName()
+                        + "), compile it into a Template and render that instead.");
+            }
+            int slot = parameterNames.indexOf(param.getName());
+            if (slot == -1) {
+                throw new IllegalArgumentException("The param " + param.getName()
+                        + " was not named when the query was compiled.");
+            }
+            segments.add(out.toString());
+            out.setLength(0);
+            slots.add(slot);
+        }
+
+        private void literal(Object value) {
+            if (value == null) {
+                out.append("null");
+            } else if (value instanceof String) {
+                string((String) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                if (Double.isNaN(number) || Double.isInfinite(number)) {
+                    throw new IllegalArgumentException("JSON has no " + number);
+                }
+                out.append(number);
+            } else if (value instanceof Number) {
+                out.append(((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                out.append(((Boolean) value).booleanValue());
+            } else if (value instanceof Enum) {
+                string(((Enum<?>) value).name());
+            } else if (value instanceof Collection) {
+                array(((Collection<?>) value).toArray());
+            } else if (value instanceof Object[]) {
+                array((Object[]) value);
+            } else {
+                string(value.toString());
+            }
+        }
+
+        private void array(Object[] values) {
+            out.append('[');
+            needsComma = false;
+            for (Object value : values) {
+                value(value);
+            }
+            out.append(']');
+        }
+
+        /** Writes a quoted and escaped JSON string. */
+        private void string(String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                            String hex = Integer.toHexString(c);
+                            out.append("\\u");
+                            for (int pad = hex.length(); pad < 4; pad++) {
+                                out.append('0');
+                            }
+                            out.append(hex);
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+
+        private Template toTemplate() {
+            String[] names = parameterNames.toArray(new String[parameterNames.size()]);
+            String[] allSegments = new String[segments.size() + 1];
+            segments.toArray(allSegments);
+            allSegments[segments.size()] = out.toString();
+            int[] slotArray = new int[slots.size()];
+            for (int i = 0; i < slotArray.length; i++) {
+                slotArray[i] = slots.get(i);
+            }
+            return new Template(allSegments, slotArray, names);
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package comcmput301f16t01.github.carrier;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>The values of a cache by key: at most maxEntries of them, dropping the least recently used
+ * first, each until the time it expires. It counts hits, misses, evictions and expirations for
+ * the cache using it.</p>
+ * </br>
+ * <p>It is not synchronized, the cache using it locks around it. The time is passed in (from the
+ * cache's now()) so tests can control it. A value may be null (i.e. to remember that a user was
+ * not found), getEntry tells those apart from values that are not cached.</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @see comcmput301f16t01.github.carrier.Requests.SearchCache
+ * @see comcmput301f16t01.github.carrier.Users.UserCache
+ * @see GeocodingService
+ * @see RouteCache
+ */
+public class ExpiringLruCache<V> {
+    /** A cached value and when it expires. */
+    public static final class Entry<V> {
+        private final V value;
+        private final long expires;
+
+        private Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /** @return When the value expires, in milliseconds. */
+        public long getExpires() {
+            return expires;
+        }
+    }
+
+    private final int maxEntries;
+
+    /** The entries by key, ordered by access so the eldest is the least recently used. */
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+    private int hits = 0;
+    private int misses = 0;
+    private int evictions = 0;
+    private int expirations = 0;
+
+    /** @param maxEntries How many values to keep at most. */
+    public ExpiringLruCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks a key up, counting it as a hit or a miss.
+     * @return The entry for the key, or null if there is none (or it has expired).
+     */
+    public Entry<V> getEntry(String key, long now) {
+        Entry<V> entry = peekEntry(key, now);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /** @return The value for the key, or null if there is none (or it has expired). */
+    public V get(String key, long now) {
+        Entry<V> entry = getEntry(key, now);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Looks a key up without counting it as a hit or a miss.
+     * @return The entry for the key, or null if there is none (or it has expired).
+     */
+    public Entry<V> peekEntry(String key, long now) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expires < now) {
+            entries.remove(key);
+            expirations++;
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches a value, as the most recently used.
+     * @param expires When the value expires, in milliseconds.
+     */
+    public void put(String key, V value, long expires) {
+        entries.put(key, new Entry<>(value, expires));
+    }
+
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /** Drops the values that have expired. */
+    public void removeExpired(long now) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expires < now) {
+                iterator.remove();
+                expirations++;
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return A copy of the values by key, least recently used first (i.e. to save them, putting
+     * them back in that order keeps it). Does not change the order.
+     */
+    public LinkedHashMap<String, V> toMap() {
+        LinkedHashMap<String, V> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry<V>> entry : entries.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().value);
+        }
+        return copy;
+    }
+
+    /** @return How many lookups found a value. */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /** @return How many lookups found nothing. */
+    public int getMissCount() {
+        return misses;
+    }
+
+    /** @return How many values were dropped to make room for newer ones. */
+    public int getEvictionCount() {
+        return evictions;
+    }
+
+    /** @return How many values were dropped for being too old. */
+    public int getExpirationCount() {
+        return expirations;
+    }
+
+    /** @return The fraction of lookups that found a value. */
+    public double getHitRate() {
+        int total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,81 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+
+/**
+ * <p>Keeps a copy of something (i.e. the values of a cache) in a file as JSON. Each save writes
+ * a temporary file and then moves it over the old one, so a save that is cut off leaves the last
+ * one whole. Saves do not overlap, and each takes its copy only once the one before is written,
+ * so the file never goes back to an older copy.</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @see GeocodingService
+ * @see RouteCache
+ */
+public class FileSnapshot<T> {
+    /** Gives the copy to save. */
+    public interface Source<T> {
+        T snapshot();
+    }
+
+    private final File file;
+    private final Type type;
+
+    /**
+     * @param file The file to keep the copy in.
+     * @param type The type of the copy, i.e. from a TypeToken.
+     */
+    public FileSnapshot(File file, Type type) {
+        this.file = file;
+        this.type = type;
+    }
+
+    /** @return The copy saved in the file, or null if there is none (or it could not be read). */
+    public T read() {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                return new Gson().fromJson(in, type);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            // A broken file only costs what was saved in it
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Saves a copy taken from the source, on the calling thread. */
+    public synchronized void write(Source<T> source) {
+        T snapshot = source.snapshot();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+            try {
+                new Gson().toJson(snapshot, type, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package comcmput301f16t01.github.carrier;
+
+import android.content.Context;
+
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns geo points into addresses and addresses into geo points, remembering the answers in a
+ * file so the same point is never geocoded twice (geocoders take seconds to answer and may not
+ * answer at all while offline).
+ * </br>
+ * Points are remembered rounded to 4 decimal places (about 10 meters), and address searches
+ * ignoring case and spacing. Points geocoded together (i.e. the start and end of every request
+ * made offline) are looked up once each and saved to the file once. Only one lookup of a point or
+ * an address runs at a time, a thread asking for one that is already being looked up waits for
+ * it instead.
+ * </br>
+ * The geocoder itself is a Backend, so tests can use a stub instead of the network.
+ * @see AndroidGeocoder
+ * @see ExpiringLruCache
+ */
+public class GeocodingService {
+    /** A point on the globe and its address (null if it has not been looked up). */
+    public static class Place {
+        private double latitude;
+        private double longitude;
+        private String address;
+
+        public Place(double latitude, double longitude, String address) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.address = address;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+    }
+
+    /** Does the geocoding, on the calling thread. */
+    public interface Backend {
+        /** @return The address at the point, or "" if there is none. */
+        String reverse(double latitude, double longitude) throws IOException;
+
+        /** @return Up to maxResults places matching the address, best match first. */
+        List<Place> forward(String address, int maxResults) throws IOException;
+    }
+
+    /** The name of the file the app remembers geocoding answers in. */
+    public static final String CACHE_FILENAME = "Geocoding.sav";
+
+    /** How many answers to remember at most, the least recently used are dropped first. */
+    private static final int MAX_ENTRIES = 1000;
+
+    /** How long an answer is remembered, addresses rarely change. */
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    private static GeocodingService instance = null;
+
+    /**
+     * @param context Any context, the application context is used.
+     * @return The geocoding service of the app, geocoding with the phone's geocoder.
+     */
+    public static synchronized GeocodingService getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            if (appContext == null) {
+                appContext = context; // i.e. the system context in tests
+            }
+            instance = new GeocodingService(new AndroidGeocoder(appContext),
+                    new File(appContext.getFilesDir(), CACHE_FILENAME));
+        }
+        return instance;
+    }
+
+    /** Replaces the geocoding service of the app (i.e. with a stub backend in tests). */
+    public static synchronized void setInstance(GeocodingService service) {
+        instance = service;
+    }
+
+    private final Backend backend;
+
+    /** Where the answers are saved, null to only remember them in memory. */
+    private final FileSnapshot<LinkedHashMap<String, Entry>> cacheFile;
+
+    /** The answers by key. */
+    private final ExpiringLruCache<Entry> entries = new ExpiringLruCache<>(MAX_ENTRIES);
+
+    /** The lookups running, by key. */
+    private final Map<String, Lookup> lookups = new HashMap<>();
+
+    private boolean loaded = false;
+
+    private int backendCalls = 0;
+
+    /**
+     * @param backend The geocoder to ask when an answer is not remembered.
+     * @param cacheFile Where to remember answers, or null to only remember them in memory.
+     */
+    public GeocodingService(Backend backend, File cacheFile) {
+        this.backend = backend;
+        this.cacheFile = cacheFile == null ? null : new FileSnapshot<LinkedHashMap<String, Entry>>(
+                cacheFile, new TypeToken<LinkedHashMap<String, Entry>>() {}.getType());
+    }
+
+    /**
+     * Finds the address of a point. Blocks while it is looked up.
+     * @return The address, or "" if there is none or it could not be looked up.
+     */
+    public String reverse(double latitude, double longitude) {
+        return reverseAll(Collections.singletonList(new Place(latitude, longitude, null))).get(0);
+    }
+
+    /**
+     * Finds the addresses of many points, looking each distinct point up once and saving the
+     * answers once. Blocks while they are looked up.
+     * @param places The points to find the addresses of (their addresses are ignored).
+     * @return The address of each point, in the same order ("" if there is none).
+     */
+    public List<String> reverseAll(List<Place> places) {
+        final Map<String, Place> placesByKey = new LinkedHashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (Place place : places) {
+            String key = reverseKey(place.getLatitude(), place.getLongitude());
+            keys.add(key);
+            placesByKey.put(key, place);
+        }
+        List<Entry> found = resolve(keys, new Fetcher() {
+            @Override
+            public Entry fetch(String key) throws IOException {
+                Place place = placesByKey.get(key);
+                String address = backend.reverse(place.getLatitude(), place.getLongitude());
+                return new Entry(address == null ? "" : address, null, now());
+            }
+        });
+        List<String> addresses = new ArrayList<>();
+        for (Entry entry : found) {
+            addresses.add(entry == null ? "" : entry.address);
+        }
+        return addresses;
+    }
+
+    /**
+     * Finds the places matching an address. Blocks while it is looked up.
+     * @return Up to maxResults places, best match first, or null if they could not be looked up.
+     */
+    public List<Place> forward(final String address, final int maxResults) {
+        List<Entry> found = resolve(Collections.singletonList(forwardKey(address, maxResults)), new Fetcher() {
+            @Override
+            public Entry fetch(String key) throws IOException {
+                List<Place> places = backend.forward(address, maxResults);
+                return new Entry(null, places == null ? new ArrayList<Place>() : places, now());
+            }
+        });
+        Entry entry = found.get(0);
+        return entry == null ? null : new ArrayList<>(entry.places);
+    }
+
+    /** Forgets every answer, in memory and in the file. */
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            loaded = true;
+        }
+        save();
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /** @return How many points and addresses were answered from the cache. */
+    public synchronized int getHitCount() {
+        return entries.getHitCount();
+    }
+
+    /** @return How many points and addresses were not in the cache. */
+    public synchronized int getMissCount() {
+        return entries.getMissCount();
+    }
+
+    /** @return How many times the backend was asked. */
+    public synchronized int getBackendCallCount() {
+        return backendCalls;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d answers cached, %d hits, %d misses, %d geocoder calls",
+                entries.size(), entries.getHitCount(), entries.getMissCount(), backendCalls);
+    }
+
+    /** @return The current time in milliseconds. */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /** @return The key of a point, points within about 10 meters of each other share a key. */
+    static String reverseKey(double latitude, double longitude) {
+        return "point:" + Math.round(latitude * 10000) + "," + Math.round(longitude * 10000);
+    }
+
+    /** @return The key of an address search, addresses are matched ignoring case and spacing. */
+    static String forwardKey(String address, int maxResults) {
+        String normalized = address == null ? "" : address.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+        return "address:" + maxResults + ":" + normalized;
+    }
+
+    /** Looks up the answer for one key. */
+    private interface Fetcher {
+        Entry fetch(String key) throws IOException;
+    }
+
+    /**
+     * Finds the answers for the keys: remembered answers are used, keys already being looked up
+     * are waited for, and the rest are looked up with the fetcher one after the other.
+     * @return The answer for each key in the same order, null where it could not be looked up.
+     */
+    private List<Entry> resolve(List<String> keys, Fetcher fetcher) {
+        Map<String, Lookup> waitingFor = new LinkedHashMap<>();
+        List<String> ourKeys = new ArrayList<>();
+        synchronized (this) {
+            ensureLoaded();
+            for (String key : keys) {
+                if (waitingFor.containsKey(key)) {
+                    continue;
+                }
+                Lookup lookup = new Lookup();
+                Entry entry = entries.get(key, now());
+                if (entry != null) {
+                    lookup.entry = entry;
+                    lookup.done = true;
+                } else if (lookups.containsKey(key)) {
+                    lookup = lookups.get(key);
+                } else {
+                    lookups.put(key, lookup);
+                    ourKeys.add(key);
+                }
+                waitingFor.put(key, lookup);
+            }
+        }
+
+        boolean changed = false;
+        for (String key : ourKeys) {
+            Entry entry = null;
+            try {
+                entry = fetcher.fetch(key);
+            } catch (IOException | RuntimeException e) {
+                // Not remembered, it may work next time (i.e. once back online)
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                backendCalls++;
+                Lookup lookup = lookups.remove(key);
+                if (entry != null) {
+                    entries.put(key, entry, entry.created + MAX_AGE);
+                    changed = true;
+                }
+                lookup.entry = entry;
+                lookup.done = true;
+                notifyAll();
+            }
+        }
+        if (changed) {
+            save();
+        }
+
+        List<Entry> found = new ArrayList<>();
+        for (String key : keys) {
+            found.add(await(waitingFor.get(key)));
+        }
+        return found;
+    }
+
+    private synchronized Entry await(Lookup lookup) {
+        while (!lookup.done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return lookup.entry;
+    }
+
+    /** Reads the remembered answers from the file the first time they are needed. */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        LinkedHashMap<String, Entry> saved = cacheFile == null ? null : cacheFile.read();
+        if (saved != null) {
+            // Saved least recently used first, so putting them back keeps the order
+            for (Map.Entry<String, Entry> entry : saved.entrySet()) {
+                entries.put(entry.getKey(), entry.getValue(), entry.getValue().created + MAX_AGE);
+            }
+        }
+    }
+
+    /** Saves the remembered answers to the file. */
+    private void save() {
+        if (cacheFile == null) {
+            return;
+        }
+        cacheFile.write(new FileSnapshot.Source<LinkedHashMap<String, Entry>>() {
+            @Override
+            public LinkedHashMap<String, Entry> snapshot() {
+                synchronized (GeocodingService.this) {
+                    return entries.toMap();
+                }
+            }
+        });
+    }
+
+    /** The answer for a point (address) or an address search (places), and when it was found. */
+    private static class Entry {
+        private String address;
+        private List<Place> places;
+        private long created;
+
+        Entry(String address, List<Place> places, long created) {
+            this.address = address;
+            this.places = places;
+            this.created = created;
+        }
+    }
+
+    /** A lookup that is running. */
+    private static class Lookup {
+        Entry entry = null;
+        boolean done = false;
+    }
+}
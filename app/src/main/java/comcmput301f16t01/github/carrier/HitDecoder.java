@@ -0,0 +1,301 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.searchbox.annotations.JestId;
+import io.searchbox.client.AbstractJestClient;
+
+/**
+ * Decodes the hits of an elastic search response one at a time, straight from the JSON text with
+ * a streaming JsonReader. Jest first parses the whole response into a tree of JsonElements and then
+ * builds each object from the tree; with hundreds of requests (each with nested users and
+ * locations) that is a lot of short lived garbage on a phone.
+ * </br>
+ * Each hit's _source is read into the class registered for its _type, and its _id is set on the
+ * field annotated with @JestId (as Jest does). The callback can stop the decoding early, the rest
+ * of the response is then never read. Both search responses ("hits") and multi-get responses
+ * ("docs") can be decoded, as can each response of a multi-search ("responses").
+ * </br>
+ * Dates are read in the format the Jest client writes them in, so what Jest indexed can be read
+ * back (i.e. the date of a Notification).
+ * @see StreamingSearch
+ */
+public class HitDecoder {
+    /** Called with every hit as it is decoded. */
+    public interface Callback {
+        /**
+         * @param type The _type of the hit.
+         * @param id The _id of the hit.
+         * @param source The decoded _source of the hit.
+         * @return Whether to keep decoding hits, false stops.
+         */
+        boolean onHit(String type, String id, Object source);
+    }
+
+    private static final Gson gson = new GsonBuilder()
+            .setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
+            .create();
+
+    /** The @JestId field of each class decoded so far (null if it has none). */
+    private static final Map<Class<?>, Field> idFields = new HashMap<>();
+
+    /** The adapter used for hits of each _type. */
+    private final Map<String, TypeAdapter<?>> adapters = new HashMap<>();
+
+    /** The adapter used for hits of types not registered, may be null to skip them. */
+    private final TypeAdapter<?> defaultAdapter;
+
+    /** Decodes only the hits of types that are registered. */
+    public HitDecoder() {
+        defaultAdapter = null;
+    }
+
+    /** Decodes all hits (of any type not registered otherwise) into sourceClass. */
+    public HitDecoder(Class<?> sourceClass) {
+        defaultAdapter = gson.getAdapter(sourceClass);
+    }
+
+    /** Decodes the hits of the given _type into sourceClass. */
+    public HitDecoder register(String type, Class<?> sourceClass) {
+        adapters.put(type, gson.getAdapter(sourceClass));
+        return this;
+    }
+
+    /**
+     * Decodes the hits of a response, handing each to the callback as soon as it is read.
+     * @param json The body of the response (i.e. JestResult.getJsonString()).
+     * @return The number of hits decoded.
+     * @throws IOException If the response could not be decoded.
+     */
+    public int decode(String json, Callback callback) throws IOException {
+        Progress progress = new Progress();
+        decode(json, callback, progress);
+        return progress.count;
+    }
+
+    private void decode(String json, Callback callback, Progress progress) throws IOException {
+        if (json == null) {
+            return;
+        }
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            readResponse(reader, callback, progress);
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException("Could not decode the hits of the response", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decodes the responses of a multi-search, each into its own list.
+     * @param json The body of the response (i.e. MultiSearchResult.getJsonString()).
+     * @param sourceClass The class to decode every hit into.
+     * @return The sources of the hits of each search, in the order the searches were made, with
+     *         null for the searches that failed.
+     * @throws IOException If the response could not be decoded.
+     */
+    public static <T> List<List<T>> decodeResponses(String json, final Class<T> sourceClass) throws IOException {
+        List<List<T>> responses = new ArrayList<>();
+        if (json == null) {
+            return responses;
+        }
+        HitDecoder decoder = new HitDecoder(sourceClass);
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("responses") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        final List<T> sources = new ArrayList<>();
+                        boolean succeeded = decoder.readResponse(reader, new Callback() {
+                            @Override
+                            public boolean onHit(String type, String id, Object source) {
+                                sources.add(sourceClass.cast(source));
+                                return true;
+                            }
+                        }, new Progress());
+                        reader.endObject();
+                        responses.add(succeeded ? sources : null);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException("Could not decode the responses of the multi-search", e);
+        } finally {
+            reader.close();
+        }
+        return responses;
+    }
+
+    /**
+     * Reads the hits of a search or multi-get response, up to its end (or until the callback
+     * stops). The end of the response object itself is left to the caller.
+     * @return Whether the response was not an error.
+     */
+    private boolean readResponse(JsonReader reader, Callback callback, Progress progress) throws IOException {
+        boolean succeeded = true;
+        reader.beginObject();
+        while (!progress.stopped && reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("hits") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (!progress.stopped && reader.hasNext()) {
+                    if (reader.nextName().equals("hits")) {
+                        readHits(reader, callback, progress);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                if (!progress.stopped) {
+                    reader.endObject();
+                }
+            } else if (name.equals("docs")) {
+                readHits(reader, callback, progress);
+            } else {
+                if (name.equals("error")) {
+                    succeeded = false;
+                }
+                reader.skipValue();
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * @param json The body of the response.
+     * @param sourceClass The class to decode every hit into.
+     * @return The sources of all of the hits.
+     * @throws IOException If the response could not be decoded.
+     */
+    public static <T> List<T> decodeSources(String json, Class<T> sourceClass) throws IOException {
+        return decodeSources(json, sourceClass, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param json The body of the response.
+     * @param sourceClass The class to decode every hit into.
+     * @param limit How many hits to decode at most, the rest are not read.
+     * @return The sources of the first limit hits.
+     * @throws IOException If the response could not be decoded.
+     */
+    public static <T> List<T> decodeSources(String json, final Class<T> sourceClass, final int limit) throws IOException {
+        final List<T> sources = new ArrayList<>();
+        if (limit <= 0) {
+            return sources;
+        }
+        new HitDecoder(sourceClass).decode(json, new Callback() {
+            @Override
+            public boolean onHit(String type, String id, Object source) {
+                sources.add(sourceClass.cast(source));
+                return sources.size() < limit;
+            }
+        });
+        return sources;
+    }
+
+    private void readHits(JsonReader reader, Callback callback, Progress progress) throws IOException {
+        reader.beginArray();
+        while (!progress.stopped && reader.hasNext()) {
+            readHit(reader, callback, progress);
+        }
+        if (!progress.stopped) {
+            reader.endArray();
+        }
+    }
+
+    /**
+     * Reads a single hit. Elastic search writes _type and _id before _source, if a _source comes
+     * before its _type it is decoded with the default adapter (or skipped without one).
+     */
+    private void readHit(JsonReader reader, Callback callback, Progress progress) throws IOException {
+        String type = null;
+        String id = null;
+        Object source = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("_type") && reader.peek() == JsonToken.STRING) {
+                type = reader.nextString();
+            } else if (name.equals("_id") && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if (name.equals("_source")) {
+                TypeAdapter<?> adapter = type != null && adapters.containsKey(type) ? adapters.get(type) : defaultAdapter;
+                if (adapter == null) {
+                    reader.skipValue();
+                } else {
+                    source = adapter.read(reader);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Hits without a source (i.e. multi-get docs that were not found) are skipped
+        if (source != null) {
+            setId(source, id);
+            progress.count++;
+            if (!callback.onHit(type, id, source)) {
+                progress.stopped = true;
+            }
+        }
+    }
+
+    /** Sets the @JestId field of the source to the ID of its hit, if it has one. */
+    private static void setId(Object source, String id) {
+        Field field = getIdField(source.getClass());
+        if (field == null || id == null) {
+            return;
+        }
+        try {
+            field.set(source, id);
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Field getIdField(Class<?> sourceClass) {
+        synchronized (idFields) {
+            if (idFields.containsKey(sourceClass)) {
+                return idFields.get(sourceClass);
+            }
+            Field idField = null;
+            for (Class<?> c = sourceClass; c != null && idField == null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (field.isAnnotationPresent(JestId.class) && field.getType() == String.class) {
+                        field.setAccessible(true);
+                        idField = field;
+                        break;
+                    }
+                }
+            }
+            idFields.put(sourceClass, idField);
+            return idField;
+        }
+    }
+
+    /** How far the decoding of a response got. */
+    private static class Progress {
+        int count = 0;
+        boolean stopped = false;
+    }
+}
@@ -39,6 +39,7 @@ import comcmput301f16t01.github.carrier.Requests.ElasticRequestController;
 import comcmput301f16t01.github.carrier.Requests.RequestAdapter;
 import comcmput301f16t01.github.carrier.Requests.RequestController;
 import comcmput301f16t01.github.carrier.Requests.RequestList;
+import comcmput301f16t01.github.carrier.Requests.RequestListChange;
 import comcmput301f16t01.github.carrier.Requests.RiderRequestActivity;
 import comcmput301f16t01.github.carrier.Searching.SearchActivity;
 import comcmput301f16t01.github.carrier.Searching.SearchResultsActivity;
@@ -92,6 +93,7 @@ public class MainActivity extends AppCompatActivity {
         checkPermissions();
         // Request controller requires a context to save in
         RequestController.setContext(this);
+        ConnectionChecker.startMonitoring(this);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
@@ -157,8 +159,8 @@ public class MainActivity extends AppCompatActivity {
         else {
             Toast.makeText(this, "You are offline", Toast.LENGTH_SHORT).show();
             // Load the cached rider and driver requests for the logged in user
-            RequestController.fetchAllRequestsWhereRider(UserController.getLoggedInUser());
-            RequestController.getOfferedRequests(UserController.getLoggedInUser());
+            RequestController.fetchAllRequestsWhereRider(UserController.getLoggedInUser(), null);
+            RequestController.getOfferedRequests(UserController.getLoggedInUser(), null);
         }
     }
 
@@ -166,17 +168,30 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        // Will toast if there are unread notifications.
+        // Counts the unread notifications for the menu, and will toast if there are any.
         final Context context = this;
+        invalidateOptionsMenu();
         NotificationController nc = new NotificationController();
-        nc.asyncUnreadNotification(UserController.getLoggedInUser(), new Listener() {
+        nc.asyncUnreadCount(UserController.getLoggedInUser(), new Listener() {
             @Override
             public void update() {
-                Toast.makeText( context, "You have unread notifications!", Toast.LENGTH_SHORT ).show();
+                invalidateOptionsMenu();
+                if (NotificationController.getUnreadCount(UserController.getLoggedInUser()) > 0) {
+                    Toast.makeText( context, "You have unread notifications!", Toast.LENGTH_SHORT ).show();
+                }
             }
         });
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The requests are saved in the background, write them before the app can be killed
+        RequestController.flush();
+        // No need to follow notifications while the app is not showing
+        NotificationController.stopFeed();
+    }
+
     /**
      * Shows the correct FAB depending on what tab position we are at.
      *
@@ -253,6 +268,15 @@ public class MainActivity extends AppCompatActivity {
         return true;
     }
 
+    /** Shows how many notifications are unread, as of the last time they were counted. */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem notifications = menu.findItem(R.id.action_viewNotifications);
+        int unread = NotificationController.getUnreadCount(UserController.getLoggedInUser());
+        notifications.setTitle(unread > 0 ? "View Notifications (" + unread + ")" : "View Notifications");
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -414,7 +438,12 @@ public class MainActivity extends AppCompatActivity {
                     nc.asyncUnreadNotification(UserController.getLoggedInUser(), new Listener() {
                         @Override
                         public void update() {
-                            Toast.makeText( getContext(), "You have unread notifications!", Toast.LENGTH_SHORT ).show();
+                            // The fragment may have been detached while the notifications loaded
+                            if (!isAdded() || getActivity() == null) {
+                                return;
+                            }
+                            getActivity().invalidateOptionsMenu();
+                            Toast.makeText( getActivity(), "You have unread notifications!", Toast.LENGTH_SHORT ).show();
                         }
                     });
 
@@ -456,10 +485,10 @@ public class MainActivity extends AppCompatActivity {
             requestListView.setAdapter(requestArrayAdapter);
 
             // Add a listener to listen and update the view when the arrayList changes
-            requestList.addListener(new Listener() {
+            requestList.addChangeListener(new RequestList.ChangeListener() {
                 @Override
-                public void update() {
-                    requestArrayAdapter.notifyDataSetChanged();
+                public void onChange(RequestListChange change) {
+                    requestArrayAdapter.onChange(change, requestListView);
                 }
             });
 
@@ -494,10 +523,10 @@ public class MainActivity extends AppCompatActivity {
             requestListView.setAdapter(requestArrayAdapter);
 
             // Add a listener to listen and update the view when the arrayList changes
-            requestList.addListener(new Listener() {
+            requestList.addChangeListener(new RequestList.ChangeListener() {
                 @Override
-                public void update() {
-                    requestArrayAdapter.notifyDataSetChanged();
+                public void onChange(RequestListChange change) {
+                    requestArrayAdapter.onChange(change, requestListView);
                 }
             });
 
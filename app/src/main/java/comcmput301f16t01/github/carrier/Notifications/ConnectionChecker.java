@@ -1,9 +1,16 @@
 package comcmput301f16t01.github.carrier.Notifications;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
+import android.net.NetworkRequest;
 import android.os.AsyncTask;
+import android.os.Build;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
@@ -11,6 +18,9 @@ import java.net.URL;
  * <p>Call to the static function ConnectionChecker.isConnected( context ) to check if you have
  * an available network connection. Note that this does not test if they actually have an internet
  * connection, just that they have access to some network (which may not have internet connection).</p>
+ * <p>ConnectionChecker.isThereInternet() answers from a cached reachability state. The state is kept
+ * up to date by network change callbacks (see startMonitoring( context )) and by background probes
+ * of elastic search that are repeated after a TTL, backing off while the probes keep failing.</p>
  * </br>
  * <p>See code attribution in Wiki: <a href="https://github.com/CMPUT301F16T01/Carrier/wiki/Code-Re-Use#connectionchecker">ConnectionChecker</a></p>
  * </br>
@@ -26,6 +36,32 @@ import java.net.URL;
  * <p>Retrieved on: November 24th, 2016</p>
  */
 public class ConnectionChecker {
+    /** How long a successful probe is trusted before we check again in the background (ms). */
+    private static final long ONLINE_TTL = 30 * 1000;
+
+    /** First delay before re-probing after a failed probe, doubled on every failure (ms). */
+    private static final long MIN_BACKOFF = 2 * 1000;
+
+    /** Longest we will wait between probes while we believe we are offline (ms). */
+    private static final long MAX_BACKOFF = 60 * 1000;
+
+    /** Connect and read timeout for a single probe (ms). */
+    private static final int PROBE_TIMEOUT = 5 * 1000;
+
+    /** Last known reachability of elastic search, null until the first probe finishes. */
+    private static volatile Boolean reachable = null;
+
+    /** When the current state stops being trusted and a background probe should run. */
+    private static volatile long nextProbeTime = 0;
+
+    /** Number of probes that failed in a row, used for the back off. */
+    private static int failures = 0;
+
+    /** True while a background probe is running so that we never run two at once. */
+    private static boolean probing = false;
+
+    /** Set once we are listening to the ConnectivityManager. */
+    private static boolean monitoring = false;
 
     public static boolean isConnected( Context context ) {
         ConnectivityManager cm =
@@ -36,11 +72,115 @@ public class ConnectionChecker {
                 activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * Starts listening to network changes so that the cached reachability state is updated as soon
+     * as the device gains or loses a network. Uses network callbacks on Lollipop and up and the
+     * connectivity broadcast on older devices. Safe to call more than once.
+     *
+     * @param context Any context, the application context is kept.
+     */
+    public static synchronized void startMonitoring( Context context ) {
+        if (monitoring) {
+            return;
+        }
+        monitoring = true;
+        final Context appContext = context.getApplicationContext();
+        ConnectivityManager cm =
+                (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            cm.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    onNetworkChanged(true);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    onNetworkChanged(isConnected(appContext));
+                }
+            });
+        } else {
+            appContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    onNetworkChanged(isConnected(context));
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+
+        // Seed the state so the first caller does not have to wait: with a network we assume elastic
+        // search can be reached until the first probe (started in the background) says otherwise.
+        if (!isConnected(appContext)) {
+            onNetworkChanged(false);
+        } else {
+            synchronized (ConnectionChecker.class) {
+                if (reachable == null) {
+                    reachable = true;
+                }
+            }
+            refresh();
+        }
+    }
+
+    /**
+     * Called when the device's network changes. Losing the network makes us offline immediately,
+     * gaining one resets the back off and probes elastic search in the background. While there is
+     * no network we still probe every MAX_BACKOFF, in case a change was missed.
+     */
+    private static void onNetworkChanged( boolean hasNetwork ) {
+        if (hasNetwork) {
+            synchronized (ConnectionChecker.class) {
+                failures = 0;
+            }
+            refresh();
+        } else {
+            synchronized (ConnectionChecker.class) {
+                failures = 0;
+                reachable = false;
+                nextProbeTime = System.currentTimeMillis() + MAX_BACKOFF;
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a probe and decides when the next one should happen.
+     */
+    private static synchronized void recordProbe( boolean success ) {
+        probing = false;
+        reachable = success;
+        if (success) {
+            failures = 0;
+            nextProbeTime = System.currentTimeMillis() + ONLINE_TTL;
+        } else {
+            long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures, 16));
+            failures++;
+            nextProbeTime = System.currentTimeMillis() + backoff;
+        }
+    }
+
+    /**
+     * Starts a background probe unless one is already running. This is the only place probes are
+     * started, so there is never more than one.
+     */
+    private static void refresh() {
+        synchronized (ConnectionChecker.class) {
+            if (probing) {
+                return;
+            }
+            probing = true;
+        }
+        new isThereConnectionTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     /**
      * Async task that checks to see if the user can connect to elastic search.Returns true if you
-     * can, otherwise false.
+     * can, otherwise false. The result is stored as the cached reachability state.
      */
-    public static class isThereConnectionTask extends AsyncTask<Void, Void, Boolean> {
+    private static class isThereConnectionTask extends AsyncTask<Void, Void, Boolean> {
         @Override
         /**
          * Returns true if a connection to elastic search can be established, otherwise returns
@@ -48,33 +188,45 @@ public class ConnectionChecker {
          */
         protected Boolean doInBackground(Void... params) {
             // Try making an http request to our index on elastic search
+            boolean success = false;
+            HttpURLConnection urlConnection = null;
             try {
                 URL team1URL = new URL("http://cmput301.softwareprocess.es:8080/cmput301f16t01");
-                HttpURLConnection urlConnection = (HttpURLConnection) team1URL.openConnection();
+                urlConnection = (HttpURLConnection) team1URL.openConnection();
+                urlConnection.setConnectTimeout(PROBE_TIMEOUT);
+                urlConnection.setReadTimeout(PROBE_TIMEOUT);
                 // Websites return status code 200 (HTTP_OK in this API) when you've successfully connected to them
-                return urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK;
+                success = urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK;
             } catch (Exception e) {
                 e.printStackTrace();
+            } finally {
+                if (urlConnection != null) {
+                    urlConnection.disconnect();
+                }
             }
-            return false;
+            recordProbe(success);
+            return success;
         }
     }
 
     /**
      * Facade pattern for isThereConnectionTask doInBackground(...) because it's ugly.
+     * Returns the cached reachability state right away, it never waits on the network. If the
+     * state is stale a probe is started in the background and a later call will see its result.
+     * If nothing is known yet (monitoring was not started) we answer that we are offline until the
+     * probe finishes.
+     *
      * @return True if there is internet, False otherwise
      */
     public static Boolean isThereInternet() {
-        ConnectionChecker.isThereConnectionTask isThereConnectionTask = new ConnectionChecker.isThereConnectionTask();
-        isThereConnectionTask.execute();
-        Boolean isInternet = false;
-        try {
-            isInternet = isThereConnectionTask.get();
-        } catch (Exception e) {
-            e.printStackTrace();
+        Boolean known = reachable;
+        if (known == null) {
+            refresh();
+            return false;
+        }
+        if (System.currentTimeMillis() >= nextProbeTime) {
+            refresh();
         }
-        return isInternet;
+        return known;
     }
-
-
 }
@@ -3,15 +3,25 @@ package comcmput301f16t01.github.carrier.Notifications;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.google.gson.Gson;
+
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import comcmput301f16t01.github.carrier.ElasticController;
+import comcmput301f16t01.github.carrier.ElasticQuery;
+import comcmput301f16t01.github.carrier.HitDecoder;
 import comcmput301f16t01.github.carrier.Listener;
+import comcmput301f16t01.github.carrier.StreamingSearch;
+import comcmput301f16t01.github.carrier.Users.User;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Count;
+import io.searchbox.core.CountResult;
 import io.searchbox.core.DeleteByQuery;
-import io.searchbox.core.DocumentResult;
 import io.searchbox.core.Index;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
@@ -22,104 +32,367 @@ import io.searchbox.core.Update;
  * @see ElasticController
  */
 public class ElasticNotificationController extends ElasticController {
+    /** The most writes sent in one _bulk request. */
+    static final int BULK_BATCH_SIZE = 100;
+
+    /** About the most characters of documents sent in one _bulk request. */
+    static final int BULK_BATCH_CHARS = 512 * 1024;
+
+    /** Only used to guess how big a document is, elastic search serializes it itself. */
+    private static final Gson gson = new Gson();
+    /** Matches the notifications of a user. */
+    private static final ElasticQuery.Template USERNAME_QUERY = new ElasticQuery()
+            .query(ElasticQuery.match("username", ElasticQuery.param("username")))
+            .compile("username");
+
+    /**
+     * The most notifications fetched in one request. Pages are fetched until every unread
+     * notification is in, read ones after the first page are not fetched.
+     */
+    public static final int PAGE_SIZE = 100;
+
+    /**
+     * Loads a page of the notifications of a user that have not expired, in the order they are
+     * shown: unread first, then newest first (as Notification.compareTo sorts them).
+     */
+    private static final ElasticQuery.Template FIND_QUERY = new ElasticQuery()
+            .from(ElasticQuery.param("from")).size(ElasticQuery.param("size"))
+            .query(ElasticQuery.bool()
+                    .must(ElasticQuery.match("username", ElasticQuery.param("username")))
+                    .filter(notExpired()))
+            .sort("read", true)
+            .sort("date", false)
+            .compile("username", "now", "from", "size");
+
+    /** Matches the unread notifications of a user that have not expired, to count them. */
+    private static final ElasticQuery.Template UNREAD_QUERY = new ElasticQuery()
+            .query(ElasticQuery.bool()
+                    .must(ElasticQuery.match("username", ElasticQuery.param("username")))
+                    .filter(ElasticQuery.match("read", false))
+                    .filter(notExpired()))
+            .compile("username", "now");
+
+    /** Matches the notifications of a user that have expired, to delete them. */
+    private static final ElasticQuery.Template EXPIRED_QUERY = new ElasticQuery()
+            .query(ElasticQuery.bool()
+                    .must(ElasticQuery.match("username", ElasticQuery.param("username")))
+                    .filter(ElasticQuery.range("expiresAt").lte(ElasticQuery.param("now"))))
+            .compile("username", "now");
+
+    /** Loads the notifications of a user changed after a time, oldest change first. */
+    private static final ElasticQuery.Template CHANGES_QUERY = new ElasticQuery()
+            .from(0).size(500)
+            .query(ElasticQuery.bool()
+                    .must(ElasticQuery.match("username", ElasticQuery.param("username")))
+                    .filter(ElasticQuery.range("lastModified").gt(ElasticQuery.param("since"))))
+            .sort("lastModified", true)
+            .compile("username", "since");
+
+    /**
+     * Matches notifications that expire after the "now" param, or that were made before
+     * notifications expired (they are given an expiry the first time they are fetched).
+     * @see Notification#expiryOf(boolean, long)
+     */
+    private static ElasticQuery.Clause notExpired() {
+        return ElasticQuery.bool()
+                .should(ElasticQuery.range("expiresAt").gt(ElasticQuery.param("now")))
+                .should(ElasticQuery.bool().mustNot(ElasticQuery.exists("expiresAt")))
+                .minimumShouldMatch(1);
+    }
+
+    /**
+     * Fetches the notifications of a user that changed after a time, on the calling thread.
+     * @param username The user whose notifications to fetch.
+     * @param since The time to fetch changes after, or 0 to fetch every notification.
+     * @throws IOException If elastic search could not be reached or the search failed.
+     * @see NotificationFeed.Source
+     */
+    static List<Notification> findChanges(String username, long since) throws IOException {
+        if (since == 0) {
+            return findUnreadFirst(username);
+        }
+        verifySettings();
+        return search(CHANGES_QUERY.render(username, since));
+    }
+
+    /**
+     * Fetches the notifications of a user that have not expired, sorted, on the calling thread.
+     * Pages are fetched until every unread notification is in (they come first), so the unread
+     * count and marking all as read do not stop at a page.
+     * @throws IOException If elastic search could not be reached or a search failed.
+     */
+    static List<Notification> findUnreadFirst(String username) throws IOException {
+        verifySettings();
+        long now = System.currentTimeMillis();
+        List<Notification> notifications = new ArrayList<>();
+        while (true) {
+            List<Notification> page = search(FIND_QUERY.render(username, now, notifications.size(), PAGE_SIZE));
+            notifications.addAll(page);
+            if (page.size() < PAGE_SIZE || page.get(page.size() - 1).isRead()) {
+                break;
+            }
+        }
+        addExpiries(notifications);
+        return notifications;
+    }
+
+    /** Runs a search for notifications on the calling thread. */
+    private static List<Notification> search(String query) throws IOException {
+        Search search = new StreamingSearch.Builder(query)
+                .addIndex("cmput301f16t01")
+                .addType("notification")
+                .build();
+        SearchResult result = client.execute(search);
+        if (!result.isSucceeded()) {
+            throw new IOException( "Could not fetch notifications: " + result.getErrorMessage() );
+        }
+        return HitDecoder.decodeSources(result.getJsonString(), Notification.class);
+    }
+
+    /**
+     * Gives the notifications made before notifications expired an expiry, so they can be pruned.
+     * Read ones are kept as if they were read now (when they were is not known), unread ones as
+     * long as from when they were made. Sent in bulk, on the calling thread.
+     */
+    static void addExpiries(List<Notification> notifications) {
+        long now = System.currentTimeMillis();
+        List<Notification> toUpdate = new ArrayList<>();
+        List<Update> updates = new ArrayList<>();
+        for (Notification notification : notifications) {
+            if (notification.getExpiresAt() != 0 || notification.getID() == null) {
+                continue;
+            }
+            long changed = notification.isRead() || notification.getDate() == null
+                    ? now : notification.getDate().getTime();
+            notification.setExpiresAt(Notification.expiryOf(notification.isRead(), changed));
+            toUpdate.add(notification);
+            updates.add(new Update.Builder(ElasticQuery.doc(ElasticQuery.object()
+                    .put("expiresAt", notification.getExpiresAt())).toJson())
+                    .index("cmput301f16t01")
+                    .type("notification")
+                    .id(notification.getID())
+                    .build());
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        int[] sizes = new int[updates.size()];
+        Arrays.fill(sizes, 32);
+        List<BulkItemResult> results = executeBulk(updates, sizes);
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isSucceeded()) {
+                Log.i("Notification expiry bad", "Could not set the expiry of notification "
+                        + toUpdate.get(i).getID() + ": " + results.get(i).getError());
+            }
+        }
+    }
+
+    /**
+     * Counts the unread notifications of a user with a _count request, on the calling thread.
+     * Only the number comes back, not the notifications.
+     * @throws IOException If elastic search could not be reached or the count failed.
+     */
+    static int countUnread(String username) throws IOException {
+        verifySettings();
+        Count count = new Count.Builder()
+                .query(UNREAD_QUERY.render(username, System.currentTimeMillis()))
+                .addIndex("cmput301f16t01")
+                .addType("notification")
+                .build();
+        CountResult result = client.execute(count);
+        if (!result.isSucceeded() || result.getCount() == null) {
+            throw new IOException( "Could not count notifications: " + result.getErrorMessage() );
+        }
+        return result.getCount().intValue();
+    }
+
+    /**
+     * @param lastModified When the notification was read, so other phones pick the change up.
+     * @return The update marking a notification as read, it expires READ_RETENTION after.
+     */
+    static String buildMarkAsRead(long lastModified) {
+        return ElasticQuery.doc(ElasticQuery.object()
+                .put("read", true)
+                .put("lastModified", lastModified)
+                .put("expiresAt", Notification.expiryOf(true, lastModified))).toJson();
+    }
+
+    /** What happened to one write of a bulk request. */
+    public static class BulkItemResult {
+        private final String id;
+        private final String error;
+
+        BulkItemResult(String id, String error) {
+            this.id = id;
+            this.error = error;
+        }
+
+        public boolean isSucceeded() {
+            return error == null;
+        }
+
+        /** @return The ID of the document written, null if it is not known. */
+        public String getId() {
+            return id;
+        }
+
+        /** @return Why the write failed, null if it worked. */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Sends writes to elastic search in as few _bulk requests as it can, on the calling thread.
+     * Each request holds at most BULK_BATCH_SIZE writes and about BULK_BATCH_CHARS characters of
+     * documents (a single bigger write is sent on its own). A batch that could not be sent fails
+     * all of its writes, the batches after it are still sent.
+     *
+     * @param actions The writes, in the order they should be made.
+     * @param sizes About how many characters each write sends.
+     * @return What happened to each write, in the same order.
+     */
+    static List<BulkItemResult> executeBulk(List<? extends BulkableAction<?>> actions, int[] sizes) {
+        List<BulkItemResult> results = new ArrayList<>();
+        int start = 0;
+        while (start < actions.size()) {
+            int end = start;
+            int chars = 0;
+            while (end < actions.size() && end - start < BULK_BATCH_SIZE
+                    && (end == start || chars + sizes[end] <= BULK_BATCH_CHARS)) {
+                chars += sizes[end];
+                end++;
+            }
+            List<? extends BulkableAction<?>> batch = actions.subList(start, end);
+            Bulk bulk = new Bulk.Builder()
+                    .defaultIndex("cmput301f16t01")
+                    .defaultType("notification")
+                    .addAction(batch)
+                    .build();
 
-    /** Adds a notification to Elastic Search */
+            List<BulkResult.BulkResultItem> items = null;
+            String error = null;
+            try {
+                BulkResult result = client.execute(bulk);
+                items = result.getItems();
+                if (items == null || items.size() != batch.size()) {
+                    error = "Unexpected response: " + result.getErrorMessage();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                error = "Could not reach elastic search";
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (error != null) {
+                    results.add(new BulkItemResult(null, error));
+                } else {
+                    BulkResult.BulkResultItem item = items.get(i);
+                    boolean failed = item.status >= 300 || item.error != null;
+                    results.add(new BulkItemResult(item.id,
+                            failed ? (item.error == null ? "Status " + item.status : item.error) : null));
+                }
+            }
+            start = end;
+        }
+        return results;
+    }
+
+    /** Adds notifications to Elastic Search, all of them in as few requests as possible. */
     public static class AddNotificationTask extends AsyncTask<Notification, Void, Void> {
 
-        /** @return true or false depending on the success of the task */
         @Override
         protected Void doInBackground(Notification... notifications) {
             verifySettings();
 
-            for (Notification aNotification : notifications) {
-                // translates a notification into a index that you can execute
-                Index index = new Index.Builder(aNotification)
+            // translates the notifications into indexes that can be sent together
+            List<Index> indexes = new ArrayList<>();
+            int[] sizes = new int[notifications.length];
+            for (int i = 0; i < notifications.length; i++) {
+                indexes.add(new Index.Builder(notifications[i])
                         .index("cmput301f16t01")
                         .type("notification")
-                        .build();
-
-                // Attempts to push new notification to Elastic Search
-                try {
-                    DocumentResult result = client.execute(index);
+                        .build());
+                sizes[i] = gson.toJson(notifications[i]).length();
+            }
 
-                    if (result.isSucceeded()) {
-                        aNotification.setID(result.getId());
-                    } else {
-                        Log.i("Add Notification bad", "Failed to add user to elastic search?");
-                    }
-                } catch (IOException e) {
-                    Log.i("Add Notification bad", "Something went wrong adding a user to elastic search.");
-                    e.printStackTrace();
+            // Attempts to push the new notifications to Elastic Search
+            List<BulkItemResult> results = executeBulk(indexes, sizes);
+            for (int i = 0; i < notifications.length; i++) {
+                if (results.get(i).isSucceeded()) {
+                    notifications[i].setID(results.get(i).getId());
+                } else {
+                    Log.i("Add Notification bad", "Failed to add a notification to elastic search: "
+                            + results.get(i).getError());
                 }
             }
             return null;
         }
     }
 
-    /** Returns notifications based on a username */
-    public static class FindNotificationTask extends AsyncTask<String, Void, ArrayList<Notification>> {
-        /** called upon if an unread notification is detected */
+    /**
+     * Counts a user's unread notifications without fetching them, and keeps the count on the
+     * user. Returns null if they could not be counted.
+     */
+    public static class CountUnreadTask extends AsyncTask<User, Void, Integer> {
+        /** Called once the notifications have been counted (on the UI thread). */
         Listener listener = null;
 
-        /** Set to true if we detect a unread notification during the doInBackground */
-        Boolean unreadExists = false;
+        private User user;
 
-        /**
-         * Adds a listener to listen for unread notifications
-         * @param listener the listener you wish to call if there is an unread one.
-         */
         public void addListener(Listener listener) {
             this.listener = listener;
         }
 
         @Override
-        protected ArrayList<Notification> doInBackground(String... search_parameters) {
-            verifySettings();
-            String search_string = "{\"from\" : 0, \"size\" : 500, \"query\": {\"match\": {\"username\": \"" + search_parameters[0] + "\"}}}";
+        protected Integer doInBackground(User... users) {
+            user = users[0];
+            try {
+                return countUnread(user.getUsername());
+            } catch (IOException e) {
+                Log.i("Count Notifications bad", e.getMessage());
+                return null;
+            }
+        }
 
-            Search search = new Search.Builder(search_string)
-                    .addIndex("cmput301f16t01")
-                    .addType("notification")
-                    .build();
+        @Override
+        protected void onPostExecute(Integer count) {
+            if (count != null) {
+                user.setUnreadNotifications(count);
+            }
+            if (listener != null) {
+                listener.update();
+            }
+        }
+    }
+
+    /**
+     * Returns the notifications based on a username (every unread one, and the first page of read
+     * ones), sorted by elastic search
+     */
+    public static class FindNotificationTask extends AsyncTask<String, Void, ArrayList<Notification>> {
+        /** The user whose notifications were fetched. */
+        private String username;
 
+        @Override
+        protected ArrayList<Notification> doInBackground(String... search_parameters) {
+            username = search_parameters[0];
             ArrayList<Notification> foundNotifications = new ArrayList<>();
 
             try {
-                SearchResult result = client.execute(search);
-                if (result.isSucceeded()) {
-                    List<Notification> notificationList = result.getSourceAsObjectList(Notification.class);
-                    foundNotifications.addAll( notificationList );
-                } else {
-                    return foundNotifications;
-                }
+                foundNotifications.addAll( findUnreadFirst( username ) );
             } catch (IOException e) {
                 e.printStackTrace();
                 Log.i("Error", "Something went wrong when we tried to talk to elastic search");
             }
 
-            // If we have a listener, it wants to know if there are unread notifications
-            // We will tell the listener in onPostExecute (in case it needs to update a view on UI thread).
-            Collections.sort( foundNotifications );
-            if (listener != null) {
-                for (Notification notification : foundNotifications) {
-                    if (!notification.isRead()) {
-                        unreadExists = true;
-                        break;
-                    }
-                }
-            }
+            // Already in order, with every unread notification so the feed counts them all
             return foundNotifications;
         }
 
         @Override
         protected void onPostExecute(ArrayList<Notification> notifications) {
-            // If the listener is not null, we can call update if we have detected an unread notification
-            if (listener != null && unreadExists) {
-                listener.update();
-            }
-            // We will update the notifications from here.
-            NotificationController.getNotificationListInstance().clear();
-            NotificationController.getNotificationListInstance().addAll( notifications );
+            // We will update the notifications from here (the feed keeps the unread count).
+            NotificationController.getFeed().apply(username, notifications, true, System.currentTimeMillis());
             super.onPostExecute(notifications);
         }
     }
@@ -132,9 +405,7 @@ public class ElasticNotificationController extends ElasticController {
             verifySettings();
 
             for (String searchParam : search_parameters ) {
-                String search_string = "{\"query\": {\"match\": {\"username\": \"" + searchParam + "\"}}}";
-
-                DeleteByQuery delete = new DeleteByQuery.Builder(search_string)
+                DeleteByQuery delete = new DeleteByQuery.Builder(USERNAME_QUERY.render(searchParam))
                         .addIndex("cmput301f16t01")
                         .addType("notification")
                         .build();
@@ -150,18 +421,43 @@ public class ElasticNotificationController extends ElasticController {
         }
     }
 
+    /**
+     * Deletes the expired notifications of users in one delete-by-query each, so the
+     * notifications of long-lived accounts stop piling up.
+     * @see Notification#expiryOf(boolean, long)
+     */
+    public static class PruneNotificationsTask extends AsyncTask<String, Void, Void> {
+
+        @Override
+        protected Void doInBackground(String... usernames) {
+            verifySettings();
+            long now = System.currentTimeMillis();
+
+            for (String username : usernames) {
+                DeleteByQuery delete = new DeleteByQuery.Builder(EXPIRED_QUERY.render(username, now))
+                        .addIndex("cmput301f16t01")
+                        .addType("notification")
+                        .build();
+
+                try {
+                    client.execute(delete);
+                } catch (IOException e) {
+                    Log.i("Prune Notifications bad", "Could not delete expired notifications of " + username);
+                    e.printStackTrace();
+                }
+            }
+            return null;
+        }
+    }
+
     public static class MarkAsReadTask extends AsyncTask<String, Void, Void> {
+        /** When the notification was read. */
+        public long lastModified = System.currentTimeMillis();
 
         @Override
         protected Void doInBackground(String... id_parameter) {
-            String script =
-                    "{\n" +
-                    "    \"doc\": {\n" +
-                    "        \"read\": true \n" +
-                    "    }\n" +
-                    "}";
-
-            Update update = new Update.Builder(script)
+            verifySettings();
+            Update update = new Update.Builder(buildMarkAsRead(lastModified))
                     .index("cmput301f16t01")
                     .type("notification")
                     .id(id_parameter[0])
@@ -175,4 +471,41 @@ public class ElasticNotificationController extends ElasticController {
             return null;
         }
     }
+
+    /**
+     * Marks notifications as read, in as few requests as possible. Returns the notifications that
+     * were marked, a notification that failed is left out and stays unread.
+     */
+    public static class MarkAllAsReadTask extends AsyncTask<Notification, Void, List<Notification>> {
+        /** When the notifications were read. */
+        public long lastModified = System.currentTimeMillis();
+
+        @Override
+        protected List<Notification> doInBackground(Notification... notifications) {
+            verifySettings();
+            String doc = buildMarkAsRead(lastModified);
+            List<Update> updates = new ArrayList<>();
+            int[] sizes = new int[notifications.length];
+            for (int i = 0; i < notifications.length; i++) {
+                updates.add(new Update.Builder(doc)
+                        .index("cmput301f16t01")
+                        .type("notification")
+                        .id(notifications[i].getID())
+                        .build());
+                sizes[i] = doc.length();
+            }
+
+            List<Notification> marked = new ArrayList<>();
+            List<BulkItemResult> results = executeBulk(updates, sizes);
+            for (int i = 0; i < notifications.length; i++) {
+                if (results.get(i).isSucceeded()) {
+                    marked.add(notifications[i]);
+                } else {
+                    Log.i("Mark As Read bad", "Could not mark notification " + notifications[i].getID()
+                            + " as read: " + results.get(i).getError());
+                }
+            }
+            return marked;
+        }
+    }
 }
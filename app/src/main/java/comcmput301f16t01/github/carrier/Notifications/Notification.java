@@ -13,6 +13,12 @@ import io.searchbox.annotations.JestId;
  * Notification class for storing and retrieving notifications.
  */
 public class Notification implements Comparable<Notification> {
+    /** How long a notification is kept after it was read, in milliseconds. */
+    public static final long READ_RETENTION = 30L * 24 * 60 * 60 * 1000;
+
+    /** How long a notification that is never read is kept after it was made, in milliseconds. */
+    public static final long UNREAD_RETENTION = 180L * 24 * 60 * 60 * 1000;
+
     /** The username of the user to be notified */
     private String username;
 
@@ -28,6 +34,12 @@ public class Notification implements Comparable<Notification> {
     /** The time the notification was created (for sorting purposes) */
     protected Date date;
 
+    /** When the notification was last changed (created or read), so the change feed picks it up */
+    private long lastModified;
+
+    /** When the notification may be deleted, 0 if it was made before notifications expired */
+    private long expiresAt;
+
     @JestId
     private String elasticID;
 
@@ -35,6 +47,8 @@ public class Notification implements Comparable<Notification> {
         this.requestID = relatedRequest.getId();
         this.username = userToBeNotified.getUsername();
         this.date = new Date();
+        this.lastModified = date.getTime();
+        this.expiresAt = expiryOf(false, lastModified);
         this.read = false;
         // If the notified is the rider, we set that value to true in the notification
         isRider = relatedRequest.getRider().getUsername().equals(userToBeNotified.getUsername());
@@ -48,6 +62,32 @@ public class Notification implements Comparable<Notification> {
         this.read = isRead;
     }
 
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param read Whether the notification is read.
+     * @param time When it was last changed (made or read), in milliseconds.
+     * @return When a notification changed at the time may be deleted.
+     * @see ElasticNotificationController.PruneNotificationsTask
+     */
+    public static long expiryOf(boolean read, long time) {
+        return time + (read ? READ_RETENTION : UNREAD_RETENTION);
+    }
+
     public Date getDate() {
         return this.date;
     }
@@ -22,6 +22,14 @@ import comcmput301f16t01.github.carrier.Users.UserController;
 public class NotificationActivity extends AppCompatActivity {
     private ArrayAdapter<Notification> notificationArrayAdapter;
 
+    /** Redraws the list when the notification feed changes it. */
+    private final Listener feedListener = new Listener() {
+        @Override
+        public void update() {
+            notificationArrayAdapter.notifyDataSetChanged();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -57,7 +65,7 @@ public class NotificationActivity extends AppCompatActivity {
 
                 // Listens for unread notifications/the list to be updated
                 NotificationController nc = new NotificationController();
-                nc.asyncUnreadNotification( UserController.getLoggedInUser(), new Listener() {
+                nc.refreshNotifications( UserController.getLoggedInUser(), new Listener() {
                     @Override
                     public void update() {
                         notificationArrayAdapter.notifyDataSetChanged();
@@ -72,17 +80,21 @@ public class NotificationActivity extends AppCompatActivity {
 
     @Override
     protected void onResume() {
-        // Create a listener on the async task to update the list view when new unread notifications come in when resuming
+        // Follow the changes to the notifications while showing them, the list view is updated as they come in
+        NotificationController.getFeed().addListener(feedListener);
         NotificationController nc = new NotificationController();
-        nc.asyncUnreadNotification(UserController.getLoggedInUser(), new Listener() {
-            @Override
-            public void update() {
-                notificationArrayAdapter.notifyDataSetChanged();
-            }
-        });
+        nc.refreshNotifications(UserController.getLoggedInUser(), null);
+        notificationArrayAdapter.notifyDataSetChanged();
         super.onResume();
     }
 
+    @Override
+    protected void onPause() {
+        NotificationController.getFeed().removeListener(feedListener);
+        NotificationController.stopFeed();
+        super.onPause();
+    }
+
     /**
      * Ties the clear all notifications functionality to the UI.
      * @param view the clear all button
@@ -1,10 +1,18 @@
 package comcmput301f16t01.github.carrier.Notifications;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import comcmput301f16t01.github.carrier.ElasticController;
+import comcmput301f16t01.github.carrier.ElasticExecutor;
 import comcmput301f16t01.github.carrier.Listener;
 import comcmput301f16t01.github.carrier.Requests.Request;
 import comcmput301f16t01.github.carrier.Users.User;
@@ -18,6 +26,16 @@ import comcmput301f16t01.github.carrier.Users.User;
 public class NotificationController {
     private static ArrayList<Notification> notificationList = new ArrayList<>();
 
+    /** Expired notifications are deleted at most this often, in milliseconds. */
+    private static final long PRUNE_INTERVAL = 24 * 60 * 60 * 1000;
+
+    /** Who expired notifications were last deleted for, and when. */
+    private static String prunedUsername = null;
+    private static long lastPruned = 0;
+
+    /** Keeps notificationList and the unread count up to date, created on first use. */
+    private static NotificationFeed feed = null;
+
     /**
      * Returns the list of notifications held by this controller relating to the user logged in
      * @see comcmput301f16t01.github.carrier.Users.UserController
@@ -26,20 +44,60 @@ public class NotificationController {
         return notificationList;
     }
 
+    /**
+     * @return The feed of changes to the logged in user's notifications. Changes are applied on
+     * the UI thread.
+     */
+    public static synchronized NotificationFeed getFeed() {
+        if (feed == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            feed = new NotificationFeed(new NotificationFeed.Source() {
+                @Override
+                public List<Notification> changesSince(String username, long since) throws IOException {
+                    return ElasticNotificationController.findChanges(username, since);
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            }, notificationList);
+        }
+        return feed;
+    }
+
+    /**
+     * @return How many of the user's notifications are unread, as of the last change the feed
+     * picked up or, if it has not fetched them, the last time they were counted. Does not fetch
+     * anything.
+     * @see #asyncUnreadCount(User, Listener)
+     */
+    public static int getUnreadCount( User user ) {
+        NotificationFeed notificationFeed = getFeed();
+        if (notificationFeed.isSyncedFor(user.getUsername())) {
+            return notificationFeed.getUnreadCount();
+        }
+        return user.getUnreadNotifications();
+    }
+
+    /** Stops following changes to the notifications, i.e. while the app is in the background. */
+    public static void stopFeed() {
+        getFeed().stop();
+    }
+
     /**
      * Fetches notifications for a user, does this on the main UI thread.
-     * @see #asyncUnreadNotification(User, Listener) for better implementation off UI thread. 
+     * @see #refreshNotifications(User, Listener) for better implementation off UI thread. 
      *
-     * @return A sorted NotificationList
+     * @return A sorted NotificationList (sorted by elastic search)
      * @see Notification#compareTo(Notification)
      */
     public ArrayList<Notification> fetchNotifications( User user ) {
         ElasticNotificationController.FindNotificationTask fnt = new ElasticNotificationController.FindNotificationTask();
-        fnt.execute( user.getUsername() );
+        fnt.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), user.getUsername());
         try {
-            notificationList.clear();
-            notificationList.addAll( fnt.get() );
-            Collections.sort(notificationList);
+            ArrayList<Notification> found = fnt.get();
+            getFeed().apply(user.getUsername(), found, true, System.currentTimeMillis());
         } catch (Exception e) {
             Log.i("NotificationController", "bad error");
         }
@@ -47,18 +105,108 @@ public class NotificationController {
     }
 
     /**
+     * Counts the user's unread notifications in the background, without fetching them (the
+     * response is only the number), and keeps the count on the user.
+     *
+     * @param user The user whose notifications to count.
+     * @param listener Called on the UI thread once they have been counted (even if counting
+     *                 failed), to read getUnreadCount(user). May be null.
+     * @see #getUnreadCount(User)
+     */
+    public void asyncUnreadCount( final User user, @Nullable final Listener listener ) {
+        ElasticNotificationController.CountUnreadTask cut = new ElasticNotificationController.CountUnreadTask();
+        cut.addListener(new Listener() {
+            @Override
+            public void update() {
+                // The feed missed a change (i.e. made on another phone), ask it for the changes
+                NotificationFeed notificationFeed = getFeed();
+                if (notificationFeed.isSyncedFor(user.getUsername())
+                        && notificationFeed.getUnreadCount() != user.getUnreadNotifications()) {
+                    notificationFeed.pollNow(null);
+                }
+                if (listener != null) {
+                    listener.update();
+                }
+            }
+        });
+        cut.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.BACKGROUND), user);
+        pruneExpiredNotifications(user);
+    }
+
+    /**
+     * Deletes the user's expired notifications in the background, at most once every
+     * PRUNE_INTERVAL. Expired notifications are already left out of fetches and counts, this
+     * only keeps them from piling up in elastic search.
      *
+     * @param user The user whose expired notifications to delete.
+     * @see Notification#expiryOf(boolean, long)
+     */
+    public static void pruneExpiredNotifications( User user ) {
+        long now = System.currentTimeMillis();
+        synchronized (NotificationController.class) {
+            if (user.getUsername().equals(prunedUsername) && now - lastPruned < PRUNE_INTERVAL && now >= lastPruned) {
+                return;
+            }
+            prunedUsername = user.getUsername();
+            lastPruned = now;
+        }
+        ElasticNotificationController.PruneNotificationsTask pnt = new ElasticNotificationController.PruneNotificationsTask();
+        pnt.executeOnExecutor(ElasticController.getWriteExecutor(), user.getUsername());
+    }
+
+    /**
+     * Tells the listener if the user has unread notifications. Only counts them, use
+     * refreshNotifications to fetch them.
      *
      * @param user The user you would like to search for unread notifications with
-     * @param listener A listener that will be called if an unread notification is detected
-     *                 If the listener is null,
+     * @param listener A listener that will be called (on the UI thread) if an unread notification
+     *                 is detected.
      *
-     * @see comcmput301f16t01.github.carrier.Notifications.ElasticNotificationController.FindNotificationTask
+     * @see #asyncUnreadCount(User, Listener)
      */
-    public void asyncUnreadNotification( User user, @Nullable Listener listener ) {
-        ElasticNotificationController.FindNotificationTask fut = new ElasticNotificationController.FindNotificationTask();
-        fut.addListener(listener);
-        fut.execute( user.getUsername() );
+    public void asyncUnreadNotification( final User user, @NonNull final Listener listener ) {
+        asyncUnreadCount(user, new Listener() {
+            @Override
+            public void update() {
+                if (getUnreadCount(user) > 0) {
+                    listener.update();
+                }
+            }
+        });
+    }
+
+    /**
+     * Follows the changes to the user's notifications (if it was not already) and tells the
+     * listener if there are unread ones. Once the notifications have been fetched this only
+     * checks the unread count, and asks the feed for the latest changes in the background.
+     *
+     * @param user The user whose notifications to keep up to date
+     * @param listener A listener that will be called (on the UI thread) if an unread notification
+     *                 is detected. If the listener is null, the feed is only asked for changes.
+     *
+     * @see NotificationFeed
+     */
+    public void refreshNotifications( User user, @Nullable final Listener listener ) {
+        final NotificationFeed notificationFeed = getFeed();
+        notificationFeed.start(user.getUsername());
+        if (listener == null) {
+            notificationFeed.pollNow(null);
+        } else if (notificationFeed.isSyncedFor(user.getUsername())) {
+            if (notificationFeed.getUnreadCount() > 0) {
+                listener.update();
+            }
+            notificationFeed.pollNow(null);
+        } else {
+            // Nothing fetched yet, wait for the first poll
+            notificationFeed.pollNow(new Listener() {
+                @Override
+                public void update() {
+                    if (notificationFeed.getUnreadCount() > 0) {
+                        listener.update();
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -68,16 +216,15 @@ public class NotificationController {
      */
     public void clearAllNotifications( User user ) {
         ElasticNotificationController.ClearAllTask cat = new ElasticNotificationController.ClearAllTask();
-        cat.execute( user.getUsername() );
+        cat.executeOnExecutor(ElasticController.getWriteExecutor(), user.getUsername());
         try {
             cat.get();
         } catch (Exception e) {
             // Make the Async in sync
             e.printStackTrace();
         }
-        if (notificationList != null) {
-            notificationList.clear();
-        }
+        getFeed().clear();
+        user.setUnreadNotifications( 0 );
     }
 
     /**
@@ -92,7 +239,7 @@ public class NotificationController {
 
         if(ConnectionChecker.isThereInternet()) {
             ElasticNotificationController.AddNotificationTask ant = new ElasticNotificationController.AddNotificationTask();
-            ant.execute(newNotification);
+            ant.executeOnExecutor(ElasticController.getWriteExecutor(), newNotification);
         }
         return newNotification;
     }
@@ -104,27 +251,56 @@ public class NotificationController {
      */
     public void markNotificationAsRead( Notification notification ) {
         ElasticNotificationController.MarkAsReadTask mart = new ElasticNotificationController.MarkAsReadTask();
-        mart.execute( notification.getID() );
+        mart.executeOnExecutor(ElasticController.getWriteExecutor(), notification.getID());
         try {
             mart.get();
         } catch (Exception e) {
             e.printStackTrace();
         }
         notification.setRead( true );
+        notification.setLastModified( mart.lastModified );
+        notification.setExpiresAt( Notification.expiryOf( true, mart.lastModified ) );
+        getFeed().onChanged( notification );
     }
 
     /**
-     * Marks all request for user as read, if they are currently unread.
+     * Marks all request for user as read, if they are currently unread. The fetched notifications
+     * hold every unread one (they are fetched until all are in), and they are marked together in
+     * one bulk request (or a few, if there are very many of them).
      *
      * @param user A user is anyone who uses our app. This is who we will clear notifications for.
-     * @see #markNotificationAsRead(Notification)
+     * @see ElasticNotificationController.MarkAllAsReadTask
      */
     public void markAllAsRead( User user ) {
-        ArrayList<Notification> notificationList = this.fetchNotifications( user );
+        // A copy, marking a notification read moves it in the list
+        ArrayList<Notification> notificationList = getFeed().isSyncedFor( user.getUsername() )
+                ? new ArrayList<>( NotificationController.notificationList )
+                : new ArrayList<>( this.fetchNotifications( user ) );
+        ArrayList<Notification> unread = new ArrayList<>();
         for (Notification notification : notificationList ) {
-            if( !notification.isRead() ) {
-                this.markNotificationAsRead(notification);
+            if( !notification.isRead() && notification.getID() != null ) {
+                unread.add( notification );
             }
         }
+        if (unread.isEmpty()) {
+            return;
+        }
+
+        ElasticNotificationController.MarkAllAsReadTask maart = new ElasticNotificationController.MarkAllAsReadTask();
+        maart.executeOnExecutor(ElasticController.getWriteExecutor(), unread.toArray(new Notification[unread.size()]));
+        List<Notification> marked;
+        try {
+            marked = maart.get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        for (Notification notification : marked) {
+            notification.setRead( true );
+            notification.setLastModified( maart.lastModified );
+            notification.setExpiresAt( Notification.expiryOf( true, maart.lastModified ) );
+        }
+        getFeed().onChanged( marked );
+        user.setUnreadNotifications( unread.size() - marked.size() );
     }
 }
@@ -0,0 +1,365 @@
+package comcmput301f16t01.github.carrier.Notifications;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import comcmput301f16t01.github.carrier.Listener;
+import comcmput301f16t01.github.carrier.Requests.SyncState;
+
+/**
+ * <p>Keeps a user's notifications up to date by following the changes made to them, instead of
+ * downloading them all every time. Each poll asks the source for the notifications changed since
+ * a cursor (the newest lastModified time seen, less a margin for phones whose clocks are off),
+ * and merges them into the list by ID, keeping it sorted. The number of unread notifications is
+ * kept as changes come in, so checking it does not fetch anything. Since the cursor has a margin,
+ * a poll fetches some notifications again; only those that are new or actually changed count as
+ * changes.</p>
+ * </br>
+ * <p>While started, the feed polls on its own thread like a long poll: right away when asked
+ * to, again soon after something changed, and less and less often while nothing does. A full
+ * fetch is still done now and then (and for a new user) to pick up notifications that were
+ * deleted. Changes are applied on the callback executor (the UI thread in the app), which is
+ * where the list may be read.</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @see Notification#compareTo(Notification)
+ * @see SyncState
+ */
+public class NotificationFeed {
+    /** Where the changes come from (i.e. elastic search). */
+    public interface Source {
+        /**
+         * @param username The user whose notifications to fetch.
+         * @param since The time to fetch changes after, or 0 to fetch every notification.
+         * @return The notifications changed after the time.
+         */
+        List<Notification> changesSince(String username, long since) throws IOException;
+    }
+
+    /** The shortest and longest waits between polls, in milliseconds. */
+    static final long MIN_POLL_INTERVAL = 5 * 1000;
+    static final long MAX_POLL_INTERVAL = 60 * 1000;
+
+    private final Source source;
+    private final Executor callbackExecutor;
+
+    /** The notifications, sorted. Only changed on the callback executor. */
+    private final ArrayList<Notification> notifications;
+    private final Map<String, Notification> byID = new HashMap<>();
+    private final Set<String> unreadIDs = new HashSet<>();
+
+    /** Told whenever the list changes. */
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /** Told once, after the next poll. */
+    private final List<Listener> nextPollListeners = new ArrayList<>();
+
+    /** The user the list was fetched for and the cursor for their changes. */
+    private final SyncState syncState = new SyncState();
+
+    /** The user being followed and the thread following them, null when stopped. */
+    private String followedUsername = null;
+    private Thread poller = null;
+    private boolean pollRequested = false;
+    private long pollInterval = MIN_POLL_INTERVAL;
+
+    /**
+     * @param source Where the changes come from.
+     * @param callbackExecutor Where changes are applied and listeners told (i.e. the UI thread).
+     * @param notifications The list to keep up to date.
+     */
+    public NotificationFeed(Source source, Executor callbackExecutor, ArrayList<Notification> notifications) {
+        this.source = source;
+        this.callbackExecutor = callbackExecutor;
+        this.notifications = notifications;
+    }
+
+    /** @return The notifications, sorted, unread first. */
+    public ArrayList<Notification> getNotifications() {
+        return notifications;
+    }
+
+    /** @return How many of the notifications are unread, without fetching anything. */
+    public synchronized int getUnreadCount() {
+        return unreadIDs.size();
+    }
+
+    /** @return Whether the list has been fetched for the user. */
+    public boolean isSyncedFor(String username) {
+        return syncState.isSyncedFor(username);
+    }
+
+    /** @return How long the feed waits before polling again, in milliseconds. */
+    public synchronized long getPollInterval() {
+        return pollInterval;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Follows the changes to a user's notifications until stopped. Following another user starts
+     * over with a full fetch.
+     */
+    public synchronized void start(String username) {
+        if (username.equals(followedUsername) && poller != null) {
+            return;
+        }
+        followedUsername = username;
+        pollRequested = true;
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                follow(Thread.currentThread());
+            }
+        }, "NotificationFeed");
+        thread.setDaemon(true);
+        poller = thread;
+        thread.start();
+    }
+
+    /** Stops following changes (i.e. while the app is in the background). */
+    public synchronized void stop() {
+        followedUsername = null;
+        poller = null;
+        notifyAll();
+    }
+
+    /**
+     * Polls as soon as possible instead of waiting.
+     * @param listener Told once the poll is done (even if it failed), may be null.
+     */
+    public synchronized void pollNow(Listener listener) {
+        if (listener != null) {
+            nextPollListeners.add(listener);
+        }
+        pollRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Fetches the changes and applies them on the calling thread (which must be the callback
+     * executor's).
+     * @return Whether the fetch worked.
+     */
+    public boolean poll(String username) {
+        long since = syncState.getSince(username, now());
+        try {
+            apply(username, source.changesSince(username, since), since == 0, now());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Merges fetched notifications into the list.
+     * @param username The user they were fetched for.
+     * @param changes The notifications fetched.
+     * @param full Whether every notification was fetched (rather than only the changes).
+     * @param now The current time in milliseconds.
+     * @return How many notifications changed (the listeners are only told if any did).
+     */
+    public int apply(String username, List<Notification> changes, boolean full, long now) {
+        List<Listener> toTell;
+        int changed;
+        long newest = 0;
+        synchronized (this) {
+            changed = countChanges(username, changes, full);
+            if (!full && !syncState.isSyncedFor(username)) {
+                return 0; // changes for someone else, the next poll does a full fetch
+            }
+            if (full && changed > 0) {
+                notifications.clear();
+                byID.clear();
+                unreadIDs.clear();
+            }
+            for (Notification notification : changes) {
+                if (full && changed > 0 && fitsAtEnd(notification)) {
+                    // Full fetches come sorted from elastic search, no need to search for the place
+                    notifications.add(notification);
+                    index(notification);
+                } else if (isChanged(notification)) {
+                    put(notification);
+                }
+                newest = Math.max(newest, notification.getLastModified());
+            }
+            syncState.onSynced(username, newest, full, now);
+            toTell = new ArrayList<>(listeners);
+        }
+        if (changed > 0) {
+            for (Listener listener : toTell) {
+                listener.update();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Updates the list after a notification was changed here (i.e. marked as read), the change
+     * comes back in a later poll too.
+     */
+    public void onChanged(Notification notification) {
+        onChanged(Collections.singletonList(notification));
+    }
+
+    /**
+     * Updates the list after notifications were changed here together (i.e. all marked as read),
+     * the listeners are told once.
+     */
+    public void onChanged(List<Notification> changed) {
+        List<Listener> toTell;
+        synchronized (this) {
+            for (Notification notification : changed) {
+                put(notification);
+            }
+            toTell = new ArrayList<>(listeners);
+        }
+        if (!changed.isEmpty()) {
+            for (Listener listener : toTell) {
+                listener.update();
+            }
+        }
+    }
+
+    /** Empties the list (i.e. after the notifications were deleted), the next poll fetches all. */
+    public synchronized void clear() {
+        notifications.clear();
+        byID.clear();
+        unreadIDs.clear();
+        syncState.reset();
+    }
+
+    /** @return The current time in milliseconds. */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return How many of the fetched notifications are new or changed, and for a full fetch
+     * how many in the list are gone.
+     */
+    private synchronized int countChanges(String username, List<Notification> changes, boolean full) {
+        if (!syncState.isSyncedFor(username)) {
+            // Someone else's list (or none yet), a full fetch replaces all of it
+            return full ? changes.size() + notifications.size() : 0;
+        }
+        Set<String> gone = full ? new HashSet<>(byID.keySet()) : Collections.<String>emptySet();
+        int changed = 0;
+        for (Notification notification : changes) {
+            if (isChanged(notification)) {
+                changed++;
+            }
+            if (full) {
+                gone.remove(notification.getID());
+            }
+        }
+        return changed + gone.size();
+    }
+
+    /** @return Whether a fetched notification is not in the list as it is. */
+    private boolean isChanged(Notification notification) {
+        Notification old = notification.getID() == null ? null : byID.get(notification.getID());
+        return old == null || old.getLastModified() != notification.getLastModified()
+                || old.isRead() != notification.isRead();
+    }
+
+    /** Puts a notification in its sorted place, replacing the one with the same ID. */
+    private void put(Notification notification) {
+        Notification old = notification.getID() == null ? null : byID.get(notification.getID());
+        if (old != null) {
+            notifications.remove(old);
+        }
+        // The same notification changed in place is out of order too
+        notifications.remove(notification);
+        int position = Collections.binarySearch(notifications, notification);
+        notifications.add(position < 0 ? -position - 1 : position, notification);
+        index(notification);
+    }
+
+    /** @return Whether a new notification goes after every notification in the list. */
+    private boolean fitsAtEnd(Notification notification) {
+        return (notification.getID() == null || !byID.containsKey(notification.getID()))
+                && (notifications.isEmpty() || notifications.get(notifications.size() - 1).compareTo(notification) <= 0);
+    }
+
+    /** Keeps a notification in the list findable by ID and in the unread count. */
+    private void index(Notification notification) {
+        if (notification.getID() != null) {
+            byID.put(notification.getID(), notification);
+            if (notification.isRead()) {
+                unreadIDs.remove(notification.getID());
+            } else {
+                unreadIDs.add(notification.getID());
+            }
+        }
+    }
+
+    /** Polls until the feed is stopped or another thread takes over. */
+    private void follow(Thread thread) {
+        synchronized (this) {
+            pollInterval = MIN_POLL_INTERVAL;
+        }
+        while (true) {
+            final String username;
+            synchronized (this) {
+                long waitUntil = now() + pollInterval;
+                while (poller == thread && !pollRequested && now() < waitUntil) {
+                    try {
+                        wait(Math.max(1, waitUntil - now()));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (poller != thread) {
+                    return;
+                }
+                pollRequested = false;
+                username = followedUsername;
+            }
+
+            final long since = syncState.getSince(username, now());
+            List<Notification> fetched;
+            try {
+                fetched = source.changesSince(username, since);
+            } catch (IOException e) {
+                fetched = null;
+            }
+            final List<Notification> changes = fetched;
+            final List<Listener> toTell;
+            synchronized (this) {
+                toTell = new ArrayList<>(nextPollListeners);
+                nextPollListeners.clear();
+                // Poll again soon while things change, less often while they do not (the margin
+                // means some notifications come back every poll, those are not changes)
+                pollInterval = changes != null && countChanges(username, changes, since == 0) > 0
+                        ? MIN_POLL_INTERVAL : Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+            }
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (changes != null) {
+                        apply(username, changes, since == 0, now());
+                    }
+                    for (Listener listener : toTell) {
+                        listener.update();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package comcmput301f16t01.github.carrier;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Writes files on one background thread, so saving never waits on the disk. Each save is a
+ * write to a named file; saving a file again before its last save was written replaces that
+ * save, so a burst of changes to one list costs one write.</p>
+ * </br>
+ * <p>Writes start a short delay after the first save of a burst, to gather the rest of it. A file
+ * is dirty from when it is saved until its write has finished; flush() waits for every dirty file
+ * to be written (i.e. when the app is paused and may be killed).</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ */
+public class PersistenceQueue {
+    private final ScheduledExecutorService writer;
+    private final long delay;
+
+    /** The latest write of each dirty file, in the order they were first saved. */
+    private final LinkedHashMap<String, Runnable> pending = new LinkedHashMap<>();
+
+    /** The file being written, null if none is. */
+    private String writing = null;
+
+    /** Whether a drain of the pending writes is waiting to run. */
+    private boolean scheduled = false;
+
+    private int saves = 0;
+    private int writes = 0;
+
+    /** Writes the pending files one at a time until there are none left. */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                String name;
+                Runnable write;
+                synchronized (PersistenceQueue.this) {
+                    Iterator<Map.Entry<String, Runnable>> first = pending.entrySet().iterator();
+                    if (!first.hasNext()) {
+                        scheduled = false;
+                        PersistenceQueue.this.notifyAll();
+                        return;
+                    }
+                    Map.Entry<String, Runnable> entry = first.next();
+                    first.remove();
+                    name = entry.getKey();
+                    write = entry.getValue();
+                    writing = name;
+                }
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    // One broken write must not stop the others
+                    e.printStackTrace();
+                }
+                synchronized (PersistenceQueue.this) {
+                    writing = null;
+                    writes++;
+                    PersistenceQueue.this.notifyAll();
+                }
+            }
+        }
+    };
+
+    /**
+     * @param delay How long to wait after the first save of a burst before writing, in
+     *              milliseconds.
+     */
+    public PersistenceQueue(long delay) {
+        this.delay = delay;
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PersistenceQueue");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a write of a file, replacing the write queued before it if that has not started yet.
+     * Returns right away.
+     * @param name The file, saves of the same file are merged.
+     * @param write Writes the file, on the writer thread. It must not read anything the caller
+     *              may still change, not even through a copied list (i.e. give it the list
+     *              already encoded).
+     */
+    public synchronized void save(String name, Runnable write) {
+        saves++;
+        pending.put(name, write);
+        if (!scheduled) {
+            scheduled = true;
+            writer.schedule(drain, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** @return Whether the file has been saved but not written yet. */
+    public synchronized boolean isDirty(String name) {
+        return pending.containsKey(name) || name.equals(writing);
+    }
+
+    /**
+     * Writes every dirty file now and waits until they are written. Must not be called from a
+     * write.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (pending.isEmpty() && writing == null) {
+                return;
+            }
+            scheduled = true;
+        }
+        writer.execute(drain);
+        synchronized (this) {
+            try {
+                while (!pending.isEmpty() || writing != null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Writes the dirty files and stops the writer, later saves are not written. */
+    public void shutdown() {
+        flush();
+        writer.shutdown();
+    }
+
+    /** @return How many saves were asked for. */
+    public synchronized int getSaveCount() {
+        return saves;
+    }
+
+    /** @return How many writes were made, at most one per file per burst of saves. */
+    public synchronized int getWriteCount() {
+        return writes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d saves, %d writes, %d dirty", saves, writes, pending.size());
+    }
+}
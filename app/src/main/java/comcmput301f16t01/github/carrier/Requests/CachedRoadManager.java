@@ -0,0 +1,132 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import org.osmdroid.bonuspack.routing.OSRMRoadManager;
+import org.osmdroid.bonuspack.routing.Road;
+import org.osmdroid.bonuspack.routing.RoadManager;
+import org.osmdroid.util.GeoPoint;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import comcmput301f16t01.github.carrier.RouteCache;
+
+/**
+ * Finds roads between two points with OSRM like the OSRMRoadManager, but remembers the shortest
+ * road of each trip in a RouteCache (saved in a file), so the maps of requests and the fare
+ * estimate of a trip seen before do not wait on the routing server.
+ * @see RouteCache
+ */
+public class CachedRoadManager {
+    /** The name of the file the app saves routes in. */
+    private static final String CACHE_FILENAME = "Routes.sav";
+
+    /** How many routes to remember, and for how long (roads rarely change). */
+    private static final int MAX_ROUTES = 100;
+    private static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    private static CachedRoadManager instance = null;
+
+    private final RoadManager roadManager;
+    private final RouteCache cache;
+
+    /**
+     * @param context Any context, the application context is used.
+     * @return The road manager of the app. The first call starts reading the saved routes in the
+     *         background, so peek can find them.
+     */
+    public static synchronized CachedRoadManager getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            if (appContext == null) {
+                appContext = context; // i.e. the system context in tests
+            }
+            final RouteCache cache = new RouteCache(MAX_ROUTES, MAX_AGE,
+                    new File(appContext.getFilesDir(), CACHE_FILENAME));
+            instance = new CachedRoadManager(new OSRMRoadManager(appContext), cache);
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cache.load();
+                }
+            });
+        }
+        return instance;
+    }
+
+    public CachedRoadManager(RoadManager roadManager, RouteCache cache) {
+        this.roadManager = roadManager;
+        this.cache = cache;
+    }
+
+    /**
+     * Finds the roads between the first and last waypoints, on the calling thread. A trip seen
+     * before gives back its shortest road without asking the routing server.
+     * @return The roads found, the first one has the status of the search.
+     * @see RoadManager#getRoads(ArrayList)
+     */
+    public Road[] getRoads(ArrayList<GeoPoint> waypoints) {
+        GeoPoint start = waypoints.get(0);
+        GeoPoint end = waypoints.get(waypoints.size() - 1);
+        RouteCache.Route route = cache.get(start.getLatitude(), start.getLongitude(),
+                end.getLatitude(), end.getLongitude());
+        if (route != null) {
+            return new Road[] { toRoad(route) };
+        }
+
+        Road[] roads = roadManager.getRoads(waypoints);
+        Road shortest = shortest(roads);
+        if (shortest != null) {
+            List<double[]> points = new ArrayList<>(shortest.mRouteHigh.size());
+            for (GeoPoint point : shortest.mRouteHigh) {
+                points.add(new double[] { point.getLatitude(), point.getLongitude() });
+            }
+            cache.put(start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude(),
+                    new RouteCache.Route(shortest.mLength, shortest.mDuration, points));
+        }
+        return roads;
+    }
+
+    /**
+     * Gives back the route of a trip if it was found before, without asking the routing server
+     * or reading the saved routes. Safe to call on the UI thread.
+     * @return The route, or null if the trip has not been seen (recently) or the saved routes
+     *         are still being read.
+     * @see RouteCache#peek(double, double, double, double)
+     */
+    public RouteCache.Route peek(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        return cache.peek(startLatitude, startLongitude, endLatitude, endLongitude);
+    }
+
+    /** @return The shortest road that was found, or null if none were. */
+    private static Road shortest(Road[] roads) {
+        if (roads == null || roads.length == 0 || roads[0].mStatus != Road.STATUS_OK) {
+            return null;
+        }
+        Road shortest = null;
+        for (Road road : roads) {
+            if (road.mRouteHigh != null && !road.mRouteHigh.isEmpty()
+                    && (shortest == null || road.mLength < shortest.mLength)) {
+                shortest = road;
+            }
+        }
+        return shortest;
+    }
+
+    /** @return A road with the length, duration and line of the route. */
+    private static Road toRoad(RouteCache.Route route) {
+        Road road = new Road();
+        road.mStatus = Road.STATUS_OK;
+        road.mLength = route.getLength();
+        road.mDuration = route.getDuration();
+        ArrayList<GeoPoint> line = new ArrayList<>();
+        for (double[] point : route.getPoints()) {
+            line.add(new GeoPoint(point[0], point[1]));
+        }
+        road.mRouteHigh = line;
+        return road;
+    }
+}
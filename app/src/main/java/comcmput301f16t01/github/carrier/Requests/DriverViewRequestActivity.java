@@ -24,7 +24,6 @@ import comcmput301f16t01.github.carrier.Users.UserController;
 import comcmput301f16t01.github.carrier.Users.UsernameTextView;
 
 import org.osmdroid.api.IMapController;
-import org.osmdroid.bonuspack.routing.OSRMRoadManager;
 import org.osmdroid.bonuspack.routing.Road;
 import org.osmdroid.bonuspack.routing.RoadManager;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
@@ -132,6 +131,16 @@ public class DriverViewRequestActivity extends AppCompatActivity {
         setViews();
     }
 
+    /**
+     * Called when the activity is paused, writes the changes made here before the app can be
+     * killed.
+     */
+    @Override
+    public void onPause() {
+        super.onPause();
+        RequestController.flush();
+    }
+
     /**
      * This function finds a BoundingBox that fits both the start and end location points.
      *
@@ -243,8 +252,8 @@ public class DriverViewRequestActivity extends AppCompatActivity {
         protected Road[] doInBackground(Object... params) {
             @SuppressWarnings("unchecked")
             ArrayList<GeoPoint> waypoints = (ArrayList<GeoPoint>) params[0];
-            RoadManager roadManager = new OSRMRoadManager(activity);
-            return roadManager.getRoads(waypoints);
+            // Trips seen before come back from the route cache straight away
+            return CachedRoadManager.getInstance(activity).getRoads(waypoints);
         }
 
         @Override
@@ -1,6 +1,5 @@
 package comcmput301f16t01.github.carrier.Requests;
 
-import android.location.Address;
 import android.location.Location;
 import android.os.AsyncTask;
 import android.util.Log;
@@ -9,22 +8,38 @@ import com.searchly.jestdroid.DroidClientConfig;
 import com.searchly.jestdroid.JestClientFactory;
 import com.searchly.jestdroid.JestDroidClient;
 
-import org.osmdroid.bonuspack.location.GeocoderNominatim;
-
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import comcmput301f16t01.github.carrier.CarrierLocation;
 import comcmput301f16t01.github.carrier.ElasticController;
+import comcmput301f16t01.github.carrier.ElasticExecutor;
+import comcmput301f16t01.github.carrier.ElasticQuery;
+import comcmput301f16t01.github.carrier.GeocodingService;
+import comcmput301f16t01.github.carrier.HitDecoder;
+import comcmput301f16t01.github.carrier.StreamingSearch;
 import comcmput301f16t01.github.carrier.Users.User;
 import comcmput301f16t01.github.carrier.Listener;
 import comcmput301f16t01.github.carrier.Notifications.ConnectionChecker;
 import comcmput301f16t01.github.carrier.Users.UserController;
+import io.searchbox.action.BulkableAction;
 import io.searchbox.client.JestResult;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
 import io.searchbox.core.DeleteByQuery;
 import io.searchbox.core.DocumentResult;
 import io.searchbox.core.Get;
 import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.MultiSearch;
+import io.searchbox.core.MultiSearchResult;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
 import io.searchbox.core.Update;
@@ -50,6 +65,30 @@ public class ElasticRequestController extends ElasticController {
         }
     }
 
+    /** The offers made on a request, used to delete them. */
+    private static final ElasticQuery.Template OFFERS_BY_REQUEST_QUERY = new ElasticQuery()
+            .query(ElasticQuery.match("requestID", ElasticQuery.param("requestID")))
+            .compile("requestID");
+
+    /** The offers made by a driver, used to delete them. */
+    private static final ElasticQuery.Template OFFERS_BY_USER_QUERY = new ElasticQuery()
+            .query(ElasticQuery.match("offeringUser", ElasticQuery.param("username")))
+            .compile("username");
+
+    /** Loads the offers made on a request. */
+    private static final ElasticQuery.Template OFFERS_OF_REQUEST_QUERY = new ElasticQuery()
+            .from(0).size(1000)
+            .query(ElasticQuery.match("requestID", ElasticQuery.param("requestID")))
+            .compile("requestID");
+
+    /** @return A bool query matching requests that are still OPEN or OFFERED. */
+    private static ElasticQuery.Bool available() {
+        return ElasticQuery.bool()
+                .should(ElasticQuery.match("status", Request.Status.OPEN))
+                .should(ElasticQuery.match("status", Request.Status.OFFERED))
+                .minimumShouldMatch(1);
+    }
+
     /**
      * Adds a request to Elastic Search.
      * @see RequestController#addRequest(Request)
@@ -61,6 +100,7 @@ public class ElasticRequestController extends ElasticController {
             verifySettings();
 
             for (Request request : requests) {
+                request.setLastModified(System.currentTimeMillis());
                 Index index = new Index.Builder(request).index("cmput301f16t01").type("request").build();
                 try {
                     DocumentResult result = client.execute(index);
@@ -80,29 +120,20 @@ public class ElasticRequestController extends ElasticController {
 
     /**
      * Verifies that request is available, which means that the status is either "OPEN" or "OFFERED".
+     * Returns null if elastic search could not be asked.
      * @see RequestController#verifyRequestAvailable(String)
      */
     public static class VerifyRequestAvailableTask extends AsyncTask<String, Void, Boolean> {
+        private static final ElasticQuery.Template AVAILABLE_BY_ID_QUERY = new ElasticQuery()
+                .from(0).size(500)
+                .query(available().must(ElasticQuery.match("_id", ElasticQuery.param("id"))))
+                .compile("id");
 
         @Override
         protected Boolean doInBackground(String... ids) {
             verifySettings();
 
-            String query =
-                    "{ \"from\" : 0, \"size\" : 500,\n" +
-                    "  \"query\": {\n" +
-                    "    \"bool\": {\n" +
-                    "      \"must\": { \"match\": { \"_id\": \"" + ids[0] + "\" }},\n" +
-                    "      \"should\": [\n" +
-                    "              { \"match\": { \"status\": \"" + Request.Status.OPEN + "\" }},\n" +
-                    "              { \"match\": { \"status\": \"" + Request.Status.OFFERED + "\" }}\n" +
-                    "      ],\n" +
-                    "      \"minimum_should_match\": \"1\"\n" +
-                    "    }\n" +
-                    "  }\n" +
-                    "}";
-
-            Search search = new Search.Builder(query)
+            Search search = new StreamingSearch.Builder(AVAILABLE_BY_ID_QUERY.render(ids[0]))
                     .addIndex("cmput301f16t01")
                     .addType("request")
                     .build();
@@ -112,14 +143,15 @@ public class ElasticRequestController extends ElasticController {
             try {
                 SearchResult result = client.execute(search);
                 if (result.isSucceeded()) {
-                    List<Request> notificationList = result.getSourceAsObjectList(Request.class);
-                    foundRequests.addAll( notificationList );
+                    // One hit is enough to know that the request is available
+                    foundRequests.addAll( HitDecoder.decodeSources(result.getJsonString(), Request.class, 1) );
                 } else {
                     return null;
                 }
             } catch (IOException e) {
                 e.printStackTrace();
                 Log.i("Error", "Something went wrong when we tried to talk to elastic search");
+                return null;
             }
 
             return foundRequests.size() != 0;
@@ -127,109 +159,89 @@ public class ElasticRequestController extends ElasticController {
     }
 
     /**
-     * Searches by a keyword/string based phrase.
-     * @see RequestController#searchByKeyword(String)
+     * Finds which of the given requests are still available, all with one search. Returns the IDs
+     * of the available ones, or null if elastic search could not be asked.
+     * @see RequestController#pruneSavedSearchResults()
      */
-    public static class SearchByKeywordTask extends AsyncTask<String, Void, RequestList> {
+    public static class FindAvailableTask extends AsyncTask<String, Void, Set<String>> {
+        private static final ElasticQuery.Template AVAILABLE_BY_IDS_QUERY = new ElasticQuery()
+                .from(0).size(ElasticQuery.param("size"))
+                .query(available().filter(ElasticQuery.ids(ElasticQuery.param("ids"))))
+                .compile("ids", "size");
 
         @Override
-        protected RequestList doInBackground(String... search_parameters) {
+        protected Set<String> doInBackground(String... ids) {
             verifySettings();
+            Set<String> available = new HashSet<>();
+            if (ids.length == 0) {
+                return available;
+            }
 
-            // TODO check if this is returning based on most recent results...
-            String query =
-                    "{ \"from\" : 0, \"size\" : 500,\n" +
-                    "  \"query\": {\n" +
-                    "    \"bool\": {\n" +
-                    "      \"must\": { \"match\": { \"description\": \"" + search_parameters[0] + "\" }},\n" +
-                    "      \"should\": [\n" +
-                    "              { \"match\": { \"status\": \"" + Request.Status.OPEN + "\" }},\n" +
-                    "              { \"match\": { \"status\": \"" + Request.Status.OFFERED + "\" }}\n" +
-                    "      ],\n" +
-                    "      \"minimum_should_match\": \"1\"\n" +
-                    "    }\n" +
-                    "  }\n" +
-                    "}";
-
-            Search search = new Search.Builder(query)
+            Search search = new StreamingSearch.Builder(AVAILABLE_BY_IDS_QUERY.render(Arrays.asList(ids), ids.length))
                     .addIndex("cmput301f16t01")
                     .addType("request")
                     .build();
 
-            RequestList foundRequests = new RequestList();
-
             try {
                 SearchResult result = client.execute(search);
-                if (result.isSucceeded()) {
-                    List<Request> notificationList = result.getSourceAsObjectList(Request.class);
-                    foundRequests.addAll( notificationList );
-                } else {
+                if (!result.isSucceeded()) {
                     return null;
                 }
+                for (Request request : HitDecoder.decodeSources(result.getJsonString(), Request.class)) {
+                    available.add(request.getId());
+                }
             } catch (IOException e) {
                 e.printStackTrace();
-                Log.i("Error", "Something went wrong when we tried to talk to elastic search");
+                return null;
             }
-
-            // Load all the offers from these requests
-            getOffers( foundRequests );
-
-            // Filter the requests so that we can't see
-            filterOutLoggedInUser( foundRequests );
-
-            return foundRequests;
+            return available;
         }
-    } // SearchByKeywordTask
+    }
 
     /**
-     * Searches requests by a geo-location.
-     * @see RequestController#searchByLocation(Location)
+     * A search for requests that can be loaded a page at a time with a SearchCursor. Offers are only
+     * loaded for the requests of the page that was found, so the first results can be shown while
+     * the rest have not even been searched for.
+     * @see RequestController#loadMoreResults()
      */
-    public static class SearchByLocationTask extends AsyncTask<Location, Void, RequestList>{
+    public static abstract class PagedSearchTask<Params> extends AsyncTask<Params, Void, RequestList> {
+        /** How many requests a search without a cursor finds. */
+        private static final int MAX_RESULTS = 500;
+
+        /** The price ranges the requests must be in, or null to find requests of any price. */
+        public PriceFilter filter = null;
+
+        /** Where the search is up to, it is moved past the page that is found. If null the first
+         * MAX_RESULTS requests are found at once. */
+        public SearchCursor cursor = null;
+
+        /** If set, the page found is appended to this list (unless the cursor was closed first). */
+        public RequestList appendTo = null;
+
+        /** If set, told about the page found (or that it could not be) on the UI thread. */
+        public ElasticExecutor.Callback<RequestList> callback = null;
 
         /**
-         * Distance represents how far our search query will reach. The unit is kilometres.
+         * @param parameter What to search for.
+         * @param from How many requests to skip (those of the pages before).
+         * @param size How many requests to find.
+         * @return The search query.
          */
-        private static final int DISTANCE = 50;
+        protected abstract String buildQuery(Params parameter, int from, int size);
+
+        /** @return Whether there are no price ranges to filter by. */
+        protected boolean unfiltered() {
+            return filter == null || filter.isEmpty();
+        }
 
+        @SafeVarargs
         @Override
-        protected RequestList doInBackground(Location... search_parameters) {
+        protected final RequestList doInBackground(Params... search_parameters) {
             verifySettings();
 
-            String query =
-                "{ \"from\" : 0, \"size\" : 500,\n" +
-                "  \"query\" : {\n" +
-                "    \"filtered\" : {\n" +
-                "      \"query\" : {\n" +
-                "        \"bool\": { " +
-                "          \"should\": [\n" +
-                "            { \"match\": { \"status\": \"" + Request.Status.OPEN + "\" }},\n" +
-                "            { \"match\": { \"status\": \"" + Request.Status.OFFERED + "\" }}\n" +
-                "          ],\n" +
-                "          \"minimum_should_match\": \"1\"\n" +
-                "        }\n" +
-                "      },\n" +
-                "      \"filter\" : {\n" +
-                "        \"geo_distance\" : {\n" +
-                "          \"distance\" : \"" + DISTANCE + "km\",\n" +
-                "          \"location\" : [" + search_parameters[0].getLongitude() + ", "
-                                             + search_parameters[0].getLatitude() + "]\n" +
-                "        }\n" +
-                "      }\n" +
-                "    }\n" +
-                "  },\n" +
-                "  \"sort\": [ {\n" +
-                "    \"_geo_distance\": {\n" +
-                "      \"location\" : [" + search_parameters[0].getLongitude() + ", "
-                                         + search_parameters[0].getLatitude() + "],\n" +
-                "      \"order\": \"asc\",\n" +
-                "      \"unit\": \"km\",\n" +
-                "      \"distance_type\": \"plane\"\n" +
-                "    }\n" +
-                "  } ]\n" +
-                "}";
-
-            Search search = new Search.Builder(query)
+            SearchCursor page = cursor != null ? cursor : new SearchCursor(MAX_RESULTS);
+            String query = buildQuery(search_parameters[0], page.getFrom(), page.getPageSize());
+            Search search = new StreamingSearch.Builder(query)
                     .addIndex("cmput301f16t01")
                     .addType("request")
                     .build();
@@ -238,15 +250,15 @@ public class ElasticRequestController extends ElasticController {
 
             try {
                 SearchResult result = client.execute(search);
-                if (result.isSucceeded()) {
-                    List<Request> notificationList = result.getSourceAsObjectList(Request.class);
-                    foundRequests.addAll( notificationList );
-                } else {
-                    throw new IllegalArgumentException();
+                if (!result.isSucceeded()) {
+                    return null;
                 }
+                foundRequests.addAll( HitDecoder.decodeSources(result.getJsonString(), Request.class) );
+                page.advance(foundRequests.size());
             } catch (IOException e) {
                 e.printStackTrace();
                 Log.i("Error", "Something went wrong when we tried to talk to elastic search");
+                return null;
             }
 
             // Load all the offers from these requests
@@ -257,27 +269,123 @@ public class ElasticRequestController extends ElasticController {
 
             return foundRequests;
         }
+
+        @Override
+        protected void onPostExecute(RequestList foundRequests) {
+            if (cursor != null) {
+                if (foundRequests == null) {
+                    cursor.failed(); // so scrolling does not search again right away
+                }
+                cursor.doneLoading();
+            }
+            if (appendTo != null && foundRequests != null && (cursor == null || !cursor.isClosed())) {
+                appendTo.append(foundRequests);
+            }
+            if (callback != null) {
+                if (foundRequests != null) {
+                    callback.onSuccess(foundRequests);
+                } else {
+                    callback.onFailure(new IOException("Could not search for requests"));
+                }
+            }
+        }
     }
 
     /**
-     * Searches for a list of possible geo-location from an address string. The resulting geo-location
-     * will be used in a searchByLocation query.
-     * @see RequestController#searchByLocation(Location)
+     * Searches by a keyword/string based phrase.
+     * @see RequestController#searchByKeyword(String, PriceFilter)
      */
-    public static class SearchByAddressTask extends AsyncTask<String, Void, List<Address>> {
+    public static class SearchByKeywordTask extends PagedSearchTask<String> {
+        private static final ElasticQuery.Template KEYWORD_QUERY = keywordQuery(
+                ElasticQuery.param("keyword"), null)
+                .from(ElasticQuery.param("from"))
+                .size(ElasticQuery.param("size"))
+                .compile("keyword", "from", "size");
+
+        /** Available requests with the keyword in their description, within the filter's ranges,
+         * best matches first. */
+        private static ElasticQuery keywordQuery(Object keyword, PriceFilter filter) {
+            ElasticQuery.Bool query = available().must(ElasticQuery.match("description", keyword));
+            if (filter != null) {
+                filter.applyTo(query);
+            }
+            return new ElasticQuery()
+                    .query(query)
+                    .sort("_score", false)
+                    .sort("_uid", true); // so the pages are in the same order every time
+        }
 
         @Override
-        protected List<Address> doInBackground(String... addresses) {
-            List<Address> addressList = null;
+        protected String buildQuery(String keyword, int from, int size) {
+            // TODO check if this is returning based on most recent results...
+            if (unfiltered()) {
+                return KEYWORD_QUERY.render(keyword, from, size);
+            }
+            return keywordQuery(keyword, filter).from(from).size(size).toJson();
+        }
+    } // SearchByKeywordTask
 
-            GeocoderNominatim geoNom = new GeocoderNominatim("");
-            try {
-                // we are only getting a maximum of 50 matching addresses
-                addressList = geoNom.getFromLocationName(addresses[0], 50);
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Searches requests by a geo-location.
+     * @see RequestController#searchByLocation(Location, PriceFilter)
+     */
+    public static class SearchByLocationTask extends PagedSearchTask<Location> {
+
+        /**
+         * Distance represents how far our search query will reach. The unit is kilometres.
+         */
+        static final int DISTANCE = 50;
+
+        private static final ElasticQuery.Template LOCATION_QUERY = locationQuery(
+                ElasticQuery.param("latitude"), ElasticQuery.param("longitude"), null)
+                .from(ElasticQuery.param("from"))
+                .size(ElasticQuery.param("size"))
+                .compile("latitude", "longitude", "from", "size");
+
+        /** Available requests within DISTANCE of the point and the filter's ranges, closest first. */
+        private static ElasticQuery locationQuery(Object latitude, Object longitude, PriceFilter filter) {
+            ElasticQuery.Bool query = available()
+                    .filter(ElasticQuery.geoDistance("location", DISTANCE, latitude, longitude));
+            if (filter != null) {
+                filter.applyTo(query);
             }
-            return addressList;
+            return new ElasticQuery()
+                    .query(query)
+                    .sort(ElasticQuery.geoDistanceSort("location", latitude, longitude))
+                    .sort("_uid", true); // so the pages are in the same order every time
+        }
+
+        @Override
+        protected String buildQuery(Location location, int from, int size) {
+            double latitude = location.getLatitude();
+            double longitude = location.getLongitude();
+            if (unfiltered()) {
+                return LOCATION_QUERY.render(latitude, longitude, from, size);
+            }
+            return locationQuery(latitude, longitude, filter).from(from).size(size).toJson();
+        }
+    }
+
+    /**
+     * Searches for a list of possible geo-location from an address string. The resulting geo-location
+     * will be used in a searchByLocation query. Addresses searched for before are answered from the
+     * geocoding cache.
+     * @see RequestController#searchByLocation(Location)
+     * @see GeocodingService#forward(String, int)
+     */
+    public static class SearchByAddressTask extends AsyncTask<String, Void, List<GeocodingService.Place>> {
+        /** The geocoding service to search with. */
+        private final GeocodingService geocoder;
+
+        /** @param geocoder The geocoding service to search with. */
+        public SearchByAddressTask(GeocodingService geocoder) {
+            this.geocoder = geocoder;
+        }
+
+        @Override
+        protected List<GeocodingService.Place> doInBackground(String... addresses) {
+            // we are only getting a maximum of 50 matching addresses
+            return geocoder.forward(addresses[0], 50);
         }
     }
 
@@ -289,37 +397,48 @@ public class ElasticRequestController extends ElasticController {
 
         public boolean withAsync = false;
 
+        /**
+         * If greater than 0, only requests changed after this time are fetched and they are merged
+         * into the rider's list (in async mode) instead of replacing it.
+         */
+        public long since = 0;
+
+        /** Told about what was fetched in async mode, may be null. */
+        public SyncState syncState = null;
+
+        private String username;
+
+        /** Whether elastic search could not be reached, the sync state is left alone if so. */
+        private boolean failed = false;
+
+        public boolean hasFailed() {
+            return failed;
+        }
+
         @Override
         protected RequestList doInBackground(String... params) {
             verifySettings();
+            username = params[0];
 
             // Set up must match this username bool query
-            String query = "{ \"from\" : 0, \"size\" : 500,\n" +
-                    "  \"query\": {\n" +
-                    "    \"bool\": {\n" +
-                    "      \"must\": { \"match\": { \"rider.username\": \"" + params[0] + "\" }}";
+            ElasticQuery.Bool bool = ElasticQuery.bool()
+                    .must(ElasticQuery.match("rider.username", params[0]));
 
+            if (since > 0) {
+                // only the requests that changed since the last sync
+                bool.filter(ElasticQuery.range("lastModified").gt(since));
+            }
 
             if (params.length > 1) {
-                // add should clause(s)
-                query += ",\n\"should\": [\n";
-                int last = 0;
-                for (int i = 1; i < params.length-1; i++) {
-                    // complete n-1 filters with a comma
-                    query += "{ \"match\": { \"status\": \"" + params[i] + "\" }},";
-                    last = i;
+                // add should clause(s), one of the statuses has to match
+                for (int i = 1; i < params.length; i++) {
+                    bool.should(ElasticQuery.match("status", params[i]));
                 }
-                // Do the final parameter without a comma and close it.
-                query += "{ \"match\": { \"status\": \"" + params[params.length-1]  + "\" }}\n],\n";
-                query += "\"minimum_should_match\": \"1\"\n";
+                bool.minimumShouldMatch(1);
             }
+            String query = new ElasticQuery().from(0).size(500).query(bool).toJson();
 
-            // add final closing brackets
-            query += "\n    }\n" +
-                    "  }\n" +
-                    "}";
-
-            Search search = new Search.Builder(query)
+            Search search = new StreamingSearch.Builder(query)
                     .addIndex("cmput301f16t01")
                     .addType("request")
                     .build();
@@ -329,14 +448,14 @@ public class ElasticRequestController extends ElasticController {
             try {
                 SearchResult result = client.execute(search);
                 if (result.isSucceeded()) {
-                    List<Request> requestList = result.getSourceAsObjectList(Request.class);
-                    foundRequests.addAll( requestList );
+                    foundRequests.addAll( HitDecoder.decodeSources(result.getJsonString(), Request.class) );
                 } else {
                     throw new IllegalArgumentException( query );
                 }
             } catch (IOException e) {
                 e.printStackTrace();
                 Log.i("Error", "Something went wrong when we tried to talk to elastic search");
+                failed = true;
             }
 
             // fill the requests with their respective offering drivers.
@@ -354,16 +473,23 @@ public class ElasticRequestController extends ElasticController {
         protected void onPostExecute(RequestList requests) {
             // Perform our update on the UI thread
             if (withAsync) {
-                RequestController.getRiderInstance().replaceList( requests );
-                if (RequestController.getOfflineRiderRequests().size() > 0) {
-                    for (Request request : RequestController.getOfflineRiderRequests()) {
-                        if (!RequestController.getRiderInstance().contains(request.getId())) {
-                            RequestController.getRiderInstance().add(request);
-                        }
+                // Views listening to the list are told about the fetch and offline requests at once
+                RequestList riderRequests = RequestController.getRiderInstance();
+                riderRequests.beginBatch();
+                try {
+                    if (since > 0) {
+                        riderRequests.merge( requests );
+                    } else {
+                        riderRequests.replaceList( requests );
+                    }
+                    if (syncState != null && !failed) {
+                        syncState.onSynced( username, requests, since <= 0, System.currentTimeMillis() );
                     }
+                    // Requests made offline that have not been replayed yet are still shown
+                    riderRequests.append( RequestController.getOfflineRiderRequests() );
+                } finally {
+                    riderRequests.endBatch();
                 }
-                RequestController.getOfflineRiderRequests().clear();
-                RequestController.saveOfflineRiderRequests();
                 // Save any updated rider requests
                 RequestController.saveRiderRequests();
                 notifyListener();
@@ -376,15 +502,16 @@ public class ElasticRequestController extends ElasticController {
      * Clears requests for a specified rider.
      */
     public static class ClearRiderRequestsTask extends AsyncTask<String, Void, Void> {
+        private static final ElasticQuery.Template RIDER_REQUESTS_QUERY = new ElasticQuery()
+                .query(ElasticQuery.match("rider.username", ElasticQuery.param("username")))
+                .compile("username");
 
         @Override
         protected Void doInBackground(String... search_parameters) {
             verifySettings();
 
             for ( String searchParam : search_parameters ) {
-                String search_string = "{\"query\": {\"match\": {\"rider.username\": \"" + searchParam + "\"}}}";
-
-                DeleteByQuery delete = new DeleteByQuery.Builder(search_string)
+                DeleteByQuery delete = new DeleteByQuery.Builder(RIDER_REQUESTS_QUERY.render(searchParam))
                         .addIndex("cmput301f16t01")
                         .addType("request")
                         .build();
@@ -444,11 +571,7 @@ public class ElasticRequestController extends ElasticController {
                         .build();
                 try {
                     DocumentResult result = client.execute(index);
-                    if (result.isSucceeded()) {
-                        if (RequestController.getOfflineDriverOfferCommands().contains(offer.getRequestID())) {
-                            RequestController.getOfflineDriverOfferCommands().remove(offer.getRequestID());
-                        }
-                    } else {
+                    if (!result.isSucceeded()) {
                         Log.i("Add Offer Failure", "Failed to add offer to elastic search");
                     }
                 } catch (IOException e) {
@@ -486,17 +609,13 @@ public class ElasticRequestController extends ElasticController {
             verifySettings();
 
             for( String searchParam : params ) {
-                String query = "";
+                String query;
 
                 // Depending on the mode we execute a different query.
                 if (mode == MODE_REQUEST_ID) {
-                    query = "{\n" +
-                            "    \"query\": { \"match\": { \"requestID\" : \"" + searchParam + "\" } }\n" +
-                            "}";
+                    query = OFFERS_BY_REQUEST_QUERY.render(searchParam);
                 } else {
-                    query = "{\n" +
-                            "    \"query\": { \"match\": { \"offeringUser\" : \"" + searchParam + "\" } }\n" +
-                            "}";
+                    query = OFFERS_BY_USER_QUERY.render(searchParam);
                 }
 
                 DeleteByQuery delete = new DeleteByQuery.Builder(query)
@@ -518,29 +637,87 @@ public class ElasticRequestController extends ElasticController {
 
     /**
      * Get requests where the driver has offered to complete them. On completion, if there is
-     * a network connection, it loads any offline requests, adds the driver to the request and
+     * a network connection, it adds any offers still waiting in the offline operation log and
      * updates the lists in the RequestController.
      * @see RequestController#getOfferedRequests(User)
      */
     public static class GetOfferedRequestsTask extends AsyncTask<String, Void, RequestList> {
+        /** The driver's offers, and the requests they were confirmed for. */
+        private static final ElasticQuery.Template DRIVER_QUERY = new ElasticQuery()
+                .from(0).size(500)
+                .query(ElasticQuery.multiMatch(ElasticQuery.param("username"),
+                        "chosenDriver.username", "offeringUser"))
+                .compile("username");
+
+        /**
+         * New offers by the driver, and requests that were confirmed to them or are already in
+         * their list, changed after a time.
+         */
+        private static final ElasticQuery.Template DRIVER_CHANGES_QUERY = new ElasticQuery()
+                .from(0).size(500)
+                .query(ElasticQuery.bool()
+                        .filter(ElasticQuery.range("lastModified").gt(ElasticQuery.param("since")))
+                        .should(ElasticQuery.multiMatch(ElasticQuery.param("username"),
+                                "chosenDriver.username", "offeringUser"))
+                        .should(ElasticQuery.ids(ElasticQuery.param("ids")))
+                        .minimumShouldMatch(1))
+                .compile("since", "username", "ids");
+
+        /** Decodes only the offers of a search over offers and requests. */
+        private static final HitDecoder OFFER_HITS = new HitDecoder()
+                .register("offer", Offer.class);
+
+        private static final HitDecoder OFFER_AND_REQUEST_HITS = new HitDecoder()
+                .register("offer", Offer.class)
+                .register("request", Request.class);
 
         public boolean withAsync = false;
 
+        /**
+         * If greater than 0, only new offers and requests changed after this time are fetched and
+         * they are merged into the driver's list (in async mode) instead of replacing it.
+         */
+        public long since = 0;
+
+        /** The IDs of the requests already in the driver's list, used to find their changes. */
+        public List<String> knownRequestIDs = new ArrayList<>();
+
+        /** Told about what was fetched in async mode, may be null. */
+        public SyncState syncState = null;
+
+        /** Requests in the driver's list that were confirmed to another driver since. */
+        private Set<String> removedRequestIDs = new HashSet<>();
+
+        private String username;
+
+        /** Number of requests made to elastic search by the last run of this task. */
+        private int roundTrips = 0;
+
+        /** How long, in milliseconds, the last run of this task spent talking to elastic search. */
+        private long elapsedTime = 0;
+
+        public int getRoundTrips() {
+            return roundTrips;
+        }
+
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
         @Override
         protected RequestList doInBackground(String... params) {
             verifySettings();
+            long startTime = System.currentTimeMillis();
+            roundTrips = 0;
+            username = params[0];
 
-            RequestList foundRequests = new RequestList();
+            if (since > 0) {
+                return getChanges( params[0], startTime );
+            }
 
-            String query =
-                    "{ \"from\": 0, \"size\": 500,\n" +
-                    "    \"query\": { \"multi_match\": { " +
-                            "\"query\" : \"" + params[0] + "\"," +
-                            "\"fields\" : [\"chosenDriver.username\", \"offeringUser\"], \n" +
-                            "\"operator\" : \"or\"\n" +
-                            "}}}\n";
+            RequestList foundRequests = new RequestList();
 
-            Search search = new Search.Builder(query)
+            Search search = new StreamingSearch.Builder(DRIVER_QUERY.render(params[0]))
                     .addIndex("cmput301f16t01")
                     .addType("offer")
                     .addType("request")
@@ -548,6 +725,7 @@ public class ElasticRequestController extends ElasticController {
 
             SearchResult result;
             try {
+                roundTrips++;
                 result = client.execute(search);
                 if (!result.isSucceeded()) {
                     return null;
@@ -556,44 +734,133 @@ public class ElasticRequestController extends ElasticController {
                 e.printStackTrace();
                 return null;
             }
-            List<Offer> offers = result.getSourceAsObjectList(Offer.class);
+            // Only the offer hits are needed, the requests are loaded from the offers
+            final List<Offer> offers = new ArrayList<>();
+            try {
+                OFFER_HITS.decode(result.getJsonString(), new HitDecoder.Callback() {
+                    @Override
+                    public boolean onHit(String type, String id, Object source) {
+                        offers.add((Offer) source);
+                        return true;
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
             if (offers.size() > 0) {
                 foundRequests = getRequests( offers );
             }
+
+            elapsedTime = System.currentTimeMillis() - startTime;
+            Log.i("GetOfferedRequestsTask", "Loaded requests for " + offers.size() + " offers in "
+                    + roundTrips + " round trip(s), " + elapsedTime + "ms");
             return foundRequests;
         }
 
         /**
-         * Get requests for the given offers
+         * Fetches only what changed since the last sync in one search over offers and requests: new
+         * offers by the driver, and requests that were confirmed to the driver or are already in
+         * their list and have changed. The requests of new offers are then loaded with getRequests.
+         */
+        private RequestList getChanges(final String username, long startTime) {
+            Search search = new StreamingSearch.Builder(DRIVER_CHANGES_QUERY.render(since, username, knownRequestIDs))
+                    .addIndex("cmput301f16t01")
+                    .addType("offer")
+                    .addType("request")
+                    .build();
+
+            // The hits are a mix of offers and requests, sort them out by type as they are decoded.
+            final RequestList changedRequests = new RequestList();
+            final List<Offer> newOffers = new ArrayList<>();
+            final Set<String> changedIDs = new HashSet<>();
+            try {
+                roundTrips++;
+                SearchResult result = client.execute(search);
+                if (!result.isSucceeded()) {
+                    return null;
+                }
+                OFFER_AND_REQUEST_HITS.decode(result.getJsonString(), new HitDecoder.Callback() {
+                    @Override
+                    public boolean onHit(String type, String id, Object source) {
+                        if (source instanceof Offer) {
+                            newOffers.add((Offer) source);
+                            return true;
+                        }
+                        Request request = (Request) source;
+                        changedIDs.add(request.getId());
+                        User confirmed = request.getConfirmedDriver();
+                        if (confirmed != null && !confirmed.getUsername().equals(username)) {
+                            removedRequestIDs.add(request.getId()); // another driver was chosen
+                        } else {
+                            changedRequests.add(request);
+                        }
+                        return true;
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            // Load the requests of new offers that did not change themselves
+            List<Offer> offersToLoad = new ArrayList<>();
+            for (Offer offer : newOffers) {
+                if (!changedIDs.contains(offer.getRequestID())) {
+                    offersToLoad.add(offer);
+                }
+            }
+            if (offersToLoad.size() > 0) {
+                RequestList offeredRequests = getRequests( offersToLoad );
+                if (offeredRequests == null) {
+                    return null;
+                }
+                changedRequests.addAll( offeredRequests );
+            }
+
+            elapsedTime = System.currentTimeMillis() - startTime;
+            Log.i("GetOfferedRequestsTask", "Synced " + changedRequests.size() + " changed requests in "
+                    + roundTrips + " round trip(s), " + elapsedTime + "ms");
+            return changedRequests;
+        }
+
+        /**
+         * Get requests for the given offers. All of the requests are loaded with a single multi-get
+         * keyed by the offers' request IDs (duplicates removed).
          * TODO move this class to be a general sub-task of the ElasticRequestController class
          */
         private RequestList getRequests(List<Offer> offers) {
-            RequestList requestList = new RequestList();
+            // Collect each request ID only once, an offer may point to the same request as another.
+            Set<String> requestIDs = new LinkedHashSet<>();
             for (Offer offer : offers ) {
                 // Check if an offer contains null values
                 if (offer.getRequestID() != null && offer.getOfferingUser() != null) {
                     // TODO prune ones that no longer relate to a driver? (i.e. cancelled)
-                    String query =
-                            "{ \"from\": 0, \"size\": 1,\n" +
-                            "    \"query\": { \"match\": { \"_id\": \"" + offer.getRequestID() + "\" } }\n" +
-                            "}";
+                    requestIDs.add(offer.getRequestID());
+                }
+            }
 
-                    Search search = new Search.Builder(query)
-                            .addIndex("cmput301f16t01")
-                            .addType("request")
-                            .build();
+            RequestList requestList = new RequestList();
+            if (requestIDs.isEmpty()) {
+                return requestList;
+            }
 
-                    try {
-                        SearchResult result = client.execute(search);
-                        if (result.isSucceeded()) {
-                            requestList.add(result.getSourceAsObject(Request.class));
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return null;
-                    }
+            MultiGet multiGet = new MultiGet.Builder.ById("cmput301f16t01", "request")
+                    .addId(requestIDs)
+                    .build();
+
+            try {
+                roundTrips++;
+                JestResult result = client.execute(multiGet);
+                if (result.isSucceeded()) {
+                    // Requests that no longer exist come back without a source and are skipped
+                    requestList.addAll( HitDecoder.decodeSources(result.getJsonString(), Request.class) );
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
             }
+
             RequestList filteredRequests = new RequestList();
             for(Request request : requestList) {
                 if (request.getConfirmedDriver() == null) {
@@ -609,26 +876,28 @@ public class ElasticRequestController extends ElasticController {
         protected void onPostExecute(RequestList requests) {
             // Perform result update on UI thread if there is internet
             if (ConnectionChecker.isThereInternet()) {
-                if (withAsync) {
-                    // replace list of offered requests with those we just got from elastic search
-                    RequestController.getOffersInstance().replaceList( requests );
-                    // load in any offline requests
-                    RequestController.loadDriverOfferCommands();
-                    // if there are offline offer commands that must be posted, post them
-                    if(RequestController.getOfflineDriverOfferCommands().size() > 0) {
-                        RequestList offlineRequests = new RequestList();
-                        Iterator<OfferCommand> iterator = RequestController.getOfflineDriverOfferCommands().iterator();
-                        while(iterator.hasNext()) {
-                            OfferCommand tempOfferCommand = iterator.next();
-                            iterator.remove();
-                            Request request = RequestController.addOfflineOffer(tempOfferCommand);
-                            offlineRequests.add(request);
+                if (withAsync && requests == null) {
+                    notifyListener(); // could not reach elastic search, keep what we have
+                } else if (withAsync) {
+                    // Views listening to the list are told about all of the changes at once
+                    RequestList offeredRequests = RequestController.getOffersInstance();
+                    offeredRequests.beginBatch();
+                    try {
+                        if (since > 0) {
+                            // merge the changes into the list of offered requests
+                            offeredRequests.removeIds( removedRequestIDs );
+                            offeredRequests.merge( requests );
+                        } else {
+                            // replace list of offered requests with those we just got from elastic search
+                            offeredRequests.replaceList( requests );
                         }
-                        // add the offline request to the list we just grabbed from elastic search
-                        RequestController.getOffersInstance().append(offlineRequests);
-                        // get rid of all the offline requests, since they now live on elastic search
-                        RequestController.getOfflineDriverOfferCommands().clear();
-                        RequestController.saveDriverOfferCommands();
+                        if (syncState != null) {
+                            syncState.onSynced( username, requests, since <= 0, System.currentTimeMillis() );
+                        }
+                        // Offers made offline that have not been replayed yet are still shown
+                        offeredRequests.append( RequestController.getOfflineOfferedRequests() );
+                    } finally {
+                        offeredRequests.endBatch();
                     }
                     // Save any updated driver requests
                     RequestController.saveDriverOfferedRequests();
@@ -647,27 +916,8 @@ public class ElasticRequestController extends ElasticController {
             verifySettings();
 
             for (Request request : params ) {
-                // Start with basic query to change the status
-                String query =
-                        "{\n" +
-                        "    \"doc\": {\n" +
-                        "        \"status\": \"" + request.getStatus() + "\"";
-
-                // If there is a chosenDriver, update that as well.
-                // TODO if the status is changing to complete or paid or cancelled we might not need this.
-                if ( request.getChosenDriver() != null ) {
-                    User chosen = request.getChosenDriver();
-                    query += ",\n" +
-                        "        \"chosenDriver\": {\n" +
-                        "            \"email\": \"" + chosen.getEmail() + "\",\n" +
-                        "            \"phoneNumber\": \"" + chosen.getPhone() + "\",\n" +
-                        "            \"username\": \"" + chosen.getUsername() + "\"\n" +
-                        "        }\n";
-                }
-
-                // finishing brackets for the query.
-                query += "    }\n" +
-                        "}";
+                request.setLastModified(System.currentTimeMillis());
+                String query = buildUpdateQuery( request.getStatus(), request.getChosenDriver(), request.getLastModified() );
 
                 Update update = new Update.Builder(query)
                         .index("cmput301f16t01")
@@ -687,61 +937,286 @@ public class ElasticRequestController extends ElasticController {
     }
 
     /**
-     * Sub-task: grab the offers for a request and then populate a request with them.
-     * @see #populate(Request, List)
+     * Builds the partial document used to update the status (and chosen driver) of a request.
+     * @param status The new status of the request.
+     * @param chosen The chosen driver, or null to leave it unchanged.
+     * @param lastModified When the change was made, so that other phones sync it.
      */
-    private static void getOffers(RequestList foundRequests) {
-        for( Request request : foundRequests ) {
-            // TODO filter requests that will not have offering drivers?
+    static String buildUpdateQuery( Request.Status status, User chosen, long lastModified ) {
+        // Start with the status
+        ElasticQuery.Clause fields = ElasticQuery.object()
+                .put("lastModified", lastModified)
+                .put("status", status);
+
+        // If there is a chosenDriver, update that as well.
+        // TODO if the status is changing to complete or paid or cancelled we might not need this.
+        if ( chosen != null ) {
+            fields.put("chosenDriver", ElasticQuery.object()
+                    .put("email", chosen.getEmail())
+                    .put("phoneNumber", chosen.getPhone())
+                    .put("username", chosen.getUsername()));
+        }
+        return ElasticQuery.doc(fields).toJson();
+    }
 
-            String query =
-                    "{ \"from\":0, \"size\":1000,\n" +
-                            "    \"query\": { \"match\": { \"requestID\" : \"" + request.getId() + "\" } }\n" +
-                            "}";
-            Search search = new Search.Builder(query)
-                    .addIndex("cmput301f16t01")
-                    .addType("offer")
+    /**
+     * Replays the operations waiting in the offline operation log on elastic search. The oldest
+     * operations (up to REPLAY_BATCH_SIZE) are sent in order in a single _bulk request, so they
+     * are pipelined in one round trip instead of one task each. Every operation writes to fixed
+     * document IDs (see OfflineOperation), so sending one again after a crash or a partial failure
+     * does not duplicate anything.
+     * </br>
+     * Operations are acknowledged in order up to the first one that failed; that one and
+     * everything after it is sent again next time so the final state is the same as if the
+     * operations had been made online. Operations elastic search rejects outright (i.e. the request
+     * was deleted) are dropped so they do not block the log forever.
+     * </br>
+     * Returns null if there was a failure, otherwise whether the log has been emptied.
+     * @see RequestController#replayOfflineOperations()
+     */
+    public static class ReplayOfflineOperationsTask extends AsyncTask<OfflineOperationLog, Void, Boolean> {
+        /** The most operations sent in one _bulk request. */
+        private static final int REPLAY_BATCH_SIZE = 100;
+
+        /** Finds the addresses of requests made offline, if null they are sent without them. */
+        public GeocodingService geocoder = null;
+
+        @Override
+        protected Boolean doInBackground(OfflineOperationLog... params) {
+            verifySettings();
+            OfflineOperationLog log = params[0];
+
+            List<OfflineOperation> operations = log.getPending();
+            if (operations.size() > REPLAY_BATCH_SIZE) {
+                operations = operations.subList(0, REPLAY_BATCH_SIZE);
+            }
+            if (operations.isEmpty()) {
+                return true;
+            }
+            fillAddresses( operations );
+
+            // Each operation adds one or two actions, remember how many so results can be matched up.
+            List<BulkableAction<?>> actions = new ArrayList<>();
+            int[] actionCounts = new int[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                int before = actions.size();
+                addActions( operations.get(i), actions );
+                actionCounts[i] = actions.size() - before;
+            }
+
+            Bulk bulk = new Bulk.Builder()
+                    .defaultIndex("cmput301f16t01")
+                    .addAction(actions)
                     .build();
 
+            List<BulkResult.BulkResultItem> items;
             try {
-                SearchResult result = client.execute(search);
-                if (result.isSucceeded()) {
-                    List<Offer> offers = result.getSourceAsObjectList(Offer.class);
-                    populate( request, offers );
+                BulkResult result = client.execute(bulk);
+                items = result.getItems();
+            } catch (IOException e) {
+                Log.i("Replay Failure", "Could not reach elastic search to replay offline changes.");
+                e.printStackTrace();
+                return null;
+            }
+            if (items == null || items.size() != actions.size()) {
+                Log.i("Replay Failure", "Unexpected response replaying offline changes.");
+                return null;
+            }
+
+            boolean failed = false;
+            int item = 0;
+            for (int i = 0; i < operations.size(); i++) {
+                OfflineOperation operation = operations.get(i);
+                boolean retry = false;
+                for (int j = 0; j < actionCounts[i]; j++, item++) {
+                    int status = items.get(item).status;
+                    if (status >= 400 && (status >= 500 || status == 429)) {
+                        retry = true;
+                    } else if (status >= 400) {
+                        Log.i("Replay Failure", "Dropping offline " + operation.getType() + ": "
+                                + items.get(item).error);
+                    }
+                }
+                failed = failed || retry;
+                if (!failed) {
+                    if (operation.getType() == OfflineOperation.Type.CONFIRM) {
+                        // The other offers are not needed once a driver is confirmed.
+                        deleteOffers( operation.getRequest().getId() );
+                    }
+                    log.acknowledge( operation.getKey() );
                 }
+            }
+            log.sync();
+
+            return failed ? null : log.isEmpty();
+        }
+
+        /**
+         * Requests made offline could not be geocoded, so find the addresses of their start and
+         * end points now, all together before the requests are sent.
+         */
+        private void fillAddresses( List<OfflineOperation> operations ) {
+            if (geocoder == null) {
+                return;
+            }
+            List<CarrierLocation> locations = new ArrayList<>();
+            List<GeocodingService.Place> places = new ArrayList<>();
+            for (OfflineOperation operation : operations) {
+                if (operation.getType() != OfflineOperation.Type.ADD_REQUEST) {
+                    continue;
+                }
+                for (CarrierLocation location : new CarrierLocation[] {
+                        operation.getRequest().getStart(), operation.getRequest().getEnd() }) {
+                    if (location != null && location.getAddress() == null) {
+                        locations.add(location);
+                        places.add(new GeocodingService.Place(location.getLatitude(), location.getLongitude(), null));
+                    }
+                }
+            }
+            if (places.isEmpty()) {
+                return;
+            }
+            List<String> addresses = geocoder.reverseAll(places);
+            for (int i = 0; i < locations.size(); i++) {
+                locations.get(i).setAddress(addresses.get(i));
+            }
+        }
+
+        /** Adds the elastic search actions that make the given operation. */
+        private void addActions( OfflineOperation operation, List<BulkableAction<?>> actions ) {
+            Request request = operation.getRequest();
+            switch (operation.getType()) {
+                case ADD_REQUEST:
+                    request.setLastModified(System.currentTimeMillis());
+                    actions.add(new Index.Builder(request)
+                            .index("cmput301f16t01")
+                            .type("request")
+                            .id(request.getId())
+                            .build());
+                    break;
+                case ADD_OFFER:
+                    actions.add(new Index.Builder(new Offer(request, operation.getDriver()))
+                            .index("cmput301f16t01")
+                            .type("offer")
+                            .id(operation.getKey())
+                            .build());
+                    actions.add(buildUpdate( request.getId(), operation.getStatus(), request.getChosenDriver() ));
+                    break;
+                case CONFIRM:
+                    actions.add(buildUpdate( request.getId(), operation.getStatus(), operation.getDriver() ));
+                    break;
+                default: // COMPLETE, PAY and CANCEL only change the status
+                    actions.add(buildUpdate( request.getId(), operation.getStatus(), request.getChosenDriver() ));
+                    break;
+            }
+        }
+
+        private Update buildUpdate( String requestID, Request.Status status, User chosen ) {
+            return new Update.Builder( buildUpdateQuery( status, chosen, System.currentTimeMillis() ) )
+                    .index("cmput301f16t01")
+                    .type("request")
+                    .id(requestID)
+                    .build();
+        }
+
+        private void deleteOffers( String requestID ) {
+            DeleteByQuery delete = new DeleteByQuery.Builder(OFFERS_BY_REQUEST_QUERY.render(requestID))
+                    .addIndex("cmput301f16t01")
+                    .addType("offer")
+                    .build();
+            try {
+                client.execute( delete );
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-    } //getOffers sub-task
+
+        @Override
+        protected void onPostExecute(Boolean emptied) {
+            RequestController.onReplayFinished( emptied );
+            super.onPostExecute(emptied);
+        }
+    } // ReplayOfflineOperationsTask
 
     /**
-     * Sub-task: For each offer object, grab the user information associated with it and add it as
-     * an offer to the request.
+     * Sub-task: grab the offers for every request in one multi-search round trip and then
+     * populate the requests with them.
+     * @see #populate(Map)
      */
-    private static void populate(Request request, List<Offer> offers) {
-        request.getOfferedDrivers().clear();
-        for( Offer offer : offers ) {
-            String query =
-                    "{ \"from\":0, \"size\":1,\n" +
-                            "    \"query\": { \"match\": { \"username\" : \"" + offer.getOfferingUser() + "\" } }\n" +
-                            "}";
-
-            Search search = new Search.Builder(query)
+    private static void getOffers(RequestList foundRequests) {
+        // One offer search per request, all sent to elastic search in a single _msearch call.
+        List<Request> searchedRequests = new ArrayList<>();
+        List<Search> offerSearches = new ArrayList<>();
+        for( Request request : foundRequests ) {
+            if (request.getId() == null) {
+                continue; // an unsaved request cannot have offers yet
+            }
+            offerSearches.add(new Search.Builder(OFFERS_OF_REQUEST_QUERY.render(request.getId()))
                     .addIndex("cmput301f16t01")
-                    .addType("user")
-                    .build();
+                    .addType("offer")
+                    .build());
+            searchedRequests.add(request);
+        }
+        if (offerSearches.isEmpty()) {
+            return;
+        }
 
-            try {
-                SearchResult result = client.execute(search);
-                if (result.isSucceeded()) {
-                    User offeringUser = result.getSourceAsObject(User.class);
-                    try {
-                        request.addOfferingDriver(offeringUser);
-                    } catch (Exception e) { /* possibly do nothing */ }
+        MultiSearch multiSearch = new MultiSearch.Builder(offerSearches).build();
+
+        // Responses come back in the same order as the searches were added.
+        Map<Request, List<Offer>> offersByRequest = new LinkedHashMap<>();
+        try {
+            MultiSearchResult result = client.execute(multiSearch);
+            if (!result.isSucceeded()) {
+                Log.i("Get Offers Failure", "Failed to load offers: " + result.getErrorMessage());
+                return;
+            }
+            List<List<Offer>> responses = HitDecoder.decodeResponses(result.getJsonString(), Offer.class);
+            for (int i = 0; i < responses.size() && i < searchedRequests.size(); i++) {
+                if (responses.get(i) != null) {
+                    offersByRequest.put(searchedRequests.get(i), responses.get(i));
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        populate( offersByRequest );
+    } //getOffers sub-task
+
+    /**
+     * Sub-task: Resolve every offering username through the user cache (one multi-search round
+     * trip for the ones not cached), then add the matching user to each request as an offer. A
+     * driver that offered on several requests is only looked up once.
+     * @see comcmput301f16t01.github.carrier.Users.UserCache
+     */
+    private static void populate(Map<Request, List<Offer>> offersByRequest) {
+        // Collect the distinct usernames, keeping the order we first saw them in.
+        Set<String> usernames = new LinkedHashSet<>();
+        for( List<Offer> offers : offersByRequest.values() ) {
+            for( Offer offer : offers ) {
+                if (offer.getOfferingUser() != null) {
+                    usernames.add(offer.getOfferingUser());
+                }
+            }
+        }
+
+        // Drivers looked up recently come from the cache, the rest are looked up together.
+        Map<String, User> usersByName = UserController.getUserCache().getAll(usernames);
+
+        // Attach the users in memory, no more round trips needed.
+        for( Map.Entry<Request, List<Offer>> entry : offersByRequest.entrySet() ) {
+            Request request = entry.getKey();
+            request.getOfferedDrivers().clear();
+            for( Offer offer : entry.getValue() ) {
+                User offeringUser = usersByName.get(offer.getOfferingUser());
+                if (offeringUser == null) {
+                    continue;
+                }
+                try {
+                    request.addOfferingDriver(offeringUser);
+                } catch (Exception e) { /* possibly do nothing */ }
             }
         }
     } // populate sub-task
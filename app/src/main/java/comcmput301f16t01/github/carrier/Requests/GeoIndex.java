@@ -0,0 +1,228 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spatial index of requests by where they start, to search requests by location on the phone
+ * (i.e. the cached search results while offline) the way elastic search would. The globe is cut
+ * into a grid of CELL_DEGREES by CELL_DEGREES cells (like a short geohash), so a search only looks
+ * at the requests in the cells that overlap it instead of every request in the cache.
+ * </br>
+ * Distances are great circle distances in kilometres, and results come back closest first.
+ * @see RequestController#searchByLocation(android.location.Location, PriceFilter)
+ */
+public class GeoIndex {
+    /** The size of a cell of the grid in degrees, about 28 km north to south. */
+    private static final double CELL_DEGREES = 0.25;
+
+    private static final int LATITUDE_CELLS = (int) Math.ceil(180 / CELL_DEGREES);
+    private static final int LONGITUDE_CELLS = (int) Math.ceil(360 / CELL_DEGREES);
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    /** Half the circumference of the earth, no two points are further apart. */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    /** How far a nearest(...) search looks first, it looks twice as far until it finds enough. */
+    private static final double FIRST_NEAREST_RADIUS_KM = 10;
+
+    /** The requests in each cell that has any, by the cell's key. */
+    private final Map<Long, List<Point>> cells = new HashMap<>();
+    private int size = 0;
+
+    /**
+     * Adds a request at its start location.
+     * @return False if the request has no location to index it by.
+     */
+    public boolean add(Request request) {
+        Point point = Point.of(request);
+        if (point == null) {
+            return false;
+        }
+        long key = cellKey(latitudeCell(point.latitude), longitudeCell(point.longitude));
+        List<Point> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>();
+            cells.put(key, cell);
+        }
+        cell.add(point);
+        size++;
+        return true;
+    }
+
+    public void addAll(Collection<Request> requests) {
+        for (Request request : requests) {
+            add(request);
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        size = 0;
+    }
+
+    /** @return How many requests are in the index. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param latitude The latitude of the center of the search.
+     * @param longitude The longitude of the center of the search.
+     * @param radius How far from the center to search, in kilometres.
+     * @return The requests within the radius of the center, closest first.
+     */
+    public RequestList withinRadius(double latitude, double longitude, double radius) {
+        List<Found> found = search(latitude, longitude, radius);
+        RequestList requests = new RequestList();
+        for (Found result : found) {
+            requests.add(result.request);
+        }
+        return requests;
+    }
+
+    /**
+     * @param latitude The latitude to search from.
+     * @param longitude The longitude to search from.
+     * @param count How many requests to find.
+     * @return The count requests closest to the point (or every request if there are fewer),
+     *         closest first.
+     */
+    public RequestList nearest(double latitude, double longitude, int count) {
+        List<Found> found = Collections.emptyList();
+        if (count > 0 && size > 0) {
+            // Look twice as far each time, the search is exact so the closest found are the closest
+            double radius = FIRST_NEAREST_RADIUS_KM;
+            found = search(latitude, longitude, radius);
+            while (found.size() < Math.min(count, size) && radius < MAX_DISTANCE_KM) {
+                radius = Math.min(radius * 2, MAX_DISTANCE_KM);
+                found = search(latitude, longitude, radius);
+            }
+        }
+        RequestList requests = new RequestList();
+        for (int i = 0; i < found.size() && i < count; i++) {
+            requests.add(found.get(i).request);
+        }
+        return requests;
+    }
+
+    /** @return The great circle distance between two points in kilometres. */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /** @return Every request within the radius of the point, closest first. */
+    private List<Found> search(double latitude, double longitude, double radius) {
+        List<Found> found = new ArrayList<>();
+
+        // The cells of the box around the circle, the box is wider away from the equator
+        double latitudeSpan = Math.toDegrees(radius / EARTH_RADIUS_KM);
+        double south = Math.max(-90, latitude - latitudeSpan);
+        double north = Math.min(90, latitude + latitudeSpan);
+        double widest = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+        double longitudeSpan = widest > 0 ? latitudeSpan / widest : 360;
+
+        int firstLatitudeCell = latitudeCell(south);
+        int lastLatitudeCell = latitudeCell(north);
+        int firstLongitudeCell;
+        int longitudeCellCount;
+        if (longitudeSpan >= 180) {
+            firstLongitudeCell = 0;
+            longitudeCellCount = LONGITUDE_CELLS;
+        } else {
+            firstLongitudeCell = longitudeCell(longitude - longitudeSpan);
+            longitudeCellCount = Math.min(LONGITUDE_CELLS,
+                    floorMod(longitudeCell(longitude + longitudeSpan) - firstLongitudeCell, LONGITUDE_CELLS) + 1);
+        }
+
+        for (int latitudeCell = firstLatitudeCell; latitudeCell <= lastLatitudeCell; latitudeCell++) {
+            for (int i = 0; i < longitudeCellCount; i++) {
+                // Wrap around at the antimeridian
+                int longitudeCell = (firstLongitudeCell + i) % LONGITUDE_CELLS;
+                List<Point> cell = cells.get(cellKey(latitudeCell, longitudeCell));
+                if (cell == null) {
+                    continue;
+                }
+                for (Point point : cell) {
+                    double distance = distance(latitude, longitude, point.latitude, point.longitude);
+                    if (distance <= radius) {
+                        found.add(new Found(point.request, distance));
+                    }
+                }
+            }
+        }
+
+        Collections.sort(found, new Comparator<Found>() {
+            @Override
+            public int compare(Found first, Found second) {
+                return Double.compare(first.distance, second.distance);
+            }
+        });
+        return found;
+    }
+
+    private static int latitudeCell(double latitude) {
+        return Math.min(LATITUDE_CELLS - 1, (int) Math.floor((latitude + 90) / CELL_DEGREES));
+    }
+
+    private static int longitudeCell(double longitude) {
+        return floorMod((int) Math.floor((longitude + 180) / CELL_DEGREES), LONGITUDE_CELLS);
+    }
+
+    private static long cellKey(int latitudeCell, int longitudeCell) {
+        return (long) latitudeCell * LONGITUDE_CELLS + longitudeCell;
+    }
+
+    private static int floorMod(int x, int y) {
+        int mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+
+    /** A request and where it is. */
+    private static class Point {
+        final Request request;
+        final double latitude;
+        final double longitude;
+
+        private Point(Request request, double latitude, double longitude) {
+            this.request = request;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        /** @return Where the request starts, or null if it does not say. */
+        static Point of(Request request) {
+            // The location elastic search indexes the request by is [longitude, latitude]
+            Double[] location = request.getLocation();
+            if (location != null && location.length == 2 && location[0] != null && location[1] != null) {
+                return new Point(request, location[1], location[0]);
+            }
+            if (request.getStart() != null) {
+                return new Point(request, request.getStart().getLatitude(), request.getStart().getLongitude());
+            }
+            return null;
+        }
+    }
+
+    /** A request found by a search and how far it is from the center of the search. */
+    private static class Found {
+        final Request request;
+        final double distance;
+
+        Found(Request request, double distance) {
+            this.request = request;
+            this.distance = distance;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import comcmput301f16t01.github.carrier.CarrierLocation;
 import comcmput301f16t01.github.carrier.FareCalculator;
 import comcmput301f16t01.github.carrier.MainActivity;
 import comcmput301f16t01.github.carrier.R;
+import comcmput301f16t01.github.carrier.RouteCache;
 import comcmput301f16t01.github.carrier.SetLocationsActivity;
 import comcmput301f16t01.github.carrier.Users.User;
 import comcmput301f16t01.github.carrier.Users.UserController;
@@ -92,6 +93,8 @@ public class MakeRequestActivity extends AppCompatActivity {
         setTitle("New Request");
         setButtons(); // setting increment and decrement fare buttons
         activity.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_ADJUST_PAN);
+        // Starts reading the saved routes, so the fare estimate can use them
+        CachedRoadManager.getInstance(this);
 
         // if this came from the location selector we have data to save here
         Intent intent = getIntent();
@@ -248,6 +251,15 @@ public class MakeRequestActivity extends AppCompatActivity {
         if(start == null || end == null) {
             Toast.makeText(activity, "You must first select a start and end location", Toast.LENGTH_SHORT).show();
         } else {
+            if (distance == 0) {
+                // The route was not viewed this time, but it may have been found before
+                RouteCache.Route route = CachedRoadManager.getInstance(activity).peek(
+                        start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude());
+                if (route != null) {
+                    distance = route.getLength();
+                    duration = route.getDuration();
+                }
+            }
             int fareEstimate = FareCalculator.getEstimate(distance, duration);
             Currency localCurrency = Currency.getInstance( Locale.getDefault() );
             TextView currencyTextView = (TextView) findViewById(R.id.textView_currencySign);
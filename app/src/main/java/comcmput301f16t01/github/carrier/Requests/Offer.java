@@ -14,12 +14,16 @@ public class Offer {
     /** The ID of the associated request the driver is offering to complete. */
     private String requestID;
 
+    /** When the offer was made (milliseconds since the epoch), used to sync only new offers. */
+    private long lastModified;
+
     public Offer( Request request, User driver ) {
         if (request.getId() == null || driver.getUsername() == null ) {
             throw new IllegalArgumentException( "Neither the request ID nor the driver's username can be null." );
         }
         offeringUser = driver.getUsername();
         requestID = request.getId();
+        lastModified = System.currentTimeMillis();
     }
 
     public String getRequestID() {
@@ -29,4 +33,8 @@ public class Offer {
     public String getOfferingUser() {
         return offeringUser;
     }
+
+    public long getLastModified() {
+        return lastModified;
+    }
 }
@@ -0,0 +1,112 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import java.util.UUID;
+
+import comcmput301f16t01.github.carrier.Users.User;
+
+/**
+ * A change to a request that was made while offline and still has to be made on elastic search.
+ * Operations are recorded in the OfflineOperationLog and replayed in the order they were made
+ * once there is connection again.
+ * </br>
+ * Every operation has a unique key. The key is used as the elastic search ID of whatever the
+ * operation creates (a request made offline, or an offer), so replaying an operation twice
+ * overwrites the same document instead of making a duplicate.
+ *
+ * @see OfflineOperationLog
+ */
+public class OfflineOperation {
+    /** The kinds of changes that can be made while offline. */
+    public enum Type {
+        ADD_REQUEST,
+        ADD_OFFER,
+        CONFIRM,
+        COMPLETE,
+        PAY,
+        CANCEL
+    }
+
+    /** Unique to this operation, also makes replaying it idempotent. */
+    private String key;
+
+    /** The position of this operation in the log, operations are replayed in this order. */
+    private long sequence;
+
+    private Type type;
+
+    /** The request as it was when the operation was made. */
+    private Request request;
+
+    /** The offering driver (ADD_OFFER) or the confirmed driver (CONFIRM), otherwise null. */
+    private User driver;
+
+    /** The status the request had after the operation was made. */
+    private Request.Status status;
+
+    /** When the operation was made (milliseconds since the epoch). */
+    private long createdAt;
+
+    /**
+     * @param type What kind of change was made.
+     * @param request The request that was changed (after the change was made locally).
+     * @param driver The driver that offered or was confirmed, or null for other types.
+     */
+    public OfflineOperation(Type type, Request request, User driver) {
+        this(type, request, driver, UUID.randomUUID().toString());
+    }
+
+    /**
+     * @param type What kind of change was made.
+     * @param request The request that was changed (after the change was made locally).
+     * @param driver The driver that offered or was confirmed, or null for other types.
+     * @param key The key of the operation, i.e. one derived from what it is so that recording
+     *            the same change again gives the same key.
+     */
+    public OfflineOperation(Type type, Request request, User driver, String key) {
+        if (type == null || request == null) {
+            throw new IllegalArgumentException( "An offline operation needs a type and a request." );
+        }
+        if ((type == Type.ADD_OFFER || type == Type.CONFIRM) && driver == null) {
+            throw new IllegalArgumentException( "Offers and confirmations need a driver." );
+        }
+        this.key = key;
+        this.type = type;
+        this.request = request;
+        this.driver = driver;
+        this.status = request.getStatus();
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /** Set by the log when the operation is recorded. */
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public User getDriver() {
+        return driver;
+    }
+
+    public Request.Status getStatus() {
+        return status;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,300 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>An append-only log of the changes made to requests while offline (a write-ahead log). Each
+ * change is written as one line to the end of the file, so recording an offline action costs the
+ * same no matter how many are already waiting. When an operation has been replayed on elastic
+ * search an acknowledgement line is appended for it.</p>
+ * </br>
+ * <p>Writes go to the file right away but are only forced to disk by {@link #sync()}, so several
+ * changes (i.e. all the acknowledgements of one replay) share one sync. Once the log is mostly
+ * acknowledged operations it is compacted: the waiting operations are written to a temporary file
+ * that then replaces the log.</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @see OfflineOperation
+ * @see RequestController#replayOfflineOperations()
+ */
+public class OfflineOperationLog {
+    /** Compaction is not worth it for logs with fewer lines than this. */
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    /** Smallest and largest wait between failed replays, in milliseconds. */
+    private static final long MIN_BACKOFF = 2000;
+    private static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+    /** One line of the log: either an operation, or the key of an operation that was replayed. */
+    private static class Record {
+        private OfflineOperation put;
+        private String done;
+    }
+
+    private final File file;
+    private final Gson gson = new Gson();
+
+    /** Operations that have not been replayed yet, in the order they were made. */
+    private final Map<String, OfflineOperation> pending = new LinkedHashMap<>();
+
+    private Writer writer = null;
+    private FileOutputStream stream = null;
+
+    /** The number of lines in the file, used to decide when to compact. */
+    private int recordCount = 0;
+    private long nextSequence = 0;
+    private boolean dirty = false;
+
+    /** Whether a line could not be written, the next sync then rewrites the whole log. */
+    private boolean writeFailed = false;
+
+    /** Replays that failed in a row, for the backoff. */
+    private int failures = 0;
+
+    /**
+     * Opens the log, reading any operations left over from before.
+     * @param file Where the log is kept.
+     */
+    public OfflineOperationLog(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Records an operation at the end of the log. Call {@link #sync()} once the caller's changes
+     * are all recorded.
+     *
+     * @param operation The change that was made offline.
+     */
+    public synchronized void append(OfflineOperation operation) {
+        operation.setSequence(nextSequence++);
+        Record record = new Record();
+        record.put = operation;
+        String line = gson.toJson(record);
+        write(line);
+        // Keep the copy that was written, later changes to the request are their own operations.
+        pending.put(operation.getKey(), gson.fromJson(line, Record.class).put);
+    }
+
+    /**
+     * Marks an operation as replayed. It will not be returned by getPending() again.
+     * @param key The key of the replayed operation.
+     */
+    public synchronized void acknowledge(String key) {
+        if (pending.remove(key) == null) {
+            return;
+        }
+        Record record = new Record();
+        record.done = key;
+        write(gson.toJson(record));
+    }
+
+    /**
+     * Forces everything written so far to disk, and compacts the log if most of it has been
+     * acknowledged (or a line could not be written).
+     * @return Whether the waiting operations are all on disk.
+     */
+    public synchronized boolean sync() {
+        if (writeFailed || (recordCount > 0 && (pending.isEmpty()
+                || (recordCount >= COMPACT_MIN_RECORDS && recordCount > 2 * pending.size())))) {
+            return compact();
+        }
+        if (!dirty) {
+            return true;
+        }
+        try {
+            writer.flush();
+            stream.getFD().sync();
+            dirty = false;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return The operations that still have to be replayed, in the order they were made.
+     */
+    public synchronized List<OfflineOperation> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * @param type The kind of operation wanted.
+     * @return The requests of the waiting operations of the given type, in the order they were made.
+     */
+    public synchronized RequestList getPendingRequests(OfflineOperation.Type type) {
+        RequestList requests = new RequestList();
+        for (OfflineOperation operation : pending.values()) {
+            if (operation.getType() == type) {
+                requests.add(operation.getRequest());
+            }
+        }
+        return requests;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /** @return Whether the operation with the key is waiting to be replayed. */
+    public synchronized boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /** @return The number of lines in the log file, including acknowledgements. */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Call when a replay fails.
+     * @return How long to wait before trying again, in milliseconds. Doubles with every failure in
+     * a row, up to five minutes.
+     */
+    public synchronized long recordReplayFailure() {
+        failures++;
+        long backoff = MIN_BACKOFF << Math.min(failures - 1, 16);
+        return Math.min(backoff, MAX_BACKOFF);
+    }
+
+    /** Call when a replay succeeds, resets the backoff. */
+    public synchronized void recordReplaySuccess() {
+        failures = 0;
+    }
+
+    /** Closes the log file. */
+    public synchronized void close() {
+        sync();
+        closeWriter();
+    }
+
+    /**
+     * Rewrites the log so that it only has the waiting operations. The new log is written to a
+     * temporary file first and then renamed over the old one, so a crash part way through leaves
+     * either the old or the new log, never half of one.
+     * @return Whether the log was rewritten.
+     */
+    public synchronized boolean compact() {
+        closeWriter();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            Writer tempWriter = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+            for (OfflineOperation operation : pending.values()) {
+                Record record = new Record();
+                record.put = operation;
+                tempWriter.write(gson.toJson(record));
+                tempWriter.write('\n');
+            }
+            tempWriter.flush();
+            out.getFD().sync();
+            tempWriter.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException( "Could not replace " + file );
+            }
+            recordCount = pending.size();
+            writeFailed = false;
+            dirty = false;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            writeFailed = true; // the writer is closed, so the next sync tries again
+            return false;
+        }
+    }
+
+    /** Reads the log file, stopping at the first line that is cut off or unreadable. */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        boolean cutOff = false;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    Record record;
+                    try {
+                        record = gson.fromJson(line, Record.class);
+                    } catch (JsonParseException e) {
+                        record = null;
+                    }
+                    if (record == null || (record.put == null && record.done == null)) {
+                        // A write that was cut off by a crash, nothing after it was acknowledged.
+                        cutOff = true;
+                        break;
+                    }
+                    recordCount++;
+                    if (record.put != null) {
+                        pending.put(record.put.getKey(), record.put);
+                        nextSequence = Math.max(nextSequence, record.put.getSequence() + 1);
+                    } else {
+                        pending.remove(record.done);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (cutOff) {
+            compact(); // otherwise new lines would be appended after the broken one
+        }
+    }
+
+    /** Writes one line to the end of the log. */
+    private void write(String line) {
+        try {
+            if (writer == null) {
+                stream = new FileOutputStream(file, true);
+                writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+            }
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            recordCount++;
+            dirty = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            writeFailed = true; // the operation is still pending, so the rewrite includes it
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writer = null;
+        stream = null;
+    }
+}
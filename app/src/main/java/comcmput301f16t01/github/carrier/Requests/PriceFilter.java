@@ -0,0 +1,87 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import comcmput301f16t01.github.carrier.ElasticQuery;
+
+/**
+ * The price range and price per kilometer range a driver searches requests by. Prices are in
+ * dollars (as the driver enters them), requests store their fare in cents. A null bound is not
+ * checked.
+ * </br>
+ * The ranges are sent to elastic search as range filters on the request's fare and farePerKM, so
+ * requests out of range are never downloaded (or loaded with their offers).
+ * @see ElasticRequestController.SearchByKeywordTask
+ * @see ElasticRequestController.SearchByLocationTask
+ */
+public class PriceFilter {
+    private Double minPrice = null;
+    private Double maxPrice = null;
+    private Double minPricePerKM = null;
+    private Double maxPricePerKM = null;
+
+    /**
+     * @param minPrice The lowest fare in dollars, or null.
+     * @param maxPrice The highest fare in dollars, or null.
+     */
+    public PriceFilter setPriceRange(Double minPrice, Double maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    /**
+     * @param minPricePerKM The lowest fare per kilometer in dollars, or null.
+     * @param maxPricePerKM The highest fare per kilometer in dollars, or null.
+     */
+    public PriceFilter setPricePerKMRange(Double minPricePerKM, Double maxPricePerKM) {
+        this.minPricePerKM = minPricePerKM;
+        this.maxPricePerKM = maxPricePerKM;
+        return this;
+    }
+
+    /** @return Whether the filter lets every request through. */
+    public boolean isEmpty() {
+        return minPrice == null && maxPrice == null && minPricePerKM == null && maxPricePerKM == null;
+    }
+
+    /** @return Whether the request is within the ranges of the filter. */
+    public boolean matches(Request request) {
+        // If the fare is less than the minimum price specified, or more than the maximum, skip it
+        if ( minPrice != null && request.getFare() < minPrice * 100 ) { return false; }
+        if ( maxPrice != null && maxPrice * 100 < request.getFare() ) { return false; }
+
+        if ( minPricePerKM != null || maxPricePerKM != null ) {
+            double pricePerKM = (request.getFare() / request.getDistance()) / 100;
+            if ( minPricePerKM != null && pricePerKM < minPricePerKM ) { return false; }
+            if ( maxPricePerKM != null && maxPricePerKM < pricePerKM ) { return false; }
+        }
+        return true;
+    }
+
+    /** @return The ranges of the filter, filters with the same ranges give the same string. */
+    @Override
+    public String toString() {
+        return "price [" + minPrice + ", " + maxPrice + "] per km [" + minPricePerKM + ", " + maxPricePerKM + "]";
+    }
+
+    /** Adds range filters for the ranges that are set to a search for requests. */
+    public void applyTo(ElasticQuery.Bool query) {
+        if ( minPrice != null || maxPrice != null ) {
+            query.filter(range("fare", minPrice, maxPrice));
+        }
+        if ( minPricePerKM != null || maxPricePerKM != null ) {
+            query.filter(range("farePerKM", minPricePerKM, maxPricePerKM));
+        }
+    }
+
+    /** @return A range on a field stored in cents, from bounds in dollars. */
+    private static ElasticQuery.Range range(String field, Double min, Double max) {
+        ElasticQuery.Range range = ElasticQuery.range(field);
+        if (min != null) {
+            range.gte(min * 100);
+        }
+        if (max != null) {
+            range.lte(max * 100);
+        }
+        return range;
+    }
+}
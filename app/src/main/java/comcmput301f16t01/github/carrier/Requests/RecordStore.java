@@ -0,0 +1,646 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>A file of records (i.e. the cached requests) kept in order by key. Saving a list only writes
+ * the records that changed since the last save, so changing one request of a hundred writes one
+ * record instead of the whole file.</p>
+ * </br>
+ * <p>The file starts with a magic number and the format version, followed by frames. A frame
+ * puts or deletes one record: the operation, the key, the length of the record, the record
+ * (its JSON, deflated) and a CRC32 of all of that. Loading replays the frames in order and stops
+ * at the first frame that is cut off (a write interrupted by a crash). Once most frames are out
+ * of date the file is compacted: the live records are written to a temporary file that then
+ * replaces the old one, so a crash leaves either file whole.</p>
+ * </br>
+ * <p>Opening a store memory maps the file and only indexes where each record is, no record is
+ * inflated or parsed until it is asked for (and then it is remembered). The CRC of a frame is
+ * only checked then, and a record that does not match it (or cannot be parsed) is dropped as if
+ * it had never been saved. Compaction checks the CRCs of the records never asked for.</p>
+ * </br>
+ * <p>A file that is not a record store, or was written by a newer version, is not read and is
+ * moved aside (to the same name with ".unreadable" added) so that saving does not overwrite it.</p>
+ * </br>
+ * <p>Records that other threads change can be encoded on the thread that owns them with
+ * {@link #encode(Collection)}, and the encoded records saved on another thread, so a record is
+ * never written half changed.</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @param <T> The type of the records.
+ * @see OfflineOperationLog
+ */
+public class RecordStore<T> {
+    /** Gives the key of a record, records with the same key replace each other. */
+    public interface Keys<T> {
+        String keyOf(T record);
+    }
+
+    /** "CRS1", the start of every record store file. */
+    private static final int MAGIC = 0x43525331;
+
+    /** The version of the file format, files with a newer version are not read. */
+    static final int FORMAT_VERSION = 1;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    /** Compaction is not worth it for files with fewer frames than this. */
+    private static final int COMPACT_MIN_FRAMES = 64;
+
+    /**
+     * A record as it is on disk, and the CRC32 of its frame. The payload of a record written
+     * since the file was mapped is kept, the others are read from the mapped file. Records are
+     * only decoded when they are needed.
+     */
+    private static class Stored<T> {
+        T record = null;
+        final int checksum;
+        final byte[] payload;
+        final int position;
+        final int length;
+
+        Stored(int checksum, byte[] payload) {
+            this.checksum = checksum;
+            this.payload = payload;
+            this.position = -1;
+            this.length = payload.length;
+        }
+
+        Stored(int checksum, int position, int length) {
+            this.checksum = checksum;
+            this.payload = null;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A record encoded as JSON, with its key. Made with {@link #encode(Collection)} on the
+     * thread that owns the record, so it can be saved on another.
+     */
+    public static final class Encoded {
+        private final String key;
+        private final String json;
+
+        private Encoded(String key, String json) {
+            this.key = key;
+            this.json = json;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final File file;
+    private final Class<T> type;
+    private final Keys<T> keys;
+    private final Gson gson = new Gson();
+
+    /** The records by key, in order. */
+    private final LinkedHashMap<String, Stored<T>> records = new LinkedHashMap<>();
+
+    /** The file as it was opened (or last compacted), where records not decoded yet are read from. */
+    private ByteBuffer mapped = null;
+
+    private DataOutputStream out = null;
+    private FileOutputStream stream = null;
+
+    /** The number of frames in the file, used to decide when to compact. */
+    private int frameCount = 0;
+    private boolean dirty = false;
+
+    /** Set if the file could not be read nor moved aside, it is then never written to. */
+    private boolean readOnly = false;
+
+    /**
+     * Opens the store, reading the records saved before.
+     * @param file Where the records are kept.
+     * @param type The class of the records.
+     * @param keys Gives the key of each record.
+     */
+    public RecordStore(File file, Class<T> type, Keys<T> keys) {
+        this.file = file;
+        this.type = type;
+        this.keys = keys;
+        load();
+    }
+
+    /** @return The records, in order. */
+    public synchronized List<T> getAll() {
+        return getRange(0, records.size());
+    }
+
+    /**
+     * Decodes only the records between start (inclusive) and end (exclusive), i.e. the ones on
+     * screen. Broken records are left out.
+     * @return The records, in order.
+     */
+    public synchronized List<T> getRange(int start, int end) {
+        List<T> range = new ArrayList<>(Math.max(0, end - start));
+        Iterator<Map.Entry<String, Stored<T>>> entries = records.entrySet().iterator();
+        for (int i = 0; i < end && entries.hasNext(); i++) {
+            Map.Entry<String, Stored<T>> entry = entries.next();
+            if (i < start) {
+                continue;
+            }
+            T record = decode(entry.getKey(), entry.getValue());
+            if (record == null) {
+                entries.remove();
+            } else {
+                range.add(record);
+            }
+        }
+        return range;
+    }
+
+    /** @return The keys of the records, in order, without decoding any record. */
+    public synchronized List<String> getKeys() {
+        return new ArrayList<>(records.keySet());
+    }
+
+    /** @return The record with the key, or null if there is none. */
+    public synchronized T get(String key) {
+        Stored<T> stored = records.get(key);
+        if (stored == null) {
+            return null;
+        }
+        T record = decode(key, stored);
+        if (record == null) {
+            records.remove(key);
+        }
+        return record;
+    }
+
+    /**
+     * Saves a record. A record already in the store keeps its place, a new one goes at the end.
+     * Nothing is written if the record has not changed. Call {@link #sync()} once the caller's
+     * changes are all saved.
+     */
+    public synchronized void put(T record) {
+        put(keys.keyOf(record), deflate(utf8(gson.toJson(record))), record);
+    }
+
+    private void put(String key, byte[] payload, T record) {
+        int checksum = frameChecksum(PUT, key, payload);
+        Stored<T> stored = records.get(key);
+        // Equal checksums are not enough, two different records could have the same one
+        if (stored != null && stored.checksum == checksum && stored.length == payload.length
+                && Arrays.equals(payloadOf(stored), payload)) {
+            if (record != null) {
+                stored.record = record;
+            }
+            return; // unchanged
+        }
+        Stored<T> written = new Stored<>(checksum, payload);
+        written.record = record;
+        records.put(key, written);
+        write(PUT, key, payload);
+    }
+
+    /** Deletes the record with the key, if there is one. */
+    public synchronized void remove(String key) {
+        if (records.remove(key) != null) {
+            write(DELETE, key, new byte[0]);
+        }
+    }
+
+    /**
+     * Makes the store hold exactly the given records, in the given order. Only the records that
+     * were added, changed or removed are written, unless the order of the records already saved
+     * changed, then the file is rewritten.
+     */
+    public synchronized void replaceAll(Collection<T> newRecords) {
+        replaceAllEncoded(encode(newRecords));
+    }
+
+    /**
+     * Encodes records as they are now, to be saved later (possibly on another thread). Can be
+     * called from any thread, but the records must not be changed while they are encoded.
+     */
+    public List<Encoded> encode(Collection<? extends T> newRecords) {
+        List<Encoded> encoded = new ArrayList<>(newRecords.size());
+        for (T record : newRecords) {
+            encoded.add(new Encoded(keys.keyOf(record), gson.toJson(record)));
+        }
+        return encoded;
+    }
+
+    /**
+     * Like {@link #replaceAll(Collection)}, with records encoded before.
+     * @see #encode(Collection)
+     */
+    public synchronized void replaceAllEncoded(List<Encoded> newRecords) {
+        LinkedHashMap<String, Encoded> byKey = new LinkedHashMap<>();
+        for (Encoded record : newRecords) {
+            byKey.put(record.key, record);
+        }
+
+        // Appending only keeps the order if the records kept are in the same order as before and
+        // every new record comes after them.
+        Iterator<String> kept = records.keySet().iterator();
+        boolean inOrder = true;
+        boolean seenNew = false;
+        for (String key : byKey.keySet()) {
+            if (!records.containsKey(key)) {
+                seenNew = true;
+                continue;
+            }
+            String next = nextKept(kept, byKey);
+            if (seenNew || !key.equals(next)) {
+                inOrder = false;
+                break;
+            }
+        }
+
+        if (!inOrder) {
+            records.clear();
+            for (Encoded record : byKey.values()) {
+                byte[] payload = deflate(utf8(record.json));
+                records.put(record.key, new Stored<T>(frameChecksum(PUT, record.key, payload), payload));
+            }
+            compact();
+            return;
+        }
+
+        Set<String> removed = new HashSet<>(records.keySet());
+        removed.removeAll(byKey.keySet());
+        for (String key : removed) {
+            remove(key);
+        }
+        for (Encoded record : byKey.values()) {
+            put(record.key, deflate(utf8(record.json)), null);
+        }
+    }
+
+    /**
+     * Adds the encoded records whose keys are not in the store yet to its end, then removes the
+     * first (oldest) records until there are at most maxSize.
+     * @param maxSize The most records to keep, or -1 to keep them all.
+     * @see RequestList#append(RequestList)
+     */
+    public synchronized void appendEncoded(List<Encoded> newRecords, int maxSize) {
+        for (Encoded record : newRecords) {
+            if (!records.containsKey(record.key)) {
+                put(record.key, deflate(utf8(record.json)), null);
+            }
+        }
+        if (maxSize != -1) {
+            List<String> oldest = new ArrayList<>(records.keySet()).subList(0, Math.max(0, records.size() - maxSize));
+            for (String key : new ArrayList<>(oldest)) {
+                remove(key);
+            }
+        }
+    }
+
+    /** @return The next key of the store that is also in the new records, or null. */
+    private String nextKept(Iterator<String> kept, Map<String, Encoded> byKey) {
+        while (kept.hasNext()) {
+            String key = kept.next();
+            if (byKey.containsKey(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forces everything written so far to disk, and compacts the file if most of it is out of
+     * date.
+     */
+    public synchronized void sync() {
+        if (frameCount >= COMPACT_MIN_FRAMES && frameCount > 2 * records.size()) {
+            compact();
+            return;
+        }
+        if (!dirty) {
+            return;
+        }
+        try {
+            out.flush();
+            stream.getFD().sync();
+            dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /** @return The number of frames in the file, including out of date ones. */
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    /** Closes the file. */
+    public synchronized void close() {
+        sync();
+        closeWriter();
+    }
+
+    /**
+     * Rewrites the file so that it only has the live records. The new file is written to a
+     * temporary file first and then renamed over the old one. Records that were never decoded
+     * are copied over as they are.
+     */
+    public synchronized void compact() {
+        if (readOnly) {
+            return;
+        }
+        closeWriter();
+        File temp = new File(file.getPath() + ".tmp");
+        LinkedHashMap<String, Stored<T>> compacted = new LinkedHashMap<>();
+        try {
+            FileOutputStream tempStream = new FileOutputStream(temp);
+            DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(tempStream));
+            writeHeader(tempOut);
+            for (Map.Entry<String, Stored<T>> entry : records.entrySet()) {
+                String key = entry.getKey();
+                Stored<T> stored = entry.getValue();
+                byte[] payload = payloadOf(stored);
+                int checksum = frameChecksum(PUT, key, payload);
+                if (checksum != stored.checksum) {
+                    continue; // broken on disk, there is nothing to keep
+                }
+                writeFrame(tempOut, PUT, key, payload);
+                // The payload is just before the checksum at the end of the frame
+                Stored<T> moved = new Stored<>(checksum, tempOut.size() - 4 - payload.length, payload.length);
+                moved.record = stored.record;
+                compacted.put(key, moved);
+            }
+            tempOut.flush();
+            tempStream.getFD().sync();
+            tempOut.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException( "Could not replace " + file );
+            }
+            records.clear();
+            records.putAll(compacted);
+            frameCount = records.size();
+            mapped = map(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+        dirty = false;
+    }
+
+    /**
+     * Indexes the file, stopping at the first frame that is cut off. The records themselves are
+     * not read.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        boolean broken = false;
+        try {
+            mapped = map(file);
+            if (!isReadable(mapped)) {
+                moveAside();
+                return;
+            }
+            if (mapped.remaining() < 8) {
+                throw new IOException( "Header cut off in " + file );
+            }
+            mapped.position(8);
+            while (mapped.hasRemaining()) {
+                byte operation = mapped.get();
+                String key = readKey(mapped);
+                int length = mapped.getInt();
+                int position = mapped.position();
+                if (length < 0 || length > mapped.remaining() - 4) {
+                    throw new IOException( "Frame cut off in " + file );
+                }
+                mapped.position(position + length);
+                int checksum = mapped.getInt();
+                frameCount++;
+                if (operation == DELETE) {
+                    records.remove(key);
+                } else {
+                    // A record put again keeps its place, like put() does
+                    records.put(key, new Stored<T>(checksum, position, length));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A frame cut off by a crash, nothing after it counts
+            e.printStackTrace();
+            broken = true;
+        }
+        if (broken) {
+            compact(); // otherwise new frames would be appended after the broken one
+        }
+    }
+
+    /**
+     * @return Whether the file was written by this version of the store (or an older one), or is
+     * the start of such a file that was cut off by a crash.
+     */
+    private static boolean isReadable(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        if (view.remaining() < 8) {
+            byte[] start = new byte[view.remaining()];
+            view.get(start);
+            byte[] header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(FORMAT_VERSION).array();
+            return Arrays.equals(start, Arrays.copyOf(header, start.length));
+        }
+        if (view.getInt() != MAGIC) {
+            return false;
+        }
+        int version = view.getInt();
+        return version >= 1 && version <= FORMAT_VERSION;
+    }
+
+    /**
+     * Moves a file that cannot be read out of the way, so that it is kept as it is (i.e. for a
+     * newer version of the app) and the store starts empty. If it cannot be moved it is never
+     * written to.
+     */
+    private void moveAside() {
+        mapped = null;
+        File aside = new File(file.getPath() + ".unreadable");
+        for (int i = 1; aside.exists(); i++) {
+            aside = new File(file.getPath() + ".unreadable." + i);
+        }
+        if (!file.renameTo(aside)) {
+            new IOException( "Could not move " + file + " aside, it will not be saved to" ).printStackTrace();
+            readOnly = true;
+        }
+    }
+
+    /** @return The record, decoded from the mapped file if it was not yet, or null if it is broken. */
+    private T decode(String key, Stored<T> stored) {
+        if (stored.record != null) {
+            return stored.record;
+        }
+        try {
+            byte[] payload = payloadOf(stored);
+            if (frameChecksum(PUT, key, payload) != stored.checksum) {
+                throw new IOException( "Broken record " + key + " in " + file );
+            }
+            stored.record = gson.fromJson(new String(inflate(payload), "UTF-8"), type);
+        } catch (IOException | JsonParseException e) {
+            e.printStackTrace();
+        }
+        return stored.record;
+    }
+
+    /** @return The payload of the record as it is (or will be) on disk. */
+    private byte[] payloadOf(Stored<T> stored) {
+        if (stored.payload != null) {
+            return stored.payload;
+        }
+        byte[] payload = new byte[stored.length];
+        ByteBuffer view = mapped.duplicate();
+        view.position(stored.position);
+        view.get(payload);
+        return payload;
+    }
+
+    /** Reads a key written by {@link DataOutputStream#writeUTF(String)}. */
+    private static String readKey(ByteBuffer buffer) throws IOException {
+        int length = buffer.getShort() & 0xffff;
+        byte[] utf = new byte[length + 2];
+        buffer.position(buffer.position() - 2);
+        buffer.get(utf);
+        return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed (or replaced by a compaction)
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Writes one frame to the end of the file. */
+    private void write(byte operation, String key, byte[] payload) {
+        if (readOnly) {
+            return;
+        }
+        try {
+            if (out == null) {
+                boolean empty = !file.exists() || file.length() == 0;
+                stream = new FileOutputStream(file, true);
+                out = new DataOutputStream(new BufferedOutputStream(stream));
+                if (empty) {
+                    writeHeader(out);
+                }
+            }
+            writeFrame(out, operation, key, payload);
+            frameCount++;
+            dirty = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+    }
+
+    private static void writeFrame(DataOutputStream out, byte operation, String key, byte[] payload) throws IOException {
+        out.writeByte(operation);
+        out.writeUTF(key);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt(frameChecksum(operation, key, payload));
+    }
+
+    private void closeWriter() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+        stream = null;
+    }
+
+    private static int frameChecksum(byte operation, String key, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(operation);
+        crc.update(utf8(key));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] utf8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(data.length * 3);
+        byte[] buffer = new byte[4096];
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException( "Record cut off" );
+                }
+                inflated.write(buffer, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return inflated.toByteArray();
+    }
+}
@@ -2,6 +2,7 @@ package comcmput301f16t01.github.carrier.Requests;
 
 import android.support.annotation.NonNull;
 import java.util.ArrayList;
+import java.util.UUID;
 import comcmput301f16t01.github.carrier.CarrierLocation;
 import comcmput301f16t01.github.carrier.FareCalculator;
 import comcmput301f16t01.github.carrier.Users.User;
@@ -58,12 +59,23 @@ public class Request {
     /** The distance in kilometers */
     private double distance;
 
+    /** The fare per kilometer in cents, kept with the request so searches can filter on it. Null
+     * while the distance is unknown. */
+    private Double farePerKM = null;
+
     private Double[] location;
 
+    /** When the request was last changed on elastic search (milliseconds since the epoch), used to
+     * sync only the requests that changed. */
+    private long lastModified = 0;
+
     /** For use with Elastic Search, is the unique ID given to it */
     @JestId
     private String elasticID = null;
 
+    /** Tells the request apart on this phone while it has no elastic search ID, saved with it. */
+    private String localID = null;
+
     // Constructor with description
     public Request(@NonNull User requestingRider, @NonNull CarrierLocation requestedStart,
                    @NonNull CarrierLocation requestedEnd, String description) {
@@ -113,6 +125,7 @@ public class Request {
 
     public void setFare(int fare) {
         this.fare = fare;
+        updateFarePerKM();
     }
 
     public User getChosenDriver() {
@@ -159,6 +172,22 @@ public class Request {
         return elasticID;
     }
 
+    /** @return An ID for the request that stays the same when it is saved and loaded again. */
+    public String getLocalId() {
+        if (localID == null) {
+            localID = UUID.randomUUID().toString();
+        }
+        return localID;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
     /** @return The string representation of a request, in plain text. */
     @Override
     public String toString() {
@@ -247,11 +276,21 @@ public class Request {
         return false;
     }
 
+    /** @return The [longitude, latitude] of the start, which searches by location are made on. */
+    public Double[] getLocation() {
+        return location;
+    }
+
     public void setDistance(double distance) {
         this.distance = distance;
+        updateFarePerKM();
     }
 
     public double getDistance() {
         return this.distance;
     }
+
+    private void updateFarePerKM() {
+        farePerKM = distance > 0 ? fare / distance : null;
+    }
 }
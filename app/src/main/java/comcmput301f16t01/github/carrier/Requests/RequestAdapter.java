@@ -7,6 +7,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
@@ -30,6 +31,27 @@ public class RequestAdapter extends ArrayAdapter<Request> {
         this.requestList = requestArrayList;
     }
 
+    /**
+     * Updates the view after the list changed. If requests were only updated in place, just the
+     * visible rows showing them are redrawn, otherwise the whole list is.
+     * @param change What changed in the list.
+     * @param listView The ListView this adapter is attached to.
+     * @see RequestList.ChangeListener
+     */
+    public void onChange(RequestListChange change, ListView listView) {
+        if (change.isStructural() || listView == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        int first = listView.getFirstVisiblePosition();
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            int position = first + i;
+            if (position < requestList.size() && change.isUpdated(requestList.get(position))) {
+                getView(position, listView.getChildAt(i), listView);
+            }
+        }
+    }
+
     /**
      * Sets up each individual item in the ListView, by position in the ArrayList
      * @see ArrayAdapter
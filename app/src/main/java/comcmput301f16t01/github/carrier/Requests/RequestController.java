@@ -1,30 +1,43 @@
 package comcmput301f16t01.github.carrier.Requests;
 
 import android.content.Context;
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 
 import java.lang.reflect.Type;
 
-import java.util.List;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import comcmput301f16t01.github.carrier.ElasticController;
+import comcmput301f16t01.github.carrier.ElasticExecutor;
+import comcmput301f16t01.github.carrier.GeocodingService;
+import comcmput301f16t01.github.carrier.PersistenceQueue;
 import comcmput301f16t01.github.carrier.Notifications.ConnectionChecker;
 import comcmput301f16t01.github.carrier.Notifications.NotificationController;
 import comcmput301f16t01.github.carrier.Users.User;
@@ -48,31 +61,98 @@ public class RequestController {
     /** Holds requests where the rider has offered to ride. */
     private static final RequestList requestsWhereOffered = new RequestList();
 
-    /** Offer commands that drivers make on a request while offline that are put on elastic search
-     * when there is connection.
+    /** Changes made to requests while offline that are replayed on elastic search when there is
+     * connection. Opened on first use.
+     * @see #getOperationLog()
      */
-    private static final OfferCommandList offlineDriverOfferCommands = new OfferCommandList();
+    private static OfflineOperationLog operationLog = null;
+
+    /** Whether a replay of the offline operation log is running or scheduled. */
+    private static boolean replaying = false;
 
-    /** Requests that are made while offline that are put on elastic search when there
-     * there is connection. */
-    private static final RequestList offlineRiderRequests = new RequestList();
+    /** Used to schedule retries of a failed replay. */
+    private static Handler replayHandler = null;
+
+    /** How far requestsWhereRider and requestsWhereOffered have been synced with elastic search. */
+    private static final SyncState riderSync = new SyncState();
+    private static final SyncState driverSync = new SyncState();
 
     /** Holds requests that have been searched for by the user. */
     private static final RequestList searchResult = new RequestList();
 
+    /** The last search made (by keyword or by location) and where it is up to, to load more of
+     * its results. The cursor is null while showing cached results. */
+    private static String searchKeyword = null;
+    private static Location searchLocation = null;
+    private static PriceFilter searchFilter = null;
+    private static SearchCursor searchCursor = null;
+    private static String searchKey = null;
+
+    /** Recent searches, so repeating one does not have to search elastic search again. */
+    private static final SearchCache searchCache = new SearchCache(16, 2 * 60 * 1000);
+
+    /** The cached search results by location, so they can be searched by location while offline. */
+    private static final GeoIndex cachedResultsIndex = new GeoIndex();
+
     /** The file name of the locally saved made rider requests .*/
-    private static final String RIDER_FILENAME = "RiderRequests.sav";
+    private static final String RIDER_FILENAME = "RiderRequests.db";
 
     /** The file name of the locally saved offered driver requests. */
-    private static final String DRIVER_FILENAME = "DriverRequests.sav";
+    private static final String DRIVER_FILENAME = "DriverRequests.db";
 
     /** The file name of the locally saved driver search results (50 most recent). */
-    private static final String SEARCH_FILENAME = "SearchResults.sav";
+    private static final String SEARCH_FILENAME = "SearchResults.db";
+
+    /** The file names the requests were saved to (as one JSON list each) before the record
+     * stores, they are moved into the stores the first time those are opened. */
+    private static final String LEGACY_RIDER_FILENAME = "RiderRequests.sav";
+    private static final String LEGACY_DRIVER_FILENAME = "DriverRequests.sav";
+    private static final String LEGACY_SEARCH_FILENAME = "SearchResults.sav";
+
+    /** The saved requests, opened on first use.
+     * @see #openStore(String, String)
+     */
+    private static RecordStore<Request> riderStore = null;
+    private static RecordStore<Request> driverStore = null;
+    private static RecordStore<Request> searchStore = null;
+
+    /** How many of the most recent search results are saved. */
+    private static final int MAX_SAVED_SEARCH_RESULTS = 50;
+
+    /** How long to gather saves before writing them, in milliseconds. */
+    private static final long SAVE_DELAY = 500;
 
-    /** The file name of the locally saved queue of driver offers. */
-    private static final String OFFLINE_OFFERS_FILENAME = "OfflineOffers.sav";
-    /** The file name of the locally saved offline rider requests. */
-    private static final String OFFLINE_REQUEST_FILENAME = "OfflineRequests.sav";
+    /** How many saved requests are decoded before a list is shown, the rest are decoded in the
+     * background and added after. */
+    private static final int FIRST_PAGE_SIZE = 20;
+
+    /** The lists (by identity) whose saved requests after the first page are still being decoded,
+     * with the replace count of the list when it was loaded. Saving such a list waits until it is complete.
+     * @see #loadRequests(RecordStore, String, RequestList)
+     */
+    private static final Map<RequestList, Integer> incompleteLists = new IdentityHashMap<>();
+    private static final Set<RequestList> pendingSaves = Collections.newSetFromMap(new IdentityHashMap<RequestList, Boolean>());
+
+    /** Writes the request files in the background, a burst of saves of a list is one write.
+     * @see #flush()
+     */
+    private static final PersistenceQueue persistence = new PersistenceQueue(SAVE_DELAY);
+
+    /** Requests are saved by ID, requests not on elastic search yet by their local ID. */
+    private static final RecordStore.Keys<Request> REQUEST_KEYS = new RecordStore.Keys<Request>() {
+        @Override
+        public String keyOf(Request request) {
+            return request.getId() != null ? request.getId() : "unsaved:" + request.getLocalId();
+        }
+    };
+
+    /** The file name of the log of changes made while offline. */
+    private static final String OFFLINE_LOG_FILENAME = "OfflineOperations.log";
+
+    /** The file names the offline driver offers and rider requests were saved to before the
+     * offline operation log, they are moved into the log the first time it is opened. */
+    private static final String LEGACY_OFFLINE_OFFERS_FILENAME = "OfflineOffers.sav";
+    private static final String LEGACY_OFFLINE_REQUEST_FILENAME = "OfflineRequests.sav";
 
     /** The context with which to save */
     private static Context saveContext;
@@ -107,10 +187,7 @@ public class RequestController {
      *  @see #pruneByPricePerKM(Double, Double)
      */
     public static RequestList getResult() {
-        // If the user is offline, load from search results from file rather than from elastic search
-        if (!ConnectionChecker.isThereInternet()) {
-            loadSearchResults();
-        }
+        // (If the user is offline, the search already loaded the cached search results)
         return searchResult;
     }
 
@@ -125,12 +202,16 @@ public class RequestController {
             // If there is internet we update ElasticSearch with the new request.
             if (internetConnection) {
                 ElasticRequestController.AddRequestTask art = new ElasticRequestController.AddRequestTask();
-                art.execute(request);
+                art.executeOnExecutor(ElasticController.getWriteExecutor(), request);
             } else {
-                // If there is no internet, add to the offline request queue and save it
-                offlineRiderRequests.add(request);
-                saveOfflineRiderRequests();
+                // If there is no internet, record the request in the offline log. The operation's
+                // key becomes the request's ID so later offline changes to it can refer to it.
+                OfflineOperation operation = new OfflineOperation(OfflineOperation.Type.ADD_REQUEST, request, null);
+                request.setId(operation.getKey());
+                recordOfflineOperation(operation);
             }
+            // The request may belong in the results of searches made before it
+            searchCache.invalidateAll();
             // Regardless of whether or not there is internet, we add the request to the local requestWhereRider RequestList
             requestsWhereRider.add( request ); // Add new request to requestList (will notify riderList views)
             // Save requestsWhereRider to file
@@ -145,9 +226,14 @@ public class RequestController {
      * @param request The request to cancel
      */
     public static void cancelRequest( Request request ) {
-        ElasticRequestController.UpdateRequestTask urt = new ElasticRequestController.UpdateRequestTask();
         request.setStatus(Request.Status.CANCELLED);
-        urt.execute( request );
+        searchCache.invalidateAll(); // a cancelled request is no longer available
+        if (ConnectionChecker.isThereInternet()) {
+            ElasticRequestController.UpdateRequestTask urt = new ElasticRequestController.UpdateRequestTask();
+            urt.executeOnExecutor(ElasticController.getWriteExecutor(), request);
+        } else {
+            recordOfflineOperation(new OfflineOperation(OfflineOperation.Type.CANCEL, request, null));
+        }
     }
 
     /**
@@ -159,6 +245,8 @@ public class RequestController {
      * @see Offer
      */
     public static void addDriver(Request request, User driver) {
+        // searches made before the offer would still show the request
+        searchCache.invalidateAll();
         // remove the request from the search results because we are making an offer to it
         Iterator<Request> iterator = searchResult.iterator();
         while(iterator.hasNext()) {
@@ -178,34 +266,28 @@ public class RequestController {
             Offer newOffer = new Offer(request, driver);
             // Add offer to elastic search
             ElasticRequestController.AddOfferTask aot = new ElasticRequestController.AddOfferTask();
-            aot.execute( newOffer );
+            aot.executeOnExecutor(ElasticController.getWriteExecutor(), newOffer);
 
             // update status of request
             ElasticRequestController.UpdateRequestTask urt = new ElasticRequestController.UpdateRequestTask();
-            urt.execute(request);
+            urt.executeOnExecutor(ElasticController.getWriteExecutor(), request);
         } else {
-            request.addOfferingDriver( driver );
-            // if there is no network connection, add the offline offer command to the queue
-            OfferCommand offerCommand = new OfferCommand(request, driver);
-            offlineDriverOfferCommands.add(offerCommand);
-            saveDriverOfferCommands();
+            try {
+                request.addOfferingDriver( driver );
+            } catch ( Exception e ) {
+                return; // If the driver is already offered we shouldn't do this action.
+            }
+            // if there is no network connection, record the offer in the offline log
+            recordOfflineOperation(new OfflineOperation(OfflineOperation.Type.ADD_OFFER, request, driver));
         }
         // Regardless of whether or not there is internet, create a notification and add the offer to the local requestsWhereOffered RequestList
         // Add a notification
         NotificationController nc = new NotificationController();
         nc.addNotification( request.getRider(), request );
         requestsWhereOffered.add( request ); // Notifies offerList views
-        appendRiderRequests(request);
         saveDriverOfferedRequests();
     }
 
-    public static Request addOfflineOffer(OfferCommand offerCommand) {
-        // remove the offering driver since we need to "overwrite" the offering driver
-        offerCommand.getRequest().removeOfferingDriver(offerCommand.getDriver());
-        RequestController.addDriver(offerCommand.getRequest(), offerCommand.getDriver());
-        return offerCommand.getRequest();
-    }
-
     /**
      * Is used accept a given driver (who has offered) for the request.
      *
@@ -222,15 +304,18 @@ public class RequestController {
         ElasticRequestController.UpdateRequestTask urt = new ElasticRequestController.UpdateRequestTask();
         request.confirmDriver( driver );
         request.setStatus( Request.Status.CONFIRMED );
-        requestsWhereOffered.notifyListeners();
+        searchCache.invalidateAll(); // a confirmed request is no longer available
+        requestsWhereOffered.notifyUpdated( request );
 
         // If there is internet, update the request on ElasticSearch with confirmed driver.
         if (ConnectionChecker.isThereInternet()) {
-            urt.execute( request );
+            urt.executeOnExecutor(ElasticController.getWriteExecutor(), request);
             ElasticRequestController.RemoveOffersTask rot = new ElasticRequestController.RemoveOffersTask();
             // Remove all offers
             rot.setMode(rot.MODE_REQUEST_ID);
-            rot.execute(request.getId());
+            rot.executeOnExecutor(ElasticController.getWriteExecutor(), request.getId());
+        } else {
+            recordOfflineOperation(new OfflineOperation(OfflineOperation.Type.CONFIRM, request, driver));
         }
 
         // Regardless of whether or not there is internet, create a notification and save the modified requestsWhereOffered
@@ -246,15 +331,17 @@ public class RequestController {
      * @param request The request to complete.
      */
     public static void completeRequest(Request request) {
+        request.setStatus( Request.Status.COMPLETE );
         // If there is internet update elastic search with the completed request
         if (ConnectionChecker.isThereInternet()) {
             ElasticRequestController.UpdateRequestTask urt = new ElasticRequestController.UpdateRequestTask();
-            request.setStatus( Request.Status.COMPLETE );
-            urt.execute( request );
+            urt.executeOnExecutor(ElasticController.getWriteExecutor(), request);
+        } else {
+            recordOfflineOperation(new OfflineOperation(OfflineOperation.Type.COMPLETE, request, null));
         }
         // Regardless so of whether or not there is internet update the UI statuses and save the request lists.
-        requestsWhereOffered.notifyListeners();
-        requestsWhereRider.notifyListeners();
+        requestsWhereOffered.notifyUpdated( request );
+        requestsWhereRider.notifyUpdated( request );
         saveDriverOfferedRequests();
         saveRiderRequests();
     }
@@ -265,78 +352,286 @@ public class RequestController {
      * @param request The request to mark as paid
      */
     public static void payForRequest(Request request) {
+        request.setStatus( Request.Status.PAID );
         // If there is internet update elastic search with the paid request
         if (ConnectionChecker.isThereInternet()) {
             ElasticRequestController.UpdateRequestTask urt = new ElasticRequestController.UpdateRequestTask();
-            request.setStatus( Request.Status.PAID );
-            urt.execute( request );
+            urt.executeOnExecutor(ElasticController.getWriteExecutor(), request);
+        } else {
+            recordOfflineOperation(new OfflineOperation(OfflineOperation.Type.PAY, request, null));
         }
         // Regardless of whether or not there is internet update the UI with the new status and save the request lists
-        requestsWhereOffered.notifyListeners();
-        requestsWhereRider.notifyListeners();
+        requestsWhereOffered.notifyUpdated( request );
+        requestsWhereRider.notifyUpdated( request );
         saveDriverOfferedRequests();
         saveRiderRequests();
     }
 
     /**
      * Search requests by the keyword, will set it so the singleton contains the information for
-     * this query. Use getResults() to get the information.
+     * this query. Use getResults() to get the information. Blocks until the first page is found.
      * @param keyword The keyword the user wants to query for requests with
+     * @see #searchByKeyword(String, PriceFilter, ElasticExecutor.Callback)
      */
     public static void searchByKeyword(String keyword) {
-        // If the user is offline, load from search results from file rather than from elastic search
-        if (!ConnectionChecker.isThereInternet()) {
-            loadSearchResults();
-            return;
-        }
-        ElasticRequestController.SearchByKeywordTask sbkt = new ElasticRequestController.SearchByKeywordTask();
-        sbkt.execute(keyword);
-        try {
-            searchResult.replaceList( sbkt.get() );
-            saveSearchResults(true);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        searchByKeyword(keyword, null);
+    }
+
+    /**
+     * Search requests by the keyword within a price range, will set it so the singleton contains
+     * the information for this query. Use getResults() to get the information. Blocks until the
+     * first page is found, so views should use the variant with a callback.
+     * @param keyword The keyword the user wants to query for requests with
+     * @param filter The price ranges to search within (done by elastic search), null for any price
+     * @see #searchByKeyword(String, PriceFilter, ElasticExecutor.Callback)
+     */
+    public static void searchByKeyword(String keyword, @Nullable PriceFilter filter) {
+        startSearch(keyword, null, filter, null, true);
+    }
+
+    /**
+     * Search requests by the keyword within a price range in the background. The results
+     * (getResults()) are emptied, and filled with the first page once it is found, so views
+     * listening to them are updated.
+     * @param keyword The keyword the user wants to query for requests with
+     * @param filter The price ranges to search within (done by elastic search), null for any price
+     * @param callback Told about the first page on the UI thread, may be null.
+     */
+    public static void searchByKeyword(String keyword, @Nullable PriceFilter filter,
+                                       @Nullable ElasticExecutor.Callback<RequestList> callback) {
+        startSearch(keyword, null, filter, callback, false);
     }
 
     /**
      * Search requests by a location. This sets it so the singleton contains the information for
-     * this query. Use getResults() to get the information.
+     * this query. Use getResults() to get the information. Blocks until the first page is found.
      * @param location The location the user wants to query for requests with
+     * @see #searchByLocation(Location, PriceFilter, ElasticExecutor.Callback)
      */
     public static void searchByLocation(Location location) {
+        searchByLocation(location, null);
+    }
+
+    /**
+     * Search requests by a location within a price range. This sets it so the singleton contains
+     * the information for this query. Use getResults() to get the information. Blocks until the
+     * first page is found, so views should use the variant with a callback.
+     * @param location The location the user wants to query for requests with
+     * @param filter The price ranges to search within (done by elastic search), null for any price
+     * @see #searchByLocation(Location, PriceFilter, ElasticExecutor.Callback)
+     */
+    public static void searchByLocation(Location location, @Nullable PriceFilter filter) {
+        startSearch(null, location, filter, null, true);
+    }
+
+    /**
+     * Search requests by a location within a price range in the background. The results
+     * (getResults()) are emptied, and filled with the first page once it is found, so views
+     * listening to them are updated.
+     * @param location The location the user wants to query for requests with
+     * @param filter The price ranges to search within (done by elastic search), null for any price
+     * @param callback Told about the first page on the UI thread, may be null.
+     */
+    public static void searchByLocation(Location location, @Nullable PriceFilter filter,
+                                        @Nullable ElasticExecutor.Callback<RequestList> callback) {
+        startSearch(null, location, filter, callback, false);
+    }
+
+    /**
+     * Replaces the search results with the first page of a new search (by keyword or location).
+     * The rest of the results are loaded as they are needed with loadMoreResults().
+     * @param callback Told about the first page on the UI thread (right away if the results come
+     *                 from the search cache or the file), may be null.
+     * @param wait Whether to block until the first page is found (the callback is not used then).
+     */
+    private static void startSearch(String keyword, Location location, PriceFilter filter,
+                                    @Nullable ElasticExecutor.Callback<RequestList> callback, boolean wait) {
+        // Drop any page of the last search that is still being loaded
+        if (searchCursor != null) {
+            // Remember the pages of the last search that were loaded, unless one is half done
+            if (searchKey != null && !searchCursor.isLoading()) {
+                searchCache.update(searchKey, searchResult, searchCursor);
+            }
+            searchCursor.close();
+            searchCursor = null;
+            searchKey = null;
+        }
         // If the user is offline, load from search results from file rather than from elastic search
         if (!ConnectionChecker.isThereInternet()) {
             loadSearchResults();
+            if (location != null) {
+                // Only show the cached requests that elastic search would have found, closest first
+                searchResult.replaceList( cachedResultsIndex.withinRadius( location.getLatitude(),
+                        location.getLongitude(), ElasticRequestController.SearchByLocationTask.DISTANCE ) );
+            }
+            if (callback != null) {
+                callback.onSuccess(searchResult);
+            }
             return;
         }
-        ElasticRequestController.SearchByLocationTask sblt = new ElasticRequestController.SearchByLocationTask();
-        sblt.execute(location);
-        try {
-            searchResult.replaceList(sblt.get());
-            saveSearchResults(true);
-        } catch (Exception e) {
-            e.printStackTrace();
+        searchKeyword = keyword;
+        searchLocation = location;
+        searchFilter = filter;
+
+        // Only a logged in user can search (their own requests are left out of the results)
+        String username = UserController.getLoggedInUser().getUsername();
+        String key = keyword != null
+                ? SearchCache.keywordKey(keyword, filter, username)
+                : SearchCache.locationKey(location.getLatitude(), location.getLongitude(), filter, username);
+        SearchCache.Entry cached = searchCache.get(key);
+        if (cached != null) {
+            // The results were already saved to the search cache file when they were found
+            searchKey = key;
+            searchCursor = cached.getCursor();
+            searchResult.replaceList( cached.getResults() );
+            Log.i("Search cache", searchCache.toString());
+            if (callback != null) {
+                callback.onSuccess(searchResult);
+            }
+            return;
+        }
+
+        searchCursor = new SearchCursor();
+        searchCursor.startLoading();
+        final SearchCursor cursor = searchCursor;
+        final String searchingKey = key;
+        if (wait) {
+            try {
+                showFirstPage(cursor, searchingKey, searchPage(null, null).get());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        // The last search's results are not shown while this one is loading
+        searchResult.replaceList( new RequestList() );
+        final ElasticExecutor.Callback<RequestList> listener = callback;
+        searchPage(null, new ElasticExecutor.Callback<RequestList>() {
+            @Override
+            public void onSuccess(RequestList firstPage) {
+                showFirstPage(cursor, searchingKey, firstPage);
+                if (listener != null) {
+                    listener.onSuccess(firstPage);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (listener != null) {
+                    listener.onFailure(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the first page of a search, remembers it in the search cache and saves it. Does
+     * nothing if another search was started since.
+     */
+    private static void showFirstPage(SearchCursor cursor, String key, RequestList firstPage) {
+        if (firstPage == null || cursor != searchCursor || searchKey != null) {
+            return;
+        }
+        searchKey = key;
+        searchCache.put(key, firstPage, cursor);
+        searchResult.replaceList( firstPage );
+        saveSearchResults(true);
+        pruneSavedSearchResults();
+    }
+
+    /** @return The cache of recent searches, i.e. for its hit and miss counts. */
+    public static SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * @return Whether the last search may have more results than have been loaded.
+     * @see #loadMoreResults()
+     */
+    public static boolean hasMoreResults() {
+        return searchCursor != null && searchCursor.hasMore();
+    }
+
+    /**
+     * Starts loading the next page of the last search. The page is appended to the search results
+     * (see getResult) once it is found. Does nothing if there are no more results, a page is
+     * already loading, or the user is offline.
+     */
+    public static void loadMoreResults() {
+        if (searchCursor == null || !ConnectionChecker.isThereInternet() || !searchCursor.startLoading()) {
+            return;
+        }
+        searchPage(searchResult, null);
+    }
+
+    /**
+     * Starts the search for the next page of the last search.
+     * @param appendTo The list to append the page to once it is found, or null.
+     * @param callback Told about the page on the UI thread, or null.
+     */
+    private static ElasticRequestController.PagedSearchTask<?> searchPage(RequestList appendTo,
+                                                                         ElasticExecutor.Callback<RequestList> callback) {
+        Executor executor = ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE);
+        if (searchKeyword != null) {
+            ElasticRequestController.SearchByKeywordTask sbkt = new ElasticRequestController.SearchByKeywordTask();
+            setUpSearchPage(sbkt, appendTo, callback);
+            sbkt.executeOnExecutor(executor, searchKeyword);
+            return sbkt;
+        } else {
+            ElasticRequestController.SearchByLocationTask sblt = new ElasticRequestController.SearchByLocationTask();
+            setUpSearchPage(sblt, appendTo, callback);
+            sblt.executeOnExecutor(executor, searchLocation);
+            return sblt;
         }
     }
 
+    private static void setUpSearchPage(ElasticRequestController.PagedSearchTask<?> task, RequestList appendTo,
+                                        ElasticExecutor.Callback<RequestList> callback) {
+        task.filter = searchFilter;
+        task.cursor = searchCursor;
+        task.appendTo = appendTo;
+        task.callback = callback;
+    }
+
     /**
      * Verifies that request status is available, which means that it is either "OPEN" or "OFFERED".
      *
      * @param requestId The request whose status we want to verify to be available.
      *
      * @return boolean The boolean indicates whether or not the request is still available
+     * @see #verifyRequestAvailable(String, ElasticExecutor.Callback) to not block the UI thread.
      */
     public static boolean verifyRequestAvailable(String requestId) {
         ElasticRequestController.VerifyRequestAvailableTask vrat = new ElasticRequestController.VerifyRequestAvailableTask();
-        vrat.execute(requestId);
+        vrat.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), requestId);
         Boolean result = false;
         try {
             result = vrat.get();
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return result;
+        return result != null && result;
+    }
+
+    /**
+     * Verifies in the background that a request is available (either "OPEN" or "OFFERED").
+     *
+     * @param requestId The request whose status we want to verify to be available.
+     * @param callback Told whether the request is available on the UI thread, or that elastic
+     *                 search could not be asked.
+     */
+    public static void verifyRequestAvailable(String requestId, @NonNull final ElasticExecutor.Callback<Boolean> callback) {
+        ElasticRequestController.VerifyRequestAvailableTask vrat = new ElasticRequestController.VerifyRequestAvailableTask() {
+            @Override
+            protected void onPostExecute(Boolean available) {
+                if (available != null) {
+                    callback.onSuccess(available);
+                } else {
+                    callback.onFailure(new IOException("Could not verify the request"));
+                }
+            }
+        };
+        vrat.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), requestId);
     }
 
     /**
@@ -345,6 +640,7 @@ public class RequestController {
      * @param driver The driver who is requesting the list of the requests they have offered
      *               but the rider has no confirmed their choice in driver.
      * @return An ArrayList of requests that the driver has offered to give a ride on.
+     * @see #getOfferedRequests(User, ElasticExecutor.Callback) to not block the UI thread.
      */
     public static RequestList getOfferedRequests(User driver) {
         // If there is no internet connection, load the cached driver requests into the requestsWhereOffered
@@ -354,15 +650,59 @@ public class RequestController {
         }
         // If there is connection, fetch requests from elastic search to load into requestsWhereOffered
         ElasticRequestController.GetOfferedRequestsTask gort = new ElasticRequestController.GetOfferedRequestsTask();
-        gort.execute( driver.getUsername() );
+        gort.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), driver.getUsername());
+        RequestList found;
         try {
-            requestsWhereOffered.replaceList( gort.get() );  // TODO maybe make this a background task. Now that it listens, it can just fill it when it's ready
+            found = gort.get();
         } catch (Exception e) {
             throw new IllegalArgumentException( "There was an error executing the AsyncTask." );
         }
+        showOfferedRequests(driver, found);
+        return requestsWhereOffered;
+    }
+
+    /**
+     * Loads the requests the driver has offered on into getOffersInstance() in the background
+     * (from the file while offline), so views listening to it are updated.
+     *
+     * @param driver The driver whose offered requests to load.
+     * @param callback Told about the requests on the UI thread (right away while offline), may be null.
+     */
+    public static void getOfferedRequests(final User driver, @Nullable final ElasticExecutor.Callback<RequestList> callback) {
+        if (!ConnectionChecker.isThereInternet()) {
+            loadDriverOfferedRequests();
+            if (callback != null) {
+                callback.onSuccess(requestsWhereOffered);
+            }
+            return;
+        }
+        ElasticRequestController.GetOfferedRequestsTask gort = new ElasticRequestController.GetOfferedRequestsTask() {
+            @Override
+            protected void onPostExecute(RequestList found) {
+                super.onPostExecute(found);
+                showOfferedRequests(driver, found);
+                if (callback == null) {
+                    return;
+                }
+                if (found != null) {
+                    callback.onSuccess(requestsWhereOffered);
+                } else {
+                    callback.onFailure(new IOException("Could not fetch the offered requests"));
+                }
+            }
+        };
+        gort.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), driver.getUsername());
+    }
+
+    /** Puts the driver's offered requests that were fetched in the list, and saves them. */
+    private static void showOfferedRequests(User driver, RequestList found) {
+        if (found == null) {
+            return; // could not be fetched, the list is left as it was
+        }
+        requestsWhereOffered.replaceList( found );
+        driverSync.onSynced(driver.getUsername(), requestsWhereOffered, true, System.currentTimeMillis());
         // Save the driver offered requests once they're loaded
         saveDriverOfferedRequests();
-        return requestsWhereOffered;
     }
 
     /**
@@ -371,7 +711,7 @@ public class RequestController {
      */
     public static void clearAllRiderRequests(User rider) {
         ElasticRequestController.ClearRiderRequestsTask crrt = new ElasticRequestController.ClearRiderRequestsTask();
-        crrt.execute( rider.getUsername() );
+        crrt.executeOnExecutor(ElasticController.getWriteExecutor(), rider.getUsername());
         requestsWhereRider.replaceList( new RequestList() );
     }
 
@@ -386,6 +726,8 @@ public class RequestController {
      * @param rider the rider you want to match requests against
      * @param statuses the statues you would like to see (filters non listed ones) (null means grab all)
      * @return A list of requests from the given criteria
+     * @see #fetchRequestsWhereRider(User, ElasticExecutor.Callback, Request.Status...) to not
+     * block the UI thread.
      */
     public static RequestList fetchRequestsWhereRider(User rider, Request.Status... statuses ) {
         // If the user is offline, load from rider requests from file rather than from elastic search
@@ -394,16 +736,9 @@ public class RequestController {
             return requestsWhereRider;
         }
         // Open a fetch task for the user
-        loadOfflineRiderRequests();
         ElasticRequestController.FetchRiderRequestsTask frrt = new ElasticRequestController.FetchRiderRequestsTask();
-
-        // Convert the parameters of this method to a string array for the execution of the task
-        String[] vars = new String[1 + statuses.length];
-        vars[0] = rider.getUsername();
-        for (int i = 1; i <= statuses.length; i++ ) {
-            vars[i] = statuses[i-1].toString();
-        }
-        frrt.execute( vars );
+        frrt.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE),
+                riderTaskParams(rider, statuses));
 
         // Get the found requests from the task
         RequestList foundRequests = new RequestList();
@@ -412,10 +747,70 @@ public class RequestController {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        showRiderRequests(rider, foundRequests, statuses.length > 0 || frrt.hasFailed());
+        return foundRequests;
+    }
+
+    /**
+     * Fetches the rider's requests with the given statuses into getRiderInstance() in the
+     * background (from the file while offline), so views listening to it are updated.
+     *
+     * @param rider the rider you want to match requests against
+     * @param callback Told about the requests found on the UI thread (right away while offline),
+     *                 may be null.
+     * @param statuses the statues you would like to see (filters non listed ones) (none means grab all)
+     */
+    public static void fetchRequestsWhereRider(final User rider, @Nullable final ElasticExecutor.Callback<RequestList> callback,
+                                               final Request.Status... statuses) {
+        if (!ConnectionChecker.isThereInternet()) {
+            loadRiderRequests();
+            if (callback != null) {
+                callback.onSuccess(requestsWhereRider);
+            }
+            return;
+        }
+        ElasticRequestController.FetchRiderRequestsTask frrt = new ElasticRequestController.FetchRiderRequestsTask() {
+            @Override
+            protected void onPostExecute(RequestList foundRequests) {
+                super.onPostExecute(foundRequests);
+                showRiderRequests(rider, foundRequests, statuses.length > 0 || hasFailed());
+                if (callback == null) {
+                    return;
+                }
+                if (hasFailed()) {
+                    callback.onFailure(new IOException("Could not fetch the rider's requests"));
+                } else {
+                    callback.onSuccess(foundRequests);
+                }
+            }
+        };
+        frrt.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE),
+                riderTaskParams(rider, statuses));
+    }
+
+    /** @return The parameters of a FetchRiderRequestsTask: the username, then the statuses. */
+    private static String[] riderTaskParams(User rider, Request.Status... statuses) {
+        String[] vars = new String[1 + statuses.length];
+        vars[0] = rider.getUsername();
+        for (int i = 1; i <= statuses.length; i++ ) {
+            vars[i] = statuses[i-1].toString();
+        }
+        return vars;
+    }
+
+    /**
+     * Puts the rider's requests that were fetched in the list, and saves them.
+     * @param partial Whether only some of the requests were fetched (by status, or it failed).
+     */
+    private static void showRiderRequests(User rider, RequestList foundRequests, boolean partial) {
         requestsWhereRider.replaceList( foundRequests );
+        if (partial) {
+            riderSync.reset(); // only some of the requests were loaded, the next refresh loads them all
+        } else {
+            riderSync.onSynced(rider.getUsername(), foundRequests, true, System.currentTimeMillis());
+        }
         // Save loaded riderRequests.
         saveRiderRequests();
-        return foundRequests;
     }
 
     /**
@@ -427,340 +822,464 @@ public class RequestController {
      *
      * @param rider the rider you wish to find requests for.
      * @return The requests found by this search (locks UI thread).
+     * @see #fetchAllRequestsWhereRider(User, ElasticExecutor.Callback) to not block the UI thread.
      */
     public static RequestList fetchAllRequestsWhereRider( User rider ) {
-        // If we're offline, load the cached rider requests rather than form elastic search
-        if (!ConnectionChecker.isThereInternet()) {
-            loadRiderRequests();
-            return requestsWhereRider;
+        return fetchRequestsWhereRider( rider );
+    }
+
+    /**
+     * Fetches all of the rider's requests into getRiderInstance() in the background (from the
+     * file while offline), so views listening to it are updated.
+     *
+     * @param rider the rider you wish to find requests for.
+     * @param callback Told about the requests found on the UI thread (right away while offline),
+     *                 may be null.
+     */
+    public static void fetchAllRequestsWhereRider( User rider, @Nullable ElasticExecutor.Callback<RequestList> callback ) {
+        fetchRequestsWhereRider( rider, callback );
+    }
+
+    /**
+     * @return The requests made while offline that have not been put on elastic search yet.
+     */
+    public static RequestList getOfflineRiderRequests() {
+        return getOperationLog().getPendingRequests(OfflineOperation.Type.ADD_REQUEST);
+    }
+
+    /**
+     * @return The requests offered on while offline whose offers have not been put on elastic
+     * search yet.
+     */
+    public static RequestList getOfflineOfferedRequests() {
+        return getOperationLog().getPendingRequests(OfflineOperation.Type.ADD_OFFER);
+    }
+
+    /**
+     * Opens the offline operation log the first time it is needed. Offline requests and offers
+     * saved by older versions of the app are moved into it.
+     */
+    public static synchronized OfflineOperationLog getOperationLog() {
+        if (operationLog == null) {
+            operationLog = new OfflineOperationLog(saveContext.getFileStreamPath(OFFLINE_LOG_FILENAME));
+            migrateLegacyOfflineFiles();
         }
-        loadOfflineRiderRequests();
-        ElasticRequestController.FetchRiderRequestsTask frrt = new ElasticRequestController.FetchRiderRequestsTask();
-        frrt.execute( rider.getUsername() );
-        RequestList foundRequests = new RequestList();
+        return operationLog;
+    }
+
+    /**
+     * Records a change made while offline. The change is appended to the log (one write no matter
+     * how many changes are waiting) and synced to disk before returning.
+     */
+    private static void recordOfflineOperation(OfflineOperation operation) {
+        OfflineOperationLog log = getOperationLog();
+        log.append(operation);
+        log.sync();
+    }
+
+    /**
+     * Replays the changes made while offline on elastic search, in the order they were made. Does
+     * nothing when there is no connection, nothing to replay, or a replay is already running or
+     * scheduled. Failed replays are retried with an increasing delay.
+     *
+     * @see ElasticRequestController.ReplayOfflineOperationsTask
+     */
+    public static void replayOfflineOperations() {
+        if (replaying || getOperationLog().isEmpty() || !ConnectionChecker.isThereInternet()) {
+            return;
+        }
+        replaying = true;
+        ElasticRequestController.ReplayOfflineOperationsTask rt = new ElasticRequestController.ReplayOfflineOperationsTask();
+        rt.geocoder = GeocodingService.getInstance(saveContext);
+        // Run on the write lane so the replay is ordered with the other changes to elastic search
+        rt.executeOnExecutor(ElasticController.getWriteExecutor(), getOperationLog());
+    }
+
+    /**
+     * Called on the UI thread when a replay finishes.
+     * @param emptied Whether the log is now empty, null if the replay failed.
+     */
+    static void onReplayFinished(Boolean emptied) {
+        replaying = false;
+        if (emptied == null) {
+            // Try again later, each failure in a row waits longer
+            long delay = getOperationLog().recordReplayFailure();
+            if (replayHandler == null) {
+                replayHandler = new Handler(Looper.getMainLooper());
+            }
+            replaying = true;
+            replayHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    replaying = false;
+                    replayOfflineOperations();
+                }
+            }, delay);
+        } else {
+            getOperationLog().recordReplaySuccess();
+            if (!emptied) {
+                replayOfflineOperations(); // there are more operations than fit in one batch
+            }
+        }
+    }
+
+    /**
+     * Moves the offline rider requests and driver offers saved by older versions of the app into
+     * the offline operation log, then deletes the old files.
+     */
+    private static void migrateLegacyOfflineFiles() {
+        migrateLegacyOfflineFile(LEGACY_OFFLINE_REQUEST_FILENAME, OfflineOperation.Type.ADD_REQUEST);
+        migrateLegacyOfflineFile(LEGACY_OFFLINE_OFFERS_FILENAME, OfflineOperation.Type.ADD_OFFER);
+    }
+
+    /**
+     * Moves the operations saved in one old file into the offline operation log, and deletes the
+     * file once they are synced to disk. If the file cannot be read (or the log cannot be synced)
+     * it is kept, and moving it is tried again the next time the log is opened.
+     * </br>
+     * The key of each operation comes from its entry in the file, so moving a file again (i.e. if
+     * the app was killed before it was deleted) records nothing twice, and a replay that already
+     * happened is overwritten on elastic search rather than duplicated.
+     * @param fileName The old file.
+     * @param type The type of the operations saved in it.
+     */
+    private static void migrateLegacyOfflineFile(String fileName, OfflineOperation.Type type) {
+        if (!saveContext.getFileStreamPath(fileName).exists()) {
+            return;
+        }
+        List<OfflineOperation> operations = new ArrayList<>();
         try {
-            foundRequests = frrt.get();
+            BufferedReader in = new BufferedReader(new InputStreamReader(saveContext.openFileInput(fileName)));
+            try {
+                JsonArray entries = new JsonParser().parse(in).getAsJsonArray();
+                for (int i = 0; i < entries.size(); i++) {
+                    operations.add(legacyOperation(type, entries.get(i), i));
+                }
+            } finally {
+                in.close();
+            }
         } catch (Exception e) {
+            // Keep the file rather than lose offline work that was never replayed
             e.printStackTrace();
+            return;
+        }
+        for (OfflineOperation operation : operations) {
+            if (!operationLog.isPending(operation.getKey())) {
+                operationLog.append(operation);
+            }
+        }
+        if (operationLog.sync()) {
+            saveContext.deleteFile(fileName);
         }
-        requestsWhereRider.replaceList( foundRequests );
-        // Save rider requests after load
-        saveRiderRequests();
-        return foundRequests;
     }
 
-    public static RequestList getOfflineRiderRequests() {
-        return offlineRiderRequests;
+    /**
+     * @param type The type of the operations saved in the old file.
+     * @param entry An entry of the old file.
+     * @param position Where the entry is in the file, so two entries that are the same are kept apart.
+     * @return The operation for the entry, with a key derived from the entry and its position.
+     */
+    private static OfflineOperation legacyOperation(OfflineOperation.Type type, JsonElement entry, int position)
+            throws UnsupportedEncodingException {
+        String key = UUID.nameUUIDFromBytes((type + "/" + position + "/" + entry).getBytes("UTF-8")).toString();
+        Gson gson = new Gson();
+        if (type == OfflineOperation.Type.ADD_REQUEST) {
+            Request request = gson.fromJson(entry, Request.class);
+            if (request.getId() == null) {
+                request.setId(key);
+            }
+            return new OfflineOperation(type, request, null, key);
+        }
+        JsonObject command = entry.getAsJsonObject();
+        Request request = gson.fromJson(command.get("request"), Request.class);
+        User driver = gson.fromJson(command.get("driver"), User.class);
+        return new OfflineOperation(type, request, driver, key);
     }
 
     /**
-     * Retrieves the list of offline offer commands.
-     *
-     * @return OfferCommandList
+     * Opens a file of saved requests. If the store is empty but the requests were saved by an
+     * older version of the app, they are moved into it and the old file is deleted. If moving them
+     * fails the old file is kept, and moving them is tried again the next time.
+     * @param fileName The file of the record store.
+     * @param legacyFileName The file the requests were saved to before.
      */
-    public static OfferCommandList getOfflineDriverOfferCommands() {
-        return offlineDriverOfferCommands;
+    private static RecordStore<Request> openStore(String fileName, String legacyFileName) {
+        File file = saveContext.getFileStreamPath(fileName);
+        RecordStore<Request> store = new RecordStore<>(file, Request.class, REQUEST_KEYS);
+        if (store.size() != 0 || !saveContext.getFileStreamPath(legacyFileName).exists()) {
+            return store;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(saveContext.openFileInput(legacyFileName)));
+            Type listType = new TypeToken<RequestList>() {}.getType();
+            RequestList saved;
+            try {
+                saved = new Gson().fromJson(in, listType);
+            } finally {
+                in.close();
+            }
+            if (saved != null) {
+                store.replaceAll(saved);
+                store.sync();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            // Start over from an empty store, the next open tries again
+            store.close();
+            file.delete();
+            return new RecordStore<>(file, Request.class, REQUEST_KEYS);
+        }
+        saveContext.deleteFile(legacyFileName);
+        return store;
+    }
+
+    private static synchronized RecordStore<Request> getRiderStore() {
+        if (riderStore == null) {
+            riderStore = openStore(RIDER_FILENAME, LEGACY_RIDER_FILENAME);
+        }
+        return riderStore;
+    }
+
+    private static synchronized RecordStore<Request> getDriverStore() {
+        if (driverStore == null) {
+            driverStore = openStore(DRIVER_FILENAME, LEGACY_DRIVER_FILENAME);
+        }
+        return driverStore;
+    }
+
+    private static synchronized RecordStore<Request> getSearchStore() {
+        if (searchStore == null) {
+            searchStore = openStore(SEARCH_FILENAME, LEGACY_SEARCH_FILENAME);
+        }
+        return searchStore;
     }
 
     /**
      * Updates the requestsWhereRider and requestsWhereOffered lists in the background (do not need
-     * to wait on the main UI thread at all). If a rider had made requests while offline and they
-     * regain connectivity, also adds their offline requests to elastic search.
+     * to wait on the main UI thread at all). Only the requests that changed since the last update
+     * are downloaded and merged into the lists. If changes were made while offline and the user
+     * regains connectivity, also replays them on elastic search.
      *
      * @see ElasticRequestController.FetchRiderRequestsTask
      * @see ElasticRequestController.GetOfferedRequestsTask
+     * @see SyncState
      */
     public static void performAsyncUpdate() {
         // If there is connectivity, perform updates
         if (ConnectionChecker.isThereInternet()) {
-            /* If the size of the list of requests made offline is greater than 0, add them to
-             elastic search
-              */
-            if (RequestController.getOfflineRiderRequests().size() > 0) {
-                Log.i("OFFLINE REQS", String.valueOf(RequestController.getOfflineRiderRequests().size()));
-                ElasticRequestController.AddRequestTask art = new ElasticRequestController.AddRequestTask();
-                // Convert to an array since async tasks don't take in array lists as arguments.
-                Request[] requestsToPass = new Request[RequestController.getOfflineRiderRequests().size()];
-                for (int i = 0; i < RequestController.getOfflineRiderRequests().size(); i++) {
-                    Request request = RequestController.getOfflineRiderRequests().get(i);
-                    request.getStart().setAddress(getAddress(saveContext, request.getStart().getLatitude(), request.getEnd().getLongitude()));
-                    request.getEnd().setAddress(getAddress(saveContext, request.getEnd().getLatitude(), request.getEnd().getLongitude()));
-                    requestsToPass[i] = request;
-                }
-                art.execute(requestsToPass);
+            // Put any changes made while offline on elastic search first
+            replayOfflineOperations();
 
-                for(Request request : requestsToPass) {
-                    if(request.getOfferedDrivers().size() > 0) {
-                        RequestController.getOfflineRiderRequests().clear();
-                    }
-                }
-            }
+            String username = UserController.getLoggedInUser().getUsername();
+            long now = System.currentTimeMillis();
 
+            // Only fetch what changed since the last sync (a full fetch is done now and then)
             ElasticRequestController.FetchRiderRequestsTask frrt = new ElasticRequestController.FetchRiderRequestsTask();
             frrt.withAsync = true;
-            frrt.execute(UserController.getLoggedInUser().getUsername());
+            frrt.since = riderSync.getSince(username, now);
+            frrt.syncState = riderSync;
+            frrt.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.BACKGROUND), username);
 
             ElasticRequestController.GetOfferedRequestsTask gort = new ElasticRequestController.GetOfferedRequestsTask();
             gort.withAsync = true;
-            gort.execute( UserController.getLoggedInUser().getUsername());
-        }
-    }
-
-    /**
-     * Caches the queue of driver offer commands to perform once we regain connection.
-     */
-    public static void saveDriverOfferCommands() {
-        Gson gson = new Gson();
-        try {
-            FileOutputStream fos = saveContext.openFileOutput(OFFLINE_OFFERS_FILENAME, 0);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fos));
-            // Append new request to add to queue
-
-            Log.i("Saving", String.valueOf(offlineDriverOfferCommands.size()));
-            gson.toJson(offlineDriverOfferCommands, out);
-            out.flush();
-            fos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+            gort.since = driverSync.getSince(username, now);
+            gort.syncState = driverSync;
+            for (Request request : requestsWhereOffered) {
+                if (request.getId() != null) {
+                    gort.knownRequestIDs.add(request.getId());
+                }
+            }
+            gort.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.BACKGROUND), username);
         }
     }
 
     /**
-     * For offline functionality. Loads the cached driver offer commands queue.
+     * Caches the requests that the driver has searched for, in the background. Only the results
+     * that changed since the last save are written.
+     * @param append Boolean to tell us if we want to append or replace the saved search results
      */
-    public static void loadDriverOfferCommands() {
-        try {
-            FileInputStream fis = saveContext.openFileInput(OFFLINE_OFFERS_FILENAME);
-            BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-            Gson gson = new Gson();
-            Type listType = new TypeToken<OfferCommandList>() {}.getType();
-            // Load the search results into the controller
-            offlineDriverOfferCommands.replaceList((OfferCommandList) gson.fromJson(in, listType));
-            Log.i("Loading", String.valueOf(offlineDriverOfferCommands.size()));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private static void saveSearchResults(final boolean append) {
+        final RecordStore<Request> store = getSearchStore();
+        // Encoded here, the results may change on this thread while they are being written
+        final List<RecordStore.Encoded> results = store.encode(searchResult);
+        persistence.save(SEARCH_FILENAME, new Runnable() {
+            @Override
+            public void run() {
+                if (!append) {
+                    store.replaceAllEncoded(Collections.<RecordStore.Encoded>emptyList());
+                }
+                // we only want to save the 50 most recent search results, after the previous ones
+                store.appendEncoded(results, MAX_SAVED_SEARCH_RESULTS);
+                Log.i("Saving", String.valueOf(store.size()));
+                store.sync();
+            }
+        });
     }
 
     /**
-     * Caches the requests that the driver has searched for.
-     * @param append Boolean to tell us if we want to append or replace the saved search results
+     * Removes the saved search results that are no longer available (i.e. another driver was
+     * confirmed), so they are not shown offline. Checked with one search in the background, after
+     * an online search.
      */
-    private static void saveSearchResults(boolean append) {
-        RequestList saveList = new RequestList();
-        // we only want to save the 50 most recent search results
-        saveList.setMaxArraySize(50);
-        Gson gson = new Gson();
-        if(append) {
-            try {
-                // get previous search results
-                FileInputStream fis = saveContext.openFileInput(SEARCH_FILENAME);
-                BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-                Type listType = new TypeToken<RequestList>() {}.getType();
-                // Append previous search results
-                saveList.append((RequestList) gson.fromJson(in, listType));
-                // if we have network connection, check our list to remove unavailable requests
-                if (ConnectionChecker.isThereInternet()) {
-                    saveList.verifyAll();
+    private static void pruneSavedSearchResults() {
+        final RecordStore<Request> store = getSearchStore();
+        final List<String> saved = store.getKeys();
+        ElasticRequestController.FindAvailableTask fat = new ElasticRequestController.FindAvailableTask() {
+            @Override
+            protected void onPostExecute(final Set<String> available) {
+                if (available == null) {
+                    return; // could not check, try again after the next search
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                persistence.save(SEARCH_FILENAME + " (pruned)", new Runnable() {
+                    @Override
+                    public void run() {
+                        for (String id : saved) {
+                            if (!available.contains(id)) {
+                                store.remove(id);
+                            }
+                        }
+                        store.sync();
+                    }
+                });
             }
-        }
-        try {
-            FileOutputStream fos = saveContext.openFileOutput(SEARCH_FILENAME, 0);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fos));
-            saveList.append(searchResult);
-            Log.i("Saving",String.valueOf(saveList.size()));
-            gson.toJson(saveList, out);
-            out.flush();
-            fos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        };
+        fat.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.BACKGROUND),
+                saved.toArray(new String[saved.size()]));
     }
 
     /**
      * For offline functionality. Loads the cached search results.
      */
     private static void loadSearchResults() {
+        persistence.flush(); // the file may not have the latest save yet
         try {
-            FileInputStream fis = saveContext.openFileInput(SEARCH_FILENAME);
-            BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-            Gson gson = new Gson();
-            Type listType = new TypeToken<RequestList>() {
-            }.getType();
-
+            RequestList saved = new RequestList();
+            saved.addAll(getSearchStore().getAll());
             // Load the search results into the controller
-            searchResult.replaceList((RequestList) gson.fromJson(in, listType));
+            searchResult.replaceList(saved);
             // Reverse the list so we see the most recent searches first
             Collections.reverse(searchResult);
             Log.i("Loading", String.valueOf(searchResult.size()));
-            // if we have network connection, check our list to remove unavailable requests
-            if (ConnectionChecker.isThereInternet()) {
-                searchResult.verifyAll();
-            }
+            cachedResultsIndex.clear();
+            cachedResultsIndex.addAll(searchResult);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Get address string from a geo point
+     * Get address string from a geo point. Points looked up before are answered from the
+     * geocoding cache.
      *
      * @return the address as a string.
+     * @see GeocodingService#reverse(double, double)
      */
-    // see code attribution
     public static String getAddress(Context context, double latitude, double longitude) {
-        String pointAddress;
-        try {
-            Geocoder geocoder = new Geocoder(context);
-            List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
-            StringBuilder sb = new StringBuilder();
-            if(addresses.size() > 0) {
-                Address address = addresses.get(0);
-                int n = address.getMaxAddressLineIndex();
-                for(int i = 0; i <= n; i++) {
-                    if(i != 0) {
-                        sb.append("\n");
-                    }
-                    sb.append(address.getAddressLine(i));
-                }
-                pointAddress = new String(sb);
-            } else {
-                pointAddress = "";
-            }
-        } catch (Exception e) {
-            pointAddress = "";
-        }
-        return pointAddress;
+        return GeocodingService.getInstance(context).reverse(latitude, longitude);
     }
 
     /**
-     * Caches the requests that the rider has made.
+     * Caches the requests that the rider has made. Only the requests that changed since the last
+     * save are written.
      */
     public static void saveRiderRequests() {
-        try {
-            FileOutputStream fos = saveContext.openFileOutput(RIDER_FILENAME, 0);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fos));
-
-            Gson gson = new Gson();
-            gson.toJson(requestsWhereRider, out);
-            out.flush();
-
-            fos.close();
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        saveRequests(getRiderStore(), RIDER_FILENAME, requestsWhereRider);
     }
 
     /**
      * For offline functionality. Loads the cached rider requests.
      */
     private static void loadRiderRequests() {
-        FileInputStream fis = null;
-        try {
-            fis = saveContext.openFileInput(RIDER_FILENAME);
-            BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-            Gson gson = new Gson();
-            Type listType = new TypeToken<RequestList>() {}.getType();
-
-            // Load the rider requests into the controller
-            requestsWhereRider.replaceList((RequestList) gson.fromJson(in, listType));
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        // Load the rider requests into the controller
+        loadRequests(getRiderStore(), RIDER_FILENAME, requestsWhereRider);
     }
 
     /**
-     * Append to the cached rider requests.
-     */
-    private static void appendRiderRequests(Request request) {
-        Gson gson = new Gson();
-        try {
-            FileOutputStream fos = saveContext.openFileOutput(OFFLINE_REQUEST_FILENAME, 0);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fos));
-            offlineRiderRequests.add(request);
-            gson.toJson(offlineRiderRequests, out);
-            out.flush();
-            fos.close();
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Caches the requests that the driver offered to fulfill.
+     * Caches the requests that the driver offered to fulfill. Only the requests that changed since
+     * the last save are written.
      */
     public static void saveDriverOfferedRequests() {
-        try {
-            FileOutputStream fos = saveContext.openFileOutput(DRIVER_FILENAME, 0);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fos));
-
-            Gson gson = new Gson();
-            gson.toJson(requestsWhereOffered, out);
-            out.flush();
-            fos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        saveRequests(getDriverStore(), DRIVER_FILENAME, requestsWhereOffered);
     }
 
     /**
      * For offline functionality. Loads the cached driver offered requests.
      */
     private static void loadDriverOfferedRequests() {
-        try {
-            FileInputStream fis = saveContext.openFileInput(DRIVER_FILENAME);
-            BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-            Gson gson = new Gson();
-            Type listType = new TypeToken<RequestList>() {}.getType();
-            // Load the driver requests into the controller
-            requestsWhereOffered.replaceList((RequestList) gson.fromJson(in, listType));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        // Load the driver requests into the controller
+        loadRequests(getDriverStore(), DRIVER_FILENAME, requestsWhereOffered);
     }
 
     /**
-     * For offline functionality. Saves the offline rider requests from the controller to file.
+     * Saves a list of requests in the background, unless the list is still being loaded (then it
+     * is saved once it is, saving it now would drop the requests not loaded yet).
      */
-    public static void saveOfflineRiderRequests() {
-        try {
-            FileOutputStream fos = saveContext.openFileOutput(OFFLINE_REQUEST_FILENAME, 0);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fos));
-
-            Gson gson = new Gson();
-            gson.toJson(offlineRiderRequests, out);
-            out.flush();
-            fos.close();
-
-            Log.i("Saving offline: ", "Size of offline save " + Integer.toString(offlineRiderRequests.size()));
-
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static void saveRequests(final RecordStore<Request> store, String fileName, RequestList list) {
+        Integer loaded = incompleteLists.get(list);
+        if (loaded != null && loaded == list.getReplaceCount()) {
+            pendingSaves.add(list);
+            return;
         }
+        // Encoded here, the requests may change on this thread while they are being written
+        final List<RecordStore.Encoded> snapshot = store.encode(list);
+        persistence.save(fileName, new Runnable() {
+            @Override
+            public void run() {
+                store.replaceAllEncoded(snapshot);
+                store.sync();
+            }
+        });
     }
 
     /**
-     * For offline functionality. Loads the offlineRiderRequests from file into the controller.
+     * Writes the saves still waiting in the background and waits until they are written. Called
+     * when the app is paused, as it may be killed after.
      */
-    private static void loadOfflineRiderRequests() {
-        try {
-            FileInputStream fis = saveContext.openFileInput(OFFLINE_REQUEST_FILENAME);
-            BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-            Gson gson = new Gson();
-            Type listType = new TypeToken<RequestList>() {}.getType();
-            // Load the offline requests into the controller
-            offlineRiderRequests.replaceList((RequestList) gson.fromJson(in, listType));
+    public static void flush() {
+        persistence.flush();
+    }
 
-            Log.i("Loading offline: ", "Size of offline load " + Integer.toString(offlineRiderRequests.size()));
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Replaces a list with the saved requests. Only the first page is decoded before the list is
+     * shown (the store does not decode requests it is not asked for), the rest are decoded in the
+     * background and added to the end of the list, unless it was replaced in the meantime.
+     */
+    private static void loadRequests(final RecordStore<Request> store, final String fileName, final RequestList list) {
+        persistence.flush(); // the file may not have the latest save yet
+        RequestList firstPage = new RequestList();
+        firstPage.addAll(store.getRange(0, FIRST_PAGE_SIZE));
+        list.replaceList(firstPage);
+        if (store.size() <= FIRST_PAGE_SIZE) {
+            incompleteLists.remove(list);
+            return;
         }
+
+        final int loaded = list.getReplaceCount();
+        incompleteLists.put(list, loaded);
+        final Handler handler = new Handler(Looper.getMainLooper());
+        ElasticController.getExecutor(ElasticExecutor.Priority.BACKGROUND).execute(new Runnable() {
+            @Override
+            public void run() {
+                final RequestList rest = new RequestList();
+                rest.addAll(store.getRange(FIRST_PAGE_SIZE, store.size()));
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Integer latest = incompleteLists.get(list);
+                        if (latest == null || latest != loaded) {
+                            return; // loaded again since, that load adds the rest
+                        }
+                        incompleteLists.remove(list);
+                        if (list.getReplaceCount() == loaded) {
+                            list.append(rest);
+                        }
+                        if (pendingSaves.remove(list)) {
+                            saveRequests(store, fileName, list);
+                        }
+                    }
+                });
+            }
+        });
     }
 
     /**
@@ -770,22 +1289,7 @@ public class RequestController {
      * @param maxPrice The maximum value you wish to prune by. (Passing null is equivalent to passing positive infinity)
      */
     public static void pruneByPrice(@NonNull Double minPrice, @Nullable Double maxPrice) {
-        RequestList filteredRequests = new RequestList();
-        for ( Request request : searchResult ) {
-
-            Log.i( "price:", "" + request.getFare() );
-            Log.i( "minPrice:", "" + minPrice );
-            Log.i( "maxPrice:", "" + maxPrice );
-
-            // If the fare is less than the minimum price specified, skip it
-            if ( request.getFare() < minPrice * 100 ) { continue; }
-            // If the maxPrice is not null, and the fare is greater than the max price, skip it.
-            if ( maxPrice != null && maxPrice * 100 < request.getFare() ) { continue; }
-
-            Log.i( " *** added fare", "" + request.getFare() );
-            filteredRequests.add( request ); // add the request if it is in range
-        }
-        searchResult.replaceList( filteredRequests );
+        prune( new PriceFilter().setPriceRange( minPrice, maxPrice ) );
     }
 
     /**
@@ -795,22 +1299,17 @@ public class RequestController {
      * @param maxPricePerKM The maximum value you wish to prune by. (Passing null is equivalent to passing positive infinity)
      */
     public static void pruneByPricePerKM( @NonNull Double minPricePerKM, @Nullable Double maxPricePerKM ) {
+        prune( new PriceFilter().setPricePerKMRange( minPricePerKM, maxPricePerKM ) );
+    }
+
+    /** Removes the search results that are not within the ranges of the filter. */
+    private static void prune(PriceFilter filter) {
         RequestList filteredRequests = new RequestList();
         for ( Request request : searchResult ) {
-            double pricePerKM = (request.getFare() / request.getDistance()) / 100;
-
-            Log.i( "pricePerKM:", "" + pricePerKM );
-            Log.i( "minPricePerKM:", "" + minPricePerKM );
-            Log.i( "maxPricePerKM:", "" + maxPricePerKM );
-
-            // ensure the price per kilometer is greater than the specified minimum
-            if ( pricePerKM < minPricePerKM ) { continue; }
-            // ensure the price per kilometer is less than the specified maximum.
-            if ( maxPricePerKM != null && maxPricePerKM < pricePerKM ) { continue; }
-            filteredRequests.add( request ); // add the request if it is in range
-
-            Log.i( " *** added per KM", "" + pricePerKM );
+            if ( filter.matches( request ) ) {
+                filteredRequests.add( request ); // add the request if it is in range
+            }
         }
         searchResult.replaceList( filteredRequests );
     }
-}
\ No newline at end of file
+}
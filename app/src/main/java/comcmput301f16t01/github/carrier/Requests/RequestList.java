@@ -1,35 +1,88 @@
 package comcmput301f16t01.github.carrier.Requests;
 
-import android.util.Log;
-
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import comcmput301f16t01.github.carrier.Listener;
 
 /**
  * Adds listener functionality to the base ArrayList class.
+ * </br>
+ * Also keeps an index from elastic search ID to position in the list, so that looking up a
+ * request by ID does not scan the list. Adding to the end and replacing requests keep the index up
+ * to date; any other change to the list (tracked by modCount) has it rebuilt the next time it is
+ * used. A request added without an ID (i.e. before it is saved) is given one later without the
+ * list knowing, so while there are such requests an ID that is not in the index has it rebuilt.
+ * </br>
+ * Changes can be grouped with beginBatch() and endBatch(): listeners are then notified once, at
+ * the end of the outermost batch, with a RequestListChange describing everything that happened.
+ * Every bulk operation (append, merge, removeIds, replaceList) is a batch of its own.
  * TODO remove building up listeners (if there are any?)
  * @see Listener
+ * @see ChangeListener
  * @see Request
  */
 public class RequestList extends ArrayList<Request> {
+    /**
+     * Listens for changes to a RequestList, and is told what changed.
+     * @see RequestListChange
+     */
+    public interface ChangeListener {
+        void onChange(RequestListChange change);
+    }
+
     private ArrayList<Listener> listeners = new ArrayList<>();
+    private transient ArrayList<ChangeListener> changeListeners = new ArrayList<>();
     /** Possible limit on the length of the array (-1 is default "unset" value). */
     private int maxArraySize = -1;
 
+    /** The position of each request by its ID (requests without an ID are not indexed). */
+    private transient Map<String, Integer> idIndex = null;
+
+    /** The modCount the index was last in sync with. */
+    private transient int indexedModCount = -1;
+
+    /** Whether a request without an ID was in the list when it was indexed, it may have one now. */
+    private transient boolean missingIds = false;
+
+    /** How many batches are open, listeners are notified when the last one ends. */
+    private transient int batchDepth = 0;
+
+    /** What has changed in the open batch, null if nothing has yet. */
+    private transient RequestListChange pendingChange = null;
+
+    /** How many times the whole list has been replaced. */
+    private transient int replaceCount = 0;
+
     public void setMaxArraySize(int maxArraySize) {
         this.maxArraySize = maxArraySize;
     }
 
     @Override
     public boolean add(Request e) {
-        Boolean returnValue = super.add(e);
-        notifyListeners();
+        beginBatch();
+        boolean returnValue = addQuietly(e);
+        getPendingChange().insert(e);
+        endBatch();
         return returnValue;
     }
 
+    @Override
+    public Request set(int position, Request request) {
+        Request old = super.set(position, request);
+        // Replacing a request with a newer copy of itself (same ID) leaves the index as it is
+        String oldId = old == null ? null : old.getId();
+        String newId = request == null ? null : request.getId();
+        if (oldId == null ? newId != null : !oldId.equals(newId)) {
+            idIndex = null;
+        }
+        return old;
+    }
+
     public void addListener(Listener newListener ) {
         listeners.add( newListener );
     }
@@ -38,17 +91,78 @@ public class RequestList extends ArrayList<Request> {
         listeners.remove( listener );
     }
 
+    public void addChangeListener( ChangeListener newListener ) {
+        getChangeListeners().add( newListener );
+    }
+
+    public void removeChangeListener( ChangeListener listener ) {
+        getChangeListeners().remove( listener );
+    }
+
+    /** Notifies listeners that the list changed in some way that was not tracked (a reset). */
     public void notifyListeners() {
+        beginBatch();
+        getPendingChange().reset();
+        endBatch();
+    }
+
+    /**
+     * Notifies listeners that a request in the list was changed in place (i.e. its status), so that
+     * only that request has to be redrawn.
+     * @param request The request that changed.
+     */
+    public void notifyUpdated( Request request ) {
+        beginBatch();
+        getPendingChange().update(request);
+        endBatch();
+    }
+
+    /**
+     * Starts a batch of changes. Listeners are not notified until the matching endBatch(). Batches
+     * can be nested.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes. If this is the outermost batch and anything changed, listeners are
+     * notified once with everything that changed in it.
+     */
+    public void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException( "endBatch() called without beginBatch()" );
+        }
+        batchDepth--;
+        if (batchDepth > 0 || pendingChange == null) {
+            return;
+        }
+        RequestListChange change = pendingChange;
+        pendingChange = null;
         for (Listener listener : listeners ) {
             listener.update();
         }
+        for (ChangeListener listener : new ArrayList<>(getChangeListeners()) ) {
+            listener.onChange(change);
+        }
     }
 
     /** Replaces itself with a new instance and notifies listeners of the update. */
     public void replaceList( RequestList newList ) {
+        beginBatch();
         this.clear();
         this.addAll( newList );
-        notifyListeners();
+        replaceCount++;
+        getPendingChange().reset();
+        endBatch();
+    }
+
+    /**
+     * @return How many times the list has been replaced, to tell whether it was replaced since
+     *         some earlier point.
+     */
+    public int getReplaceCount() {
+        return replaceCount;
     }
 
     /**
@@ -56,47 +170,149 @@ public class RequestList extends ArrayList<Request> {
      * @param request The request to remove from the list
      */
     public boolean remove(Request request) {
-        Iterator<Request> iterator = this.iterator();
-        while(iterator.hasNext()) {
-            if(iterator.next().getId().equals(request.getId())) {
-                iterator.remove();
-                notifyListeners();
-                return true;
-            }
+        int position = indexOf(request.getId());
+        if (position == -1) {
+            return false;
         }
-        return false;
+        beginBatch();
+        getPendingChange().remove(super.remove(position));
+        endBatch();
+        return true;
     }
 
     /**
-     * Appends new requests to the end of the list and notifies listeners of the update. If the
-     * maxArraySize has been set, we check if there is room on the array (if there is no room, we
-     * remove the first, or most recent, request and append the new request to the end). If the
-     * maxArraySize has not been set or it has been set but we still have room on the array, we
-     * simply add the request to the end of the array.
+     * Appends new requests to the end of the list and notifies listeners of the update once.
+     * Requests already in the list (by ID) are skipped. If the maxArraySize has been set and there
+     * is no more room on the array, the first (oldest) requests are removed to make room for the
+     * new ones at the end.
      * @param requests The RequestList to append to this RequestList
      */
     public void append(RequestList requests) {
-        // by default, we ignore the size of the array
-        boolean ignoreSize = true;
-        // check if array size has not been set
-        if (maxArraySize != -1) {
-            // still room to add on this instance of the request list (cannot ignore the max array size)
-            ignoreSize = this.size() < maxArraySize;
-        }
+        beginBatch();
         // go through all the request we need to append
         for (Request request : requests) {
-            // still room on list (or we don't care about array size)
             // the request is not already in the list, simply add
-            if (!this.contains(request.getId()) && ignoreSize) {
-                this.add(request);
-            } else if (!this.contains(request.getId())) {
-                // no more room on list (we care about size of array list)
-                // remove first request from beginning and append to end of list
-                this.remove(0);
-                this.add(request);
+            if (!this.contains(request.getId())) {
+                addQuietly(request);
+                getPendingChange().insert(request);
+            }
+        }
+        // no more room on list (we care about size of array list), remove from the beginning in one go
+        if (maxArraySize != -1 && this.size() > maxArraySize) {
+            int removeCount = this.size() - maxArraySize;
+            for (int i = 0; i < removeCount; i++) {
+                getPendingChange().remove(get(i));
+            }
+            removeRange(0, removeCount);
+        }
+        endBatch();
+    }
+
+    /**
+     * Merges changed requests into the list in place: a request already in the list (by ID) is
+     * replaced where it is, new requests are added to the end. Listeners are notified once.
+     * @param changes The requests that changed.
+     */
+    public void merge(RequestList changes) {
+        beginBatch();
+        for (Request change : changes) {
+            int position = indexOf(change.getId());
+            if (position == -1) {
+                addQuietly(change);
+                getPendingChange().insert(change);
+            } else {
+                set(position, change);
+                getPendingChange().update(change);
+            }
+        }
+        endBatch();
+    }
+
+    /**
+     * Removes the requests with the given IDs and notifies listeners once.
+     * @param ids The IDs of the requests to remove.
+     */
+    public void removeIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        beginBatch();
+        Iterator<Request> iterator = this.iterator();
+        while(iterator.hasNext()) {
+            Request request = iterator.next();
+            if(ids.contains(request.getId())) {
+                iterator.remove();
+                getPendingChange().remove(request);
+            }
+        }
+        endBatch();
+    }
+
+    /** @return The position of the request with the given ID, or -1 if it is not in the list. */
+    private int indexOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        Integer position = getIdIndex().get(id);
+        if (position == null && missingIds) {
+            // A request that was added without an ID may have been given this one since
+            idIndex = null;
+            position = getIdIndex().get(id);
+        }
+        return position == null ? -1 : position;
+    }
+
+    /** Adds a request to the end of the list without notifying listeners, keeping the index. */
+    private boolean addQuietly(Request request) {
+        boolean indexed = isIndexed();
+        boolean returnValue = super.add(request);
+        if (indexed) {
+            if (request == null || request.getId() == null) {
+                missingIds = true;
+            } else if (!idIndex.containsKey(request.getId())) {
+                idIndex.put(request.getId(), size() - 1);
             }
+            indexedModCount = modCount;
         }
-        notifyListeners();
+        return returnValue;
+    }
+
+    private RequestListChange getPendingChange() {
+        if (pendingChange == null) {
+            pendingChange = new RequestListChange();
+        }
+        return pendingChange;
+    }
+
+    /** Lists loaded from file with Gson skip field initializers for transient fields. */
+    private ArrayList<ChangeListener> getChangeListeners() {
+        if (changeListeners == null) {
+            changeListeners = new ArrayList<>();
+        }
+        return changeListeners;
+    }
+
+    /** @return Whether the index matches the list as it is now. */
+    private boolean isIndexed() {
+        return idIndex != null && indexedModCount == modCount;
+    }
+
+    /** @return The index, rebuilt first if the list was changed some other way since. */
+    private Map<String, Integer> getIdIndex() {
+        if (!isIndexed()) {
+            idIndex = new HashMap<>();
+            missingIds = false;
+            for (int i = 0; i < size(); i++) {
+                Request request = get(i);
+                if (request == null || request.getId() == null) {
+                    missingIds = true;
+                } else if (!idIndex.containsKey(request.getId())) {
+                    idIndex.put(request.getId(), i);
+                }
+            }
+            indexedModCount = modCount;
+        }
+        return idIndex;
     }
 
     /** Verify that the status of the requests is still either "OPEN" or "OFFERED". */
@@ -111,12 +327,6 @@ public class RequestList extends ArrayList<Request> {
 
     /** Checks if the request is already contained in the requestList. */
     boolean contains(String id) {
-        Log.i("TEST", this.toString());
-        for(Request request : this) {
-            if(request.getId().equals(id)) {
-                return true;
-            }
-        }
-        return false;
+        return indexOf(id) != -1;
     }
 }
@@ -0,0 +1,87 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes what changed in a RequestList since listeners were last notified: the requests that
+ * were inserted, removed, or updated in place. A reset means the list changed in a way that was
+ * not tracked (i.e. it was replaced), so everything should be redrawn.
+ *
+ * @see RequestList.ChangeListener
+ * @see RequestList#beginBatch()
+ */
+public class RequestListChange {
+    private final List<Request> inserted = new ArrayList<>();
+    private final List<Request> removed = new ArrayList<>();
+    private final List<Request> updated = new ArrayList<>();
+
+    /** The IDs of the updated requests, a newer copy of a request counts as the same request. */
+    private final Set<String> updatedIds = new HashSet<>();
+
+    private boolean reset = false;
+
+    void insert(Request request) {
+        inserted.add(request);
+    }
+
+    void remove(Request request) {
+        removed.add(request);
+    }
+
+    void update(Request request) {
+        updated.add(request);
+        if (request != null && request.getId() != null) {
+            updatedIds.add(request.getId());
+        }
+    }
+
+    void reset() {
+        reset = true;
+    }
+
+    public List<Request> getInserted() {
+        return Collections.unmodifiableList(inserted);
+    }
+
+    public List<Request> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public List<Request> getUpdated() {
+        return Collections.unmodifiableList(updated);
+    }
+
+    /** @return Whether the whole list should be considered changed. */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /** @return Whether requests were added or removed (positions in the list may have moved). */
+    public boolean isStructural() {
+        return reset || !inserted.isEmpty() || !removed.isEmpty();
+    }
+
+    /** @return Whether the given request was updated in place by this change. */
+    public boolean isUpdated(Request request) {
+        if (request == null) {
+            return false;
+        }
+        if (request.getId() != null && updatedIds.contains(request.getId())) {
+            return true;
+        }
+        for (Request updatedRequest : updated) {
+            if (updatedRequest == request) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return !reset && inserted.isEmpty() && removed.isEmpty() && updated.isEmpty();
+    }
+}
@@ -17,7 +17,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import org.osmdroid.api.IMapController;
-import org.osmdroid.bonuspack.routing.OSRMRoadManager;
 import org.osmdroid.bonuspack.routing.Road;
 import org.osmdroid.bonuspack.routing.RoadManager;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
@@ -113,6 +112,14 @@ public class RiderRequestActivity extends AppCompatActivity {
         super.onResume();
         setViews();
     }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Write the changes made here before the app can be killed
+        RequestController.flush();
+    }
+
     /**
      * This function finds a BoundingBox that fits both the start and end location points.
      *
@@ -221,8 +228,8 @@ public class RiderRequestActivity extends AppCompatActivity {
         protected Road[] doInBackground(Object... params) {
             @SuppressWarnings("unchecked")
             ArrayList<GeoPoint> waypoints = (ArrayList<GeoPoint>) params[0];
-            RoadManager roadManager = new OSRMRoadManager(activity);
-            return roadManager.getRoads(waypoints);
+            // Trips seen before come back from the route cache straight away
+            return CachedRoadManager.getInstance(activity).getRoads(waypoints);
         }
 
         @Override
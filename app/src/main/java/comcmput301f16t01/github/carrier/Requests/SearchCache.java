@@ -0,0 +1,149 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+import java.util.Locale;
+
+import comcmput301f16t01.github.carrier.ExpiringLruCache;
+
+/**
+ * Remembers the results of recent searches for requests, so searching again for the same thing
+ * (i.e. after going back to the search screen) shows the results straight away instead of
+ * searching elastic search, loading the offers and rewriting the search cache file again.
+ * </br>
+ * The cache holds at most maxEntries searches, dropping the least recently used one first, and a
+ * search is only remembered for maxAge milliseconds. Anything that changes which requests are
+ * available (i.e. making an offer) should invalidate the cache.
+ * @see ExpiringLruCache
+ * @see RequestController#searchByKeyword(String, PriceFilter)
+ * @see RequestController#searchByLocation(android.location.Location, PriceFilter)
+ */
+public class SearchCache {
+    /** The results of a search and where it was up to. */
+    public static class Entry {
+        private final RequestList results;
+        private final SearchCursor cursor;
+
+        private Entry(RequestList results, SearchCursor cursor) {
+            this.results = results;
+            this.cursor = cursor;
+        }
+
+        /** @return A copy of the results found. */
+        public RequestList getResults() {
+            return copyOf(results);
+        }
+
+        /** @return A cursor to load the rest of the results with. */
+        public SearchCursor getCursor() {
+            return cursor.copy();
+        }
+    }
+
+    private final long maxAge;
+
+    private final ExpiringLruCache<Entry> entries;
+
+    /**
+     * @param maxEntries How many searches to remember at most.
+     * @param maxAge How long a search is remembered for, in milliseconds.
+     */
+    public SearchCache(int maxEntries, long maxAge) {
+        this.maxAge = maxAge;
+        this.entries = new ExpiringLruCache<>(maxEntries);
+    }
+
+    /** @return The key of a search by keyword (keywords are matched ignoring case and spacing). */
+    public static String keywordKey(String keyword, PriceFilter filter, String username) {
+        String normalized = keyword == null ? "" : keyword.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+        return "keyword:" + normalized + "|" + filterKey(filter) + "|" + username;
+    }
+
+    /**
+     * @return The key of a search by location. Locations within about 10 meters of each other
+     * are the same search.
+     */
+    public static String locationKey(double latitude, double longitude, PriceFilter filter, String username) {
+        return String.format(Locale.US, "location:%.4f,%.4f|", latitude, longitude) + filterKey(filter) + "|" + username;
+    }
+
+    private static String filterKey(PriceFilter filter) {
+        return filter == null || filter.isEmpty() ? "" : filter.toString();
+    }
+
+    /** @return The remembered results of a search, or null if it is not in the cache (or too old). */
+    public synchronized Entry get(String key) {
+        return entries.get(key, now());
+    }
+
+    /** Remembers the results of a search that was just made. */
+    public synchronized void put(String key, RequestList results, SearchCursor cursor) {
+        entries.put(key, new Entry(copyOf(results), cursor.copy()), now() + maxAge);
+    }
+
+    /**
+     * Updates the results of a search that is still remembered (i.e. once more pages of it have
+     * been loaded). The results are as old as they were when the search was made.
+     */
+    public synchronized void update(String key, RequestList results, SearchCursor cursor) {
+        ExpiringLruCache.Entry<Entry> entry = entries.peekEntry(key, now());
+        if (entry != null) {
+            entries.put(key, new Entry(copyOf(results), cursor.copy()), entry.getExpires());
+        }
+    }
+
+    /** Forgets every search, the results may have changed. */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /** Forgets the searches that are too old to be used. */
+    public synchronized void removeExpired() {
+        entries.removeExpired(now());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return How many searches were answered from the cache. */
+    public synchronized int getHitCount() {
+        return entries.getHitCount();
+    }
+
+    /** @return How many searches were not in the cache. */
+    public synchronized int getMissCount() {
+        return entries.getMissCount();
+    }
+
+    /** @return How many searches were dropped to make room for newer ones. */
+    public synchronized int getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    /** @return How many searches were dropped for being too old. */
+    public synchronized int getExpirationCount() {
+        return entries.getExpirationCount();
+    }
+
+    /** @return The fraction of searches answered from the cache. */
+    public synchronized double getHitRate() {
+        return entries.getHitRate();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d searches cached, %d hits, %d misses (%.0f%%), %d evicted, %d expired",
+                entries.size(), entries.getHitCount(), entries.getMissCount(), entries.getHitRate() * 100,
+                entries.getEvictionCount(), entries.getExpirationCount());
+    }
+
+    /** @return The current time in milliseconds. */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static RequestList copyOf(RequestList requests) {
+        RequestList copy = new RequestList();
+        copy.addAll(requests);
+        return copy;
+    }
+}
@@ -0,0 +1,127 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+/**
+ * Where a search for requests is up to, so its results can be loaded a page at a time. The cursor
+ * keeps how many requests were found so far, and the next page starts from there (with from and
+ * size, as our elastic search server is too old for search_after). The search sorts on _uid last
+ * so the pages do not overlap.
+ * </br>
+ * A page that could not be found is tried again once the next page is asked for, but only after
+ * a delay that doubles with every failure in a row, so scrolling does not send a search on every
+ * event while elastic search is failing. After MAX_FAILURES in a row the search is given up.
+ * </br>
+ * A cursor is shared by the main thread (asking for more results) and the task searching for the
+ * next page, so its state is synchronized.
+ * </br>
+ * This class does not use Android so it can be tested on the JVM.
+ * @see ElasticRequestController.PagedSearchTask
+ * @see RequestController#loadMoreResults()
+ */
+public class SearchCursor {
+    /** How many requests are searched for at a time, unless another page size is given. */
+    public static final int PAGE_SIZE = 20;
+
+    /** How long to wait before trying a page again after the first failure, in milliseconds. */
+    static final long MIN_RETRY_DELAY = 2 * 1000;
+
+    /** How many failures in a row end the search. */
+    static final int MAX_FAILURES = 5;
+
+    private final int pageSize;
+    private int from = 0;
+    private int failures = 0;
+    private long retryAt = 0;
+    private boolean finished = false;
+    private boolean loading = false;
+    private boolean closed = false;
+
+    public SearchCursor() {
+        this(PAGE_SIZE);
+    }
+
+    public SearchCursor(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return How many requests were found so far, where the next page starts. */
+    public synchronized int getFrom() {
+        return from;
+    }
+
+    /** @return Whether there may be more results after the pages found so far. */
+    public synchronized boolean hasMore() {
+        return !finished && !closed;
+    }
+
+    /** @return Whether a page is being searched for. */
+    public synchronized boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Marks the cursor as searching for its next page.
+     * @return False if there are no more pages, one is already being searched for, or the last
+     * one failed too recently to try again.
+     */
+    public synchronized boolean startLoading() {
+        if (!hasMore() || loading || now() < retryAt) {
+            return false;
+        }
+        loading = true;
+        return true;
+    }
+
+    /**
+     * Moves the cursor past a page that was found.
+     * @param hits How many hits the page had, a page that is not full is the last one.
+     */
+    synchronized void advance(int hits) {
+        from += hits;
+        failures = 0;
+        retryAt = 0;
+        if (hits < pageSize) {
+            finished = true;
+        }
+    }
+
+    /** Called when a page could not be found, so it is not tried again right away. */
+    synchronized void failed() {
+        failures++;
+        if (failures >= MAX_FAILURES) {
+            finished = true;
+        } else {
+            retryAt = now() + (MIN_RETRY_DELAY << (failures - 1));
+        }
+    }
+
+    /** Called once the search for a page is over, whether or not it found anything. */
+    synchronized void doneLoading() {
+        loading = false;
+    }
+
+    /** @return A new cursor at the same place, to carry on the search later (i.e. from a cache). */
+    synchronized SearchCursor copy() {
+        SearchCursor copy = new SearchCursor(pageSize);
+        copy.from = from;
+        copy.finished = finished;
+        return copy;
+    }
+
+    /** Stops the search, i.e. once a new search replaces it. A page still loading is dropped. */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /** @return Whether the search was stopped. */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
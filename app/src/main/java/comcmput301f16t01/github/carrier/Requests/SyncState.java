@@ -0,0 +1,98 @@
+package comcmput301f16t01.github.carrier.Requests;
+
+/**
+ * <p>Remembers how far one of the user's lists (i.e. their requests as a rider or as a driver, or
+ * their notifications) has been synced with elastic search, so that a refresh only has to
+ * download what changed since.</p>
+ * </br>
+ * <p>The high-water mark is the newest lastModified time seen on anything fetched.
+ * Those times are set by whichever phone made the change, so changes are fetched from a margin
+ * before the mark to allow for phones whose clocks are off. Fetching a request twice is harmless
+ * since changes are merged into the list by ID. A full fetch is still done now and then (and for
+ * a new user) to pick up what was deleted.</p>
+ * </br>
+ * <p>This class does not use Android so it can be tested on the JVM.</p>
+ *
+ * @see RequestList#merge(RequestList)
+ * @see RequestController#performAsyncUpdate()
+ * @see comcmput301f16t01.github.carrier.Notifications.NotificationFeed
+ */
+public class SyncState {
+    /** How far before the high-water mark changes are fetched from, in milliseconds. */
+    static final long CLOCK_SKEW_MARGIN = 5 * 60 * 1000;
+
+    /** How often a full fetch is done anyway, in milliseconds. */
+    static final long FULL_SYNC_INTERVAL = 15 * 60 * 1000;
+
+    /** The user the list was synced for. */
+    private String username = null;
+
+    /** The newest lastModified time seen on anything synced. */
+    private long highWaterMark = 0;
+
+    /** When the last full fetch finished (this phone's clock). */
+    private long lastFullSync = 0;
+
+    /**
+     * @param username The user whose list is being refreshed.
+     * @param now The current time in milliseconds.
+     * @return The time to fetch changes after, or 0 if the whole list has to be fetched.
+     */
+    public synchronized long getSince(String username, long now) {
+        if (!isSyncedFor(username) || now - lastFullSync >= FULL_SYNC_INTERVAL || now < lastFullSync) {
+            return 0;
+        }
+        return Math.max(1, highWaterMark - CLOCK_SKEW_MARGIN);
+    }
+
+    /**
+     * Moves the high-water mark forward once a fetch has been merged into the list.
+     *
+     * @param username The user whose list was fetched.
+     * @param requests The requests that were fetched.
+     * @param full Whether the whole list was fetched (rather than only the changes).
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void onSynced(String username, RequestList requests, boolean full, long now) {
+        long newest = 0;
+        for (Request request : requests) {
+            newest = Math.max(newest, request.getLastModified());
+        }
+        onSynced(username, newest, full, now);
+    }
+
+    /**
+     * Moves the high-water mark forward once a fetch has been merged into the list.
+     *
+     * @param username The user whose list was fetched.
+     * @param newestChange The newest lastModified time of what was fetched, 0 if nothing was.
+     * @param full Whether the whole list was fetched (rather than only the changes).
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void onSynced(String username, long newestChange, boolean full, long now) {
+        if (full) {
+            this.username = username;
+            this.highWaterMark = 0;
+            this.lastFullSync = now;
+        } else if (!isSyncedFor(username)) {
+            return; // changes for someone else, the next refresh will do a full fetch
+        }
+        highWaterMark = Math.max(highWaterMark, newestChange);
+    }
+
+    /** @return Whether the list has had a full fetch for the user. */
+    public synchronized boolean isSyncedFor(String username) {
+        return this.username != null && this.username.equals(username);
+    }
+
+    /** Forgets the high-water mark so that the next refresh fetches the whole list. */
+    public synchronized void reset() {
+        username = null;
+        highWaterMark = 0;
+        lastFullSync = 0;
+    }
+
+    public synchronized long getHighWaterMark() {
+        return highWaterMark;
+    }
+}
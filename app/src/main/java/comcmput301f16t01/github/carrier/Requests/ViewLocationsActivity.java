@@ -12,7 +12,6 @@ import android.view.ViewTreeObserver;
 import android.widget.Toast;
 import com.google.gson.Gson;
 import org.osmdroid.api.IMapController;
-import org.osmdroid.bonuspack.routing.OSRMRoadManager;
 import org.osmdroid.bonuspack.routing.Road;
 import org.osmdroid.bonuspack.routing.RoadManager;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
@@ -285,8 +284,8 @@ public class ViewLocationsActivity extends AppCompatActivity {
         protected Road[] doInBackground(Object... params) {
             @SuppressWarnings("unchecked")
             ArrayList<GeoPoint> waypoints = (ArrayList<GeoPoint>) params[0];
-            RoadManager roadManager = new OSRMRoadManager(activity);
-            return roadManager.getRoads(waypoints);
+            // Trips seen before come back from the route cache straight away
+            return CachedRoadManager.getInstance(activity).getRoads(waypoints);
         }
 
         @Override
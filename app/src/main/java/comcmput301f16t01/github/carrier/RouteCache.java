@@ -0,0 +1,268 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the routes found between start and end points, so showing the same trip again (or
+ * a trip starting and ending within about 10 meters of it) does not ask the routing server again.
+ * </br>
+ * A route is its length, its duration (the inputs of the FareCalculator) and the points of its
+ * line on the map, stored as an encoded polyline (the format Google and OSRM use, a few
+ * characters a point instead of two doubles). At most maxEntries routes are remembered, dropping
+ * the least recently used first, and for at most maxAge milliseconds. Routes can also be saved
+ * in a file so they are remembered when the app starts again. The file is read by load(), or by
+ * the first get or put; peek never reads it, so it can be used on the UI thread.
+ * @see comcmput301f16t01.github.carrier.Requests.CachedRoadManager
+ * @see ExpiringLruCache
+ */
+public class RouteCache {
+    /** A route between two points. */
+    public static class Route {
+        private double length;
+        private double duration;
+        private String polyline;
+        private long created;
+
+        /**
+         * @param length The length of the route in kilometers.
+         * @param duration How long the route takes to drive in seconds.
+         * @param points The points of the line of the route, each {latitude, longitude}.
+         */
+        public Route(double length, double duration, List<double[]> points) {
+            this.length = length;
+            this.duration = duration;
+            this.polyline = encodePolyline(points);
+        }
+
+        /** @return The length of the route in kilometers. */
+        public double getLength() {
+            return length;
+        }
+
+        /** @return How long the route takes to drive in seconds. */
+        public double getDuration() {
+            return duration;
+        }
+
+        /** @return The points of the line of the route, each {latitude, longitude}. */
+        public List<double[]> getPoints() {
+            return decodePolyline(polyline);
+        }
+
+        /** @return The line of the route as an encoded polyline. */
+        public String getPolyline() {
+            return polyline;
+        }
+    }
+
+    private final long maxAge;
+
+    /** Where the routes are saved, null to only remember them in memory. */
+    private final FileSnapshot<LinkedHashMap<String, Route>> cacheFile;
+
+    /** The routes by key. */
+    private final ExpiringLruCache<Route> routes;
+
+    private boolean loaded = false;
+
+    /**
+     * @param maxEntries How many routes to remember at most.
+     * @param maxAge How long a route is remembered for, in milliseconds.
+     * @param cacheFile Where to save the routes, or null to only remember them in memory.
+     */
+    public RouteCache(int maxEntries, long maxAge, File cacheFile) {
+        this.maxAge = maxAge;
+        this.cacheFile = cacheFile == null ? null : new FileSnapshot<LinkedHashMap<String, Route>>(
+                cacheFile, new TypeToken<LinkedHashMap<String, Route>>() {}.getType());
+        this.routes = new ExpiringLruCache<>(maxEntries);
+    }
+
+    /**
+     * @return The key of a trip, trips starting and ending within about 10 meters of each other
+     *         share a key.
+     */
+    public static String key(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        return Math.round(startLatitude * 10000) + "," + Math.round(startLongitude * 10000) + ">"
+                + Math.round(endLatitude * 10000) + "," + Math.round(endLongitude * 10000);
+    }
+
+    /**
+     * Reads the routes from the file the first time it is called, on the calling thread, so do
+     * not call this on the UI thread.
+     * @return The route remembered for the trip, or null if there is none (or it is too old).
+     */
+    public Route get(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        load();
+        synchronized (this) {
+            return routes.get(key(startLatitude, startLongitude, endLatitude, endLongitude), now());
+        }
+    }
+
+    /**
+     * Like get, but never reads the file so it is safe on the UI thread.
+     * @return The route remembered for the trip, or null if there is none, it is too old, or the
+     *         routes have not been read from the file yet.
+     */
+    public synchronized Route peek(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        if (!loaded) {
+            return null;
+        }
+        return routes.get(key(startLatitude, startLongitude, endLatitude, endLongitude), now());
+    }
+
+    /** Remembers the route found for a trip, and saves it if there is a file. */
+    public void put(double startLatitude, double startLongitude, double endLatitude, double endLongitude, Route route) {
+        load();
+        synchronized (this) {
+            route.created = now();
+            routes.put(key(startLatitude, startLongitude, endLatitude, endLongitude), route, route.created + maxAge);
+        }
+        save();
+    }
+
+    /**
+     * Reads the saved routes from the file if they have not been read yet, on the calling thread
+     * (i.e. in the background before peeking). The file is read without holding the cache, so
+     * peek does not wait for it.
+     */
+    public void load() {
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+        }
+        LinkedHashMap<String, Route> saved = cacheFile == null ? null : cacheFile.read();
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            if (saved != null) {
+                // Saved least recently used first, so putting them back keeps the order
+                for (Map.Entry<String, Route> entry : saved.entrySet()) {
+                    routes.put(entry.getKey(), entry.getValue(), entry.getValue().created + maxAge);
+                }
+            }
+        }
+    }
+
+    /** Forgets every route, in memory and in the file. */
+    public void clear() {
+        synchronized (this) {
+            routes.clear();
+            loaded = true;
+        }
+        save();
+    }
+
+    public int size() {
+        load();
+        synchronized (this) {
+            return routes.size();
+        }
+    }
+
+    /** @return How many trips were answered from the cache. */
+    public synchronized int getHitCount() {
+        return routes.getHitCount();
+    }
+
+    /** @return How many trips were not in the cache. */
+    public synchronized int getMissCount() {
+        return routes.getMissCount();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d routes cached, %d hits, %d misses",
+                routes.size(), routes.getHitCount(), routes.getMissCount());
+    }
+
+    /** @return The current time in milliseconds. */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Encodes points as a polyline: the differences between points, in 1e-5 degrees, written 5
+     * bits to a character.
+     * @param points The points, each {latitude, longitude}.
+     */
+    public static String encodePolyline(List<double[]> points) {
+        StringBuilder encoded = new StringBuilder();
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+        for (double[] point : points) {
+            long latitude = Math.round(point[0] * 1e5);
+            long longitude = Math.round(point[1] * 1e5);
+            encodeValue(latitude - lastLatitude, encoded);
+            encodeValue(longitude - lastLongitude, encoded);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return encoded.toString();
+    }
+
+    /** @return The points of an encoded polyline, each {latitude, longitude}. */
+    public static List<double[]> decodePolyline(String encoded) {
+        List<double[]> points = new ArrayList<>();
+        int index = 0;
+        long latitude = 0;
+        long longitude = 0;
+        while (index < encoded.length()) {
+            long[] value = decodeValue(encoded, index);
+            latitude += value[0];
+            value = decodeValue(encoded, (int) value[1]);
+            longitude += value[0];
+            index = (int) value[1];
+            points.add(new double[] { latitude / 1e5, longitude / 1e5 });
+        }
+        return points;
+    }
+
+    private static void encodeValue(long value, StringBuilder encoded) {
+        // The sign goes in the lowest bit, so small negative numbers stay small
+        value = value < 0 ? ~(value << 1) : value << 1;
+        while (value >= 0x20) {
+            encoded.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        encoded.append((char) (value + 63));
+    }
+
+    /** @return {the value, the index after it}. */
+    private static long[] decodeValue(String encoded, int index) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = encoded.charAt(index++) - 63;
+            result |= (long) (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        long value = (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+        return new long[] { value, index };
+    }
+
+    /** Saves the routes to the file. */
+    private void save() {
+        if (cacheFile == null) {
+            return;
+        }
+        cacheFile.write(new FileSnapshot.Source<LinkedHashMap<String, Route>>() {
+            @Override
+            public LinkedHashMap<String, Route> snapshot() {
+                synchronized (RouteCache.this) {
+                    return routes.toMap();
+                }
+            }
+        });
+    }
+}
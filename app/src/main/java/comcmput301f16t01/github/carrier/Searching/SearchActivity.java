@@ -5,6 +5,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.location.Location;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -14,7 +15,9 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.Toast;
 
+import comcmput301f16t01.github.carrier.ElasticExecutor;
 import comcmput301f16t01.github.carrier.R;
+import comcmput301f16t01.github.carrier.Requests.PriceFilter;
 import comcmput301f16t01.github.carrier.Requests.RequestController;
 import comcmput301f16t01.github.carrier.SetLocationsActivity;
 
@@ -69,7 +72,6 @@ public class SearchActivity extends AppCompatActivity {
             public void onClick(DialogInterface dialogInterface, int i) {
                 EditText searchEditText = (EditText) dialogView.findViewById(R.id.editText_keywordSearch);
                 String query = searchEditText.getText().toString();
-                RequestController.searchByKeyword(query);
                 Intent intent = new Intent(activity, SearchResultsActivity.class);
                 try {
                     bundleFilters(intent);  // attempt to bundle the price filters
@@ -78,6 +80,9 @@ public class SearchActivity extends AppCompatActivity {
                     Toast.makeText( getBaseContext(), e.getMessage(), Toast.LENGTH_LONG ).show();
                     return; // escape the routine and do not start the new activity.
                 }
+                // The price filters are part of the search, so they have to be bundled first.
+                // The results activity shows the first page once it is found.
+                RequestController.searchByKeyword(query, unpackFilters(intent.getBundleExtra("filterBundle")), null);
                 startActivity(intent);
             }
         });
@@ -187,6 +192,32 @@ public class SearchActivity extends AppCompatActivity {
         intent.putExtra( "filterBundle", bundle );
     } // bundleFilters
 
+    /**
+     * Reads the price filters put in a bundle by bundleFilters, so they can be searched by.
+     * @param filterBundle the bundle containing all the values to filter by (may be null).
+     * @return The price ranges to search within, or null if there are none.
+     * @see RequestController#searchByKeyword(String, PriceFilter, ElasticExecutor.Callback)
+     * @see RequestController#searchByLocation(Location, PriceFilter, ElasticExecutor.Callback)
+     */
+    public static PriceFilter unpackFilters(Bundle filterBundle) {
+        if (filterBundle == null) {
+            return null;
+        }
+        PriceFilter filter = new PriceFilter();
+        // both will be false by default
+        if (filterBundle.getBoolean("filterByPrice")) {
+            Double maxPrice = filterBundle.getDouble("maxPrice");
+            if (maxPrice == -1) { maxPrice = null; }
+            filter.setPriceRange( filterBundle.getDouble("minPrice"), maxPrice );
+        }
+        if (filterBundle.getBoolean("filterByPricePerKM")) {
+            Double maxPricePerKM = filterBundle.getDouble("maxPricePerKM");
+            if (maxPricePerKM == -1) { maxPricePerKM = null; }
+            filter.setPricePerKMRange( filterBundle.getDouble("minPricePerKM"), maxPricePerKM );
+        }
+        return filter;
+    }
+
     /**
      * If the checkbox is checked, we display to the user the option of using the min max
      * text views for price filtering.
@@ -3,7 +3,6 @@ package comcmput301f16t01.github.carrier.Searching;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.location.Address;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.KeyEvent;
@@ -19,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import comcmput301f16t01.github.carrier.CarrierLocation;
+import comcmput301f16t01.github.carrier.GeocodingService;
 import comcmput301f16t01.github.carrier.R;
 import comcmput301f16t01.github.carrier.Requests.ElasticRequestController;
 import comcmput301f16t01.github.carrier.Requests.RequestController;
@@ -84,7 +84,8 @@ public class SearchAddressChoiceActivity extends AppCompatActivity {
                 @Override
                 public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                     Intent intent = new Intent(activity, SearchResultsActivity.class);
-                    RequestController.searchByLocation(locations.get(position));
+                    RequestController.searchByLocation(locations.get(position),
+                            SearchActivity.unpackFilters(getIntent().getBundleExtra("filterBundle")), null);
                     intent.putExtra( "filterBundle", getIntent().getBundleExtra("filterBundle"));
                     startActivity(intent);
                 }
@@ -102,26 +103,34 @@ public class SearchAddressChoiceActivity extends AppCompatActivity {
     }
 
     /**
-     * Gets possible geo-locations from an address string submitted by the user.
+     * Gets possible geo-locations from an address string submitted by the user. The addresses of
+     * all of them are looked up together.
      * @param addressQuery address string inputted by the user
-     * @return List<CarrierLocation> list of possible geo-locations that match address
+     * @return List<CarrierLocation> list of possible geo-locations that match address, or null if
+     * they could not be found
      */
     private List<CarrierLocation> getLocation(final String addressQuery) {
-        List<Address> addressResult = new ArrayList<>();
-        List<CarrierLocation> locations = new ArrayList<>();
+        List<GeocodingService.Place> places = null;
+        GeocodingService geocoder = GeocodingService.getInstance(activity);
 
-        ElasticRequestController.SearchByAddressTask sbat = new ElasticRequestController.SearchByAddressTask();
+        ElasticRequestController.SearchByAddressTask sbat = new ElasticRequestController.SearchByAddressTask(geocoder);
         sbat.execute(addressQuery);
         try {
-            addressResult = sbat.get();
+            places = sbat.get();
         } catch (Exception e) {
             e.printStackTrace();
         }
-        for (Address address : addressResult) {
+        if (places == null) {
+            return null;
+        }
+
+        List<CarrierLocation> locations = new ArrayList<>();
+        List<String> addresses = geocoder.reverseAll(places);
+        for (int i = 0; i < places.size(); i++) {
             CarrierLocation location = new CarrierLocation();
-            location.setLatitude(address.getLatitude());
-            location.setLongitude(address.getLongitude());
-            location.setAddress(RequestController.getAddress(activity, address.getLatitude(), address.getLongitude()));
+            location.setLatitude(places.get(i).getLatitude());
+            location.setLongitude(places.get(i).getLongitude());
+            location.setAddress(addresses.get(i));
             locations.add(location);
         }
         return locations;
@@ -6,10 +6,12 @@ import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import com.google.gson.Gson;
+import comcmput301f16t01.github.carrier.Listener;
 import comcmput301f16t01.github.carrier.Notifications.ConnectionChecker;
 import comcmput301f16t01.github.carrier.R;
 import comcmput301f16t01.github.carrier.Requests.DriverViewRequestActivity;
@@ -21,7 +23,19 @@ import comcmput301f16t01.github.carrier.Requests.RequestList;
  * SearchResultsActivity handles displaying and linking to new requests for a driver to choose from.
  */
 public class SearchResultsActivity extends AppCompatActivity {
+    /** The next page of results is loaded once the driver scrolls to within this many rows of the end. */
+    private static final int PREFETCH_DISTANCE = 5;
+
     private ArrayAdapter<Request> requestArrayAdapter;
+    private RequestList requestList;
+
+    /** Shows the pages of results as they are loaded. */
+    private final Listener resultsListener = new Listener() {
+        @Override
+        public void update() {
+            requestArrayAdapter.notifyDataSetChanged();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -32,18 +46,32 @@ public class SearchResultsActivity extends AppCompatActivity {
         ListView requestListView = (ListView) findViewById( R.id.listView_searchResults );
 
         // If the user is offline, show dialog to tell them they are seeing a cache
+        // (Online, the results were already filtered by price when they were searched for)
         if (!ConnectionChecker.isThereInternet()) {
             showOfflineDialog();
-        } else {
-            // we only grab this if we are online (for offline we just grab the search cache)
-            unpackBundle( this.getIntent().getBundleExtra("filterBundle"));
         }
 
         // It shouldn't matter what query we used, the singleton will be up to date with the query when we get here
-        final RequestList requestList = RequestController.getResult();
+        requestList = RequestController.getResult();
 
         requestArrayAdapter = new ArrayAdapter<>( this, android.R.layout.simple_list_item_1, requestList );
         requestListView.setAdapter( requestArrayAdapter );
+        requestList.addListener( resultsListener );
+
+        // Only the first page of results has been loaded, load the next as the end comes into view
+        requestListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_DISTANCE
+                        && RequestController.hasMoreResults()) {
+                    RequestController.loadMoreResults();
+                }
+            }
+        });
 
         // Create an onClickListener for the items to take them to a "make offer" page.
         requestListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
@@ -74,35 +102,16 @@ public class SearchResultsActivity extends AppCompatActivity {
         adb.show();
     }
 
+    @Override
+    protected void onDestroy() {
+        requestList.removeListener( resultsListener );
+        super.onDestroy();
+    }
+
     @Override
     protected void onResume() {
         /** we update the list view to remove requests if the user made an offer to it */
         requestArrayAdapter.notifyDataSetChanged();
         super.onResume();
     }
-
-    /**
-     * Unpacks the bundle that contains the filters for the request, then asks the request controller
-     * to prune by those values if it has been requested.
-     * @param filterBundle the bundle containing all the values to filter by.
-     */
-    private void unpackBundle(Bundle filterBundle) {
-        // both will be false by default
-        boolean filterByPrice = filterBundle.getBoolean("filterByPrice");
-        boolean filterByPricePerKM = filterBundle.getBoolean("filterByPricePerKM");
-        // Check if we are filtering by price
-        if (filterByPrice) {
-            Double minPrice = filterBundle.getDouble("minPrice");
-            Double maxPrice = filterBundle.getDouble("maxPrice");
-            if (maxPrice == -1) { maxPrice = null; }
-            RequestController.pruneByPrice( minPrice, maxPrice );
-        }
-        // Check if we are filtering by price per KM
-        if (filterByPricePerKM) {
-            Double minPricePerKM = filterBundle.getDouble("minPricePerKM");
-            Double maxPricePerKM = filterBundle.getDouble("maxPricePerKM");
-            if (maxPricePerKM == -1) { maxPricePerKM = null; }
-            RequestController.pruneByPricePerKM( minPricePerKM, maxPricePerKM );
-        }
-    }
 }
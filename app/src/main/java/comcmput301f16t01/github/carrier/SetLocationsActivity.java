@@ -30,6 +30,7 @@ import org.osmdroid.views.overlay.Marker;
 import comcmput301f16t01.github.carrier.Notifications.ConnectionChecker;
 import comcmput301f16t01.github.carrier.Requests.RequestController;
 import comcmput301f16t01.github.carrier.Requests.ViewLocationsActivity;
+import comcmput301f16t01.github.carrier.Searching.SearchActivity;
 import comcmput301f16t01.github.carrier.Searching.SearchResultsActivity;
 
 import static com.google.android.gms.common.api.GoogleApiClient.*;
@@ -330,7 +331,8 @@ public class SetLocationsActivity extends AppCompatActivity implements Connectio
                 activity.finish();
             } else if (point.equals("search")) {
                 // if choosing search point, go to search results activity, passing bundle with search location
-                RequestController.searchByLocation(locationPoint);
+                RequestController.searchByLocation(locationPoint,
+                        SearchActivity.unpackFilters(getIntent().getBundleExtra("filterBundle")), null);
                 Intent intent = new Intent(activity, SearchResultsActivity.class);
                 // Move the filter from this intent to the SearchResultActivity intent. 
                 intent.putExtra( "filterBundle", getIntent().getBundleExtra("filterBundle") );
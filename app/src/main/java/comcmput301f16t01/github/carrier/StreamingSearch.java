@@ -0,0 +1,36 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.JsonObject;
+
+import io.searchbox.core.Search;
+
+/**
+ * A Search whose response is not parsed into a JSON tree by Jest. The hits are decoded from
+ * getJsonString() with a HitDecoder instead, so a large response is only read once, one hit at a
+ * time. getJsonObject() of the result is empty, so the getSource... and getHits methods of the
+ * result cannot be used.
+ * @see HitDecoder
+ */
+public class StreamingSearch extends Search {
+
+    protected StreamingSearch(Builder builder) {
+        super(builder);
+    }
+
+    @Override
+    protected JsonObject parseResponseBody(String responseBody) {
+        return new JsonObject();
+    }
+
+    public static class Builder extends Search.Builder {
+
+        public Builder(String query) {
+            super(query);
+        }
+
+        @Override
+        public StreamingSearch build() {
+            return new StreamingSearch(this);
+        }
+    }
+}
@@ -8,13 +8,23 @@ import com.searchly.jestdroid.JestClientFactory;
 import com.searchly.jestdroid.JestDroidClient;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import comcmput301f16t01.github.carrier.ElasticController;
+import comcmput301f16t01.github.carrier.ElasticQuery;
+import comcmput301f16t01.github.carrier.HitDecoder;
+import comcmput301f16t01.github.carrier.StreamingSearch;
 import comcmput301f16t01.github.carrier.Users.User;
 import comcmput301f16t01.github.carrier.Users.UserController;
 import io.searchbox.core.DeleteByQuery;
 import io.searchbox.core.DocumentResult;
 import io.searchbox.core.Index;
+import io.searchbox.core.MultiSearch;
+import io.searchbox.core.MultiSearchResult;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
 import io.searchbox.core.Update;
@@ -24,6 +34,17 @@ import io.searchbox.core.Update;
  * @see ElasticController
  */
 public class ElasticUserController extends ElasticController {
+    /** Matches a user by their username. */
+    private static final ElasticQuery.Template USERNAME_QUERY = new ElasticQuery()
+            .query(ElasticQuery.match("username", ElasticQuery.param("username")))
+            .compile("username");
+
+    /** Loads a user by their username. */
+    private static final ElasticQuery.Template FIND_USER_QUERY = new ElasticQuery()
+            .from(0).size(1)
+            .query(ElasticQuery.match("username", ElasticQuery.param("username")))
+            .compile("username");
+
     /** Called to add a user to elastic search */
     public static class AddUserTask extends AsyncTask<User, Void, Void> {
 
@@ -58,36 +79,73 @@ public class ElasticUserController extends ElasticController {
     }
 
     /**
-     * Async task to search for a user in elastic search and bind it to an object
+     * Async task to search for a user in elastic search and bind it to an object. Users found
+     * recently come from the user cache instead.
+     * @see UserController#getUserCache()
      */
     public static class FindUserTask extends AsyncTask<String, Void, User> {
 
         @Override
         protected User doInBackground(String... search_parameters) {
-            verifySettings();
-            String search_string = "{\"from\": 0, \"size\": 1, \"query\": {\"match\": {\"username\": \"" + search_parameters[0] + "\"}}}";
+            return UserController.getUserCache().get(search_parameters[0]);
+        }
+    }
+
+    /**
+     * Looks users up by their usernames on the calling thread, for the user cache. One user is
+     * searched for directly, several are searched for in a single multi-search round trip.
+     * @param usernames The usernames to look up.
+     * @return The users found, by the username they were looked up with.
+     * @throws IOException If elastic search could not be reached or the search failed.
+     */
+    static Map<String, User> findUsers(Collection<String> usernames) throws IOException {
+        verifySettings();
+        Map<String, User> found = new HashMap<>();
+        List<String> searchedNames = new ArrayList<>(usernames);
+        if (searchedNames.isEmpty()) {
+            return found;
+        }
 
-            Search search = new Search.Builder(search_string)
+        if (searchedNames.size() == 1) {
+            Search search = new StreamingSearch.Builder(FIND_USER_QUERY.render(searchedNames.get(0)))
                     .addIndex("cmput301f16t01")
                     .addType("user")
                     .build();
+            SearchResult result = client.execute(search);
+            if (!result.isSucceeded()) {
+                throw new IOException("Failed to find user: " + result.getErrorMessage());
+            }
+            List<User> users = HitDecoder.decodeSources(result.getJsonString(), User.class, 1);
+            if (!users.isEmpty()) {
+                found.put(searchedNames.get(0), users.get(0));
+            }
+            return found;
+        }
 
-            User foundUser = null;
-
-            try {
-                SearchResult result = client.execute(search);
-                if (result.isSucceeded()) {
-                    foundUser = result.getSourceAsObject(User.class);
-
-                } else {
-                    return null;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                Log.i("Error", "Something went wrong when we tried to talk to elastic search");
+        List<Search> userSearches = new ArrayList<>();
+        for (String username : searchedNames) {
+            userSearches.add(new Search.Builder(FIND_USER_QUERY.render(username))
+                    .addIndex("cmput301f16t01")
+                    .addType("user")
+                    .build());
+        }
+        MultiSearchResult result = client.execute(new MultiSearch.Builder(userSearches).build());
+        if (!result.isSucceeded()) {
+            throw new IOException("Failed to find users: " + result.getErrorMessage());
+        }
+        // Responses come back in the same order as the searches were added.
+        List<MultiSearchResult.MultiSearchResponse> responses = result.getResponses();
+        for (int i = 0; i < responses.size() && i < searchedNames.size(); i++) {
+            MultiSearchResult.MultiSearchResponse response = responses.get(i);
+            if (response.isError) {
+                throw new IOException("Failed to find user " + searchedNames.get(i));
+            }
+            User user = response.searchResult.getSourceAsObject(User.class);
+            if (user != null) {
+                found.put(searchedNames.get(i), user);
             }
-            return foundUser;
         }
+        return found;
     }
 
     /**
@@ -100,10 +158,10 @@ public class ElasticUserController extends ElasticController {
              verifySettings();
             // update_params[0] is the id, update_params[1] is email, update params[2] is phone
             // this is the update string
-            String script = "{\n" +
-                    "  \"doc\": { \"phoneNumber\": " + "\"" + update_params[2] + "\", " +
-                    "\"email\": " + "\"" + update_params[1] + "\"}" +
-                    "\n}";
+            String script = ElasticQuery.doc(ElasticQuery.object()
+                    .put("phoneNumber", update_params[2])
+                    .put("email", update_params[1]))
+                    .toJson();
             Update update = new Update.Builder(script)
                     .index("cmput301f16t01")
                     .type("user")
@@ -115,6 +173,8 @@ public class ElasticUserController extends ElasticController {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            // Whether or not it worked, the cached copy of the user may be out of date now
+            UserController.getUserCache().invalidateById(update_params[0]);
 
             return null;
         }
@@ -126,8 +186,7 @@ public class ElasticUserController extends ElasticController {
         protected Void doInBackground(String... search_params) {
             verifySettings();
 
-            String script = "{\"query\": {\"match\": {\"username\": \"" + search_params[0] + "\"}}}";
-            DeleteByQuery delete = new DeleteByQuery.Builder(script)
+            DeleteByQuery delete = new DeleteByQuery.Builder(USERNAME_QUERY.render(search_params[0]))
                     .addIndex("cmput301f16t01")
                     .addType("user")
                     .build();
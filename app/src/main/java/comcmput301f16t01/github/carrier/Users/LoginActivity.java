@@ -26,6 +26,8 @@ public class LoginActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_login);
+        // Keep the cached internet state up to date from here on
+        ConnectionChecker.startMonitoring(this);
 
         // TODO grab their username based on their ID?
         // TODO alert them if they cannot log in because they are offline
@@ -24,6 +24,9 @@ public class User implements Parcelable{
     @JestId
     private String elasticID;
 
+    /** How many unread notifications the user had when they were last counted, not stored. */
+    private transient int unreadNotifications = 0;
+
     //TODO we should probably say what is and isn't a valid username, email, and phone number.
 
     /**
@@ -106,8 +109,20 @@ public class User implements Parcelable{
     }
 
 
+    /**
+     * @return Whether the user had unread notifications when they were last counted.
+     * @see comcmput301f16t01.github.carrier.Notifications.NotificationController#getUnreadCount(User)
+     */
     public boolean hasNotifications() {
-        return false;
+        return unreadNotifications > 0;
+    }
+
+    public int getUnreadNotifications() {
+        return unreadNotifications;
+    }
+
+    public void setUnreadNotifications(int unreadNotifications) {
+        this.unreadNotifications = unreadNotifications;
     }
 
     public void setId(String id) {
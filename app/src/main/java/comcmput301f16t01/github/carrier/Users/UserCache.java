@@ -0,0 +1,274 @@
+package comcmput301f16t01.github.carrier.Users;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import comcmput301f16t01.github.carrier.ExpiringLruCache;
+
+/**
+ * Users by username, shared by everything in the app that has to look a user up (loading the
+ * drivers that offered on requests, finding a user, showing a profile). A driver that offered on
+ * twenty requests is looked up once rather than twenty times.
+ * </br>
+ * The cache holds at most maxEntries users, dropping the least recently used first. A user found
+ * is kept for maxAge milliseconds, and a username that was not found is remembered for
+ * maxMissingAge milliseconds so it is not searched for over and over. Usernames are matched
+ * ignoring case, like elastic search does.
+ * </br>
+ * Only one lookup of a username runs at a time: a thread that asks for a username that is
+ * already being looked up waits for that lookup instead of starting another. Users that are not
+ * cached can be looked up together with getAll(...).
+ * @see UserController#getUserCache()
+ * @see ExpiringLruCache
+ */
+public class UserCache {
+    /** Looks users up (i.e. in elastic search), on the calling thread. */
+    public interface Loader {
+        /**
+         * @param usernames The usernames to look up (lower case).
+         * @return The users found, by the username they were looked up with. Usernames that are
+         *         left out were not found.
+         * @throws IOException If the users could not be looked up, nothing is cached then.
+         */
+        Map<String, User> load(Collection<String> usernames) throws IOException;
+    }
+
+    private final long maxAge;
+    private final long maxMissingAge;
+    private final Loader loader;
+
+    /** The users looked up, by lower case username. A null user means it was not found. */
+    private final ExpiringLruCache<User> entries;
+
+    /** The lookups running, by lower case username. */
+    private final Map<String, Lookup> lookups = new HashMap<>();
+
+    private int loads = 0;
+    private int sharedLookups = 0;
+
+    /**
+     * @param maxEntries How many usernames to remember at most.
+     * @param maxAge How long a user is remembered for, in milliseconds.
+     * @param maxMissingAge How long a username that was not found is remembered for.
+     * @param loader Looks up the users that are not cached.
+     */
+    public UserCache(int maxEntries, long maxAge, long maxMissingAge, Loader loader) {
+        this.maxAge = maxAge;
+        this.maxMissingAge = maxMissingAge;
+        this.loader = loader;
+        this.entries = new ExpiringLruCache<>(maxEntries);
+    }
+
+    /**
+     * Finds a user, looking it up if it is not cached. Blocks while it is looked up, so do not
+     * call this on the main thread unless peek(...) found nothing.
+     * @return The user, or null if there is no user with that username (or it could not be
+     *         looked up).
+     */
+    public User get(String username) {
+        if (username == null) {
+            return null;
+        }
+        String key = key(username);
+        Lookup lookup;
+        boolean ours = false;
+        synchronized (this) {
+            ExpiringLruCache.Entry<User> entry = entries.getEntry(key, now());
+            if (entry != null) {
+                return entry.getValue();
+            }
+            lookup = lookups.get(key);
+            if (lookup == null) {
+                lookup = new Lookup();
+                lookups.put(key, lookup);
+                ours = true;
+            } else {
+                sharedLookups++;
+            }
+        }
+        if (ours) {
+            Map<String, Lookup> ourLookups = new HashMap<>();
+            ourLookups.put(key, lookup);
+            load(ourLookups);
+        }
+        return await(lookup);
+    }
+
+    /**
+     * Finds many users, looking up all of the ones that are not cached together.
+     * @return The users found, by the usernames given. Usernames not found are left out.
+     */
+    public Map<String, User> getAll(Collection<String> usernames) {
+        Map<String, User> found = new HashMap<>();
+        Map<String, Lookup> ourLookups = new HashMap<>();
+        Map<String, Lookup> waitingFor = new HashMap<>();
+        synchronized (this) {
+            for (String username : usernames) {
+                if (username == null || waitingFor.containsKey(username) || found.containsKey(username)) {
+                    continue;
+                }
+                String key = key(username);
+                ExpiringLruCache.Entry<User> entry = entries.getEntry(key, now());
+                if (entry != null) {
+                    if (entry.getValue() != null) {
+                        found.put(username, entry.getValue());
+                    }
+                    continue;
+                }
+                Lookup lookup = lookups.get(key);
+                if (lookup == null) {
+                    lookup = new Lookup();
+                    lookups.put(key, lookup);
+                    ourLookups.put(key, lookup);
+                } else if (!ourLookups.containsKey(key)) {
+                    sharedLookups++;
+                }
+                waitingFor.put(username, lookup);
+            }
+        }
+        if (!ourLookups.isEmpty()) {
+            load(ourLookups);
+        }
+        for (Map.Entry<String, Lookup> waiting : waitingFor.entrySet()) {
+            User user = await(waiting.getValue());
+            if (user != null) {
+                found.put(waiting.getKey(), user);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The user if it is cached, without looking it up (safe on the main thread), or null.
+     */
+    public synchronized User peek(String username) {
+        if (username == null) {
+            return null;
+        }
+        ExpiringLruCache.Entry<User> entry = entries.peekEntry(key(username), now());
+        return entry == null ? null : entry.getValue();
+    }
+
+    /** Caches a user that was just found or made. */
+    public synchronized void put(User user) {
+        if (user != null && user.getUsername() != null) {
+            entries.put(key(user.getUsername()), user, now() + maxAge);
+        }
+    }
+
+    /** Forgets a username, it is looked up again next time. */
+    public synchronized void invalidate(String username) {
+        if (username != null) {
+            entries.remove(key(username));
+        }
+    }
+
+    /** Forgets the user with the given elastic search ID (i.e. once it has been edited). */
+    public synchronized void invalidateById(String id) {
+        if (id == null) {
+            return;
+        }
+        for (Map.Entry<String, User> entry : entries.toMap().entrySet()) {
+            User user = entry.getValue();
+            if (user != null && id.equals(user.getId())) {
+                entries.remove(entry.getKey());
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return How many usernames were found in the cache. */
+    public synchronized int getHitCount() {
+        return entries.getHitCount();
+    }
+
+    /** @return How many usernames were not in the cache. */
+    public synchronized int getMissCount() {
+        return entries.getMissCount();
+    }
+
+    /** @return How many times the loader was called. */
+    public synchronized int getLoadCount() {
+        return loads;
+    }
+
+    /** @return How many lookups waited for one that was already running instead of loading. */
+    public synchronized int getSharedLookupCount() {
+        return sharedLookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d users cached, %d hits, %d misses, %d loads, %d shared lookups",
+                entries.size(), entries.getHitCount(), entries.getMissCount(), loads, sharedLookups);
+    }
+
+    /** @return The current time in milliseconds. */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Looks up the usernames of the lookups, caches what was found and wakes up the waiters. The
+     * lookups are finished however the loader fails, otherwise their waiters would wait forever.
+     */
+    private void load(Map<String, Lookup> ourLookups) {
+        Map<String, User> users = null;
+        try {
+            users = loader.load(ourLookups.keySet());
+        } catch (IOException | RuntimeException e) {
+            // Nothing is cached, it may work next time (i.e. once back online)
+            e.printStackTrace();
+        } finally {
+            finish(ourLookups, users);
+        }
+    }
+
+    /** @param users The users found, or null if they could not be looked up. */
+    private synchronized void finish(Map<String, Lookup> ourLookups, Map<String, User> users) {
+        loads++;
+        for (Map.Entry<String, Lookup> lookup : ourLookups.entrySet()) {
+            String key = lookup.getKey();
+            lookups.remove(key);
+            if (users != null) {
+                User user = users.get(key);
+                entries.put(key, user, now() + (user == null ? maxMissingAge : maxAge));
+                lookup.getValue().user = user;
+            }
+            lookup.getValue().done = true;
+        }
+        notifyAll();
+    }
+
+    private synchronized User await(Lookup lookup) {
+        while (!lookup.done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return lookup.user;
+    }
+
+    /** A lookup of a username that is running. */
+    private static class Lookup {
+        User user = null;
+        boolean done = false;
+    }
+}
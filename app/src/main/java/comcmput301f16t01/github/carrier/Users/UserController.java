@@ -4,6 +4,13 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.Patterns;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import comcmput301f16t01.github.carrier.ElasticController;
+import comcmput301f16t01.github.carrier.ElasticExecutor;
+
 /**
  * Holds an instance of an user (the user of the app), allows for logging in users with elastic
  * search or memory.
@@ -14,6 +21,18 @@ import android.util.Patterns;
 public class UserController {
     private static User loggedInUser = null;
 
+    /**
+     * Users looked up by username: up to 200 users, found users are kept for 10 minutes and
+     * usernames that were not found for 1 minute.
+     */
+    private static final UserCache userCache = new UserCache(200, 10 * 60 * 1000, 60 * 1000,
+            new UserCache.Loader() {
+                @Override
+                public Map<String, User> load(Collection<String> usernames) throws IOException {
+                    return ElasticUserController.findUsers(usernames);
+                }
+            });
+
     private UserController() { /* prevent UserController instantiation */ }
 
     /**
@@ -47,6 +66,11 @@ public class UserController {
         user.setUsername(username);
     }
 
+    /** @return The cache of users by username, shared by everything that looks users up. */
+    public static UserCache getUserCache() {
+        return userCache;
+    }
+
     public static User getLoggedInUser() {
         if (loggedInUser == null) {
             throw new IllegalAccessError("You must first log in a user before getting an instance of one.");
@@ -123,13 +147,14 @@ public class UserController {
         newUser.setVehicleDescription(vehicleDescription);
 
         ElasticUserController.AddUserTask aut = new ElasticUserController.AddUserTask();
-        aut.execute(newUser);
+        aut.executeOnExecutor(ElasticController.getWriteExecutor(), newUser);
 
         // TODO bad waiting. (isConnected here?)
         while (newUser.getId() == null) {
             // waiting...
         }
 
+        userCache.put(newUser); // it was cached as not found by checkUniqueUsername
         loggedInUser = newUser; // set the logged in user to be the one we created.
         return null;
     }
@@ -156,8 +181,10 @@ public class UserController {
      * @return True if that username was found, false otherwise.
      */
     private static boolean checkUniqueUsername(String username) {
+        // Someone else may have taken the username since it was cached
+        userCache.invalidate(username);
         ElasticUserController.FindUserTask fut = new ElasticUserController.FindUserTask();
-        fut.execute(username);
+        fut.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), username);
         User foundUser = null;
         try {
             foundUser = fut.get();
@@ -178,7 +205,7 @@ public class UserController {
         loggedInUser.setEmail( newEmail );
         loggedInUser.setPhone( newPhone );
         ElasticUserController.EditUserTask eut = new ElasticUserController.EditUserTask();
-        eut.execute(getLoggedInUser().getId(), newEmail, newPhone);
+        eut.executeOnExecutor(ElasticController.getWriteExecutor(), getLoggedInUser().getId(), newEmail, newPhone);
     }
 
     /**
@@ -188,7 +215,7 @@ public class UserController {
      */
     public static void deleteUser(String usernameToDelete) {
         ElasticUserController.DeleteUserTask dut = new ElasticUserController.DeleteUserTask();
-        dut.execute(usernameToDelete);
+        dut.executeOnExecutor(ElasticController.getWriteExecutor(), usernameToDelete);
     }
 
     /**
@@ -205,8 +232,10 @@ public class UserController {
      * @return True if the user was successfully logged in, else false.
      */
     public static boolean logInUser(String username) {
+        // Always log in with the user as it is in elastic search, not as it was cached
+        userCache.invalidate(username);
         ElasticUserController.FindUserTask fut = new ElasticUserController.FindUserTask();
-        fut.execute(username);
+        fut.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), username);
         User foundUser = null;
         try {
             foundUser = fut.get();
@@ -222,17 +251,20 @@ public class UserController {
 
     /**
      * Searches elastic search for the given username and returns a User object matching that
-     * username.
+     * username. A user looked up recently is returned from the user cache without searching.
      *
      * @param username The username to search for
      * @return The specified User (by username)
      */
     public static User findUser(String username) {
-        User foundUser = null;
+        User foundUser = userCache.peek(username);
+        if (foundUser != null) {
+            return foundUser;
+        }
 
         ElasticUserController.FindUserTask fut = new ElasticUserController.FindUserTask();
 
-        fut.execute(username);
+        fut.executeOnExecutor(ElasticController.getExecutor(ElasticExecutor.Priority.INTERACTIVE), username);
         try {
             foundUser = fut.get();
         } catch (Exception e) {
@@ -54,10 +54,15 @@ public class UsernameTextView extends TextView {
     }
 
     /**
-     * Creates an intent with a bundle that redirects to the touched username's profile.
+     * Creates an intent with a bundle that redirects to the touched username's profile. The user
+     * stored with a request may be out of date, so the cached user is shown if there is one.
      * @param userToProfile The username of the profile to view.
      */
     private void toProfile(User userToProfile) {
+        User cachedUser = UserController.getUserCache().peek(userToProfile.getUsername());
+        if (cachedUser != null) {
+            userToProfile = cachedUser;
+        }
         Intent intent = new Intent(getContext(), UserProfileActivity.class);
         Bundle bundle = new Bundle();
         // packs the parcel with a user so that userProfile knows which to load.
@@ -0,0 +1,219 @@
+package comcmput301f16t01.github.carrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the shared ElasticExecutor on the JVM (no Android or elastic search needed).
+ * Test List:
+ *      1) Waiting operations start in order of priority.
+ *      2) Callbacks are told about results and failures.
+ *      3) A cancelled operation never runs or calls back.
+ *      4) A serial lane runs its commands one at a time, in order.
+ */
+public class ElasticExecutorTest {
+    /** Runs callbacks right away on the worker thread. */
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ElasticExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new ElasticExecutor(1, directExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /** Keeps the only worker thread busy until the returned latch is counted down. */
+    private CountDownLatch blockWorker() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.asExecutor(ElasticExecutor.Priority.NORMAL).execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue("The worker should have started", started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /** Adds its name to the list when it runs. */
+    private Runnable record(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    /** TEST1 */
+    @Test
+    public void testPriorityOrder() throws Exception {
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch release = blockWorker();
+
+        executor.asExecutor(ElasticExecutor.Priority.BACKGROUND).execute(record(ran, "refresh"));
+        executor.asExecutor(ElasticExecutor.Priority.NORMAL).execute(record(ran, "write"));
+        executor.asExecutor(ElasticExecutor.Priority.INTERACTIVE).execute(record(ran, "search1"));
+        executor.asExecutor(ElasticExecutor.Priority.INTERACTIVE).execute(record(ran, "search2"));
+        assertEquals(4, executor.getQueuedCount());
+
+        release.countDown();
+        Future<Void> last = executor.submit(ElasticExecutor.Priority.BACKGROUND, new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }, null);
+        last.get(5, TimeUnit.SECONDS);
+
+        assertEquals("Interactive operations should jump the queue, first come first serve within a priority",
+                Arrays.asList("search1", "search2", "write", "refresh"), ran);
+    }
+
+    /** TEST2 */
+    @Test
+    public void testCallbacks() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicReference<String> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        executor.submit(ElasticExecutor.Priority.INTERACTIVE, new Callable<String>() {
+            @Override
+            public String call() {
+                return "found";
+            }
+        }, new ElasticExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String found) {
+                result.set(found);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                done.countDown();
+            }
+        });
+
+        executor.submit(ElasticExecutor.Priority.INTERACTIVE, new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("no connection");
+            }
+        }, new ElasticExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String found) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("found", result.get());
+        assertTrue("The failure should be the operation's exception", error.get() instanceof IllegalStateException);
+    }
+
+    /** TEST3 */
+    @Test
+    public void testCancel() throws Exception {
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch release = blockWorker();
+
+        Future<String> future = executor.submit(ElasticExecutor.Priority.INTERACTIVE, new Callable<String>() {
+            @Override
+            public String call() {
+                ran.add("cancelled");
+                return "cancelled";
+            }
+        }, new ElasticExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                ran.add("callback");
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                ran.add("callback");
+            }
+        });
+        assertTrue(future.cancel(false));
+        assertEquals("Cancelled operations should leave the queue", 0, executor.getQueuedCount());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executorIdle());
+        assertTrue(future.isCancelled());
+        assertFalse("A cancelled operation should not run or call back", ran.contains("cancelled") || ran.contains("callback"));
+    }
+
+    /** TEST4 */
+    @Test
+    public void testSerialLane() throws Exception {
+        executor.shutdown();
+        executor = new ElasticExecutor(4, directExecutor);
+
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(20);
+        Executor lane = executor.serialExecutor(ElasticExecutor.Priority.NORMAL);
+        for (int i = 0; i < 20; i++) {
+            final int number = i;
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(number);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("Writes should happen in the order they were made", Integer.valueOf(i), ran.get(i));
+        }
+    }
+
+    /** Waits for everything queued on the executor to finish. */
+    private boolean executorIdle() throws InterruptedException {
+        for (int i = 0; i < 50 && executor.getQueuedCount() > 0; i++) {
+            Thread.sleep(100);
+        }
+        return executor.getQueuedCount() == 0;
+    }
+}
@@ -0,0 +1,119 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the JSON written by ElasticQuery on the JVM.
+ * Test List:
+ *      1) Queries are written with paging, bool clauses and sorts in place.
+ *      2) Quotes, backslashes and control characters in values are escaped.
+ *      3) Compiled templates render the same JSON as building the query with the values.
+ *      4) Templates reject missing values, and queries with params cannot be written directly.
+ */
+public class ElasticQueryTest {
+
+    private JsonObject parse(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testQuery() {
+        String json = new ElasticQuery()
+                .from(0).size(500)
+                .query(ElasticQuery.bool()
+                        .must(ElasticQuery.match("rider.username", "rider"))
+                        .filter(ElasticQuery.range("lastModified").gt(10L))
+                        .should(ElasticQuery.terms("status", Arrays.asList("OPEN", "OFFERED")))
+                        .minimumShouldMatch(1))
+                .sort(ElasticQuery.geoDistanceSort("location", 53.5, -113.5))
+                .sort("lastModified", false)
+                .toJson();
+
+        assertEquals("{\"from\":0,\"size\":500,\"query\":{\"bool\":{"
+                + "\"must\":[{\"match\":{\"rider.username\":\"rider\"}}],"
+                + "\"filter\":[{\"range\":{\"lastModified\":{\"gt\":10}}}],"
+                + "\"should\":[{\"terms\":{\"status\":[\"OPEN\",\"OFFERED\"]}}],"
+                + "\"minimum_should_match\":1}},"
+                + "\"sort\":[{\"_geo_distance\":{\"location\":[-113.5,53.5],\"order\":\"asc\","
+                + "\"unit\":\"km\",\"distance_type\":\"plane\"}},"
+                + "{\"lastModified\":{\"order\":\"desc\"}}]}", json);
+    }
+
+    /** TEST2 */
+    @Test
+    public void testEscaping() {
+        String nasty = "bob\" }}, \"match_all\": {\\\n\t\u0001\u2028";
+        String json = new ElasticQuery()
+                .query(ElasticQuery.match("username", nasty))
+                .toJson();
+        JsonObject parsed = parse(json);
+        assertEquals("The value should come back exactly as it was given", nasty, parsed
+                .getAsJsonObject("query").getAsJsonObject("match").get("username").getAsString());
+        assertEquals(1, parsed.entrySet().size());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testTemplate() {
+        ElasticQuery.Template template = new ElasticQuery()
+                .from(0).size(500)
+                .query(ElasticQuery.bool()
+                        .filter(ElasticQuery.range("lastModified").gt(ElasticQuery.param("since")))
+                        .should(ElasticQuery.multiMatch(ElasticQuery.param("username"), "offeringUser"))
+                        .should(ElasticQuery.ids(ElasticQuery.param("ids")))
+                        .minimumShouldMatch(1))
+                .compile("since", "username", "ids");
+
+        String username = "dr\"iver";
+        String expected = new ElasticQuery()
+                .from(0).size(500)
+                .query(ElasticQuery.bool()
+                        .filter(ElasticQuery.range("lastModified").gt(42L))
+                        .should(ElasticQuery.multiMatch(username, "offeringUser"))
+                        .should(ElasticQuery.ids(Arrays.asList("a", "b")))
+                        .minimumShouldMatch(1))
+                .toJson();
+        assertEquals(expected, template.render(42L, username, Arrays.asList("a", "b")));
+
+        // Rendering again reuses the buffer without leaking the last query into the next
+        String empty = template.render(0L, "x", Collections.emptyList());
+        assertEquals(0, parse(empty).getAsJsonObject("query").getAsJsonObject("bool")
+                .getAsJsonArray("should").get(1).getAsJsonObject().getAsJsonObject("ids")
+                .getAsJsonArray("values").size());
+    }
+
+    /** TEST4 */
+    @Test
+    public void testParamErrors() {
+        ElasticQuery query = new ElasticQuery()
+                .query(ElasticQuery.match("username", ElasticQuery.param("username")));
+        try {
+            query.toJson();
+            fail("A query with a param has to be compiled first");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            query.compile("user");
+            fail("Every param has to be named when compiling");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            query.compile("username").render();
+            fail("A value has to be given for every param");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
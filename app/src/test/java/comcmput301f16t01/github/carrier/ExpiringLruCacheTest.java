@@ -0,0 +1,76 @@
+package comcmput301f16t01.github.carrier;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the values kept by the caches of the app on the JVM.
+ * Test List:
+ *      1) The least recently used value is dropped once it is full, and lookups are counted.
+ *      2) Values expire at their own time, null values are kept apart from missing ones.
+ *      3) The copy of the values is least recently used first and does not change the order.
+ */
+public class ExpiringLruCacheTest {
+    /** TEST1 */
+    @Test
+    public void testEviction() {
+        ExpiringLruCache<String> cache = new ExpiringLruCache<>(2);
+        cache.put("a", "A", 100);
+        cache.put("b", "B", 100);
+        assertEquals("A", cache.get("a", 0)); // b is now the least recently used
+        cache.put("c", "C", 100);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b", 0));
+        assertEquals("C", cache.get("c", 0));
+
+        assertNotNull(cache.peekEntry("a", 0));
+        assertEquals("Peeking is not counted", 2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2.0 / 3, cache.getHitRate(), 0.000001);
+    }
+
+    /** TEST2 */
+    @Test
+    public void testExpiry() {
+        ExpiringLruCache<String> cache = new ExpiringLruCache<>(10);
+        cache.put("a", "A", 100);
+        cache.put("b", null, 200);
+        cache.put("c", "C", 300);
+        assertEquals("A", cache.get("a", 100));
+        assertNull(cache.get("a", 101));
+        assertEquals(1, cache.getExpirationCount());
+
+        ExpiringLruCache.Entry<String> missing = cache.getEntry("b", 150);
+        assertNotNull("Remembered as missing", missing);
+        assertNull(missing.getValue());
+        assertEquals(200, missing.getExpires());
+
+        cache.removeExpired(250);
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getExpirationCount());
+        assertEquals("C", cache.get("c", 250));
+    }
+
+    /** TEST3 */
+    @Test
+    public void testToMap() {
+        ExpiringLruCache<String> cache = new ExpiringLruCache<>(3);
+        cache.put("a", "A", 100);
+        cache.put("b", "B", 100);
+        cache.put("c", "C", 100);
+        cache.get("a", 0);
+        assertEquals(Arrays.asList("b", "c", "a"), new ArrayList<>(cache.toMap().keySet()));
+        assertEquals(Arrays.asList("B", "C", "A"), new ArrayList<>(cache.toMap().values()));
+
+        // b is still the least recently used
+        cache.put("d", "D", 100);
+        assertNull(cache.peekEntry("b", 0));
+    }
+}
@@ -0,0 +1,132 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import comcmput301f16t01.github.carrier.Requests.GeoIndex;
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Requests.RequestList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests searching requests by location with GeoIndex on the JVM.
+ * Test List:
+ *      1) Great circle distances are in kilometres.
+ *      2) A radius search finds exactly the requests within the radius, closest first.
+ *      3) Nearest searches find the closest requests however far away they are.
+ *      4) Searches work across the antimeridian and near the poles.
+ *      5) Requests without a location are not indexed.
+ */
+public class GeoIndexTest {
+    private GeoIndex index;
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private Request makeRequest(String id, double latitude, double longitude) {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\",\"location\":["
+                + longitude + "," + latitude + "]}", Request.class);
+        request.setId(id);
+        return request;
+    }
+
+    @Before
+    public void setUp() {
+        index = new GeoIndex();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testDistance() {
+        // Edmonton to Calgary
+        assertEquals(281, GeoIndex.distance(53.5461, -113.4938, 51.0447, -114.0719), 2);
+        assertEquals(0, GeoIndex.distance(53.5, -113.5, 53.5, -113.5), 0.000001);
+        // A degree of latitude
+        assertEquals(111.2, GeoIndex.distance(10, 20, 11, 20), 0.1);
+    }
+
+    /** TEST2 */
+    @Test
+    public void testWithinRadius() {
+        Random random = new Random(301);
+        RequestList all = new RequestList();
+        for (int i = 0; i < 2000; i++) {
+            Request request = makeRequest("r" + i, 52 + random.nextDouble() * 3, -116 + random.nextDouble() * 5);
+            all.add(request);
+            index.add(request);
+        }
+        assertEquals(2000, index.size());
+
+        double latitude = 53.5;
+        double longitude = -113.5;
+        RequestList found = index.withinRadius(latitude, longitude, 50);
+
+        // Compare with checking every request
+        int expected = 0;
+        for (Request request : all) {
+            double distance = GeoIndex.distance(latitude, longitude, request.getLocation()[1], request.getLocation()[0]);
+            if (distance <= 50) {
+                expected++;
+                assertTrue(request.getId() + " is within the radius", found.contains(request));
+            }
+        }
+        assertEquals(expected, found.size());
+
+        double last = 0;
+        for (Request request : found) {
+            double distance = GeoIndex.distance(latitude, longitude, request.getLocation()[1], request.getLocation()[0]);
+            assertTrue("Results should be closest first", distance >= last);
+            last = distance;
+        }
+    }
+
+    /** TEST3 */
+    @Test
+    public void testNearest() {
+        index.add(makeRequest("edmonton", 53.5461, -113.4938));
+        index.add(makeRequest("calgary", 51.0447, -114.0719));
+        index.add(makeRequest("toronto", 43.6532, -79.3832));
+
+        RequestList nearest = index.nearest(53.6, -113.6, 2);
+        assertEquals(2, nearest.size());
+        assertEquals("edmonton", nearest.get(0).getId());
+        assertEquals("calgary", nearest.get(1).getId());
+
+        nearest = index.nearest(0, 0, 10);
+        assertEquals("Every request is found if there are fewer than asked for", 3, nearest.size());
+        assertEquals("toronto", nearest.get(0).getId());
+
+        assertEquals(0, index.nearest(53.6, -113.6, 0).size());
+        assertEquals(0, new GeoIndex().nearest(53.6, -113.6, 3).size());
+    }
+
+    /** TEST4 */
+    @Test
+    public void testEdges() {
+        index.add(makeRequest("west", 0, 179.9));
+        index.add(makeRequest("east", 0, -179.9));
+        index.add(makeRequest("pole", 89.95, 10));
+        index.add(makeRequest("otherSideOfPole", 89.95, -170));
+
+        RequestList found = index.withinRadius(0, 179.95, 50);
+        assertEquals(2, found.size());
+        assertEquals("west", found.get(0).getId());
+
+        found = index.withinRadius(89.95, 10, 50);
+        assertEquals(2, found.size());
+        assertEquals("pole", found.get(0).getId());
+    }
+
+    /** TEST5 */
+    @Test
+    public void testNoLocation() {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\"}", Request.class);
+        assertFalse(index.add(request));
+        assertEquals(0, index.size());
+    }
+}
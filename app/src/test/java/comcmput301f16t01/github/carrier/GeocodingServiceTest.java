@@ -0,0 +1,194 @@
+package comcmput301f16t01.github.carrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the geocoding cache on the JVM, with a stub geocoder instead of the network.
+ * Test List:
+ *      1) Points within about 10 meters share an answer, addresses ignore case and spacing.
+ *      2) Geocoding many points looks each distinct point up once.
+ *      3) Answers are saved to the file and read back by a new service.
+ *      4) Concurrent lookups of the same point share a single geocoder call.
+ *      5) Failed lookups are not remembered.
+ */
+public class GeocodingServiceTest {
+    private File file;
+    private StubBackend backend;
+
+    /** Answers with the point it was asked about, and counts how often it was asked. */
+    private static class StubBackend implements GeocodingService.Backend {
+        int reverseCalls = 0;
+        int forwardCalls = 0;
+        boolean failing = false;
+
+        @Override
+        public synchronized String reverse(double latitude, double longitude) throws IOException {
+            reverseCalls++;
+            if (failing) {
+                throw new IOException("offline");
+            }
+            return "Address at " + latitude + ", " + longitude;
+        }
+
+        @Override
+        public synchronized List<GeocodingService.Place> forward(String address, int maxResults) throws IOException {
+            forwardCalls++;
+            if (failing) {
+                throw new IOException("offline");
+            }
+            List<GeocodingService.Place> places = new ArrayList<>();
+            places.add(new GeocodingService.Place(53.5232, -113.5263, null));
+            return places;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("Geocoding", ".sav");
+        assertTrue(file.delete());
+        backend = new StubBackend();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testKeys() {
+        GeocodingService service = new GeocodingService(backend, null);
+        String address = service.reverse(53.52321, -113.52631);
+        assertEquals(address, service.reverse(53.52319, -113.52629));
+        assertEquals(1, backend.reverseCalls);
+        service.reverse(53.5242, -113.5263);
+        assertEquals(2, backend.reverseCalls);
+
+        service.forward("116 St & 85 Ave, Edmonton", 50);
+        assertEquals(1, service.forward("  116 st &  85 ave, EDMONTON ", 50).size());
+        assertEquals(1, backend.forwardCalls);
+        service.forward("116 St & 85 Ave, Edmonton", 10);
+        assertEquals("The number of results is part of the search", 2, backend.forwardCalls);
+    }
+
+    /** TEST2 */
+    @Test
+    public void testReverseAll() {
+        GeocodingService service = new GeocodingService(backend, null);
+        service.reverse(10, 20);
+        List<String> addresses = service.reverseAll(Arrays.asList(
+                new GeocodingService.Place(10, 20, null),
+                new GeocodingService.Place(30, 40, null),
+                new GeocodingService.Place(30, 40, null),
+                new GeocodingService.Place(50, 60, null)));
+        assertEquals(4, addresses.size());
+        assertEquals("Address at 10.0, 20.0", addresses.get(0));
+        assertEquals("Address at 30.0, 40.0", addresses.get(1));
+        assertEquals(addresses.get(1), addresses.get(2));
+        assertEquals("Address at 50.0, 60.0", addresses.get(3));
+        assertEquals(3, backend.reverseCalls);
+        assertEquals(1, service.getHitCount());
+        assertEquals(3, service.getMissCount());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testPersistence() {
+        GeocodingService service = new GeocodingService(backend, file);
+        service.reverse(10, 20);
+        service.forward("Edmonton", 50);
+        assertTrue(file.exists());
+        assertEquals(2, service.size());
+
+        StubBackend otherBackend = new StubBackend();
+        GeocodingService reopened = new GeocodingService(otherBackend, file);
+        assertEquals("Address at 10.0, 20.0", reopened.reverse(10, 20));
+        assertEquals(53.5232, reopened.forward("edmonton", 50).get(0).getLatitude(), 0.000001);
+        assertEquals(0, otherBackend.reverseCalls);
+        assertEquals(0, otherBackend.forwardCalls);
+
+        reopened.clear();
+        assertEquals(0, new GeocodingService(otherBackend, file).size());
+    }
+
+    /** TEST4 */
+    @Test
+    public void testSingleFlight() throws InterruptedException {
+        final CountDownLatch geocoding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] calls = {0};
+        final GeocodingService service = new GeocodingService(new StubBackend() {
+            @Override
+            public String reverse(double latitude, double longitude) throws IOException {
+                synchronized (calls) {
+                    calls[0]++;
+                }
+                geocoding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "Slow address";
+            }
+        }, null);
+
+        final String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results[index] = service.reverse(10, 20);
+                }
+            });
+        }
+        threads[0].start();
+        geocoding.await();
+        for (int i = 1; i < threads.length; i++) {
+            threads[i].start();
+        }
+        // Give the other threads time to start waiting on the first lookup
+        while (service.getMissCount() < threads.length) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls[0]);
+        for (String result : results) {
+            assertEquals("Slow address", result);
+        }
+    }
+
+    /** TEST5 */
+    @Test
+    public void testFailure() {
+        GeocodingService service = new GeocodingService(backend, file);
+        backend.failing = true;
+        assertEquals("", service.reverse(10, 20));
+        assertNull(service.forward("Edmonton", 50));
+        assertEquals(0, service.size());
+
+        backend.failing = false;
+        assertEquals("Address at 10.0, 20.0", service.reverse(10, 20));
+        assertEquals(2, backend.reverseCalls);
+    }
+}
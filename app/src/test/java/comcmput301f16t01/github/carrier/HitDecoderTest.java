@@ -0,0 +1,188 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import comcmput301f16t01.github.carrier.Notifications.Notification;
+import comcmput301f16t01.github.carrier.Requests.Offer;
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Users.User;
+import io.searchbox.client.AbstractJestClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests decoding search hits with HitDecoder on the JVM.
+ * Test List:
+ *      1) Every hit is decoded in order, with its ID set on the @JestId field.
+ *      2) Decoding stops early once the callback (or limit) says so.
+ *      3) Hits of a mix of types are decoded into the class registered for each type.
+ *      4) Multi-get responses are decoded too, skipping documents that were not found.
+ *      5) Responses that are not search responses cannot be decoded.
+ *      6) Dates written by the Jest client (i.e. a notification's) are read back.
+ *      7) Each response of a multi-search is decoded into its own list, failed ones into null.
+ */
+public class HitDecoderTest {
+
+    /** Builds a search response with a request hit for each ID. */
+    private String requestResponse(int count) {
+        StringBuilder json = new StringBuilder("{\"took\":3,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":5,\"successful\":5,\"failed\":0},"
+                + "\"hits\":{\"total\":" + count + ",\"max_score\":1.0,\"hits\":[");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"_index\":\"cmput301f16t01\",\"_type\":\"request\",\"_id\":\"r").append(i)
+                    .append("\",\"_score\":1.0,\"_source\":{\"status\":\"OPEN\",\"description\":\"request ")
+                    .append(i).append("\",\"rider\":{\"username\":\"rider\",\"email\":\"a@b.c\"},")
+                    .append("\"offeringDrivers\":[{\"username\":\"driver\"}]}}");
+        }
+        return json.append("]}}").toString();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testDecode() throws IOException {
+        List<Request> requests = HitDecoder.decodeSources(requestResponse(20), Request.class);
+        assertEquals(20, requests.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("r" + i, requests.get(i).getId());
+            assertEquals("request " + i, requests.get(i).getDescription());
+            assertEquals("rider", requests.get(i).getRider().getUsername());
+        }
+        assertTrue(HitDecoder.decodeSources(requestResponse(0), Request.class).isEmpty());
+    }
+
+    /** TEST2 */
+    @Test
+    public void testStopEarly() throws IOException {
+        assertEquals(1, HitDecoder.decodeSources(requestResponse(500), Request.class, 1).size());
+
+        final List<String> ids = new ArrayList<>();
+        int decoded = new HitDecoder(Request.class).decode(requestResponse(500), new HitDecoder.Callback() {
+            @Override
+            public boolean onHit(String type, String id, Object source) {
+                ids.add(id);
+                return !id.equals("r4");
+            }
+        });
+        assertEquals(5, decoded);
+        assertEquals("r4", ids.get(ids.size() - 1));
+
+        // The rest of the response is never read, so it does not even have to be complete
+        String cutOff = requestResponse(10).substring(0, requestResponse(10).length() / 2);
+        assertEquals(1, HitDecoder.decodeSources(cutOff, Request.class, 1).size());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testMixedTypes() throws IOException {
+        String json = "{\"hits\":{\"hits\":["
+                + "{\"_type\":\"offer\",\"_id\":\"o1\",\"_source\":{\"offeringUser\":\"driver\",\"requestID\":\"r1\"}},"
+                + "{\"_type\":\"request\",\"_id\":\"r2\",\"_source\":" + new Gson().toJson(
+                        new Gson().fromJson("{\"status\":\"CONFIRMED\",\"description\":\"d\"}", Request.class)) + "},"
+                + "{\"_type\":\"user\",\"_id\":\"u1\",\"_source\":{\"username\":\"skipped\"}}"
+                + "]}}";
+        final List<Object> sources = new ArrayList<>();
+        new HitDecoder()
+                .register("offer", Offer.class)
+                .register("request", Request.class)
+                .decode(json, new HitDecoder.Callback() {
+                    @Override
+                    public boolean onHit(String type, String id, Object source) {
+                        sources.add(source);
+                        return true;
+                    }
+                });
+        assertEquals("Hits of types that are not registered are skipped", 2, sources.size());
+        assertEquals("r1", ((Offer) sources.get(0)).getRequestID());
+        assertEquals("r2", ((Request) sources.get(1)).getId());
+        assertEquals(Request.Status.CONFIRMED, ((Request) sources.get(1)).getStatus());
+    }
+
+    /** TEST4 */
+    @Test
+    public void testMultiGet() throws IOException {
+        String json = "{\"docs\":["
+                + "{\"_index\":\"cmput301f16t01\",\"_type\":\"user\",\"_id\":\"u1\",\"found\":true,"
+                + "\"_source\":{\"username\":\"first\"}},"
+                + "{\"_index\":\"cmput301f16t01\",\"_type\":\"user\",\"_id\":\"u2\",\"found\":false},"
+                + "{\"_index\":\"cmput301f16t01\",\"_type\":\"user\",\"_id\":\"u3\",\"found\":true,"
+                + "\"_source\":{\"username\":\"third\"}}"
+                + "]}";
+        List<User> users = HitDecoder.decodeSources(json, User.class);
+        assertEquals(2, users.size());
+        assertEquals("first", users.get(0).getUsername());
+        assertEquals("u3", users.get(1).getId());
+    }
+
+    /** TEST5 */
+    @Test
+    public void testBadResponse() throws IOException {
+        assertTrue(HitDecoder.decodeSources("{\"error\":\"index_not_found\"}", User.class).isEmpty());
+        assertTrue(HitDecoder.decodeSources(null, User.class).isEmpty());
+        try {
+            HitDecoder.decodeSources("[1, 2, 3]", User.class);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            HitDecoder.decodeSources("{\"hits\":{\"hits\":[{\"_source\":{\"username\":[]}}]}}", User.class);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue("A hit without a source is skipped",
+                HitDecoder.decodeSources("{\"hits\":{\"hits\":[{\"_source\":null}]}}", User.class).isEmpty());
+    }
+
+    /** TEST6 */
+    @Test
+    public void testJestDates() throws IOException {
+        Request request = new Gson().fromJson("{\"rider\":{\"username\":\"rider\"}}", Request.class);
+        Notification notification = new Notification(new User("rider"), request);
+        // The Jest client indexes documents with this Gson
+        String source = new GsonBuilder()
+                .setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
+                .create()
+                .toJson(notification);
+        assertTrue(source.matches(".*\"date\":\"\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}[+-]\\d{4}\".*"));
+
+        List<Notification> decoded = HitDecoder.decodeSources("{\"hits\":{\"hits\":["
+                + "{\"_type\":\"notification\",\"_id\":\"n1\",\"_source\":" + source + "}]}}", Notification.class);
+        assertEquals(1, decoded.size());
+        assertEquals("n1", decoded.get(0).getID());
+        assertEquals("Jest writes whole seconds", notification.getDate().getTime() / 1000,
+                decoded.get(0).getDate().getTime() / 1000);
+        assertFalse(decoded.get(0).isRead());
+    }
+
+    /** TEST7 */
+    @Test
+    public void testMultiSearch() throws IOException {
+        String json = "{\"responses\":["
+                + "{\"took\":1,\"hits\":{\"total\":2,\"hits\":["
+                + "{\"_type\":\"offer\",\"_id\":\"o1\",\"_source\":{\"offeringUser\":\"a\",\"requestID\":\"r1\"}},"
+                + "{\"_type\":\"offer\",\"_id\":\"o2\",\"_source\":{\"offeringUser\":\"b\",\"requestID\":\"r1\"}}"
+                + "]}},"
+                + "{\"error\":{\"type\":\"search_phase_execution_exception\"},\"status\":400},"
+                + "{\"took\":1,\"hits\":{\"total\":0,\"hits\":[]}}"
+                + "]}";
+        List<List<Offer>> responses = HitDecoder.decodeResponses(json, Offer.class);
+        assertEquals(3, responses.size());
+        assertEquals(2, responses.get(0).size());
+        assertEquals("b", responses.get(0).get(1).getOfferingUser());
+        assertNull("A failed search has no hits", responses.get(1));
+        assertTrue(responses.get(2).isEmpty());
+    }
+}
@@ -0,0 +1,357 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import comcmput301f16t01.github.carrier.Notifications.Notification;
+import comcmput301f16t01.github.carrier.Notifications.NotificationFeed;
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Users.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the notification change feed on the JVM, with a stub source instead of elastic search.
+ * Test List:
+ *      1) The first poll fetches everything, later polls only the changes since the cursor.
+ *      2) Changes are merged by ID and the list stays sorted, unread and newest first.
+ *      3) The unread count follows the changes, fetching a change twice counts it once, and
+ *         marking many read at once tells the listeners once.
+ *      4) A full fetch is done now and then, and for another user.
+ *      5) A failed poll keeps the list and the cursor.
+ *      6) A started feed polls on its own thread until stopped.
+ *      7) A full fetch sorted by elastic search is kept in its order, one out of order still
+ *         goes in its place.
+ *      8) Notifications fetched again unchanged (i.e. within the margin) are not changes: the
+ *         listeners are not told and the feed keeps backing off.
+ */
+public class NotificationFeedTest {
+    private static final long MINUTE = 60 * 1000;
+
+    private long time;
+    private StubSource source;
+    private NotificationFeed feed;
+    private final User user = new User("feedUser");
+
+    /** Runs changes right away on the polling thread. */
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Answers with the notifications it is given, and remembers what it was asked. */
+    private static class StubSource implements NotificationFeed.Source {
+        List<Notification> next = new ArrayList<>();
+        final List<Long> sinces = new ArrayList<>();
+        boolean failing = false;
+
+        @Override
+        public synchronized List<Notification> changesSince(String username, long since) throws IOException {
+            sinces.add(since);
+            if (failing) {
+                throw new IOException("offline");
+            }
+            List<Notification> changes = next;
+            next = new ArrayList<>();
+            return changes;
+        }
+    }
+
+    /** A notification made at a given time. */
+    private static class TestNotification extends Notification {
+        TestNotification(User user, Request request, long time) {
+            super(user, request);
+            date = new Date(time);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        time = 100 * MINUTE;
+        source = new StubSource();
+        feed = new NotificationFeed(source, directExecutor, new ArrayList<Notification>()) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        feed.stop();
+    }
+
+    private Notification makeNotification(String id, long created, boolean read) {
+        Request request = new Gson().fromJson("{\"rider\":{\"username\":\"feedUser\"}}", Request.class);
+        Notification notification = new TestNotification(user, request, created);
+        notification.setID(id);
+        notification.setRead(read);
+        notification.setLastModified(created);
+        return notification;
+    }
+
+    private String ids() {
+        StringBuilder ids = new StringBuilder();
+        for (Notification notification : feed.getNotifications()) {
+            ids.append(notification.getID());
+        }
+        return ids.toString();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testCursor() {
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, true), makeNotification("b", 20 * MINUTE, false));
+        assertTrue(feed.poll("feedUser"));
+        assertEquals(0, (long) source.sinces.get(0));
+        assertTrue(feed.isSyncedFor("feedUser"));
+
+        time += MINUTE;
+        assertTrue(feed.poll("feedUser"));
+        assertEquals("From a margin before the newest change", 15 * MINUTE, (long) source.sinces.get(1));
+        assertEquals(2, feed.getNotifications().size());
+    }
+
+    /** TEST2 */
+    @Test
+    public void testMergeAndOrder() {
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, true), makeNotification("b", 20 * MINUTE, false));
+        feed.poll("feedUser");
+        assertEquals("ba", ids());
+
+        time += MINUTE;
+        source.next = Arrays.asList(makeNotification("c", 30 * MINUTE, false), makeNotification("b", 40 * MINUTE, true));
+        feed.poll("feedUser");
+        assertEquals("Unread first, then the newest", "cba", ids());
+
+        // Read here, the change moves it in the list
+        Notification c = feed.getNotifications().get(0);
+        c.setRead(true);
+        feed.onChanged(c);
+        assertEquals("bca", ids());
+        Notification newest = makeNotification("d", 50 * MINUTE, false);
+        feed.onChanged(newest);
+        assertSame(newest, feed.getNotifications().get(0));
+        assertEquals(4, feed.getNotifications().size());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testUnreadCount() {
+        final int[] changes = {0};
+        feed.addListener(new Listener() {
+            @Override
+            public void update() {
+                changes[0]++;
+            }
+        });
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, false), makeNotification("b", 20 * MINUTE, false));
+        feed.poll("feedUser");
+        assertEquals(2, feed.getUnreadCount());
+
+        time += MINUTE;
+        source.next = Arrays.asList(makeNotification("b", 20 * MINUTE, false), makeNotification("a", 30 * MINUTE, true));
+        feed.poll("feedUser");
+        assertEquals("b was fetched twice", 1, feed.getUnreadCount());
+
+        feed.poll("feedUser");
+        assertEquals("Nothing changed, nobody is told", 2, changes[0]);
+
+        Notification b = feed.getNotifications().get(0);
+        Notification c = makeNotification("c", 40 * MINUTE, false);
+        b.setRead(true);
+        c.setRead(true);
+        feed.onChanged(Arrays.asList(b, c));
+        assertEquals(0, feed.getUnreadCount());
+        assertEquals("All read, newest first", "cab", ids());
+        assertEquals(3, changes[0]);
+
+        feed.clear();
+        assertEquals(0, feed.getUnreadCount());
+        assertFalse(feed.isSyncedFor("feedUser"));
+    }
+
+    /** TEST4 */
+    @Test
+    public void testFullFetch() {
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, false), makeNotification("b", 20 * MINUTE, false));
+        feed.poll("feedUser");
+
+        // b was deleted, a full fetch drops it
+        time += 15 * MINUTE;
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, false));
+        feed.poll("feedUser");
+        assertEquals(0, (long) source.sinces.get(1));
+        assertEquals("a", ids());
+        assertEquals(1, feed.getUnreadCount());
+
+        feed.apply("someoneElse", Arrays.asList(makeNotification("c", 30 * MINUTE, false)), false, time);
+        assertEquals("Changes for someone else are ignored", "a", ids());
+        feed.poll("someoneElse");
+        assertEquals(0, (long) source.sinces.get(2));
+        assertEquals("", ids());
+    }
+
+    /** TEST5 */
+    @Test
+    public void testFailure() {
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, false));
+        feed.poll("feedUser");
+        source.failing = true;
+        time += MINUTE;
+        assertFalse(feed.poll("feedUser"));
+        assertEquals("a", ids());
+        assertEquals(1, feed.getUnreadCount());
+
+        source.failing = false;
+        feed.poll("feedUser");
+        assertEquals(5 * MINUTE, (long) source.sinces.get(2));
+    }
+
+    /** TEST6 */
+    @Test
+    public void testFollow() throws InterruptedException {
+        final CountDownLatch polled = new CountDownLatch(1);
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, false));
+        feed.pollNow(new Listener() {
+            @Override
+            public void update() {
+                polled.countDown();
+            }
+        });
+        feed.start("feedUser");
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, feed.getUnreadCount());
+
+        final CountDownLatch polledAgain = new CountDownLatch(1);
+        source.next = Arrays.asList(makeNotification("b", 20 * MINUTE, false));
+        feed.pollNow(new Listener() {
+            @Override
+            public void update() {
+                polledAgain.countDown();
+            }
+        });
+        assertTrue(polledAgain.await(5, TimeUnit.SECONDS));
+        assertEquals(2, feed.getUnreadCount());
+        assertEquals(0, (long) source.sinces.get(0));
+        assertTrue(source.sinces.get(1) > 0);
+
+        feed.stop();
+        int polls = source.sinces.size();
+        feed.pollNow(null);
+        Thread.sleep(50);
+        assertEquals("A stopped feed does not poll", polls, source.sinces.size());
+    }
+
+    /** TEST7 */
+    @Test
+    public void testSortedFullFetch() {
+        // Unread first, then newest first, as the server sorts them
+        feed.apply("feedUser", Arrays.asList(
+                makeNotification("d", 40 * MINUTE, false),
+                makeNotification("b", 20 * MINUTE, false),
+                makeNotification("c", 30 * MINUTE, true),
+                makeNotification("a", 10 * MINUTE, true)), true, time);
+        assertEquals("dbca", ids());
+        assertEquals(2, feed.getUnreadCount());
+
+        feed.apply("feedUser", Arrays.asList(
+                makeNotification("b", 20 * MINUTE, false),
+                makeNotification("d", 40 * MINUTE, false),
+                makeNotification("a", 10 * MINUTE, true)), true, time);
+        assertEquals("dba", ids());
+        assertEquals(2, feed.getUnreadCount());
+    }
+
+    /** TEST8 */
+    @Test
+    public void testOnlyRealChanges() throws InterruptedException {
+        final int[] changes = {0};
+        feed.addListener(new Listener() {
+            @Override
+            public void update() {
+                changes[0]++;
+            }
+        });
+        source.next = Arrays.asList(makeNotification("a", 10 * MINUTE, false), makeNotification("b", 20 * MINUTE, false));
+        feed.poll("feedUser");
+        assertEquals(1, changes[0]);
+
+        time += MINUTE;
+        source.next = Arrays.asList(makeNotification("b", 20 * MINUTE, false));
+        feed.poll("feedUser");
+        assertEquals("b is within the margin but unchanged", 1, changes[0]);
+
+        source.next = Arrays.asList(makeNotification("b", 20 * MINUTE, true));
+        feed.poll("feedUser");
+        assertEquals("Read elsewhere", 2, changes[0]);
+        assertEquals(1, feed.getUnreadCount());
+
+        Notification a = makeNotification("a", 10 * MINUTE, false);
+        a.setLastModified(25 * MINUTE);
+        source.next = Arrays.asList(a);
+        feed.poll("feedUser");
+        assertEquals("Modified elsewhere", 3, changes[0]);
+
+        time += 15 * MINUTE;
+        a = makeNotification("a", 10 * MINUTE, false);
+        a.setLastModified(25 * MINUTE);
+        source.next = Arrays.asList(a, makeNotification("b", 20 * MINUTE, true));
+        feed.poll("feedUser");
+        assertEquals(0, (long) source.sinces.get(source.sinces.size() - 1));
+        assertEquals("A full fetch of the same list", 3, changes[0]);
+
+        time += 15 * MINUTE;
+        source.next = Arrays.asList(a);
+        feed.poll("feedUser");
+        assertEquals("b was deleted", 4, changes[0]);
+        assertEquals("a", ids());
+
+        // The started feed backs off while polls bring back nothing new
+        final CountDownLatch[] polled = {new CountDownLatch(1)};
+        Listener onPolled = new Listener() {
+            @Override
+            public void update() {
+                polled[0].countDown();
+            }
+        };
+        source.next = Arrays.asList(makeNotification("c", 50 * MINUTE, false));
+        feed.pollNow(onPolled);
+        feed.start("feedUser");
+        assertTrue(polled[0].await(5, TimeUnit.SECONDS));
+        assertEquals(5, changes[0]);
+        long shortest = feed.getPollInterval();
+
+        polled[0] = new CountDownLatch(1);
+        source.next = Arrays.asList(makeNotification("c", 50 * MINUTE, false));
+        feed.pollNow(onPolled);
+        assertTrue(polled[0].await(5, TimeUnit.SECONDS));
+        assertEquals(5, changes[0]);
+        assertEquals(2 * shortest, feed.getPollInterval());
+
+        polled[0] = new CountDownLatch(1);
+        source.next = Arrays.asList(makeNotification("c", 50 * MINUTE, true));
+        feed.pollNow(onPolled);
+        assertTrue(polled[0].await(5, TimeUnit.SECONDS));
+        assertEquals(6, changes[0]);
+        assertEquals(shortest, feed.getPollInterval());
+    }
+}
@@ -0,0 +1,182 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import comcmput301f16t01.github.carrier.Requests.OfflineOperation;
+import comcmput301f16t01.github.carrier.Requests.OfflineOperationLog;
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Users.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the offline operation log on the JVM.
+ * Test List:
+ *      1) Operations are kept in the order they were made, across reopening the log.
+ *      2) Acknowledged operations are not replayed again.
+ *      3) The log keeps the request as it was when the operation was made.
+ *      4) A line cut off by a crash is ignored, and the log can still be appended to.
+ *      5) Compaction only keeps waiting operations.
+ *      6) The replay backoff grows with failures and resets on success.
+ */
+public class OfflineOperationLogTest {
+    private File file;
+    private User driver = new User("offlineLogDriver");
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("OfflineOperations", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private Request makeRequest(String id) {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\",\"description\":\"" + id + "\"}", Request.class);
+        request.setId(id);
+        return request;
+    }
+
+    /** TEST1 */
+    @Test
+    public void testOrderAfterReopen() {
+        OfflineOperationLog log = new OfflineOperationLog(file);
+        log.append(new OfflineOperation(OfflineOperation.Type.ADD_REQUEST, makeRequest("a"), null));
+        log.append(new OfflineOperation(OfflineOperation.Type.ADD_OFFER, makeRequest("b"), driver));
+        log.append(new OfflineOperation(OfflineOperation.Type.CANCEL, makeRequest("a"), null));
+        log.sync();
+        log.close();
+
+        List<OfflineOperation> pending = new OfflineOperationLog(file).getPending();
+        assertEquals(3, pending.size());
+        assertEquals(OfflineOperation.Type.ADD_REQUEST, pending.get(0).getType());
+        assertEquals(OfflineOperation.Type.ADD_OFFER, pending.get(1).getType());
+        assertEquals("offlineLogDriver", pending.get(1).getDriver().getUsername());
+        assertEquals(OfflineOperation.Type.CANCEL, pending.get(2).getType());
+        assertTrue("Operations should be in sequence",
+                pending.get(0).getSequence() < pending.get(1).getSequence()
+                        && pending.get(1).getSequence() < pending.get(2).getSequence());
+    }
+
+    /** TEST2 */
+    @Test
+    public void testAcknowledge() {
+        OfflineOperationLog log = new OfflineOperationLog(file);
+        OfflineOperation first = new OfflineOperation(OfflineOperation.Type.ADD_REQUEST, makeRequest("a"), null);
+        OfflineOperation second = new OfflineOperation(OfflineOperation.Type.COMPLETE, makeRequest("a"), null);
+        log.append(first);
+        log.append(second);
+        log.acknowledge(first.getKey());
+        log.acknowledge(first.getKey()); // acknowledging twice is harmless
+        log.sync();
+        log.close();
+
+        OfflineOperationLog reopened = new OfflineOperationLog(file);
+        assertEquals(1, reopened.size());
+        assertEquals(second.getKey(), reopened.getPending().get(0).getKey());
+
+        // Operations made after reopening come after the ones left over
+        OfflineOperation third = new OfflineOperation(OfflineOperation.Type.PAY, makeRequest("a"), null);
+        reopened.append(third);
+        assertTrue(third.getSequence() > reopened.getPending().get(0).getSequence());
+        reopened.close();
+    }
+
+    /** TEST3 */
+    @Test
+    public void testSnapshot() {
+        OfflineOperationLog log = new OfflineOperationLog(file);
+        Request request = makeRequest("a");
+        request.setStatus(Request.Status.COMPLETE);
+        log.append(new OfflineOperation(OfflineOperation.Type.COMPLETE, request, null));
+
+        request.setStatus(Request.Status.PAID);
+        OfflineOperation pending = log.getPending().get(0);
+        assertEquals(Request.Status.COMPLETE, pending.getStatus());
+        assertEquals(Request.Status.COMPLETE, pending.getRequest().getStatus());
+        assertEquals(1, log.getPendingRequests(OfflineOperation.Type.COMPLETE).size());
+        assertEquals(0, log.getPendingRequests(OfflineOperation.Type.PAY).size());
+        log.close();
+    }
+
+    /** TEST4 */
+    @Test
+    public void testCutOffLine() throws IOException {
+        OfflineOperationLog log = new OfflineOperationLog(file);
+        log.append(new OfflineOperation(OfflineOperation.Type.ADD_REQUEST, makeRequest("a"), null));
+        log.close();
+
+        // Simulate a crash part way through writing a line
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("{\"put\":{\"key\":\"abc\",\"typ".getBytes("UTF-8"));
+        out.close();
+
+        OfflineOperationLog reopened = new OfflineOperationLog(file);
+        assertEquals(1, reopened.size());
+        reopened.append(new OfflineOperation(OfflineOperation.Type.CANCEL, makeRequest("a"), null));
+        reopened.close();
+
+        assertEquals("Lines written after the crash should not be lost", 2, new OfflineOperationLog(file).size());
+    }
+
+    /** TEST5 */
+    @Test
+    public void testCompaction() {
+        OfflineOperationLog log = new OfflineOperationLog(file);
+        OfflineOperation kept = null;
+        for (int i = 0; i < 100; i++) {
+            OfflineOperation operation = new OfflineOperation(OfflineOperation.Type.CANCEL, makeRequest("r" + i), null);
+            log.append(operation);
+            if (i == 50) {
+                kept = operation;
+            } else {
+                log.acknowledge(operation.getKey());
+            }
+        }
+        log.sync();
+        assertEquals("The log should have been compacted to the one waiting operation", 1, log.getRecordCount());
+        log.close();
+
+        OfflineOperationLog reopened = new OfflineOperationLog(file);
+        assertEquals(1, reopened.size());
+        assertEquals(kept.getKey(), reopened.getPending().get(0).getKey());
+        assertEquals("r50", reopened.getPending().get(0).getRequest().getId());
+
+        reopened.acknowledge(kept.getKey());
+        reopened.sync();
+        assertEquals(0, reopened.getRecordCount());
+        assertEquals(0, file.length());
+        reopened.close();
+    }
+
+    /** TEST6 */
+    @Test
+    public void testBackoff() {
+        OfflineOperationLog log = new OfflineOperationLog(file);
+        long first = log.recordReplayFailure();
+        long second = log.recordReplayFailure();
+        assertEquals(first * 2, second);
+        for (int i = 0; i < 30; i++) {
+            log.recordReplayFailure();
+        }
+        assertEquals("The backoff should be capped", 5 * 60 * 1000, log.recordReplayFailure());
+        log.recordReplaySuccess();
+        assertEquals(first, log.recordReplayFailure());
+        log.close();
+    }
+}
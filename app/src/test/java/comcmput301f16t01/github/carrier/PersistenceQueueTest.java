@@ -0,0 +1,140 @@
+package comcmput301f16t01.github.carrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the background writer of files on the JVM.
+ * Test List:
+ *      1) A burst of saves of a file is written once, with the latest save.
+ *      2) Files are dirty until written, flush() waits for every dirty file.
+ *      3) Writes run one at a time, and saves made during a write are written after it.
+ *      4) A write that fails does not stop the writes after it, and is not made again.
+ */
+public class PersistenceQueueTest {
+    private PersistenceQueue queue;
+
+    /** The writes made, by what they wrote. */
+    private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        queue = new PersistenceQueue(50);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    private Runnable write(final String what) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                written.add(what);
+            }
+        };
+    }
+
+    /** TEST1 */
+    @Test
+    public void testBurst() {
+        for (int i = 0; i < 10; i++) {
+            queue.save("Riders", write("riders " + i));
+        }
+        queue.save("Drivers", write("drivers"));
+        queue.flush();
+        assertEquals(2, queue.getWriteCount());
+        assertEquals(11, queue.getSaveCount());
+        assertEquals("riders 9", written.get(0));
+        assertEquals("drivers", written.get(1));
+    }
+
+    /** TEST2 */
+    @Test
+    public void testDirtyAndFlush() {
+        assertFalse(queue.isDirty("Riders"));
+        queue.save("Riders", write("riders"));
+        assertTrue(queue.isDirty("Riders"));
+        assertFalse(queue.isDirty("Drivers"));
+        queue.flush();
+        assertFalse(queue.isDirty("Riders"));
+        assertEquals(1, written.size());
+
+        queue.flush(); // nothing to write
+        assertEquals(1, queue.getWriteCount());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testOneWriter() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] running = {0};
+        final int[] mostRunning = {0};
+        queue.save("Riders", new Runnable() {
+            @Override
+            public void run() {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                written.add("riders 1");
+            }
+        });
+        writing.await();
+        assertTrue(queue.isDirty("Riders"));
+        for (int i = 2; i <= 3; i++) {
+            final String what = "riders " + i;
+            queue.save("Riders", new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (running) {
+                        running[0]++;
+                        mostRunning[0] = Math.max(mostRunning[0], running[0]);
+                    }
+                    written.add(what);
+                    synchronized (running) {
+                        running[0]--;
+                    }
+                }
+            });
+        }
+        release.countDown();
+        queue.flush();
+        assertEquals(2, written.size());
+        assertEquals("riders 1", written.get(0));
+        assertEquals("riders 3", written.get(1));
+        assertEquals(1, mostRunning[0]);
+    }
+
+    /** TEST4 */
+    @Test
+    public void testFailedWrite() {
+        final int[] tries = {0};
+        queue.save("Search", new Runnable() {
+            @Override
+            public void run() {
+                tries[0]++;
+                throw new IllegalStateException("disk full");
+            }
+        });
+        queue.save("Riders", write("riders"));
+        queue.flush();
+        assertEquals(1, tries[0]);
+        assertEquals(1, written.size());
+        assertFalse(queue.isDirty("Search"));
+    }
+}
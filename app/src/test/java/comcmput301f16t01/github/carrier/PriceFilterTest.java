@@ -0,0 +1,90 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import comcmput301f16t01.github.carrier.Requests.PriceFilter;
+import comcmput301f16t01.github.carrier.Requests.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the price filters searches are made with on the JVM.
+ * Test List:
+ *      1) Price ranges in dollars become range filters on the fare and farePerKM in cents.
+ *      2) An empty filter adds nothing to the query.
+ *      3) Requests keep their fare per kilometer up to date, and it is sent to elastic search.
+ *      4) Requests in the cache are matched the same way elastic search filters them.
+ */
+public class PriceFilterTest {
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private Request makeRequest(int fare, double distance) {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\"}", Request.class);
+        request.setFare(fare);
+        request.setDistance(distance);
+        return request;
+    }
+
+    private JsonObject filterQuery(PriceFilter filter) {
+        ElasticQuery.Bool query = ElasticQuery.bool();
+        filter.applyTo(query);
+        return new JsonParser().parse(new ElasticQuery().query(query).toJson()).getAsJsonObject()
+                .getAsJsonObject("query").getAsJsonObject("bool");
+    }
+
+    /** TEST1 */
+    @Test
+    public void testRangeFilters() {
+        JsonObject bool = filterQuery(new PriceFilter()
+                .setPriceRange(5.0, 20.5)
+                .setPricePerKMRange(1.25, null));
+        assertEquals("[{\"range\":{\"fare\":{\"gte\":500.0,\"lte\":2050.0}}},"
+                + "{\"range\":{\"farePerKM\":{\"gte\":125.0}}}]", bool.getAsJsonArray("filter").toString());
+    }
+
+    /** TEST2 */
+    @Test
+    public void testEmptyFilter() {
+        PriceFilter filter = new PriceFilter();
+        assertTrue(filter.isEmpty());
+        assertFalse(filterQuery(filter).has("filter"));
+        assertFalse(filter.setPriceRange(0.0, null).isEmpty());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testFarePerKM() {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\"}", Request.class);
+        request.setFare(1000);
+        assertFalse("No distance, no fare per kilometer", new Gson().toJson(request).contains("farePerKM"));
+
+        request.setDistance(4);
+        JsonObject json = new Gson().toJsonTree(request).getAsJsonObject();
+        assertEquals(250.0, json.get("farePerKM").getAsDouble(), 0.0001);
+
+        request.setFare(2000);
+        json = new Gson().toJsonTree(request).getAsJsonObject();
+        assertEquals(500.0, json.get("farePerKM").getAsDouble(), 0.0001);
+    }
+
+    /** TEST4 */
+    @Test
+    public void testMatches() {
+        PriceFilter filter = new PriceFilter().setPriceRange(10.0, 20.0);
+        assertTrue(filter.matches(makeRequest(1000, 1)));
+        assertTrue(filter.matches(makeRequest(2000, 1)));
+        assertFalse(filter.matches(makeRequest(999, 1)));
+        assertFalse(filter.matches(makeRequest(2001, 1)));
+
+        filter = new PriceFilter().setPricePerKMRange(2.0, null);
+        assertTrue(filter.matches(makeRequest(1000, 5)));
+        assertTrue(filter.matches(makeRequest(100000, 5)));
+        assertFalse(filter.matches(makeRequest(1000, 6)));
+    }
+}
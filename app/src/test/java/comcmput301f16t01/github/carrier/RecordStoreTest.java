@@ -0,0 +1,291 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import comcmput301f16t01.github.carrier.Requests.RecordStore;
+import comcmput301f16t01.github.carrier.Requests.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the record store on the JVM.
+ * Test List:
+ *      1) Records are kept in order, across reopening the store.
+ *      2) Saving a list only writes the records that were added, changed or removed.
+ *      3) Reordering the records rewrites the file in the new order.
+ *      4) A frame cut off by a crash is ignored, and the store can still be written to.
+ *      5) Compaction only keeps the live records.
+ *      6) Files that are not record stores, or of a newer version, are read as empty and moved
+ *         aside rather than overwritten.
+ *      7) Records are read only when asked for, a broken record is left out and dropped by
+ *         compaction while the records never read are kept.
+ *      8) Records are saved as they were when encoded, appending skips the records already
+ *         saved and drops the oldest past the limit.
+ *      9) Requests without an ID keep their key when loaded again, so saving them again writes
+ *         nothing, and two of them never share a key.
+ */
+public class RecordStoreTest {
+    private File file;
+
+    private static final RecordStore.Keys<Request> KEYS = new RecordStore.Keys<Request>() {
+        @Override
+        public String keyOf(Request request) {
+            return request.getId();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("Requests", ".db");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+        new File(file.getPath() + ".unreadable").delete();
+        new File(file.getPath() + ".unreadable.1").delete();
+    }
+
+    private RecordStore<Request> open() {
+        return new RecordStore<>(file, Request.class, KEYS);
+    }
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private Request makeRequest(String id, String description) {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\",\"description\":\"" + description + "\"}", Request.class);
+        request.setId(id);
+        return request;
+    }
+
+    private String ids(List<Request> requests) {
+        StringBuilder ids = new StringBuilder();
+        for (Request request : requests) {
+            ids.append(request.getId());
+        }
+        return ids.toString();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testOrderAfterReopen() {
+        RecordStore<Request> store = open();
+        store.put(makeRequest("a", "first"));
+        store.put(makeRequest("b", "second"));
+        store.put(makeRequest("c", "third"));
+        store.put(makeRequest("a", "first, changed"));
+        store.remove("b");
+        store.close();
+
+        RecordStore<Request> reopened = open();
+        assertEquals("ac", ids(reopened.getAll()));
+        assertEquals("A changed record keeps its place", "first, changed", reopened.get("a").getDescription());
+        assertNull(reopened.get("b"));
+    }
+
+    /** TEST2 */
+    @Test
+    public void testOnlyChangesWritten() {
+        RecordStore<Request> store = open();
+        store.replaceAll(Arrays.asList(makeRequest("a", "1"), makeRequest("b", "2"), makeRequest("c", "3")));
+        store.sync();
+        assertEquals(3, store.getFrameCount());
+        long length = file.length();
+
+        store.replaceAll(Arrays.asList(makeRequest("a", "1"), makeRequest("b", "2"), makeRequest("c", "3")));
+        store.sync();
+        assertEquals("Nothing changed", 3, store.getFrameCount());
+        assertEquals(length, file.length());
+
+        store.replaceAll(Arrays.asList(makeRequest("a", "1"), makeRequest("c", "3, changed"), makeRequest("d", "4")));
+        store.sync();
+        assertEquals("b deleted, c changed, d added", 6, store.getFrameCount());
+
+        RecordStore<Request> reopened = open();
+        assertEquals("acd", ids(reopened.getAll()));
+        assertEquals("3, changed", reopened.get("c").getDescription());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testReorder() {
+        RecordStore<Request> store = open();
+        store.replaceAll(Arrays.asList(makeRequest("a", "1"), makeRequest("b", "2")));
+        store.replaceAll(Arrays.asList(makeRequest("b", "2"), makeRequest("a", "1")));
+        store.sync();
+        assertEquals(2, store.getFrameCount());
+        assertEquals("ba", ids(open().getAll()));
+
+        // A new record before one that was kept also changes the order
+        store.replaceAll(Arrays.asList(makeRequest("c", "3"), makeRequest("a", "1")));
+        store.sync();
+        assertEquals("ca", ids(open().getAll()));
+    }
+
+    /** TEST4 */
+    @Test
+    public void testTornFrame() throws IOException {
+        RecordStore<Request> store = open();
+        store.put(makeRequest("a", "1"));
+        store.put(makeRequest("b", "2"));
+        store.close();
+
+        // Cut the last frame in half, as a crash while writing would
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        RecordStore<Request> reopened = open();
+        assertEquals("a", ids(reopened.getAll()));
+        reopened.put(makeRequest("c", "3"));
+        reopened.close();
+        assertEquals("ac", ids(open().getAll()));
+    }
+
+    /** TEST5 */
+    @Test
+    public void testCompaction() {
+        RecordStore<Request> store = open();
+        for (int i = 0; i < 100; i++) {
+            store.put(makeRequest("a", "version " + i));
+        }
+        store.put(makeRequest("b", "2"));
+        store.sync();
+        assertEquals(2, store.getFrameCount());
+
+        RecordStore<Request> reopened = open();
+        assertEquals(2, reopened.getFrameCount());
+        assertEquals("version 99", reopened.get("a").getDescription());
+        assertEquals("ab", ids(reopened.getAll()));
+    }
+
+    /** TEST6 */
+    @Test
+    public void testUnreadableFiles() throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write("[{\"status\":\"OPEN\"}]".getBytes("UTF-8"));
+        fos.close();
+        RecordStore<Request> store = open();
+        assertEquals(0, store.size());
+        store.put(makeRequest("a", "1"));
+        store.close();
+        assertEquals("a", ids(open().getAll()));
+
+        File aside = new File(file.getPath() + ".unreadable");
+        assertEquals("The file that is not a record store is kept as it was",
+                "[{\"status\":\"OPEN\"}]", new String(readAll(aside), "UTF-8"));
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x43525331);
+        out.writeInt(99);
+        out.writeUTF("a record of a newer version");
+        out.close();
+        long newerLength = file.length();
+        store = open();
+        assertEquals(0, store.size());
+        store.put(makeRequest("b", "2"));
+        store.close();
+        assertEquals("b", ids(open().getAll()));
+        assertEquals("The newer file is moved next to the first one, not over it",
+                newerLength, new File(file.getPath() + ".unreadable.1").length());
+        assertTrue(aside.exists());
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** TEST7 */
+    @Test
+    public void testLazyRecords() throws IOException {
+        RecordStore<Request> store = open();
+        store.put(makeRequest("a", "1"));
+        store.put(makeRequest("b", "2"));
+        store.put(makeRequest("c", "3"));
+        store.close();
+
+        // Break the last byte of the payload of c, just before its checksum
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 5);
+        int last = raf.read();
+        raf.seek(raf.length() - 5);
+        raf.write(last ^ 0xff);
+        raf.close();
+
+        RecordStore<Request> reopened = open();
+        assertEquals("Nothing is decoded to open the store", 3, reopened.size());
+        assertEquals("ab", ids(reopened.getRange(0, 2)));
+        assertEquals("b", ids(reopened.getRange(1, 2)));
+        assertNull(reopened.get("c"));
+        assertEquals(2, reopened.size());
+
+        reopened = open();
+        reopened.compact();
+        assertEquals(2, reopened.getFrameCount());
+        assertEquals("2", reopened.get("b").getDescription());
+        assertEquals("ab", ids(open().getAll()));
+    }
+
+    /** TEST8 */
+    @Test
+    public void testEncoded() {
+        RecordStore<Request> store = open();
+        Request a = makeRequest("a", "1");
+        List<RecordStore.Encoded> encoded = store.encode(Arrays.asList(a, makeRequest("b", "2")));
+        a.setFare(999); // changed after it was encoded
+        store.replaceAllEncoded(encoded);
+        store.sync();
+        assertEquals(0, open().get("a").getFare());
+
+        store.appendEncoded(store.encode(Arrays.asList(makeRequest("b", "2, again"), makeRequest("c", "3"),
+                makeRequest("d", "4"))), 3);
+        store.sync();
+        RecordStore<Request> reopened = open();
+        assertEquals("The oldest is dropped", "bcd", ids(reopened.getAll()));
+        assertEquals("A saved record is not replaced", "2", reopened.get("b").getDescription());
+    }
+
+    /** TEST9 */
+    @Test
+    public void testUnsavedKeys() {
+        RecordStore.Keys<Request> localKeys = new RecordStore.Keys<Request>() {
+            @Override
+            public String keyOf(Request request) {
+                return request.getId() != null ? request.getId() : "unsaved:" + request.getLocalId();
+            }
+        };
+        RecordStore<Request> store = new RecordStore<>(file, Request.class, localKeys);
+        store.replaceAll(Arrays.asList(makeRequest(null, "1"), makeRequest(null, "2")));
+        store.close();
+        assertEquals(2, store.getFrameCount());
+
+        RecordStore<Request> reopened = new RecordStore<>(file, Request.class, localKeys);
+        List<Request> loaded = reopened.getAll();
+        assertEquals(2, loaded.size());
+        reopened.replaceAll(loaded);
+        reopened.sync();
+        assertEquals("Nothing changed", 2, reopened.getFrameCount());
+    }
+}
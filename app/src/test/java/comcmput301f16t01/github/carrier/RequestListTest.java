@@ -0,0 +1,213 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Requests.RequestList;
+import comcmput301f16t01.github.carrier.Requests.RequestListChange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the ID index and listener notifications of RequestList on the JVM.
+ * Test List:
+ *      1) Requests can be found and removed by ID after any kind of change to the list.
+ *      2) Appending skips requests already in the list and notifies listeners once.
+ *      3) Appending past the max size drops the oldest requests.
+ *      4) Requests without an ID can be in the list.
+ *      5) Changes made in a batch are delivered as one change event once the batch ends.
+ *      6) Change events say what was inserted, removed and updated.
+ *      7) Ending a batch that was never begun is an error.
+ *      8) A request given its ID after it was added is found by that ID when merging.
+ */
+public class RequestListTest {
+    private RequestList list;
+    private int updates;
+    private RequestListChange lastChange;
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private Request makeRequest(String id) {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\",\"description\":\"" + id + "\"}", Request.class);
+        request.setId(id);
+        return request;
+    }
+
+    @Before
+    public void setUp() {
+        list = new RequestList();
+        updates = 0;
+        lastChange = null;
+        list.addChangeListener(new RequestList.ChangeListener() {
+            @Override
+            public void onChange(RequestListChange change) {
+                lastChange = change;
+            }
+        });
+        list.addListener(new Listener() {
+            @Override
+            public void update() {
+                updates++;
+            }
+        });
+    }
+
+    private RequestList makeList(int from, int to) {
+        RequestList requests = new RequestList();
+        for (int i = from; i < to; i++) {
+            requests.add(makeRequest("r" + i));
+        }
+        return requests;
+    }
+
+    /** TEST1 */
+    @Test
+    public void testIndex() {
+        list.append(makeList(0, 5));
+        Request r2 = list.get(2);
+        assertTrue(list.remove(makeRequest("r2")));
+        assertFalse("Already removed", list.remove(r2));
+        assertEquals(4, list.size());
+
+        // Changes made through the plain ArrayList methods are picked up too
+        list.add(0, makeRequest("first"));
+        list.set(1, makeRequest("replaced"));
+        Collections.reverse(list);
+        assertTrue(list.remove(makeRequest("first")));
+        assertTrue(list.remove(makeRequest("replaced")));
+        assertFalse("r0 was replaced", list.remove(makeRequest("r0")));
+        assertTrue(list.remove(makeRequest("r4")));
+        assertEquals(2, list.size());
+
+        list.clear();
+        assertFalse(list.remove(makeRequest("r1")));
+
+        // Lists loaded from file are indexed as well
+        RequestList loaded = new Gson().fromJson(new Gson().toJson(makeList(0, 3)), RequestList.class);
+        assertTrue(loaded.remove(makeRequest("r1")));
+    }
+
+    /** TEST2 */
+    @Test
+    public void testAppend() {
+        list.append(makeList(0, 10));
+        assertEquals(1, updates);
+        list.append(makeList(5, 15));
+        assertEquals("Listeners should be told once per append", 2, updates);
+        assertEquals("Duplicates should be skipped", 15, list.size());
+        for (int i = 0; i < 15; i++) {
+            assertEquals("r" + i, list.get(i).getId());
+        }
+    }
+
+    /** TEST3 */
+    @Test
+    public void testAppendMaxSize() {
+        list.setMaxArraySize(50);
+        list.append(makeList(0, 40));
+        list.append(makeList(0, 500));
+        assertEquals(50, list.size());
+        assertEquals("The oldest requests should be dropped", "r450", list.get(0).getId());
+        assertEquals("r499", list.get(49).getId());
+        assertTrue(list.remove(makeRequest("r470")));
+        assertFalse(list.remove(makeRequest("r10")));
+    }
+
+    /** TEST4 */
+    @Test
+    public void testNoId() {
+        list.add(makeRequest(null));
+        list.append(makeList(0, 2));
+        assertEquals(3, list.size());
+        assertFalse(list.remove(makeRequest(null)));
+        assertTrue(list.remove(makeRequest("r1")));
+    }
+
+    /** TEST5 */
+    @Test
+    public void testBatch() {
+        list.beginBatch();
+        for (int i = 0; i < 500; i++) {
+            list.add(makeRequest("r" + i));
+        }
+        list.beginBatch();
+        list.append(makeList(500, 510));
+        list.endBatch();
+        assertEquals("Nothing should be delivered while a batch is open", 0, updates);
+        assertNull(lastChange);
+        list.endBatch();
+
+        assertEquals(1, updates);
+        assertEquals(510, lastChange.getInserted().size());
+        assertTrue(lastChange.isStructural());
+
+        // A batch with no changes in it does not notify anyone
+        list.beginBatch();
+        list.endBatch();
+        assertEquals(1, updates);
+    }
+
+    /** TEST6 */
+    @Test
+    public void testChangeEvents() {
+        list.setMaxArraySize(5);
+        list.append(makeList(0, 5));
+        list.append(makeList(5, 7));
+        assertEquals(2, lastChange.getInserted().size());
+        assertEquals("The dropped requests are reported as removed", "r0", lastChange.getRemoved().get(0).getId());
+        assertEquals("r1", lastChange.getRemoved().get(1).getId());
+
+        list.notifyUpdated(list.get(0));
+        assertFalse("Updating in place does not move anything", lastChange.isStructural());
+        assertTrue(lastChange.isUpdated(makeRequest("r2")));
+        assertFalse(lastChange.isUpdated(makeRequest("r3")));
+
+        RequestList changes = new RequestList();
+        changes.add(makeRequest("r3"));
+        list.merge(changes);
+        assertFalse(lastChange.isStructural());
+        assertTrue(lastChange.isUpdated(list.get(1)));
+
+        list.replaceList(makeList(0, 2));
+        assertTrue(lastChange.isReset());
+        assertEquals(5, updates);
+    }
+
+    /** TEST7 */
+    @Test
+    public void testUnbalancedBatch() {
+        try {
+            list.endBatch();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /** TEST8 */
+    @Test
+    public void testIdSetLater() {
+        list.append(makeList(0, 1));
+        // Added before it is saved, as RequestController.addRequest does while online
+        Request unsaved = makeRequest(null);
+        list.add(unsaved);
+        list.merge(makeList(1, 2)); // the index is used (and rebuilt) while the ID is still missing
+        assertEquals(3, list.size());
+
+        unsaved.setId("saved");
+        RequestList fetched = new RequestList();
+        fetched.add(makeRequest("saved"));
+        list.merge(fetched);
+        assertEquals("The fetched copy should replace the request, not be added again", 3, list.size());
+        assertEquals("saved", list.get(1).getId());
+        assertTrue(lastChange.getInserted().isEmpty());
+    }
+}
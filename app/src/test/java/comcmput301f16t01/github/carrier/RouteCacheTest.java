@@ -0,0 +1,147 @@
+package comcmput301f16t01.github.carrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cache of routes on the JVM.
+ * Test List:
+ *      1) Polylines are encoded like Google and OSRM encode them, and decode back to the points.
+ *      2) Trips starting and ending within about 10 meters share a route.
+ *      3) The least recently used route is dropped once the cache is full, old routes expire.
+ *      4) Routes are saved to the file and read back by a new cache.
+ *      5) Peeking does not read the file, it finds the saved routes once they are loaded.
+ */
+public class RouteCacheTest {
+    private long time;
+    private File file;
+
+    private RouteCache makeCache(int maxEntries, File cacheFile) {
+        return new RouteCache(maxEntries, 1000, cacheFile) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    private RouteCache.Route makeRoute(double length) {
+        List<double[]> points = new ArrayList<>();
+        points.add(new double[] { 53.5232, -113.5263 });
+        points.add(new double[] { 53.5461, -113.4938 });
+        return new RouteCache.Route(length, length * 60, points);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        time = 0;
+        file = File.createTempFile("Routes", ".sav");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /** TEST1 */
+    @Test
+    public void testPolyline() {
+        // The example from Google's description of the format
+        List<double[]> points = Arrays.asList(
+                new double[] { 38.5, -120.2 },
+                new double[] { 40.7, -120.95 },
+                new double[] { 43.252, -126.453 });
+        String encoded = RouteCache.encodePolyline(points);
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", encoded);
+
+        List<double[]> decoded = RouteCache.decodePolyline(encoded);
+        assertEquals(3, decoded.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.get(i)[0], decoded.get(i)[0], 0.000001);
+            assertEquals(points.get(i)[1], decoded.get(i)[1], 0.000001);
+        }
+        assertEquals(0, RouteCache.decodePolyline("").size());
+    }
+
+    /** TEST2 */
+    @Test
+    public void testNearbyTrips() {
+        RouteCache cache = makeCache(10, null);
+        assertNull(cache.get(53.5232, -113.5263, 53.5461, -113.4938));
+        cache.put(53.5232, -113.5263, 53.5461, -113.4938, makeRoute(4.2));
+
+        RouteCache.Route route = cache.get(53.52321, -113.52629, 53.54609, -113.49381);
+        assertNotNull(route);
+        assertEquals(4.2, route.getLength(), 0.000001);
+        assertEquals(252, route.getDuration(), 0.000001);
+        assertEquals(2, route.getPoints().size());
+        assertEquals(53.5461, route.getPoints().get(1)[0], 0.000001);
+
+        assertNull("The way back is another trip", cache.get(53.5461, -113.4938, 53.5232, -113.5263));
+        assertNull(cache.get(53.5242, -113.5263, 53.5461, -113.4938));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testEvictionAndExpiry() {
+        RouteCache cache = makeCache(2, null);
+        cache.put(1, 1, 2, 2, makeRoute(1));
+        cache.put(3, 3, 4, 4, makeRoute(2));
+        assertNotNull(cache.get(1, 1, 2, 2)); // (3, 3) is now the least recently used
+        cache.put(5, 5, 6, 6, makeRoute(3));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(3, 3, 4, 4));
+        assertNotNull(cache.get(1, 1, 2, 2));
+
+        time = 1001;
+        assertNull(cache.get(5, 5, 6, 6));
+    }
+
+    /** TEST4 */
+    @Test
+    public void testPersistence() {
+        RouteCache cache = makeCache(10, file);
+        cache.put(53.5232, -113.5263, 53.5461, -113.4938, makeRoute(4.2));
+        assertTrue(file.exists());
+
+        RouteCache reopened = makeCache(10, file);
+        RouteCache.Route route = reopened.get(53.5232, -113.5263, 53.5461, -113.4938);
+        assertNotNull(route);
+        assertEquals(4.2, route.getLength(), 0.000001);
+        assertEquals(2, route.getPoints().size());
+
+        reopened.clear();
+        assertEquals(0, makeCache(10, file).size());
+    }
+
+    /** TEST5 */
+    @Test
+    public void testPeek() {
+        RouteCache cache = makeCache(10, file);
+        cache.put(53.5232, -113.5263, 53.5461, -113.4938, makeRoute(4.2));
+        assertNotNull(cache.peek(53.5232, -113.5263, 53.5461, -113.4938));
+
+        RouteCache reopened = makeCache(10, file);
+        assertNull("Not read yet", reopened.peek(53.5232, -113.5263, 53.5461, -113.4938));
+        reopened.load();
+        RouteCache.Route route = reopened.peek(53.5232, -113.5263, 53.5461, -113.4938);
+        assertNotNull(route);
+        assertEquals(4.2, route.getLength(), 0.000001);
+    }
+}
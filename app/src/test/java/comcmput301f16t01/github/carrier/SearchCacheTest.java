@@ -0,0 +1,144 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import comcmput301f16t01.github.carrier.Requests.PriceFilter;
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Requests.RequestList;
+import comcmput301f16t01.github.carrier.Requests.SearchCache;
+import comcmput301f16t01.github.carrier.Requests.SearchCursor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cache of recent searches on the JVM.
+ * Test List:
+ *      1) The same search gives the same key, different searches do not.
+ *      2) A cached search gives back its results and where it was up to, and counts hits and misses.
+ *      3) The least recently used search is dropped once the cache is full.
+ *      4) Searches are dropped once they are too old, updating a search does not make it younger.
+ *      5) Invalidating the cache forgets every search.
+ */
+public class SearchCacheTest {
+    private long time;
+    private SearchCache cache;
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private RequestList makeResults(String... ids) {
+        RequestList results = new RequestList();
+        for (String id : ids) {
+            Request request = new Gson().fromJson("{\"status\":\"OPEN\"}", Request.class);
+            request.setId(id);
+            results.add(request);
+        }
+        return results;
+    }
+
+    @Before
+    public void setUp() {
+        time = 0;
+        cache = new SearchCache(3, 1000) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    /** TEST1 */
+    @Test
+    public void testKeys() {
+        assertEquals(SearchCache.keywordKey("Airport  Run ", null, "driver"),
+                SearchCache.keywordKey("airport run", new PriceFilter(), "driver"));
+        assertFalse(SearchCache.keywordKey("airport", null, "driver")
+                .equals(SearchCache.keywordKey("airport", null, "other")));
+        assertFalse(SearchCache.keywordKey("airport", null, "driver")
+                .equals(SearchCache.keywordKey("airport", new PriceFilter().setPriceRange(5.0, null), "driver")));
+
+        assertEquals(SearchCache.locationKey(53.54612, -113.49381, null, "driver"),
+                SearchCache.locationKey(53.54609, -113.49379, null, "driver"));
+        assertFalse(SearchCache.locationKey(53.5461, -113.4938, null, "driver")
+                .equals(SearchCache.locationKey(53.5561, -113.4938, null, "driver")));
+    }
+
+    /** TEST2 */
+    @Test
+    public void testHitAndMiss() {
+        assertNull(cache.get("a"));
+
+        SearchCursor cursor = new SearchCursor();
+        cache.put("a", makeResults("r1", "r2"), cursor);
+        SearchCache.Entry entry = cache.get("a");
+        assertNotNull(entry);
+        assertEquals(2, entry.getResults().size());
+        assertEquals("r2", entry.getResults().get(1).getId());
+        assertTrue(entry.getCursor().hasMore());
+
+        // The cached results are a copy, changing them does not change the cache
+        entry.getResults().clear();
+        assertEquals(2, cache.get("a").getResults().size());
+
+        // Closing the search it was cached from does not stop the cached one carrying on
+        cursor.close();
+        assertTrue(cache.get("a").getCursor().hasMore());
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.75, cache.getHitRate(), 0.0001);
+    }
+
+    /** TEST3 */
+    @Test
+    public void testEviction() {
+        cache.put("a", makeResults("r1"), new SearchCursor());
+        cache.put("b", makeResults("r2"), new SearchCursor());
+        cache.put("c", makeResults("r3"), new SearchCursor());
+        assertNotNull(cache.get("a")); // "b" is now the least recently used
+
+        cache.put("d", makeResults("r4"), new SearchCursor());
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    /** TEST4 */
+    @Test
+    public void testExpiry() {
+        cache.put("a", makeResults("r1"), new SearchCursor());
+        time = 600;
+        cache.update("a", makeResults("r1", "r2"), new SearchCursor());
+        assertEquals(2, cache.get("a").getResults().size());
+
+        time = 1001;
+        assertNull("The search is as old as when it was put", cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+
+        cache.update("a", makeResults("r1"), new SearchCursor());
+        assertEquals("Updating a search that is not cached does nothing", 0, cache.size());
+
+        cache.put("b", makeResults("r1"), new SearchCursor());
+        time = 5000;
+        cache.removeExpired();
+        assertEquals(0, cache.size());
+    }
+
+    /** TEST5 */
+    @Test
+    public void testInvalidate() {
+        cache.put("a", makeResults("r1"), new SearchCursor());
+        cache.put("b", makeResults("r2"), new SearchCursor());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,115 @@
+package comcmput301f16t01.github.carrier;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import comcmput301f16t01.github.carrier.Requests.Request;
+import comcmput301f16t01.github.carrier.Requests.RequestList;
+import comcmput301f16t01.github.carrier.Requests.SyncState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the delta sync of the rider and driver request lists on the JVM.
+ * Test List:
+ *      1) A new user, or a list that has not been synced in a while, gets a full fetch.
+ *      2) After a sync, only changes after the newest request seen (less a margin) are fetched.
+ *      3) Changes are merged into the list in place.
+ *      4) Requests can be removed from the list by ID.
+ */
+public class SyncStateTest {
+    private static final long MINUTE = 60 * 1000;
+
+    /** Requests need android locations to be constructed, so make them from JSON. */
+    private Request makeRequest(String id, String description, long lastModified) {
+        Request request = new Gson().fromJson("{\"status\":\"OPEN\",\"description\":\"" + description + "\"}", Request.class);
+        request.setId(id);
+        request.setLastModified(lastModified);
+        return request;
+    }
+
+    private RequestList listOf(Request... requests) {
+        RequestList list = new RequestList();
+        list.addAll(Arrays.asList(requests));
+        return list;
+    }
+
+    /** TEST1 */
+    @Test
+    public void testFullSync() {
+        long now = 1000 * MINUTE;
+        SyncState state = new SyncState();
+        assertEquals("Never synced", 0, state.getSince("rider", now));
+
+        state.onSynced("rider", listOf(makeRequest("a", "a", now - MINUTE)), true, now);
+        assertTrue(state.getSince("rider", now + MINUTE) > 0);
+        assertEquals("Different user", 0, state.getSince("otherRider", now + MINUTE));
+        assertEquals("Synced too long ago", 0, state.getSince("rider", now + 60 * MINUTE));
+
+        state.reset();
+        assertEquals("Reset", 0, state.getSince("rider", now + MINUTE));
+    }
+
+    /** TEST2 */
+    @Test
+    public void testHighWaterMark() {
+        long now = 1000 * MINUTE;
+        SyncState state = new SyncState();
+        state.onSynced("rider", listOf(makeRequest("a", "a", now - 30 * MINUTE),
+                makeRequest("b", "b", now - 20 * MINUTE)), true, now);
+        assertEquals(now - 20 * MINUTE, state.getHighWaterMark());
+        long since = state.getSince("rider", now + MINUTE);
+        assertTrue("Changes should be fetched from a little before the newest request",
+                since < now - 20 * MINUTE && since > now - 30 * MINUTE);
+
+        // Changes move the mark forward, but never back
+        state.onSynced("rider", listOf(makeRequest("c", "c", now - 10 * MINUTE)), false, now + MINUTE);
+        assertEquals(now - 10 * MINUTE, state.getHighWaterMark());
+        state.onSynced("rider", listOf(makeRequest("a", "a", now - 30 * MINUTE)), false, now + MINUTE);
+        assertEquals(now - 10 * MINUTE, state.getHighWaterMark());
+
+        // Changes for another user are ignored
+        state.onSynced("otherRider", listOf(makeRequest("d", "d", now)), false, now + MINUTE);
+        assertEquals(now - 10 * MINUTE, state.getHighWaterMark());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testMerge() {
+        Request a = makeRequest("a", "old a", 1);
+        Request b = makeRequest("b", "old b", 1);
+        RequestList list = listOf(a, b);
+
+        final int[] updates = {0};
+        list.addListener(new Listener() {
+            @Override
+            public void update() {
+                updates[0]++;
+            }
+        });
+
+        Request newB = makeRequest("b", "new b", 2);
+        Request c = makeRequest("c", "c", 2);
+        list.merge(listOf(newB, c));
+
+        assertEquals(3, list.size());
+        assertSame(a, list.get(0));
+        assertSame("Changed requests should be replaced in place", newB, list.get(1));
+        assertSame(c, list.get(2));
+        assertEquals("Listeners should be told once", 1, updates[0]);
+    }
+
+    /** TEST4 */
+    @Test
+    public void testRemoveIds() {
+        RequestList list = listOf(makeRequest("a", "a", 1), makeRequest("b", "b", 1), makeRequest("c", "c", 1));
+        list.removeIds(Arrays.asList("a", "c", "missing"));
+        assertEquals(1, list.size());
+        assertEquals("b", list.get(0).getId());
+    }
+}
@@ -0,0 +1,233 @@
+package comcmput301f16t01.github.carrier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import comcmput301f16t01.github.carrier.Users.User;
+import comcmput301f16t01.github.carrier.Users.UserCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cache of users by username on the JVM, with a fake loader instead of elastic search.
+ * Test List:
+ *      1) A user is looked up once and then comes from the cache, ignoring case.
+ *      2) Usernames that were not found are remembered for a shorter time than users.
+ *      3) getAll(...) looks up every user that is not cached in one call.
+ *      4) Concurrent lookups of the same username share a single load.
+ *      5) The least recently used user is dropped once the cache is full.
+ *      6) Invalidating a user by its ID makes it be looked up again, failed loads are not cached.
+ *      7) A loader that throws (i.e. on a response it cannot parse) does not leave lookups waiting.
+ */
+public class UserCacheTest {
+    private long time;
+    private Map<String, User> database;
+    private List<Collection<String>> loads;
+    private boolean failing;
+    private boolean throwing;
+    private UserCache cache;
+
+    private User makeUser(String username, String id) {
+        User user = new User();
+        user.setUsername(username);
+        user.setId(id);
+        return user;
+    }
+
+    @Before
+    public void setUp() {
+        time = 0;
+        failing = false;
+        throwing = false;
+        database = new HashMap<>();
+        database.put("alice", makeUser("Alice", "id1"));
+        database.put("bob", makeUser("bob", "id2"));
+        database.put("carol", makeUser("carol", "id3"));
+        loads = new ArrayList<>();
+        cache = new UserCache(2, 1000, 100, new UserCache.Loader() {
+            @Override
+            public Map<String, User> load(Collection<String> usernames) throws IOException {
+                synchronized (UserCacheTest.this) {
+                    loads.add(new ArrayList<>(usernames));
+                }
+                if (failing) {
+                    throw new IOException("offline");
+                }
+                if (throwing) {
+                    throw new IllegalStateException("not a search response");
+                }
+                Map<String, User> found = new HashMap<>();
+                for (String username : usernames) {
+                    if (database.containsKey(username)) {
+                        found.put(username, database.get(username));
+                    }
+                }
+                return found;
+            }
+        }) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    /** TEST1 */
+    @Test
+    public void testGet() {
+        User alice = cache.get("Alice");
+        assertNotNull(alice);
+        assertSame(alice, cache.get("alice"));
+        assertSame(alice, cache.peek("ALICE"));
+        assertEquals(1, loads.size());
+        assertEquals("Peeking is not counted", 1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        time = 1001;
+        assertNull("Users expire", cache.peek("alice"));
+        assertNotNull(cache.get("alice"));
+        assertEquals(2, loads.size());
+    }
+
+    /** TEST2 */
+    @Test
+    public void testNotFound() {
+        assertNull(cache.get("dave"));
+        assertNull(cache.get("dave"));
+        assertEquals("Not found is remembered", 1, loads.size());
+
+        database.put("dave", makeUser("dave", "id4"));
+        time = 101;
+        assertNotNull("Not found expires sooner than found", cache.get("dave"));
+        assertEquals(2, loads.size());
+    }
+
+    /** TEST3 */
+    @Test
+    public void testGetAll() {
+        cache.get("bob");
+        Map<String, User> found = cache.getAll(Arrays.asList("Alice", "bob", "dave", "bob"));
+        assertEquals(2, found.size());
+        assertEquals("id1", found.get("Alice").getId());
+        assertEquals("id2", found.get("bob").getId());
+
+        assertEquals(2, loads.size());
+        assertEquals("Only the users not cached are looked up, together", 2, loads.get(1).size());
+        assertTrue(loads.get(1).contains("alice"));
+        assertTrue(loads.get(1).contains("dave"));
+    }
+
+    /** TEST4 */
+    @Test
+    public void testSingleFlight() throws InterruptedException {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] loaderCalls = {0};
+        final UserCache slowCache = new UserCache(10, 1000, 100, new UserCache.Loader() {
+            @Override
+            public Map<String, User> load(Collection<String> usernames) throws IOException {
+                synchronized (loaderCalls) {
+                    loaderCalls[0]++;
+                }
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                Map<String, User> found = new HashMap<>();
+                found.put("alice", database.get("alice"));
+                return found;
+            }
+        });
+
+        final User[] results = new User[5];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results[index] = slowCache.get("alice");
+                }
+            });
+        }
+        threads[0].start();
+        loading.await();
+        for (int i = 1; i < threads.length; i++) {
+            threads[i].start();
+        }
+        // Give the other threads time to start waiting on the first lookup
+        while (slowCache.getSharedLookupCount() < threads.length - 1) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loaderCalls[0]);
+        for (User result : results) {
+            assertSame(database.get("alice"), result);
+        }
+    }
+
+    /** TEST5 */
+    @Test
+    public void testEviction() {
+        cache.get("alice");
+        cache.get("bob");
+        cache.get("alice"); // "bob" is now the least recently used
+        cache.get("carol");
+        assertEquals(2, cache.size());
+        assertNull(cache.peek("bob"));
+        assertNotNull(cache.peek("alice"));
+        assertNotNull(cache.peek("carol"));
+    }
+
+    /** TEST6 */
+    @Test
+    public void testInvalidate() {
+        cache.get("alice");
+        cache.get("bob");
+        cache.invalidateById("id1");
+        assertNull(cache.peek("alice"));
+        assertNotNull(cache.peek("bob"));
+
+        failing = true;
+        assertNull(cache.get("alice"));
+        assertNull("A failed lookup is not cached as not found", cache.peek("alice"));
+        assertEquals(1, cache.size());
+
+        failing = false;
+        assertNotNull(cache.get("alice"));
+    }
+
+    /** TEST7 */
+    @Test(timeout = 5000)
+    public void testLoaderThrows() {
+        throwing = true;
+        assertNull(cache.get("alice"));
+        // The lookup that failed is over, so these look the users up again instead of waiting on it
+        assertNull(cache.get("alice"));
+        assertTrue(cache.getAll(Arrays.asList("alice", "bob")).isEmpty());
+        assertEquals(3, cache.getLoadCount());
+        assertNull("A failed lookup is not cached as not found", cache.peek("alice"));
+
+        throwing = false;
+        assertEquals("id1", cache.get("alice").getId());
+    }
+}